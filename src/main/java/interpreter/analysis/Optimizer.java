@@ -0,0 +1,353 @@
+package interpreter.analysis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ast.ArrayLiteral;
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.BooleanLiteral;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.IfStatement;
+import interpreter.ast.IndexAssignmentStatement;
+import interpreter.ast.IndexExpression;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.MapLiteral;
+import interpreter.ast.Node;
+import interpreter.ast.NullLiteral;
+import interpreter.ast.NumberLiteral;
+import interpreter.ast.PrefixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.StringLiteral;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.ResourceQuota;
+import interpreter.util.Evaluator;
+
+/**
+ * Optimizer pass that simplifies a parsed program before it is resolved and evaluated.
+ *
+ * <ul>
+ *   <li>Infix and prefix expressions whose operands are literals are folded into a literal,
+ *       using the same operator implementations as evaluation. Results that evaluation would
+ *       reject (strings longer than the quota allows) or that have no literal form (NaN,
+ *       infinities) are left to be computed at runtime.</li>
+ *   <li>If statements with a literal condition are replaced by the branch that is taken, and
+ *       while loops with a falsy literal condition are removed.</li>
+ *   <li>Statements following a return in the same block are removed.</li>
+ * </ul>
+ *
+ * <p>Operands are dynamically typed, so algebraic identities such as {@code x * 1} or
+ * {@code x + 0} do not hold for every value of {@code x} and are not applied. A statement
+ * that is removed but whose value is the completion value of its block is replaced by
+ * {@code null}, so blocks and programs produce the same result as before.</p>
+ */
+public class Optimizer {
+    private final ResourceQuota resourceQuota;
+    private int removedNodes;
+
+    public Optimizer(ResourceQuota resourceQuota) {
+        this.resourceQuota = resourceQuota;
+    }
+
+    /**
+     * Optimize the given program in place
+     *
+     * @return The number of AST nodes removed from the program
+     */
+    public int optimize(Program program) {
+        int before = countNodes(program);
+        optimizeStatements(program.getStatements());
+        removedNodes = before - countNodes(program);
+        return removedNodes;
+    }
+
+    /**
+     * @return The number of AST nodes removed by the last call to {@link #optimize}
+     */
+    public int getRemovedNodes() {
+        return removedNodes;
+    }
+
+    private void optimizeStatements(List<Node> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Node statement = optimize(statements.get(i));
+
+            if (statement instanceof ReturnStatement) {
+                // Nothing after a return is ever evaluated
+                statements.set(i, statement);
+                statements.subList(i + 1, statements.size()).clear();
+                return;
+            }
+
+            if (statement == null) {
+                if (i == statements.size() - 1) {
+                    // Keep the completion value of the block
+                    Node removed = statements.get(i);
+                    statements.set(i, position(new ExpressionStatement(literal(null, removed)), removed));
+                } else {
+                    statements.remove(i--);
+                }
+            } else {
+                statements.set(i, statement);
+            }
+        }
+    }
+
+    private List<Node> optimizeAll(List<Node> nodes) {
+        List<Node> optimized = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            optimized.add(optimize(node));
+        }
+        return optimized;
+    }
+
+    /**
+     * @return The optimized node, the same node if nothing changed, or null for a statement
+     *         that can be removed
+     */
+    private Node optimize(Node node) {
+        if (node == null) {
+            return null;
+        }
+
+        if (node instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) node;
+            Node left = optimize(infix.getLeft());
+            Node right = optimize(infix.getRight());
+            if (isLiteral(left) && isLiteral(right)) {
+                try {
+                    Object value = infix.getInfixOperator().apply(value(left), value(right), resourceQuota);
+                    if (hasLiteral(value)) {
+                        return literal(value, node);
+                    }
+                } catch (ResourceExhaustionError e) {
+                    // Report the error when the program is evaluated
+                }
+            }
+            if (left == infix.getLeft() && right == infix.getRight()) {
+                return node;
+            }
+            return position(new InfixExpression(left, infix.getInfixOperator(), right), node);
+        } else if (node instanceof PrefixExpression) {
+            PrefixExpression prefix = (PrefixExpression) node;
+            Node right = optimize(prefix.getRight());
+            if (isLiteral(right)) {
+                Object value = prefix.getPrefixOperator().apply(value(right));
+                if (hasLiteral(value)) {
+                    return literal(value, node);
+                }
+            }
+            if (right == prefix.getRight()) {
+                return node;
+            }
+            return position(new PrefixExpression(prefix.getPrefixOperator(), right), node);
+        } else if (node instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) node;
+            Node condition = optimize(ifStatement.getCondition());
+            if (isLiteral(condition)) {
+                // Only one branch can ever be taken
+                return Evaluator.isTruthy(value(condition))
+                        ? optimize(ifStatement.getConsequence())
+                        : optimize(ifStatement.getAlternative());
+            }
+            Node consequence = optimize(ifStatement.getConsequence());
+            Node alternative = optimize(ifStatement.getAlternative());
+            if (condition == ifStatement.getCondition() && consequence == ifStatement.getConsequence()
+                    && alternative == ifStatement.getAlternative()) {
+                return node;
+            }
+            return position(new IfStatement(condition, consequence, alternative), node);
+        } else if (node instanceof WhileStatement) {
+            WhileStatement whileStatement = (WhileStatement) node;
+            Node condition = optimize(whileStatement.getCondition());
+            if (isLiteral(condition) && !Evaluator.isTruthy(value(condition))) {
+                // The body is never evaluated
+                return null;
+            }
+            Node body = optimize(whileStatement.getBody());
+            if (condition == whileStatement.getCondition() && body == whileStatement.getBody()) {
+                return node;
+            }
+            return position(new WhileStatement(condition, body), node);
+        } else if (node instanceof BlockStatement) {
+            optimizeStatements(((BlockStatement) node).getStatements());
+            return node;
+        } else if (node instanceof ExpressionStatement) {
+            ExpressionStatement statement = (ExpressionStatement) node;
+            Node expression = optimize(statement.getExpression());
+            if (expression == statement.getExpression()) {
+                return node;
+            }
+            return position(new ExpressionStatement(expression), node);
+        } else if (node instanceof VariableDeclaration) {
+            VariableDeclaration declaration = (VariableDeclaration) node;
+            Node initializer = optimize(declaration.getInitializer());
+            if (initializer == declaration.getInitializer()) {
+                return node;
+            }
+            return position(new VariableDeclaration(declaration.getName(), initializer), node);
+        } else if (node instanceof AssignmentStatement) {
+            AssignmentStatement assignment = (AssignmentStatement) node;
+            Node value = optimize(assignment.getValue());
+            if (value == assignment.getValue()) {
+                return node;
+            }
+            return position(new AssignmentStatement(assignment.getName(), value), node);
+        } else if (node instanceof ReturnStatement) {
+            ReturnStatement statement = (ReturnStatement) node;
+            Node value = optimize(statement.getValue());
+            if (value == statement.getValue()) {
+                return node;
+            }
+            return position(new ReturnStatement(value), node);
+        } else if (node instanceof FunctionDeclaration) {
+            FunctionDeclaration function = (FunctionDeclaration) node;
+            Node body = optimize(function.getBody());
+            if (body == function.getBody()) {
+                return node;
+            }
+            return position(new FunctionDeclaration(function.getName(), function.getParameters(), body), node);
+        } else if (node instanceof CallExpression) {
+            CallExpression call = (CallExpression) node;
+            return position(new CallExpression(optimize(call.getCallee()), optimizeAll(call.getArguments())), node);
+        } else if (node instanceof IndexExpression) {
+            IndexExpression index = (IndexExpression) node;
+            return position(new IndexExpression(optimize(index.getCollection()), optimize(index.getIndex())), node);
+        } else if (node instanceof IndexAssignmentStatement) {
+            IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+            return position(new IndexAssignmentStatement(
+                    optimize(assignment.getCollection()),
+                    optimize(assignment.getIndex()),
+                    optimize(assignment.getValue())), node);
+        } else if (node instanceof ArrayLiteral) {
+            return position(new ArrayLiteral(optimizeAll(((ArrayLiteral) node).getElements())), node);
+        } else if (node instanceof MapLiteral) {
+            Map<Node, Node> pairs = new LinkedHashMap<>();
+            for (Map.Entry<Node, Node> pair : ((MapLiteral) node).getPairs().entrySet()) {
+                pairs.put(optimize(pair.getKey()), optimize(pair.getValue()));
+            }
+            return position(new MapLiteral(pairs), node);
+        }
+
+        // Literals and identifiers
+        return node;
+    }
+
+    private static boolean isLiteral(Node node) {
+        return node instanceof NumberLiteral || node instanceof StringLiteral
+                || node instanceof BooleanLiteral || node instanceof NullLiteral;
+    }
+
+    private static Object value(Node literal) {
+        if (literal instanceof NumberLiteral) {
+            return ((NumberLiteral) literal).getValue();
+        } else if (literal instanceof StringLiteral) {
+            return ((StringLiteral) literal).getValue();
+        } else if (literal instanceof BooleanLiteral) {
+            return ((BooleanLiteral) literal).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the value can be written as a literal node
+     */
+    private static boolean hasLiteral(Object value) {
+        if (value instanceof Double) {
+            return !((Double) value).isNaN() && !((Double) value).isInfinite();
+        }
+        return value == null || value instanceof String || value instanceof Boolean;
+    }
+
+    /**
+     * @return A literal node for the value, at the position of the node it replaces
+     */
+    private static Node literal(Object value, Node replaced) {
+        Node literal;
+        if (value instanceof Double) {
+            literal = new NumberLiteral((Double) value);
+        } else if (value instanceof String) {
+            literal = new StringLiteral((String) value);
+        } else if (value instanceof Boolean) {
+            literal = new BooleanLiteral((Boolean) value);
+        } else {
+            literal = new NullLiteral();
+        }
+        return position(literal, replaced);
+    }
+
+    private static Node position(Node node, Node replaced) {
+        node.setPosition(replaced.getPosition().getLine(), replaced.getPosition().getColumn());
+        return node;
+    }
+
+    /**
+     * @return The number of nodes in the given subtree
+     */
+    private static int countNodes(Node node) {
+        if (node == null) {
+            return 0;
+        }
+
+        int count = 1;
+        if (node instanceof Program) {
+            count += countAll(((Program) node).getStatements());
+        } else if (node instanceof BlockStatement) {
+            count += countAll(((BlockStatement) node).getStatements());
+        } else if (node instanceof ExpressionStatement) {
+            count += countNodes(((ExpressionStatement) node).getExpression());
+        } else if (node instanceof VariableDeclaration) {
+            count += countNodes(((VariableDeclaration) node).getInitializer());
+        } else if (node instanceof AssignmentStatement) {
+            count += countNodes(((AssignmentStatement) node).getValue());
+        } else if (node instanceof ReturnStatement) {
+            count += countNodes(((ReturnStatement) node).getValue());
+        } else if (node instanceof FunctionDeclaration) {
+            count += countNodes(((FunctionDeclaration) node).getBody());
+        } else if (node instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) node;
+            count += countNodes(ifStatement.getCondition()) + countNodes(ifStatement.getConsequence())
+                    + countNodes(ifStatement.getAlternative());
+        } else if (node instanceof WhileStatement) {
+            WhileStatement whileStatement = (WhileStatement) node;
+            count += countNodes(whileStatement.getCondition()) + countNodes(whileStatement.getBody());
+        } else if (node instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) node;
+            count += countNodes(infix.getLeft()) + countNodes(infix.getRight());
+        } else if (node instanceof PrefixExpression) {
+            count += countNodes(((PrefixExpression) node).getRight());
+        } else if (node instanceof CallExpression) {
+            CallExpression call = (CallExpression) node;
+            count += countNodes(call.getCallee()) + countAll(call.getArguments());
+        } else if (node instanceof IndexExpression) {
+            IndexExpression index = (IndexExpression) node;
+            count += countNodes(index.getCollection()) + countNodes(index.getIndex());
+        } else if (node instanceof IndexAssignmentStatement) {
+            IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+            count += countNodes(assignment.getCollection()) + countNodes(assignment.getIndex())
+                    + countNodes(assignment.getValue());
+        } else if (node instanceof ArrayLiteral) {
+            count += countAll(((ArrayLiteral) node).getElements());
+        } else if (node instanceof MapLiteral) {
+            for (Map.Entry<Node, Node> pair : ((MapLiteral) node).getPairs().entrySet()) {
+                count += countNodes(pair.getKey()) + countNodes(pair.getValue());
+            }
+        }
+        return count;
+    }
+
+    private static int countAll(List<Node> nodes) {
+        int count = 0;
+        for (Node node : nodes) {
+            count += countNodes(node);
+        }
+        return count;
+    }
+}
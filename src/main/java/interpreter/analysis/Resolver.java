@@ -0,0 +1,422 @@
+package interpreter.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import interpreter.ast.ArrayLiteral;
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.Identifier;
+import interpreter.ast.IfStatement;
+import interpreter.ast.IndexAssignmentStatement;
+import interpreter.ast.IndexExpression;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.MapLiteral;
+import interpreter.ast.Node;
+import interpreter.ast.PrefixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+import interpreter.runtime.CaptureDescriptor;
+import interpreter.runtime.FrameDescriptor;
+
+/**
+ * Resolver pass that assigns lexical (depth, slot) addresses to variables.
+ *
+ * <p>Every scope that creates an {@link interpreter.runtime.EvaluationContext} at runtime
+ * (the program, each block and the parameter scope of each function) gets a
+ * {@link FrameDescriptor} listing the names declared directly in it. Every declaration,
+ * parameter and reference is then bound to a slot of the innermost scope that declares the
+ * name. References to names that are not declared anywhere in the program (library
+ * functions, host-defined values) stay unresolved and are looked up by name at runtime.</p>
+ *
+ * <p>A resolved slot that has not been defined yet when it is accessed (e.g. a reference that
+ * precedes the {@code let} in the same block) falls back to a lookup by name in the enclosing
+ * scopes, so resolution does not change the dynamic scoping behavior.</p>
+ *
+ * <p>Blocks that declare nothing themselves get no scope: they are marked as unscoped and
+ * their statements are resolved, and evaluated, in the enclosing scope.</p>
+ *
+ * <p>Calls of names left unresolved record the number of scopes a lookup by name walks to the
+ * root scope, which is known statically, so a call that caches the function it finds can charge
+ * the steps of that lookup without walking the scopes.</p>
+ *
+ * <p>Calls whose value is returned directly from a function body ({@code return f(x);}) are
+ * marked as tail calls, so the engines can run them without nesting another call.</p>
+ *
+ * <p>Functions do not retain the scopes enclosing their declaration. Each variable a function
+ * uses from an enclosing scope other than the program scope is captured: it gets a slot of the
+ * parameter scope, and the function copies its value there when it is created. A captured
+ * variable that is assigned, declared again, or declared only after a function captures it is
+ * stored in a cell, so all functions capturing it share it with its declaring scope. Variables
+ * of the program scope remain reachable through the root scope, which encloses every
+ * invocation.</p>
+ */
+public class Resolver {
+    // The function being resolved, or the program
+    private Function function;
+
+    /**
+     * Resolve all variables of the given program
+     */
+    public void resolve(Program program) {
+        function = new Function(null);
+        Scope scope = enterScope(new ArrayList<>(), program.getStatements());
+        resolveAll(program.getStatements());
+        program.setFrame(exitScope(scope));
+        function = null;
+    }
+
+    /**
+     * Push a new scope holding the given parameters and the declarations found in the given statements
+     */
+    private Scope enterScope(List<String> parameters, List<Node> statements) {
+        Scope scope = new Scope();
+        for (String parameter : parameters) {
+            scope.declare(parameter);
+            scope.defined.add(parameter);
+        }
+        for (Node statement : statements) {
+            if (statement instanceof VariableDeclaration) {
+                scope.declare(((VariableDeclaration) statement).getName());
+            } else if (statement instanceof FunctionDeclaration) {
+                scope.declare(((FunctionDeclaration) statement).getName());
+            }
+        }
+        function.scopes.push(scope);
+        return scope;
+    }
+
+    /**
+     * Pop the current scope once all its variables have been resolved
+     *
+     * @return The slot layout of the scope
+     */
+    private FrameDescriptor exitScope(Scope scope) {
+        function.scopes.pop();
+        return scope.toFrame();
+    }
+
+    /**
+     * @return Whether any of the statements declares a variable or function
+     */
+    private static boolean declaresNames(List<Node> statements) {
+        for (Node statement : statements) {
+            if (statement instanceof VariableDeclaration || statement instanceof FunctionDeclaration) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record the (re)definition of a variable of the current scope, once its value is known
+     *
+     * @return The slot of the variable
+     */
+    private int define(String name) {
+        Scope scope = function.scopes.peek();
+        if (!scope.defined.add(name)) {
+            // A second definition changes the variable
+            scope.mutated.add(name);
+        }
+        Integer slot = scope.slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return The address of the given name, or null if no enclosing scope declares it
+     */
+    private Binding lookup(String name) {
+        return lookup(function, name);
+    }
+
+    /**
+     * Look up a name from the innermost scope of the given function, capturing it if it is
+     * declared outside the function
+     */
+    private Binding lookup(Function function, String name) {
+        Capture capture = function.captures.get(name);
+        int depth = 0;
+        for (Scope scope : function.scopes) {
+            Integer slot = scope.slots.get(name);
+            if (slot != null) {
+                // A captured variable belongs to the scope it was captured from
+                boolean isCapture = capture != null && scope == function.scopes.getLast();
+                return new Binding(depth, slot, isCapture ? capture.origin : scope);
+            }
+            depth++;
+        }
+
+        if (function.enclosing == null) {
+            return null;
+        }
+
+        Binding outer = lookup(function.enclosing, name);
+        if (outer == null) {
+            return null;
+        }
+        if (outer.scope == function.root()) {
+            // The root scope encloses the parameter scope of every invocation
+            return new Binding(depth, outer.slot, outer.scope);
+        }
+
+        // Give the variable a slot of the parameter scope, the outermost scope of the
+        // function, and copy it there on creation
+        Scope parameterScope = function.scopes.getLast();
+        capture = new Capture(outer.depth, outer.slot, parameterScope.declare(name), outer.scope);
+        function.captures.put(name, capture);
+        outer.scope.captured.add(name);
+        if (!outer.scope.defined.contains(name)) {
+            // Defined only after the capture
+            outer.scope.mutated.add(name);
+        }
+        return new Binding(depth - 1, capture.targetSlot, capture.origin);
+    }
+
+    /**
+     * @return The number of scopes from the current scope to the root scope at runtime,
+     *         including both. The parameter scope of a function is enclosed by the root scope.
+     */
+    private int scopeDistance() {
+        return function.enclosing != null ? function.scopes.size() + 1 : function.scopes.size();
+    }
+
+    private void resolveAll(List<Node> nodes) {
+        for (Node node : nodes) {
+            resolve(node);
+        }
+    }
+
+    private void resolve(Node node) {
+        if (node == null) {
+            return;
+        }
+
+        if (node instanceof Identifier) {
+            Identifier identifier = (Identifier) node;
+            Binding binding = lookup(identifier.getName());
+            if (binding != null) {
+                identifier.resolve(binding.depth, binding.slot);
+            }
+        } else if (node instanceof VariableDeclaration) {
+            VariableDeclaration declaration = (VariableDeclaration) node;
+            resolve(declaration.getInitializer());
+            declaration.resolve(define(declaration.getName()));
+        } else if (node instanceof AssignmentStatement) {
+            AssignmentStatement assignment = (AssignmentStatement) node;
+            resolve(assignment.getValue());
+            Binding binding = lookup(assignment.getName());
+            if (binding != null) {
+                assignment.resolve(binding.depth, binding.slot);
+                binding.scope.mutated.add(assignment.getName());
+            }
+        } else if (node instanceof FunctionDeclaration) {
+            resolveFunction((FunctionDeclaration) node);
+        } else if (node instanceof BlockStatement) {
+            BlockStatement block = (BlockStatement) node;
+            if (!declaresNames(block.getStatements())) {
+                // Nothing can be bound in a scope of the block
+                block.setScoped(false);
+                resolveAll(block.getStatements());
+                return;
+            }
+            Scope scope = enterScope(new ArrayList<>(), block.getStatements());
+            resolveAll(block.getStatements());
+            block.setFrame(exitScope(scope));
+        } else if (node instanceof ExpressionStatement) {
+            resolve(((ExpressionStatement) node).getExpression());
+        } else if (node instanceof ReturnStatement) {
+            Node value = ((ReturnStatement) node).getValue();
+            if (function.enclosing != null && value instanceof CallExpression) {
+                ((CallExpression) value).setTailCall(true);
+            }
+            resolve(value);
+        } else if (node instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) node;
+            resolve(ifStatement.getCondition());
+            resolve(ifStatement.getConsequence());
+            resolve(ifStatement.getAlternative());
+        } else if (node instanceof WhileStatement) {
+            WhileStatement whileStatement = (WhileStatement) node;
+            resolve(whileStatement.getCondition());
+            resolve(whileStatement.getBody());
+        } else if (node instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) node;
+            resolve(infix.getLeft());
+            resolve(infix.getRight());
+        } else if (node instanceof PrefixExpression) {
+            resolve(((PrefixExpression) node).getRight());
+        } else if (node instanceof CallExpression) {
+            CallExpression call = (CallExpression) node;
+            resolve(call.getCallee());
+            if (call.getCallee() instanceof Identifier && !((Identifier) call.getCallee()).isResolved()) {
+                // A library function is looked up through every scope up to the root
+                call.setScopeDistance(scopeDistance());
+            }
+            resolveAll(call.getArguments());
+        } else if (node instanceof IndexExpression) {
+            IndexExpression index = (IndexExpression) node;
+            resolve(index.getCollection());
+            resolve(index.getIndex());
+        } else if (node instanceof IndexAssignmentStatement) {
+            IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+            resolve(assignment.getCollection());
+            resolve(assignment.getIndex());
+            resolve(assignment.getValue());
+        } else if (node instanceof ArrayLiteral) {
+            resolveAll(((ArrayLiteral) node).getElements());
+        } else if (node instanceof MapLiteral) {
+            for (Map.Entry<Node, Node> pair : ((MapLiteral) node).getPairs().entrySet()) {
+                resolve(pair.getKey());
+                resolve(pair.getValue());
+            }
+        }
+    }
+
+    private void resolveFunction(FunctionDeclaration declaration) {
+        function = new Function(function);
+
+        // Each invocation binds the parameters in a scope of its own, enclosing the body block
+        List<String> parameters = declaration.getParameters();
+        Scope parameterScope = enterScope(parameters, new ArrayList<>());
+        int[] parameterSlots = new int[parameters.size()];
+        for (int i = 0; i < parameterSlots.length; i++) {
+            parameterSlots[i] = parameterScope.slots.get(parameters.get(i));
+        }
+
+        resolve(declaration.getBody());
+
+        // Captures are only known once the body has been resolved
+        declaration.setParameterFrame(exitScope(parameterScope), parameterSlots);
+        declaration.setCaptures(function.toCaptureDescriptor());
+        function = function.enclosing;
+
+        // The function is defined once it has been created
+        declaration.resolve(define(declaration.getName()));
+    }
+
+    /**
+     * The scopes of a function (or the program) that are being resolved
+     */
+    private static class Function {
+        private final Function enclosing;
+        private final Deque<Scope> scopes = new ArrayDeque<>();
+        // Captured variables, by name, in slot order of the parameter scope
+        private final Map<String, Capture> captures = new LinkedHashMap<>();
+
+        Function(Function enclosing) {
+            this.enclosing = enclosing;
+        }
+
+        /**
+         * @return The program scope, which is held by the root scope at runtime
+         */
+        Scope root() {
+            Function program = this;
+            while (program.enclosing != null) {
+                program = program.enclosing;
+            }
+            return program.scopes.getLast();
+        }
+
+        CaptureDescriptor toCaptureDescriptor() {
+            int[] depths = new int[captures.size()];
+            int[] slots = new int[captures.size()];
+            int[] targetSlots = new int[captures.size()];
+            int i = 0;
+            for (Capture capture : captures.values()) {
+                depths[i] = capture.depth;
+                slots[i] = capture.slot;
+                targetSlots[i] = capture.targetSlot;
+                i++;
+            }
+            return new CaptureDescriptor(depths, slots, targetSlots);
+        }
+    }
+
+    /**
+     * The variables declared directly in a scope, and how they are used
+     */
+    private static class Scope {
+        private final Map<String, Integer> slots = new LinkedHashMap<>();
+        // Variables whose definition has been resolved so far
+        private final Set<String> defined = new HashSet<>();
+        // Variables captured by a function
+        private final Set<String> captured = new HashSet<>();
+        // Variables that may change after they have been captured
+        private final Set<String> mutated = new HashSet<>();
+
+        /**
+         * @return The slot of the given name, allocated if it has none yet
+         */
+        int declare(String name) {
+            if (name == null) {
+                return -1;
+            }
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+
+        FrameDescriptor toFrame() {
+            boolean[] cells = null;
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                String name = entry.getKey();
+                if (captured.contains(name) && mutated.contains(name)) {
+                    if (cells == null) {
+                        cells = new boolean[slots.size()];
+                    }
+                    cells[entry.getValue()] = true;
+                }
+            }
+            return new FrameDescriptor(new ArrayList<>(slots.keySet()), cells);
+        }
+    }
+
+    /**
+     * A variable of an enclosing scope copied to the parameter scope of a function
+     */
+    private static class Capture {
+        private final int depth;
+        private final int slot;
+        private final int targetSlot;
+        private final Scope origin;
+
+        Capture(int depth, int slot, int targetSlot, Scope origin) {
+            this.depth = depth;
+            this.slot = slot;
+            this.targetSlot = targetSlot;
+            this.origin = origin;
+        }
+    }
+
+    /**
+     * The address of a variable relative to the current scope, and the scope declaring it
+     */
+    private static class Binding {
+        private final int depth;
+        private final int slot;
+        private final Scope scope;
+
+        Binding(int depth, int slot, Scope scope) {
+            this.depth = depth;
+            this.slot = slot;
+            this.scope = scope;
+        }
+    }
+}
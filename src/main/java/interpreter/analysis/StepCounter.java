@@ -0,0 +1,117 @@
+package interpreter.analysis;
+
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ast.ArrayLiteral;
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.IfStatement;
+import interpreter.ast.IndexAssignmentStatement;
+import interpreter.ast.IndexExpression;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.MapLiteral;
+import interpreter.ast.Node;
+import interpreter.ast.PrefixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+
+/**
+ * Analysis pass that computes the evaluation steps charged in bulk by amortized step accounting
+ * (see {@link interpreter.runtime.ResourceQuota.StepAccounting#AMORTIZED}).
+ *
+ * <p>The code of a program is split into regions that run without passing a loop back edge or
+ * entering a function: the top-level code, the body of each function, and the condition and
+ * body of each loop. Every node of a region counts as one step, and the steps of the region
+ * are charged when the program starts, the function is entered, or the loop begins another
+ * iteration. Both branches of an if statement are counted, so the charge is an upper bound
+ * of the steps the region can take.</p>
+ *
+ * <p>The pass also counts the nodes of the whole program, which measure its size.</p>
+ */
+public class StepCounter {
+    // Nodes visited so far
+    private int nodes;
+
+    /**
+     * Compute the steps of all regions of the given program
+     */
+    public void count(Program program) {
+        nodes = 1;
+        program.setSteps(1 + countAll(program.getStatements()));
+        program.setNodeCount(nodes);
+    }
+
+    /**
+     * @return The steps of the given node in the region that contains it
+     */
+    private int count(Node node) {
+        if (node == null) {
+            return 0;
+        }
+
+        nodes++;
+        int steps = 1;
+        if (node instanceof FunctionDeclaration) {
+            // The body is a region of its own, entered by each call
+            FunctionDeclaration function = (FunctionDeclaration) node;
+            function.setBodySteps(count(function.getBody()));
+        } else if (node instanceof WhileStatement) {
+            // Each iteration evaluates the condition and the body; the region containing the
+            // loop pays for the evaluation of the condition that ends it
+            WhileStatement whileStatement = (WhileStatement) node;
+            int condition = count(whileStatement.getCondition());
+            whileStatement.setIterationSteps(1 + condition + count(whileStatement.getBody()));
+            steps += condition;
+        } else if (node instanceof BlockStatement) {
+            steps += countAll(((BlockStatement) node).getStatements());
+        } else if (node instanceof ExpressionStatement) {
+            steps += count(((ExpressionStatement) node).getExpression());
+        } else if (node instanceof VariableDeclaration) {
+            steps += count(((VariableDeclaration) node).getInitializer());
+        } else if (node instanceof AssignmentStatement) {
+            steps += count(((AssignmentStatement) node).getValue());
+        } else if (node instanceof ReturnStatement) {
+            steps += count(((ReturnStatement) node).getValue());
+        } else if (node instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) node;
+            steps += count(ifStatement.getCondition()) + count(ifStatement.getConsequence())
+                    + count(ifStatement.getAlternative());
+        } else if (node instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) node;
+            steps += count(infix.getLeft()) + count(infix.getRight());
+        } else if (node instanceof PrefixExpression) {
+            steps += count(((PrefixExpression) node).getRight());
+        } else if (node instanceof CallExpression) {
+            CallExpression call = (CallExpression) node;
+            steps += count(call.getCallee()) + countAll(call.getArguments());
+        } else if (node instanceof IndexExpression) {
+            IndexExpression index = (IndexExpression) node;
+            steps += count(index.getCollection()) + count(index.getIndex());
+        } else if (node instanceof IndexAssignmentStatement) {
+            IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+            steps += count(assignment.getCollection()) + count(assignment.getIndex())
+                    + count(assignment.getValue());
+        } else if (node instanceof ArrayLiteral) {
+            steps += countAll(((ArrayLiteral) node).getElements());
+        } else if (node instanceof MapLiteral) {
+            for (Map.Entry<Node, Node> pair : ((MapLiteral) node).getPairs().entrySet()) {
+                steps += count(pair.getKey()) + count(pair.getValue());
+            }
+        }
+        return steps;
+    }
+
+    private int countAll(List<Node> nodes) {
+        int steps = 0;
+        for (Node node : nodes) {
+            steps += count(node);
+        }
+        return steps;
+    }
+}
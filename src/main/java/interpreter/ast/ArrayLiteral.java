@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import interpreter.runtime.AllocationMeter;
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
 
@@ -27,6 +28,8 @@ public class ArrayLiteral extends Node {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
         
+        context.trackAllocation(AllocationMeter.arrayBytes(elements.size()), position);
+        
         // Evaluate each element in the array
         List<Object> arrayValues = new ArrayList<>();
         for (Node element : elements) {
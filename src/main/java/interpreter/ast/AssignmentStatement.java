@@ -10,6 +10,10 @@ public class AssignmentStatement extends Node {
     private final String name;
     private final Node value;
     
+    // Lexical address assigned by the resolver (-1 if the name is looked up dynamically)
+    private int depth = -1;
+    private int slot = -1;
+    
     public AssignmentStatement(String name, Node value) {
         super();
         this.name = name;
@@ -24,9 +28,35 @@ public class AssignmentStatement extends Node {
         return value;
     }
     
+    /**
+     * Bind the assigned variable to a slot of an enclosing scope
+     * 
+     * @param depth Number of scopes between the assignment and the declaring scope
+     * @param slot Slot of the variable in the declaring scope
+     */
+    public void resolve(int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+    
+    public boolean isResolved() {
+        return slot >= 0;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getSlot() {
+        return slot;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         Object valueResult = value.evaluate(context);
+        if (slot >= 0) {
+            return context.assignSlot(depth, slot, name, valueResult, position);
+        }
         return context.assign(name, valueResult, position);
     }
     
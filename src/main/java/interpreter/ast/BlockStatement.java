@@ -4,16 +4,27 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import interpreter.runtime.Completion;
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ReturnValue;
+import interpreter.runtime.FrameDescriptor;
 import interpreter.runtime.RuntimeError;
 
 /**
  * BlockStatement - a block of statements with its own scope
+ * 
+ * <p>A block that declares no variables or functions itself can never bind a name in its
+ * scope. The resolver marks such blocks as unscoped, and they are evaluated directly in the
+ * enclosing scope, so e.g. loop bodies that only assign do not create a scope per iteration.</p>
  */
 public class BlockStatement extends Node {
     private final List<Node> statements;
     
+    // Slot layout of this block's scope, assigned by the resolver
+    private FrameDescriptor frame;
+    
+    // Whether the block needs a scope of its own, cleared by the resolver
+    private boolean scoped = true;
+    
     public BlockStatement() {
         super();
         this.statements = new ArrayList<>();
@@ -34,20 +45,51 @@ public class BlockStatement extends Node {
         return statements;
     }
     
+    public FrameDescriptor getFrame() {
+        return frame;
+    }
+    
+    public void setFrame(FrameDescriptor frame) {
+        this.frame = frame;
+    }
+    
+    public boolean isScoped() {
+        return scoped;
+    }
+    
+    /**
+     * @param scoped Whether the block is evaluated in a scope of its own, or in the enclosing scope
+     */
+    public void setScoped(boolean scoped) {
+        this.scoped = scoped;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
         
+        if (!scoped) {
+            return evaluateStatements(context);
+        }
+        
         // Create a new scope for this block
-        EvaluationContext blockContext = context.extend();
+        EvaluationContext blockContext = frame != null ? context.extend(frame) : context.extend();
+        try {
+            return evaluateStatements(blockContext);
+        } finally {
+            blockContext.exit();
+        }
+    }
+    
+    private Object evaluateStatements(EvaluationContext context) throws RuntimeError {
         Object result = null;
         
         for (Node statement : statements) {
-            result = statement.evaluate(blockContext);
+            result = statement.evaluate(context);
             
             // Early return from blocks if we hit a return statement
-            if (result instanceof ReturnValue) {
+            if (result == Completion.RETURN) {
                 return result;
             }
         }
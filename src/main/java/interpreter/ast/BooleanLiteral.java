@@ -23,6 +23,11 @@ public class BooleanLiteral extends Node {
         return value;
     }
     
+    @Override
+    public boolean evaluateBoolean(EvaluationContext context) {
+        return value;
+    }
+    
     @Override
     public String toJson() {
         return String.format(
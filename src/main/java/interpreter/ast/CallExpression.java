@@ -7,14 +7,53 @@ import java.util.stream.Collectors;
 import interpreter.runtime.CallableFunction;
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.runtime.TailCall;
+import interpreter.util.Evaluator;
 
 /**
  * CallExpression - a function call expression
+ * 
+ * <p>The node specializes itself on the callee seen by its first evaluation: when it is a
+ * function, later calls invoke it directly behind a single type check instead of going
+ * through the null and type checks of {@link Evaluator#callFunction}. When the check fails
+ * the node falls back to the generic call for good.</p>
+ * 
+ * <p>A callee that is a library function (an identifier left unresolved by the resolver) is
+ * looked up by name through every enclosing scope. The node keeps a monomorphic inline cache
+ * of the function found, guarded by the id of the root scope and its binding version, so
+ * repeated calls skip the lookup until a function is registered or a name is bound
+ * dynamically. A hit charges the steps of the lookup it skips at once, one per scope between
+ * the call and the root, as counted by the resolver, so step usage does not depend on whether
+ * the cache is warm. The cache keeps no reference to the scopes of a run, so a shared AST does
+ * not retain them. Resolved callees are read from their slot, which is as cheap as checking a
+ * guard.</p>
+ * 
+ * <p>A call marked as a tail call by the resolver does not call a script function itself:
+ * {@link #evaluateTailCall} returns a {@link TailCall} that the calling {@link ScriptFunction}
+ * makes once its body has returned, reusing its Java frame and its scope depth.</p>
  */
 public class CallExpression extends Node {
+    /**
+     * State of the type specialization of a call expression
+     */
+    public enum Specialization {
+        /** Not evaluated yet */
+        UNINITIALIZED,
+        /** The callee is a function */
+        FUNCTION,
+        /** Any callee, called by the generic implementation */
+        GENERIC
+    }
+    
     private final Node callee;
     private final List<Node> arguments;
     
+    private Specialization specialization = Specialization.UNINITIALIZED;
+    private InlineCache cache;
+    private boolean tailCall;
+    // Number of scopes from the call to the root scope, -1 if not resolved
+    private int scopeDistance = -1;
+    
     public CallExpression(Node callee, List<Node> arguments) {
         super();
         this.callee = callee;
@@ -29,6 +68,29 @@ public class CallExpression extends Node {
         return arguments;
     }
     
+    /**
+     * Mark this call as the value returned by a function body
+     */
+    public void setTailCall(boolean tailCall) {
+        this.tailCall = tailCall;
+    }
+    
+    public boolean isTailCall() {
+        return tailCall;
+    }
+    
+    /**
+     * Set the number of scopes a lookup by name walks from this call to the root scope,
+     * including both. Calls without a scope distance do not cache the callee.
+     */
+    public void setScopeDistance(int scopeDistance) {
+        this.scopeDistance = scopeDistance;
+    }
+    
+    public int getScopeDistance() {
+        return scopeDistance;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step to prevent CPU exhaustion and recursion depth
@@ -39,51 +101,166 @@ public class CallExpression extends Node {
         
         try {
             // Evaluate the function (callee)
-            Object function = callee.evaluate(context);
-            
-            if (function == null) {
-                throw new RuntimeError(
-                        "Cannot call null as a function",
-                        position.getLine(),
-                        position.getColumn()
-                );
-            }
-            
-            // Evaluate the arguments
-            List<Object> args = new ArrayList<>();
-            for (Node arg : arguments) {
-                args.add(arg.evaluate(context));
+            return call(evaluateCallee(context), context);
+        } finally {
+            // Always decrement the evaluation depth when exiting the function
+            context.exitEvaluationDepth();
+        }
+    }
+    
+    /**
+     * Evaluate this call as the value returned by a function body. A call of a script function
+     * marked as a tail call is not made, but returned to the calling function.
+     * 
+     * @return A {@link TailCall} or the result of the call
+     */
+    public Object evaluateTailCall(EvaluationContext context) throws RuntimeError {
+        if (!tailCall) {
+            return evaluate(context);
+        }
+        
+        trackEvaluationStep(context);
+        Object function = evaluateCallee(context);
+        
+        if (function instanceof ScriptFunction) {
+            if (specialization == Specialization.UNINITIALIZED) {
+                specialization = Specialization.FUNCTION;
             }
             
-            // Call the function
-            if (function instanceof CallableFunction) {
-                try {
-                    Object result = ((CallableFunction) function).apply(args);
-                    return result;
-                } catch (RuntimeException e) {
-                    // Unwrap RuntimeException if it was originally a RuntimeError
-                    if (e.getCause() instanceof RuntimeError) {
-                        throw (RuntimeError) e.getCause();
-                    }
-                    throw new RuntimeError(
-                            "Error in function call: " + e.getMessage(),
-                            position.getLine(),
-                            position.getColumn()
-                    );
-                }
-            } else {
+            ScriptFunction scriptFunction = (ScriptFunction) function;
+            Object[] args = evaluateArgumentArray(context);
+            try {
+                scriptFunction.checkArity(args.length);
+            } catch (RuntimeException e) {
                 throw new RuntimeError(
-                        "Not a function: " + function,
+                        "Error in function call: " + e.getMessage(),
                         position.getLine(),
                         position.getColumn()
                 );
             }
+            return new TailCall(scriptFunction, args);
+        }
+        
+        // Any other callee is called as usual
+        context.trackEvaluationDepth(position);
+        try {
+            return call(function, context);
         } finally {
-            // Always decrement the evaluation depth when exiting the function
             context.exitEvaluationDepth();
         }
     }
     
+    private Object call(Object function, EvaluationContext context) throws RuntimeError {
+        if (specialization == Specialization.FUNCTION) {
+            if (function instanceof ScriptFunction) {
+                // Errors of script functions propagate without being wrapped and unwrapped
+                return ((ScriptFunction) function).call(evaluateArgumentArray(context), position);
+            }
+            if (function instanceof CallableFunction) {
+                return callDirect((CallableFunction) function, evaluateArguments(context));
+            }
+            // The type check failed, deoptimize to the generic call
+            specialization = Specialization.GENERIC;
+        } else if (specialization == Specialization.UNINITIALIZED) {
+            specialization = function instanceof CallableFunction
+                    ? Specialization.FUNCTION : Specialization.GENERIC;
+        }
+        
+        if (function == null) {
+            throw new RuntimeError(
+                    "Cannot call null as a function",
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        
+        // Call the function
+        return Evaluator.callFunction(function, evaluateArguments(context), position);
+    }
+    
+    /**
+     * @return The current type specialization of this node
+     */
+    public Specialization getSpecialization() {
+        return specialization;
+    }
+    
+    /**
+     * @return The library function cached by this call site, or null if there is none
+     */
+    public CallableFunction getCachedFunction() {
+        return cache != null ? cache.function : null;
+    }
+    
+    private Object evaluateCallee(EvaluationContext context) throws RuntimeError {
+        if (!(callee instanceof Identifier) || ((Identifier) callee).isResolved()) {
+            return callee.evaluate(context);
+        }
+        
+        InlineCache cached = cache;
+        if (cached != null && cached.rootId == context.getRootId() && cached.version == context.getBindingVersion()) {
+            // Charge the steps of the lookup that is skipped, one per scope it walks
+            context.trackEvaluationSteps(scopeDistance, callee.getPosition());
+            return cached.function;
+        }
+        
+        Object function = callee.evaluate(context);
+        String name = ((Identifier) callee).getName();
+        if (scopeDistance > 0 && function instanceof CallableFunction && context.isLibraryName(name)) {
+            cache = new InlineCache(context.getRootId(), context.getBindingVersion(), (CallableFunction) function);
+        } else {
+            cache = null;
+        }
+        return function;
+    }
+    
+    private List<Object> evaluateArguments(EvaluationContext context) throws RuntimeError {
+        List<Object> args = new ArrayList<>(arguments.size());
+        for (Node arg : arguments) {
+            args.add(arg.evaluate(context));
+        }
+        return args;
+    }
+    
+    private Object[] evaluateArgumentArray(EvaluationContext context) throws RuntimeError {
+        Object[] args = new Object[arguments.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = arguments.get(i).evaluate(context);
+        }
+        return args;
+    }
+    
+    private Object callDirect(CallableFunction function, List<Object> args) throws RuntimeError {
+        try {
+            return function.apply(args);
+        } catch (RuntimeException e) {
+            // Same unwrapping as the generic call
+            if (e.getCause() instanceof RuntimeError) {
+                throw (RuntimeError) e.getCause();
+            }
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+    
+    /**
+     * A library function found by name, valid while the root scope and its binding version match
+     */
+    private static final class InlineCache {
+        private final long rootId;
+        private final int version;
+        private final CallableFunction function;
+        
+        private InlineCache(long rootId, int version, CallableFunction function) {
+            this.rootId = rootId;
+            this.version = version;
+            this.function = function;
+        }
+    }
+    
     @Override
     public String toJson() {
         String argumentsJson = arguments.stream()
@@ -5,8 +5,9 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import interpreter.runtime.CallableFunction;
+import interpreter.runtime.CaptureDescriptor;
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ReturnValue;
+import interpreter.runtime.FrameDescriptor;
 import interpreter.runtime.RuntimeError;
 
 /**
@@ -17,6 +18,16 @@ public class FunctionDeclaration extends Node {
     private final List<String> parameters;
     private final Node body;
     
+    // Resolver results: slot of the function name in the declaring scope,
+    // the slot layout of the parameter scope and the variables captured from enclosing scopes
+    private int slot = -1;
+    private FrameDescriptor parameterFrame;
+    private int[] parameterSlots;
+    private CaptureDescriptor captures;
+    
+    // Steps of the body, charged at once on each call by amortized step accounting
+    private int bodySteps = 1;
+    
     public FunctionDeclaration(String name, List<String> parameters, Node body) {
         super();
         this.name = name;
@@ -36,45 +47,76 @@ public class FunctionDeclaration extends Node {
         return body;
     }
     
+    /**
+     * Bind the function name to a slot of the declaring scope
+     */
+    public void resolve(int slot) {
+        this.slot = slot;
+    }
+    
+    public int getSlot() {
+        return slot;
+    }
+    
+    /**
+     * Set the slot layout of the scope that holds the parameters of each invocation
+     * 
+     * @param parameterFrame The layout of the parameter scope
+     * @param parameterSlots The slot of each parameter, in declaration order
+     */
+    public void setParameterFrame(FrameDescriptor parameterFrame, int[] parameterSlots) {
+        this.parameterFrame = parameterFrame;
+        this.parameterSlots = parameterSlots;
+    }
+    
+    public FrameDescriptor getParameterFrame() {
+        return parameterFrame;
+    }
+    
+    public int[] getParameterSlots() {
+        return parameterSlots;
+    }
+    
+    /**
+     * Set the variables the function captures from the scopes enclosing its declaration
+     */
+    public void setCaptures(CaptureDescriptor captures) {
+        this.captures = captures;
+    }
+    
+    /**
+     * @return The captured variables, or null if the function was not resolved and
+     *         retains the whole declaring scope
+     */
+    public CaptureDescriptor getCaptures() {
+        return captures;
+    }
+    
+    public int getBodySteps() {
+        return bodySteps;
+    }
+    
+    /**
+     * @param bodySteps The steps of the body, without loop iterations and nested function bodies
+     */
+    public void setBodySteps(int bodySteps) {
+        this.bodySteps = bodySteps;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step
         trackEvaluationStep(context);
         
-        // Create a function wrapper that will execute the function body
-        CallableFunction function = (List<Object> args) -> {
-            try {
-            	if (args.size() != parameters.size()) {
-            		throw new RuntimeException("Function " + name + parameters + " called with " + args.size() + " arguments"); //FIXME
-            	}
-            	
-                // Create a new environment with the parent as the current environment
-                EvaluationContext functionContext = context.extend();
-                
-                // Bind arguments to parameters
-                for (int i = 0; i < parameters.size(); i++) {
-                    String param = parameters.get(i);
-                    Object arg = i < args.size() ? args.get(i) : null;
-                    
-                    functionContext.define(param, arg);
-                }
-                
-                // Execute the function body
-                Object result = body.evaluate(functionContext);
-                
-                // Unwrap ReturnValue if present
-                if (result instanceof ReturnValue) {
-                    return ((ReturnValue) result).getValue();
-                }
-                
-                return result;
-            } catch (RuntimeError e) {
-                // Preserve the original RuntimeError as the cause to allow for proper unwrapping
-                throw new RuntimeException("Error in function '" + name + "': " + e.getMessage(), e);
-            }
-        };
+        // Create a function that keeps only the variables it uses, or the whole scope if they are unknown
+        CallableFunction function = captures != null
+                ? new ScriptFunction(this, context.getRoot(), context.capture(captures))
+                : new ScriptFunction(this, context, null);
         
         // Define the function in the environment
+        if (slot >= 0) {
+            return context.defineSlot(slot, name, function);
+        }
         return context.define(name, function);
     }
     
@@ -1,6 +1,7 @@
 package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceExhaustionError;
 import interpreter.runtime.RuntimeError;
 
 /**
@@ -9,6 +10,10 @@ import interpreter.runtime.RuntimeError;
 public class Identifier extends Node {
     private final String name;
     
+    // Lexical address assigned by the resolver (-1 if the name is looked up dynamically)
+    private int depth = -1;
+    private int slot = -1;
+    
     public Identifier(String name) {
         super();
         this.name = name;
@@ -18,10 +23,38 @@ public class Identifier extends Node {
         return name;
     }
     
+    /**
+     * Bind this reference to a slot of an enclosing scope
+     * 
+     * @param depth Number of scopes between the reference and the declaring scope
+     * @param slot Slot of the variable in the declaring scope
+     */
+    public void resolve(int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+    
+    public boolean isResolved() {
+        return slot >= 0;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getSlot() {
+        return slot;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         try {
+            if (slot >= 0) {
+                return context.getSlot(depth, slot, name, position);
+            }
             return context.get(name, position);
+        } catch (ResourceExhaustionError e) {
+            throw e;
         } catch (RuntimeError e) {
             throw new RuntimeError(
                     "Undefined variable '" + name + "'",
@@ -2,7 +2,6 @@ package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
-import interpreter.util.Evaluator;
 
 /**
  * IfStatement - a conditional statement
@@ -36,9 +35,7 @@ public class IfStatement extends Node {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
         
-        Object conditionResult = condition.evaluate(context);
-        
-        if (Evaluator.isTruthy(conditionResult)) {
+        if (condition.evaluateBoolean(context)) {
             return consequence.evaluate(context);
         } else if (alternative != null) {
             return alternative.evaluate(context);
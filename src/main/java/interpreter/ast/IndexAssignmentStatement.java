@@ -1,10 +1,8 @@
 package interpreter.ast;
 
-import java.util.List;
-import java.util.Map;
-
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.util.Evaluator;
 
 /**
  * IndexAssignmentStatement - represents an assignment to an array element or map entry like array[index] = value or map[key] = value
@@ -33,8 +31,7 @@ public class IndexAssignmentStatement extends Node {
         return value;
     }
     
-    @SuppressWarnings("unchecked")
-	@Override
+    @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
@@ -43,57 +40,7 @@ public class IndexAssignmentStatement extends Node {
         Object indexValue = index.evaluate(context);
         Object valueToAssign = value.evaluate(context);
         
-        // Handle array assignment
-        if (collectionObject instanceof List) {
-            return assignToArray((List<Object>) collectionObject, indexValue, valueToAssign);
-        }
-        
-        // Handle map assignment
-        if (collectionObject instanceof Map) {
-            return assignToMap((Map<Object, Object>) collectionObject, indexValue, valueToAssign);
-        }
-        
-        throw new RuntimeError(
-            "Cannot use index operator on non-collection value",
-            position.getLine(),
-            position.getColumn()
-        );
-    }
-    
-    private Object assignToArray(List<Object> array, Object indexValue, Object valueToAssign) throws RuntimeError {
-        if (!(indexValue instanceof Number)) {
-            throw new RuntimeError(
-                "Array index must be a number",
-                position.getLine(),
-                position.getColumn()
-            );
-        }
-        
-        int idx = ((Number) indexValue).intValue();
-        
-        if (idx < 0 || idx >= array.size()) {
-            throw new RuntimeError(
-                "Array index out of bounds: " + idx,
-                position.getLine(),
-                position.getColumn()
-            );
-        }
-        
-        array.set(idx, valueToAssign);
-        return valueToAssign;
-    }
-    
-    private Object assignToMap(Map<Object, Object> map, Object key, Object valueToAssign) throws RuntimeError {
-        if (!(key instanceof String || key instanceof Number)) {
-            throw new RuntimeError(
-                "Map key must be a string or number",
-                position.getLine(),
-                position.getColumn()
-            );
-        }
-        
-        map.put(key, valueToAssign);
-        return valueToAssign;
+        return Evaluator.setIndex(collectionObject, indexValue, valueToAssign, position);
     }
     
     @Override
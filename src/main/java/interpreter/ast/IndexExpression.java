@@ -5,14 +5,35 @@ import java.util.Map;
 
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.util.Evaluator;
 
 /**
  * IndexExpression - represents an array or map access expression like array[index] or map[key]
+ * 
+ * <p>The node specializes itself on the collection type seen by its first evaluation, so that
+ * array elements and map entries are read directly behind a cheap type check. When the check
+ * fails the node falls back to the generic {@link Evaluator#getIndex} for good.</p>
  */
 public class IndexExpression extends Node {
+    /**
+     * State of the type specialization of an index expression
+     */
+    public enum Specialization {
+        /** Not evaluated yet */
+        UNINITIALIZED,
+        /** An array indexed with a number */
+        ARRAY,
+        /** A map indexed with a string */
+        MAP,
+        /** Any collection and index, evaluated by the generic implementation */
+        GENERIC
+    }
+    
     private final Node collection;
     private final Node index;
     
+    private Specialization specialization = Specialization.UNINITIALIZED;
+    
     public IndexExpression(Node collection, Node index) {
         super();
         this.collection = collection;
@@ -27,8 +48,7 @@ public class IndexExpression extends Node {
         return index;
     }
     
-    @SuppressWarnings("unchecked")
-	@Override
+    @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
@@ -39,61 +59,50 @@ public class IndexExpression extends Node {
         // Evaluate the index expression
         Object indexValue = index.evaluate(context);
         
-        // Handle array indexing
-        if (collectionObject instanceof List) {
-            return evaluateArrayIndex((List<Object>) collectionObject, indexValue);
+        switch (specialization) {
+            case ARRAY:
+                if (collectionObject instanceof List && indexValue instanceof Double) {
+                    List<?> array = (List<?>) collectionObject;
+                    int idx = ((Double) indexValue).intValue();
+                    if (idx >= 0 && idx < array.size()) {
+                        return array.get(idx);
+                    }
+                    // Let the generic implementation report the bounds error
+                    return Evaluator.getIndex(collectionObject, indexValue, position);
+                }
+                break;
+            case MAP:
+                if (collectionObject instanceof Map && indexValue instanceof String) {
+                    return ((Map<?, ?>) collectionObject).get(indexValue);
+                }
+                break;
+            case UNINITIALIZED:
+                specialization = specialize(collectionObject, indexValue);
+                return Evaluator.getIndex(collectionObject, indexValue, position);
+            default:
+                return Evaluator.getIndex(collectionObject, indexValue, position);
         }
         
-        // Handle map indexing
-        if (collectionObject instanceof Map) {
-            return evaluateMapIndex((Map<Object, Object>) collectionObject, indexValue);
-        }
-        
-        throw new RuntimeError(
-            "Cannot use index operator on non-collection value, got: " + 
-            (collectionObject == null ? "null" : collectionObject.getClass().getName()),
-            position.getLine(),
-            position.getColumn()
-        );
+        // The type check failed, deoptimize to the generic implementation
+        specialization = Specialization.GENERIC;
+        return Evaluator.getIndex(collectionObject, indexValue, position);
     }
     
-    private Object evaluateArrayIndex(List<Object> array, Object indexValue) throws RuntimeError {
-        if (!(indexValue instanceof Number)) {
-            throw new RuntimeError(
-                "Array index must be a number, got: " + (indexValue == null ? "null" : indexValue.getClass().getName()),
-                position.getLine(),
-                position.getColumn()
-            );
-        }
-        
-        int idx = ((Number) indexValue).intValue();
-        
-        if (idx < 0 || idx >= array.size()) {
-            throw new RuntimeError(
-                "Array index out of bounds: " + idx + ", array size: " + array.size(),
-                position.getLine(),
-                position.getColumn()
-            );
-        }
-        
-        // Get the element at the specified index
-        return array.get(idx);
+    /**
+     * @return The current type specialization of this node
+     */
+    public Specialization getSpecialization() {
+        return specialization;
     }
     
-    private Object evaluateMapIndex(Map<Object, Object> map, Object key) throws RuntimeError {
-        if (!(key instanceof String || key instanceof Number)) {
-            throw new RuntimeError(
-                "Map key must be a string or number, got: " + (key == null ? "null" : key.getClass().getName()),
-                position.getLine(),
-                position.getColumn()
-            );
+    private static Specialization specialize(Object collectionObject, Object indexValue) {
+        if (collectionObject instanceof List && indexValue instanceof Double) {
+            return Specialization.ARRAY;
         }
-        
-        if (!map.containsKey(key)) {
-            return null; // Return null for non-existent keys
+        if (collectionObject instanceof Map && indexValue instanceof String) {
+            return Specialization.MAP;
         }
-        
-        return map.get(key);
+        return Specialization.GENERIC;
     }
     
     @Override
@@ -2,17 +2,43 @@ package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.runtime.UnexpectedResultException;
 import interpreter.util.Evaluator;
+import interpreter.util.InfixOperator;
 
 /**
  * InfixExpression - an expression with an infix operator (e.g., a + b, a < b)
+ * 
+ * <p>The node specializes itself on the operand types seen by its first evaluation: two numbers
+ * or, for +, two strings are then handled directly behind a cheap type check. When the check
+ * fails the node falls back to the generic {@link InfixOperator#apply} for good.</p>
+ * 
+ * <p>Specialized number operations read their operands through {@link #evaluateDouble} and
+ * produce primitive results for typed parents, so arithmetic and comparisons in loops and
+ * conditions do not box intermediate values.</p>
  */
 public class InfixExpression extends Node {
+    /**
+     * State of the type specialization of an infix expression
+     */
+    public enum Specialization {
+        /** Not evaluated yet */
+        UNINITIALIZED,
+        /** Both operands are doubles and the operator is arithmetic or a comparison */
+        NUMBERS,
+        /** Both operands are strings and the operator is + */
+        STRINGS,
+        /** Any operands, evaluated by the generic operator implementation */
+        GENERIC
+    }
+    
     private final Node left;
-    private final String operator;
+    private final InfixOperator operator;
     private final Node right;
     
-    public InfixExpression(Node left, String operator, Node right) {
+    private Specialization specialization = Specialization.UNINITIALIZED;
+    
+    public InfixExpression(Node left, InfixOperator operator, Node right) {
         super();
         this.left = left;
         this.operator = operator;
@@ -23,7 +49,14 @@ public class InfixExpression extends Node {
         return left;
     }
     
+    /**
+     * @return The source symbol of the operator
+     */
     public String getOperator() {
+        return operator.getSymbol();
+    }
+    
+    public InfixOperator getInfixOperator() {
         return operator;
     }
     
@@ -36,10 +69,158 @@ public class InfixExpression extends Node {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
         
+        if (specialization == Specialization.NUMBERS) {
+            return evaluateNumbers(context);
+        }
+        
         Object leftValue = left.evaluate(context);
         Object rightValue = right.evaluate(context);
         
-        return Evaluator.applyInfixOperator(leftValue, operator, rightValue, context.getResourceQuota());
+        switch (specialization) {
+            case STRINGS:
+                if (leftValue instanceof String && rightValue instanceof String) {
+                    return Evaluator.concatenate((String) leftValue, (String) rightValue, context.getResourceQuota());
+                }
+                // The type check failed, deoptimize to the generic operator
+                return deoptimize(leftValue, rightValue, context);
+            case UNINITIALIZED:
+                specialization = specialize(leftValue, rightValue);
+                return evaluateGeneric(leftValue, rightValue, context);
+            default:
+                return evaluateGeneric(leftValue, rightValue, context);
+        }
+    }
+    
+    @Override
+    public double evaluateDouble(EvaluationContext context) throws RuntimeError, UnexpectedResultException {
+        if (specialization != Specialization.NUMBERS || !operator.isArithmetic()) {
+            return super.evaluateDouble(context);
+        }
+        
+        trackEvaluationStep(context);
+        
+        double leftVal;
+        try {
+            leftVal = left.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return expectDouble(deoptimize(e.getResult(), right.evaluate(context), context));
+        }
+        double rightVal;
+        try {
+            rightVal = right.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return expectDouble(deoptimize(leftVal, e.getResult(), context));
+        }
+        return arithmetic(leftVal, rightVal);
+    }
+    
+    @Override
+    public boolean evaluateBoolean(EvaluationContext context) throws RuntimeError {
+        if (operator == InfixOperator.AND || operator == InfixOperator.OR) {
+            trackEvaluationStep(context);
+            
+            // Both operands are always evaluated
+            boolean leftVal = left.evaluateBoolean(context);
+            boolean rightVal = right.evaluateBoolean(context);
+            return operator == InfixOperator.AND ? leftVal && rightVal : leftVal || rightVal;
+        }
+        
+        if (specialization != Specialization.NUMBERS || !operator.isComparison()) {
+            return super.evaluateBoolean(context);
+        }
+        
+        trackEvaluationStep(context);
+        
+        double leftVal;
+        try {
+            leftVal = left.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return Evaluator.isTruthy(deoptimize(e.getResult(), right.evaluate(context), context));
+        }
+        double rightVal;
+        try {
+            rightVal = right.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return Evaluator.isTruthy(deoptimize(leftVal, e.getResult(), context));
+        }
+        return compare(leftVal, rightVal);
+    }
+    
+    /**
+     * @return The current type specialization of this node
+     */
+    public Specialization getSpecialization() {
+        return specialization;
+    }
+    
+    private Specialization specialize(Object leftValue, Object rightValue) {
+        if ((operator.isArithmetic() || operator.isComparison()) && leftValue instanceof Double && rightValue instanceof Double) {
+            return Specialization.NUMBERS;
+        }
+        if (operator == InfixOperator.ADD && leftValue instanceof String && rightValue instanceof String) {
+            return Specialization.STRINGS;
+        }
+        return Specialization.GENERIC;
+    }
+    
+    private Object evaluateGeneric(Object leftValue, Object rightValue, EvaluationContext context) throws RuntimeError {
+        return operator.apply(leftValue, rightValue, context.getResourceQuota());
+    }
+    
+    /**
+     * An operand was not a number: fall back to the generic operator for good
+     */
+    private Object deoptimize(Object leftValue, Object rightValue, EvaluationContext context) throws RuntimeError {
+        specialization = Specialization.GENERIC;
+        return evaluateGeneric(leftValue, rightValue, context);
+    }
+    
+    private static double expectDouble(Object result) throws UnexpectedResultException {
+        if (result instanceof Double) {
+            return (Double) result;
+        }
+        throw new UnexpectedResultException(result);
+    }
+    
+    private Object evaluateNumbers(EvaluationContext context) throws RuntimeError {
+        double leftVal;
+        try {
+            leftVal = left.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return deoptimize(e.getResult(), right.evaluate(context), context);
+        }
+        double rightVal;
+        try {
+            rightVal = right.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            return deoptimize(leftVal, e.getResult(), context);
+        }
+        
+        if (operator.isArithmetic()) {
+            return arithmetic(leftVal, rightVal);
+        }
+        return compare(leftVal, rightVal);
+    }
+    
+    private double arithmetic(double leftVal, double rightVal) {
+        switch (operator) {
+            case ADD: return leftVal + rightVal;
+            case SUBTRACT: return leftVal - rightVal;
+            case MULTIPLY: return leftVal * rightVal;
+            case DIVIDE: return leftVal / rightVal;
+            default: return leftVal % rightVal;
+        }
+    }
+    
+    private boolean compare(double leftVal, double rightVal) {
+        switch (operator) {
+            case LESS: return leftVal < rightVal;
+            case GREATER: return leftVal > rightVal;
+            case LESS_EQUAL: return leftVal <= rightVal;
+            case GREATER_EQUAL: return leftVal >= rightVal;
+            case EQUAL: return leftVal == rightVal;
+            default: return leftVal != rightVal;
+        }
     }
     
     @Override
@@ -49,7 +230,7 @@ public class InfixExpression extends Node {
                 "\"left\": %s, \"operator\": \"%s\", \"right\": %s }",
                 position,
                 left != null ? left.toJson() : "null",
-                operator,
+                operator.getSymbol(),
                 right != null ? right.toJson() : "null"
         );
     }
@@ -5,8 +5,10 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import interpreter.runtime.AllocationMeter;
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.util.Evaluator;
 
 /**
  * MapLiteral - represents a map/dictionary literal expression like {"key": value, 1: 2}
@@ -28,19 +30,15 @@ public class MapLiteral extends Node {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
         
+        context.trackAllocation(AllocationMeter.mapBytes(pairs.size()), position);
+        
         // Evaluate each key-value pair in the map
         Map<Object, Object> mapValues = new HashMap<>();
         for (Map.Entry<Node, Node> entry : pairs.entrySet()) {
             Object key = entry.getKey().evaluate(context);
             
             // Validate key type (only strings and numbers are valid keys)
-            if (!(key instanceof String || key instanceof Number)) {
-                throw new RuntimeError(
-                    "Map keys must be strings or numbers, got: " + (key == null ? "null" : key.getClass().getName()),
-                    position.getLine(),
-                    position.getColumn()
-                );
-            }
+            Evaluator.checkMapKey(key, position);
             
             Object value = entry.getValue().evaluate(context);
             mapValues.put(key, value);
@@ -2,6 +2,8 @@ package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
+import interpreter.runtime.UnexpectedResultException;
+import interpreter.util.Evaluator;
 
 /**
  * Base Node class for all AST nodes
@@ -71,6 +73,35 @@ public abstract class Node {
      */
     public abstract Object evaluate(EvaluationContext context) throws RuntimeError;
     
+    /**
+     * Evaluate this node expecting a number, without boxing the result.
+     * Nodes that can produce a primitive double override this method.
+     * 
+     * @param context The evaluation context
+     * @return The numeric result of evaluating this node
+     * @throws RuntimeError If an error occurs during evaluation
+     * @throws UnexpectedResultException If the result is not a number, carrying the result
+     */
+    public double evaluateDouble(EvaluationContext context) throws RuntimeError, UnexpectedResultException {
+        Object result = evaluate(context);
+        if (result instanceof Double) {
+            return (Double) result;
+        }
+        throw new UnexpectedResultException(result);
+    }
+    
+    /**
+     * Evaluate this node as a condition, without boxing the result.
+     * Nodes that can produce a primitive boolean override this method.
+     * 
+     * @param context The evaluation context
+     * @return Whether the result of evaluating this node is truthy
+     * @throws RuntimeError If an error occurs during evaluation
+     */
+    public boolean evaluateBoolean(EvaluationContext context) throws RuntimeError {
+        return Evaluator.isTruthy(evaluate(context));
+    }
+    
     /**
      * Get a string representation of this node for debugging
      */
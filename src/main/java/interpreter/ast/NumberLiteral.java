@@ -23,6 +23,11 @@ public class NumberLiteral extends Node {
         return value;
     }
     
+    @Override
+    public double evaluateDouble(EvaluationContext context) {
+        return value;
+    }
+    
     @Override
     public String toJson() {
         return String.format(
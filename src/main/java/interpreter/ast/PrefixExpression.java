@@ -2,22 +2,30 @@ package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
 import interpreter.runtime.RuntimeError;
-import interpreter.util.Evaluator;
+import interpreter.runtime.UnexpectedResultException;
+import interpreter.util.PrefixOperator;
 
 /**
  * PrefixExpression - an expression with a prefix operator (e.g., -x, !x)
  */
 public class PrefixExpression extends Node {
-    private final String operator;
+    private final PrefixOperator operator;
     private final Node right;
     
-    public PrefixExpression(String operator, Node right) {
+    public PrefixExpression(PrefixOperator operator, Node right) {
         super();
         this.operator = operator;
         this.right = right;
     }
     
+    /**
+     * @return The source symbol of the operator
+     */
     public String getOperator() {
+        return operator.getSymbol();
+    }
+    
+    public PrefixOperator getPrefixOperator() {
         return operator;
     }
     
@@ -31,7 +39,40 @@ public class PrefixExpression extends Node {
         trackEvaluationStep(context);
         
         Object rightValue = right.evaluate(context);
-        return Evaluator.applyPrefixOperator(operator, rightValue);
+        return operator.apply(rightValue);
+    }
+    
+    @Override
+    public double evaluateDouble(EvaluationContext context) throws RuntimeError, UnexpectedResultException {
+        if (operator != PrefixOperator.NEGATE) {
+            return super.evaluateDouble(context);
+        }
+        
+        trackEvaluationStep(context);
+        
+        double rightValue;
+        try {
+            rightValue = right.evaluateDouble(context);
+        } catch (UnexpectedResultException e) {
+            // Not a number: the generic operator decides the result
+            Object result = operator.apply(e.getResult());
+            if (result instanceof Double) {
+                return (Double) result;
+            }
+            throw new UnexpectedResultException(result);
+        }
+        return -rightValue;
+    }
+    
+    @Override
+    public boolean evaluateBoolean(EvaluationContext context) throws RuntimeError {
+        if (operator != PrefixOperator.NOT) {
+            return super.evaluateBoolean(context);
+        }
+        
+        trackEvaluationStep(context);
+        
+        return !right.evaluateBoolean(context);
     }
     
     @Override
@@ -40,7 +81,7 @@ public class PrefixExpression extends Node {
                 "{ \"type\": \"PrefixExpression\", \"position\": \"%s\", " +
                 "\"operator\": \"%s\", \"right\": %s }",
                 position,
-                operator,
+                operator.getSymbol(),
                 right != null ? right.toJson() : "null"
         );
     }
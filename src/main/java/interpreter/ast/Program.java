@@ -4,8 +4,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import interpreter.runtime.Completion;
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ReturnValue;
+import interpreter.runtime.FrameDescriptor;
 import interpreter.runtime.RuntimeError;
 
 /**
@@ -14,6 +15,15 @@ import interpreter.runtime.RuntimeError;
 public class Program extends Node {
     private final List<Node> statements;
     
+    // Slot layout of the top-level scope, assigned by the resolver
+    private FrameDescriptor frame;
+    
+    // Steps of the top-level code, charged at once by amortized step accounting
+    private int steps = 1;
+    
+    // Number of nodes of the whole program, including function bodies
+    private int nodeCount = 1;
+    
     public Program() {
         super();
         this.statements = new ArrayList<>();
@@ -35,10 +45,46 @@ public class Program extends Node {
         return statements;
     }
     
+    public FrameDescriptor getFrame() {
+        return frame;
+    }
+    
+    public void setFrame(FrameDescriptor frame) {
+        this.frame = frame;
+    }
+    
+    public int getSteps() {
+        return steps;
+    }
+    
+    /**
+     * @param steps The steps of the top-level code, without loop iterations and function bodies
+     */
+    public void setSteps(int steps) {
+        this.steps = steps;
+    }
+    
+    /**
+     * @return The number of nodes of the program, computed by the step counter
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    public void setNodeCount(int nodeCount) {
+        this.nodeCount = nodeCount;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         // Track this evaluation step to prevent CPU exhaustion
         trackEvaluationStep(context);
+        context.chargeSteps(steps, position);
+        
+        // Top-level variables live in slots of the root scope
+        if (frame != null) {
+            context.allocateFrame(frame);
+        }
         
         Object result = null;
         
@@ -46,8 +92,8 @@ public class Program extends Node {
             result = statement.evaluate(context);
             
             // Early return if we hit a return statement
-            if (result instanceof ReturnValue) {
-                return ((ReturnValue) result).getValue();
+            if (result == Completion.RETURN) {
+                return context.takeReturnValue();
             }
         }
         
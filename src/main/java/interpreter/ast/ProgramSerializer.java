@@ -0,0 +1,472 @@
+package interpreter.ast;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.util.InfixOperator;
+import interpreter.util.PrefixOperator;
+
+/**
+ * Compact binary form of a parsed program, to store programs and load them without lexing and
+ * parsing their source again.
+ *
+ * <p>The format starts with a magic number and a {@link #VERSION format version}, followed by a
+ * table of the distinct strings of the program (names, string literals and operator symbols)
+ * and the nodes in pre-order. Each node is a tag byte, its position and its fields; integers
+ * are written as variable-length quantities, and strings as indexes into the table. Only the
+ * structure of the nodes and their positions are written: the annotations of the
+ * {@link interpreter.analysis.Resolver resolver} and the
+ * {@link interpreter.analysis.StepCounter step counter} must be computed again on the read
+ * program.</p>
+ *
+ * <p>Programs are read from a {@link ByteBuffer}, which can be a memory-mapped file.</p>
+ */
+public final class ProgramSerializer {
+    /** Magic number at the start of a serialized program ("IJAS") */
+    public static final int MAGIC = 0x494A4153;
+    /** Version of the format, changed whenever the nodes or their encoding change */
+    public static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte PROGRAM = 1;
+    private static final byte BLOCK = 2;
+    private static final byte EXPRESSION_STATEMENT = 3;
+    private static final byte VARIABLE_DECLARATION = 4;
+    private static final byte ASSIGNMENT = 5;
+    private static final byte INDEX_ASSIGNMENT = 6;
+    private static final byte FUNCTION_DECLARATION = 7;
+    private static final byte RETURN = 8;
+    private static final byte IF = 9;
+    private static final byte WHILE = 10;
+    private static final byte INFIX = 11;
+    private static final byte PREFIX = 12;
+    private static final byte CALL = 13;
+    private static final byte INDEX = 14;
+    private static final byte IDENTIFIER = 15;
+    private static final byte NUMBER = 16;
+    private static final byte STRING = 17;
+    private static final byte TRUE = 18;
+    private static final byte FALSE = 19;
+    private static final byte NULL_LITERAL = 20;
+    private static final byte ARRAY = 21;
+    private static final byte MAP = 22;
+
+    private ProgramSerializer() {
+    }
+
+    /**
+     * @return The binary form of the given program
+     */
+    public static byte[] serialize(Program program) {
+        Writer writer = new Writer();
+        writer.writeNode(program);
+
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(writer.strings.size());
+        for (String string : writer.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writer.nodes.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Read a program from the current position of the given buffer
+     *
+     * @return The program, neither resolved nor step-counted
+     * @throws IllegalArgumentException If the buffer does not hold a program of this version
+     */
+    public static Program deserialize(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a serialized program");
+            }
+            int version = readVarInt(buffer);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported program format version " + version);
+            }
+
+            String[] strings = new String[readCount(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readCount(buffer)];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            Node node = new Reader(buffer, strings).readNode();
+            if (!(node instanceof Program)) {
+                throw new IllegalArgumentException("Serialized node is not a program");
+            }
+            return (Program) node;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Truncated or corrupt serialized program", e);
+        }
+    }
+
+    /**
+     * Writes nodes, collecting the strings they use
+     */
+    private static final class Writer {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final Output nodes = new Output();
+
+        void writeNode(Node node) {
+            if (node == null) {
+                nodes.write(NULL);
+                return;
+            }
+
+            if (node instanceof Program) {
+                begin(PROGRAM, node);
+                writeNodes(((Program) node).getStatements());
+            } else if (node instanceof BlockStatement) {
+                begin(BLOCK, node);
+                writeNodes(((BlockStatement) node).getStatements());
+            } else if (node instanceof ExpressionStatement) {
+                begin(EXPRESSION_STATEMENT, node);
+                writeNode(((ExpressionStatement) node).getExpression());
+            } else if (node instanceof VariableDeclaration) {
+                VariableDeclaration declaration = (VariableDeclaration) node;
+                begin(VARIABLE_DECLARATION, node);
+                writeString(declaration.getName());
+                writeNode(declaration.getInitializer());
+            } else if (node instanceof AssignmentStatement) {
+                AssignmentStatement assignment = (AssignmentStatement) node;
+                begin(ASSIGNMENT, node);
+                writeString(assignment.getName());
+                writeNode(assignment.getValue());
+            } else if (node instanceof IndexAssignmentStatement) {
+                IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+                begin(INDEX_ASSIGNMENT, node);
+                writeNode(assignment.getCollection());
+                writeNode(assignment.getIndex());
+                writeNode(assignment.getValue());
+            } else if (node instanceof FunctionDeclaration) {
+                FunctionDeclaration declaration = (FunctionDeclaration) node;
+                begin(FUNCTION_DECLARATION, node);
+                writeString(declaration.getName());
+                nodes.writeVarInt(declaration.getParameters().size());
+                for (String parameter : declaration.getParameters()) {
+                    writeString(parameter);
+                }
+                writeNode(declaration.getBody());
+            } else if (node instanceof ReturnStatement) {
+                begin(RETURN, node);
+                writeNode(((ReturnStatement) node).getValue());
+            } else if (node instanceof IfStatement) {
+                IfStatement ifStatement = (IfStatement) node;
+                begin(IF, node);
+                writeNode(ifStatement.getCondition());
+                writeNode(ifStatement.getConsequence());
+                writeNode(ifStatement.getAlternative());
+            } else if (node instanceof WhileStatement) {
+                WhileStatement whileStatement = (WhileStatement) node;
+                begin(WHILE, node);
+                writeNode(whileStatement.getCondition());
+                writeNode(whileStatement.getBody());
+            } else if (node instanceof InfixExpression) {
+                InfixExpression infix = (InfixExpression) node;
+                begin(INFIX, node);
+                writeString(infix.getInfixOperator().getSymbol());
+                writeNode(infix.getLeft());
+                writeNode(infix.getRight());
+            } else if (node instanceof PrefixExpression) {
+                PrefixExpression prefix = (PrefixExpression) node;
+                begin(PREFIX, node);
+                writeString(prefix.getPrefixOperator().getSymbol());
+                writeNode(prefix.getRight());
+            } else if (node instanceof CallExpression) {
+                CallExpression call = (CallExpression) node;
+                begin(CALL, node);
+                writeNode(call.getCallee());
+                writeNodes(call.getArguments());
+            } else if (node instanceof IndexExpression) {
+                IndexExpression index = (IndexExpression) node;
+                begin(INDEX, node);
+                writeNode(index.getCollection());
+                writeNode(index.getIndex());
+            } else if (node instanceof Identifier) {
+                begin(IDENTIFIER, node);
+                writeString(((Identifier) node).getName());
+            } else if (node instanceof NumberLiteral) {
+                begin(NUMBER, node);
+                nodes.writeLong(Double.doubleToRawLongBits(((NumberLiteral) node).getValue()));
+            } else if (node instanceof StringLiteral) {
+                begin(STRING, node);
+                writeString(((StringLiteral) node).getValue());
+            } else if (node instanceof BooleanLiteral) {
+                begin(((BooleanLiteral) node).getValue() ? TRUE : FALSE, node);
+            } else if (node instanceof NullLiteral) {
+                begin(NULL_LITERAL, node);
+            } else if (node instanceof ArrayLiteral) {
+                begin(ARRAY, node);
+                writeNodes(((ArrayLiteral) node).getElements());
+            } else if (node instanceof MapLiteral) {
+                Map<Node, Node> pairs = ((MapLiteral) node).getPairs();
+                begin(MAP, node);
+                nodes.writeVarInt(pairs.size());
+                for (Map.Entry<Node, Node> pair : pairs.entrySet()) {
+                    writeNode(pair.getKey());
+                    writeNode(pair.getValue());
+                }
+            } else {
+                throw new IllegalArgumentException("Cannot serialize node " + node);
+            }
+        }
+
+        private void begin(byte tag, Node node) {
+            nodes.write(tag);
+            nodes.writeVarInt(node.getPosition().getLine());
+            nodes.writeVarInt(node.getPosition().getColumn());
+        }
+
+        private void writeNodes(List<Node> list) {
+            nodes.writeVarInt(list.size());
+            for (Node node : list) {
+                writeNode(node);
+            }
+        }
+
+        /**
+         * Write the index of a string in the table, plus one so that 0 stands for null
+         */
+        private void writeString(String string) {
+            if (string == null) {
+                nodes.writeVarInt(0);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            nodes.writeVarInt(index + 1);
+        }
+    }
+
+    /**
+     * Reads nodes written by the {@link Writer}
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final String[] strings;
+
+        Reader(ByteBuffer buffer, String[] strings) {
+            this.buffer = buffer;
+            this.strings = strings;
+        }
+
+        Node readNode() {
+            byte tag = buffer.get();
+            if (tag == NULL) {
+                return null;
+            }
+            int line = readVarInt(buffer);
+            int column = readVarInt(buffer);
+
+            Node node;
+            switch (tag) {
+                case PROGRAM: {
+                    Program program = new Program();
+                    for (Node statement : readNodes()) {
+                        program.addStatement(statement);
+                    }
+                    node = program;
+                    break;
+                }
+                case BLOCK:
+                    node = new BlockStatement(readNodes());
+                    break;
+                case EXPRESSION_STATEMENT:
+                    node = new ExpressionStatement(readNode());
+                    break;
+                case VARIABLE_DECLARATION: {
+                    String name = readString();
+                    node = new VariableDeclaration(name, readNode());
+                    break;
+                }
+                case ASSIGNMENT: {
+                    String name = readString();
+                    node = new AssignmentStatement(name, readNode());
+                    break;
+                }
+                case INDEX_ASSIGNMENT: {
+                    Node collection = readNode();
+                    Node index = readNode();
+                    node = new IndexAssignmentStatement(collection, index, readNode());
+                    break;
+                }
+                case FUNCTION_DECLARATION: {
+                    String name = readString();
+                    int count = readCount(buffer);
+                    List<String> parameters = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        parameters.add(readString());
+                    }
+                    node = new FunctionDeclaration(name, parameters, readNode());
+                    break;
+                }
+                case RETURN:
+                    node = new ReturnStatement(readNode());
+                    break;
+                case IF: {
+                    Node condition = readNode();
+                    Node consequence = readNode();
+                    node = new IfStatement(condition, consequence, readNode());
+                    break;
+                }
+                case WHILE: {
+                    Node condition = readNode();
+                    node = new WhileStatement(condition, readNode());
+                    break;
+                }
+                case INFIX: {
+                    InfixOperator operator = InfixOperator.fromSymbol(readString());
+                    if (operator == null) {
+                        throw new IllegalArgumentException("Unknown infix operator");
+                    }
+                    Node left = readNode();
+                    node = new InfixExpression(left, operator, readNode());
+                    break;
+                }
+                case PREFIX: {
+                    PrefixOperator operator = PrefixOperator.fromSymbol(readString());
+                    if (operator == null) {
+                        throw new IllegalArgumentException("Unknown prefix operator");
+                    }
+                    node = new PrefixExpression(operator, readNode());
+                    break;
+                }
+                case CALL: {
+                    Node callee = readNode();
+                    node = new CallExpression(callee, readNodes());
+                    break;
+                }
+                case INDEX: {
+                    Node collection = readNode();
+                    node = new IndexExpression(collection, readNode());
+                    break;
+                }
+                case IDENTIFIER:
+                    node = new Identifier(readString());
+                    break;
+                case NUMBER:
+                    node = new NumberLiteral(Double.longBitsToDouble(buffer.getLong()));
+                    break;
+                case STRING:
+                    node = new StringLiteral(readString());
+                    break;
+                case TRUE:
+                    node = new BooleanLiteral(true);
+                    break;
+                case FALSE:
+                    node = new BooleanLiteral(false);
+                    break;
+                case NULL_LITERAL:
+                    node = new NullLiteral();
+                    break;
+                case ARRAY:
+                    node = new ArrayLiteral(readNodes());
+                    break;
+                case MAP: {
+                    int count = readCount(buffer);
+                    Map<Node, Node> pairs = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        Node key = readNode();
+                        pairs.put(key, readNode());
+                    }
+                    node = new MapLiteral(pairs);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown node tag " + tag);
+            }
+            node.setPosition(line, column);
+            return node;
+        }
+
+        private List<Node> readNodes() {
+            int count = readCount(buffer);
+            List<Node> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(readNode());
+            }
+            return list;
+        }
+
+        private String readString() {
+            int index = readVarInt(buffer);
+            return index == 0 ? null : strings[index - 1];
+        }
+    }
+
+    /**
+     * Read an unsigned integer written by {@link Output#writeVarInt}
+     */
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    /**
+     * Read the number of items that follow, each taking at least one byte, so that a corrupt
+     * count is rejected before anything is allocated for it
+     */
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVarInt(buffer);
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Count " + count + " exceeds the remaining input");
+        }
+        return count;
+    }
+
+    /**
+     * Byte output with the big-endian encodings read by {@link ByteBuffer}
+     */
+    private static final class Output extends ByteArrayOutputStream {
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        /**
+         * Write an unsigned integer in 7-bit groups, least significant first, the high bit of
+         * each byte telling whether another group follows
+         */
+        void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeTo(Output out) {
+            out.write(buf, 0, count);
+        }
+    }
+}
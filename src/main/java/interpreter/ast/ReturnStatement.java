@@ -1,7 +1,6 @@
 package interpreter.ast;
 
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ReturnValue;
 import interpreter.runtime.RuntimeError;
 
 /**
@@ -21,8 +20,14 @@ public class ReturnStatement extends Node {
     
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
-        Object valueResult = value != null ? value.evaluate(context) : null;
-        return new ReturnValue(valueResult);
+        Object valueResult;
+        if (value instanceof CallExpression) {
+            // A tail call is made by the calling function, once this one has returned
+            valueResult = ((CallExpression) value).evaluateTailCall(context);
+        } else {
+            valueResult = value != null ? value.evaluate(context) : null;
+        }
+        return context.completeReturn(valueResult);
     }
     
     @Override
@@ -0,0 +1,152 @@
+package interpreter.ast;
+
+import java.util.List;
+
+import interpreter.runtime.CallableFunction;
+import interpreter.runtime.Completion;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.FrameDescriptor;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.TailCall;
+
+/**
+ * A script function evaluated by the tree walker: a function declaration closed over the
+ * variables it captured from the scope in which it was executed. Each invocation runs in a
+ * scope enclosed by the root scope, with the captured variables bound to their slots. A
+ * function whose captures were not resolved retains the whole declaring scope instead.
+ * 
+ * <p>Calls in tail position of the body return a {@link TailCall} instead of nesting another
+ * call. The function then runs the called function in the same loop, so tail-recursive
+ * scripts need neither more Java stack nor more scope depth per call.</p>
+ */
+public class ScriptFunction implements CallableFunction {
+    private final FunctionDeclaration declaration;
+    private final EvaluationContext closure;
+    private final Object[] captured;
+    
+    /**
+     * @param declaration The declaration of the function
+     * @param closure The scope enclosing each invocation
+     * @param captured The captured values, or null if the closure is the declaring scope
+     */
+    public ScriptFunction(FunctionDeclaration declaration, EvaluationContext closure, Object[] captured) {
+        this.declaration = declaration;
+        this.closure = closure;
+        this.captured = captured;
+    }
+    
+    public FunctionDeclaration getDeclaration() {
+        return declaration;
+    }
+    
+    /**
+     * Fail with the error reported for a call with the wrong number of arguments
+     */
+    void checkArity(int argumentCount) {
+        List<String> parameters = declaration.getParameters();
+        if (argumentCount != parameters.size()) {
+            throw new RuntimeException("Function " + declaration.getName() + parameters + " called with " + argumentCount + " arguments"); //FIXME
+        }
+    }
+    
+    @Override
+    public Object apply(List<Object> args) {
+        checkArity(args.size());
+        try {
+            return run(args.toArray());
+        } catch (RuntimeError e) {
+            // Preserve the original RuntimeError as the cause to allow for proper unwrapping
+            throw new RuntimeException("Error in function '" + declaration.getName() + "': " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Call this function from a script. Unlike {@link #apply}, errors are thrown as they are,
+     * without wrapping them in an unchecked exception.
+     * 
+     * @param arguments The evaluated arguments
+     * @param position The position of the call, for error reporting
+     * @return The value returned by the function
+     */
+    public Object call(Object[] arguments, Node.Position position) throws RuntimeError {
+        try {
+            checkArity(arguments.length);
+        } catch (RuntimeException e) {
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        return run(arguments);
+    }
+    
+    /**
+     * Invoke this function, then the functions called in tail position
+     */
+    private Object run(Object[] arguments) throws RuntimeError {
+        ScriptFunction function = this;
+        while (true) {
+            Object result = function.invoke(arguments);
+            if (!(result instanceof TailCall)) {
+                return result;
+            }
+            
+            // Run the call made in tail position in place of a nested call
+            TailCall tailCall = (TailCall) result;
+            function = (ScriptFunction) tailCall.getFunction();
+            arguments = tailCall.getArguments();
+        }
+    }
+    
+    /**
+     * Bind the arguments in a new parameter scope and evaluate the body
+     * 
+     * @return The value returned by the body, or a {@link TailCall} still to be made
+     */
+    private Object invoke(Object[] arguments) throws RuntimeError {
+        FrameDescriptor parameterFrame = declaration.getParameterFrame();
+        int[] parameterSlots = declaration.getParameterSlots();
+        List<String> parameters = declaration.getParameters();
+        
+        // Create a new environment with the parent as the current environment
+        EvaluationContext functionContext = parameterFrame != null
+                ? closure.extend(parameterFrame) : closure.extend();
+        FlightEvents.FunctionCallEvent callEvent = functionContext.enterFunction(declaration.getName(), declaration.getPosition());
+        try {
+            functionContext.chargeSteps(declaration.getBodySteps(), declaration.getPosition());
+            
+            if (captured != null) {
+                functionContext.bindCaptures(declaration.getCaptures(), captured);
+            }
+            
+            // Bind arguments to parameters
+            for (int i = 0; i < parameters.size(); i++) {
+                if (parameterSlots != null) {
+                    functionContext.defineSlot(parameterSlots[i], parameters.get(i), arguments[i]);
+                } else {
+                    functionContext.define(parameters.get(i), arguments[i]);
+                }
+            }
+            
+            // Execute the function body
+            Object result = declaration.getBody().evaluate(functionContext);
+            
+            // Take the value of the return statement that completed the body
+            if (result == Completion.RETURN) {
+                return functionContext.takeReturnValue();
+            }
+            
+            return result;
+        } finally {
+            functionContext.exit();
+            functionContext.exitFunction(callEvent);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ScriptFunction(" + declaration.getName() + ")";
+    }
+}
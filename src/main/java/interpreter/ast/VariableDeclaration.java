@@ -10,6 +10,9 @@ public class VariableDeclaration extends Node {
     private final String name;
     private final Node initializer;
     
+    // Slot assigned by the resolver in the declaring scope (-1 if defined dynamically)
+    private int slot = -1;
+    
     public VariableDeclaration(String name, Node initializer) {
         super();
         this.name = name;
@@ -24,9 +27,23 @@ public class VariableDeclaration extends Node {
         return initializer;
     }
     
+    /**
+     * Bind the declared variable to a slot of the current scope
+     */
+    public void resolve(int slot) {
+        this.slot = slot;
+    }
+    
+    public int getSlot() {
+        return slot;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         Object value = initializer != null ? initializer.evaluate(context) : null;
+        if (slot >= 0) {
+            return context.defineSlot(slot, name, value);
+        }
         return context.define(name, value);
     }
     
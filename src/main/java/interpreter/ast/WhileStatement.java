@@ -1,9 +1,8 @@
 package interpreter.ast;
 
+import interpreter.runtime.Completion;
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ReturnValue;
 import interpreter.runtime.RuntimeError;
-import interpreter.util.Evaluator;
 
 /**
  * WhileStatement - a loop statement
@@ -12,6 +11,9 @@ public class WhileStatement extends Node {
     private final Node condition;
     private final Node body;
     
+    // Steps of one iteration, charged at once by amortized step accounting
+    private int iterationSteps = 1;
+    
     public WhileStatement(Node condition, Node body) {
         super();
         this.condition = condition;
@@ -26,18 +28,29 @@ public class WhileStatement extends Node {
         return body;
     }
     
+    public int getIterationSteps() {
+        return iterationSteps;
+    }
+    
+    /**
+     * @param iterationSteps The steps of the condition and body, without nested loop iterations and function bodies
+     */
+    public void setIterationSteps(int iterationSteps) {
+        this.iterationSteps = iterationSteps;
+    }
+    
     @Override
     public Object evaluate(EvaluationContext context) throws RuntimeError {
         Object result = null;
         
-        while (Evaluator.isTruthy(condition.evaluate(context))) {
+        while (condition.evaluateBoolean(context)) {
             // Track loop iterations to prevent infinite loops
-            context.trackLoopIteration(position);
+            context.trackLoopIteration(iterationSteps, position);
             
             result = body.evaluate(context);
             
             // Handle return statements inside the loop
-            if (result instanceof ReturnValue) {
+            if (result == Completion.RETURN) {
                 return result;
             }
         }
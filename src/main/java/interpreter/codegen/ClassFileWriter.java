@@ -0,0 +1,474 @@
+package interpreter.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for JVM class files, covering what the {@link JvmCompiler} emits.
+ *
+ * <p>Classes are written with class file version 49 (Java 5), which is verified by type
+ * inference and therefore needs no StackMapTable frames. Branch offsets are 16 bit, so a
+ * single method is limited to 32 KB of code.</p>
+ */
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param name Internal name of the class, e.g. "interpreter/codegen/Script$1"
+     * @param superName Internal name of the super class
+     * @param interfaceNames Internal names of the implemented interfaces
+     */
+    ClassFileWriter(String name, String superName, String... interfaceNames) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        for (String interfaceName : interfaceNames) {
+            interfaces.add(classRef(interfaceName));
+        }
+    }
+
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Start a method; its code is added to the class by {@link Code#end()}
+     */
+    Code addMethod(int access, String name, String descriptor, int parameterSlots) {
+        return new Code(access, name, descriptor, parameterSlots);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant pool
+
+    int utf8(String value) {
+        return entry("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, EntryWriter writer) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (poolCount >= 0xFFFF) {
+            throw new IllegalStateException("Constant pool overflow");
+        }
+        int index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * @return The number of stack slots taken by the arguments of a method descriptor
+     */
+    static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i) + 1;
+                slots++;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                i++;
+                slots++;
+            } else {
+                slots += (c == 'J' || c == 'D') ? 2 : 1;
+                i++;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * @return The number of stack slots taken by the result of a method descriptor
+     */
+    static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'J' || c == 'D') ? 2 : 1;
+    }
+
+    /**
+     * Branch target within a method
+     */
+    static final class Label {
+        private int offset = -1;
+        private final List<Integer> references = new ArrayList<>();
+    }
+
+    /**
+     * Bytecode of one method, tracking the operand stack depth to compute max_stack
+     */
+    final class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<int[]> exceptionTable = new ArrayList<>();
+        private final List<Label> forwardLabels = new ArrayList<>();
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        private Code(int access, String name, String descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = parameterSlots;
+        }
+
+        int offset() {
+            return bytes.size();
+        }
+
+        /**
+         * Make room for the given number of local variable slots
+         */
+        void useLocals(int count) {
+            maxLocals = Math.max(maxLocals, count);
+        }
+
+        /**
+         * Set the stack depth, e.g. at the start of an exception handler or after an unconditional jump
+         */
+        void setStack(int depth) {
+            stack = depth;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        int getStack() {
+            return stack;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void u1(int value) {
+            bytes.write(value);
+        }
+
+        private void u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void aconstNull() {
+            u1(0x01);
+            adjust(1);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+            } else {
+                u1(0x13);
+                u2(integer(value));
+            }
+            adjust(1);
+        }
+
+        void aload(int local) {
+            if (local <= 3) {
+                u1(0x2A + local);
+            } else {
+                u1(0x19);
+                u1(local);
+            }
+            adjust(1);
+        }
+
+        void astore(int local) {
+            if (local <= 3) {
+                u1(0x4B + local);
+            } else {
+                u1(0x3A);
+                u1(local);
+            }
+            adjust(-1);
+        }
+
+        void iload(int local) {
+            u1(0x15);
+            u1(local);
+            adjust(1);
+        }
+
+        void istore(int local) {
+            u1(0x36);
+            u1(local);
+            adjust(-1);
+        }
+
+        void iinc(int local, int delta) {
+            u1(0x84);
+            u1(local);
+            u1(delta);
+        }
+
+        void aaload() {
+            u1(0x32);
+            adjust(-1);
+        }
+
+        void aastore() {
+            u1(0x53);
+            adjust(-3);
+        }
+
+        void pop() {
+            u1(0x57);
+            adjust(-1);
+        }
+
+        void dup() {
+            u1(0x59);
+            adjust(1);
+        }
+
+        void anewarray(String internalName) {
+            u1(0xBD);
+            u2(classRef(internalName));
+        }
+
+        void checkcast(String internalName) {
+            u1(0xC0);
+            u2(classRef(internalName));
+        }
+
+        void getfield(String owner, String fieldName, String fieldDescriptor) {
+            u1(0xB4);
+            u2(fieldRef(owner, fieldName, fieldDescriptor));
+        }
+
+        void putfield(String owner, String fieldName, String fieldDescriptor) {
+            u1(0xB5);
+            u2(fieldRef(owner, fieldName, fieldDescriptor));
+            adjust(-2);
+        }
+
+        void invokestatic(String owner, String methodName, String methodDescriptor) {
+            u1(0xB8);
+            u2(methodRef(owner, methodName, methodDescriptor));
+            adjust(returnSlots(methodDescriptor) - argumentSlots(methodDescriptor));
+        }
+
+        void invokespecial(String owner, String methodName, String methodDescriptor) {
+            u1(0xB7);
+            u2(methodRef(owner, methodName, methodDescriptor));
+            adjust(returnSlots(methodDescriptor) - argumentSlots(methodDescriptor) - 1);
+        }
+
+        void ifeq(Label label) {
+            u1(0x99);
+            branch(label);
+            adjust(-1);
+        }
+
+        void goTo(Label label) {
+            u1(0xA7);
+            branch(label);
+        }
+
+        void areturn() {
+            u1(0xB0);
+        }
+
+        void vreturn() {
+            u1(0xB1);
+        }
+
+        void athrow() {
+            u1(0xBF);
+        }
+
+        private void branch(Label label) {
+            int instruction = bytes.size() - 1;
+            if (label.offset >= 0) {
+                u2(label.offset - instruction);
+            } else {
+                if (label.references.isEmpty()) {
+                    forwardLabels.add(label);
+                }
+                label.references.add(instruction);
+                u2(0);
+            }
+        }
+
+        void mark(Label label) {
+            label.offset = bytes.size();
+        }
+
+        void tryCatchAll(int start, int end, int handler) {
+            exceptionTable.add(new int[] { start, end, handler });
+        }
+
+        /**
+         * Resolve the branches and add the method to the class
+         */
+        void end() {
+            byte[] code = bytes.toByteArray();
+            if (code.length > Short.MAX_VALUE) {
+                throw new IllegalStateException("Method " + name + " is too large to compile");
+            }
+            for (Label label : forwardLabels) {
+                for (int instruction : label.references) {
+                    int delta = label.offset - instruction;
+                    code[instruction + 1] = (byte) (delta >> 8);
+                    code[instruction + 2] = (byte) delta;
+                }
+            }
+
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + code.length + 8 * exceptionTable.size());
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(exceptionTable.size());
+                for (int[] entry : exceptionTable) {
+                    out.writeShort(entry[0]);
+                    out.writeShort(entry[1]);
+                    out.writeShort(entry[2]);
+                    out.writeShort(0);
+                }
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(method.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package interpreter.codegen;
+
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.RuntimeError;
+
+/**
+ * Code of a program or function body compiled to a JVM class by the {@link JvmCompiler}
+ */
+public interface CompiledBody {
+    /**
+     * Execute the compiled code
+     * 
+     * @param context The scope to execute in: the root scope of a program, or the parameter scope of a function call
+     * @return The value of the program or function
+     * @throws RuntimeError If an error occurs during execution
+     */
+    Object execute(EvaluationContext context) throws RuntimeError;
+}
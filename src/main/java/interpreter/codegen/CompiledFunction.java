@@ -0,0 +1,102 @@
+package interpreter.codegen;
+
+import java.util.List;
+
+import interpreter.runtime.CallableFunction;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.TailCall;
+
+/**
+ * A script function whose body was compiled to a JVM class, closed over the variables it
+ * captured from the scope in which its declaration was executed.
+ */
+public class CompiledFunction implements CallableFunction {
+    private final FunctionTemplate template;
+    private final EvaluationContext closure;
+    private final Object[] captured;
+
+    /**
+     * @param template The compiled function
+     * @param closure The scope enclosing each invocation
+     * @param captured The captured values, or null if the closure is the declaring scope
+     */
+    public CompiledFunction(FunctionTemplate template, EvaluationContext closure, Object[] captured) {
+        this.template = template;
+        this.closure = closure;
+        this.captured = captured;
+    }
+
+    public FunctionTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Fail the same way as a tree-walker function called with the wrong number of arguments
+     */
+    void checkArity(int argumentCount) {
+        if (argumentCount != template.getParameters().size()) {
+            throw new RuntimeException("Function " + template.getName() + template.getParameters()
+                    + " called with " + argumentCount + " arguments");
+        }
+    }
+
+    /**
+     * Bind the arguments in a new parameter scope and execute the body, then make the calls the
+     * body left in tail position
+     */
+    Object invoke(Object[] args) throws RuntimeError {
+        CompiledFunction function = this;
+        while (true) {
+            Object result = function.invokeBody(args);
+            if (!(result instanceof TailCall)) {
+                return result;
+            }
+
+            TailCall tailCall = (TailCall) result;
+            function = (CompiledFunction) tailCall.getFunction();
+            args = tailCall.getArguments();
+        }
+    }
+
+    private Object invokeBody(Object[] args) throws RuntimeError {
+        EvaluationContext functionContext = template.getParameterFrame() != null
+                ? closure.extend(template.getParameterFrame()) : closure.extend();
+
+        FlightEvents.FunctionCallEvent callEvent = functionContext.enterFunction(template.getName(), template.getPosition());
+        try {
+            functionContext.chargeSteps(template.getBodySteps(), template.getPosition());
+
+            if (captured != null) {
+                functionContext.bindCaptures(template.getCaptures(), captured);
+            }
+
+            List<String> parameters = template.getParameters();
+            int[] parameterSlots = template.getParameterSlots();
+            for (int i = 0; i < args.length; i++) {
+                if (parameterSlots != null) {
+                    functionContext.defineSlot(parameterSlots[i], parameters.get(i), args[i]);
+                } else {
+                    functionContext.define(parameters.get(i), args[i]);
+                }
+            }
+
+            return template.getBody().execute(functionContext);
+        } finally {
+            functionContext.exit();
+            functionContext.exitFunction(callEvent);
+        }
+    }
+
+    @Override
+    public Object apply(List<Object> args) {
+        checkArity(args.size());
+        try {
+            return invoke(args.toArray());
+        } catch (RuntimeError e) {
+            // Preserve the original RuntimeError as the cause to allow for proper unwrapping
+            throw new RuntimeException("Error in function '" + template.getName() + "': " + e.getMessage(), e);
+        }
+    }
+}
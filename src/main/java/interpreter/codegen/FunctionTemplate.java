@@ -0,0 +1,87 @@
+package interpreter.codegen;
+
+import java.util.List;
+
+import interpreter.ast.Node;
+import interpreter.runtime.CaptureDescriptor;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FrameDescriptor;
+
+/**
+ * A function declaration compiled to a JVM class, from which a {@link CompiledFunction} is
+ * created each time the declaration is executed.
+ */
+public class FunctionTemplate {
+    private final String name;
+    private final Node.Position position;
+    private final List<String> parameters;
+    private final FrameDescriptor parameterFrame;
+    private final int[] parameterSlots;
+    private final CaptureDescriptor captures;
+    private final int bodySteps;
+    private final CompiledBody body;
+
+    public FunctionTemplate(String name, Node.Position position, List<String> parameters,
+                            FrameDescriptor parameterFrame, int[] parameterSlots, CaptureDescriptor captures,
+                            int bodySteps, CompiledBody body) {
+        this.name = name;
+        this.position = position;
+        this.parameters = parameters;
+        this.parameterFrame = parameterFrame;
+        this.parameterSlots = parameterSlots;
+        this.captures = captures;
+        this.bodySteps = bodySteps;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The position of the declaration
+     */
+    public Node.Position getPosition() {
+        return position;
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public FrameDescriptor getParameterFrame() {
+        return parameterFrame;
+    }
+
+    public int[] getParameterSlots() {
+        return parameterSlots;
+    }
+
+    /**
+     * @return The captured variables, or null if functions retain the whole declaring scope
+     */
+    public CaptureDescriptor getCaptures() {
+        return captures;
+    }
+
+    /**
+     * @return The steps charged on each call with amortized step accounting
+     */
+    public int getBodySteps() {
+        return bodySteps;
+    }
+
+    public CompiledBody getBody() {
+        return body;
+    }
+
+    /**
+     * Create a function capturing its variables from the given scope
+     */
+    public CompiledFunction bind(EvaluationContext context) {
+        if (captures == null) {
+            return new CompiledFunction(this, context, null);
+        }
+        return new CompiledFunction(this, context.getRoot(), context.capture(captures));
+    }
+}
@@ -0,0 +1,540 @@
+package interpreter.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import interpreter.ast.ArrayLiteral;
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.BooleanLiteral;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.Identifier;
+import interpreter.ast.IfStatement;
+import interpreter.ast.IndexAssignmentStatement;
+import interpreter.ast.IndexExpression;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.MapLiteral;
+import interpreter.ast.Node;
+import interpreter.ast.NullLiteral;
+import interpreter.ast.NumberLiteral;
+import interpreter.ast.PrefixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.StringLiteral;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+import interpreter.util.InfixOperator;
+
+/**
+ * Compiles a resolved program or function declaration to JVM classes, so that HotSpot can
+ * JIT-compile the script like any other Java code.
+ *
+ * <p>Every program and function body becomes a class implementing {@link CompiledBody}.
+ * Control flow is translated to JVM branches and values are kept on the JVM operand stack;
+ * scope access, operators and resource accounting go through {@link JvmRuntime}, so step,
+ * loop, depth and variable quotas are enforced exactly as in the tree-walking evaluator.
+ * Literals, names, positions and frame layouts are passed to the generated class in a
+ * constant array.</p>
+ *
+ * <p>The classes are defined by a class loader of their own per compiled program (the build
+ * targets Java 11, which has no {@code Lookup.defineHiddenClass}) and are written with class
+ * file version 49, so no stack map frames need to be computed.</p>
+ */
+public class JvmCompiler {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING = "java/lang/String";
+    private static final String CONTEXT = "interpreter/runtime/EvaluationContext";
+    private static final String POSITION = "interpreter/ast/Node$Position";
+    private static final String FRAME = "interpreter/runtime/FrameDescriptor";
+    private static final String RUNTIME = "interpreter/codegen/JvmRuntime";
+    private static final String TEMPLATE = "interpreter/codegen/FunctionTemplate";
+    private static final String BODY = "interpreter/codegen/CompiledBody";
+    private static final String INFIX_OPERATOR = "interpreter/util/InfixOperator";
+    private static final String PREFIX_OPERATOR = "interpreter/util/PrefixOperator";
+
+    private static final String L_OBJECT = "L" + OBJECT + ";";
+    private static final String L_STRING = "L" + STRING + ";";
+    private static final String L_CONTEXT = "L" + CONTEXT + ";";
+    private static final String L_POSITION = "L" + POSITION + ";";
+    private static final String L_FRAME = "L" + FRAME + ";";
+    private static final String L_INFIX_OPERATOR = "L" + INFIX_OPERATOR + ";";
+    private static final String L_PREFIX_OPERATOR = "L" + PREFIX_OPERATOR + ";";
+
+    // Locals of the generated execute method
+    private static final int THIS = 0;
+    private static final int CONTEXT_PARAMETER = 1;
+    private static final int OPEN_CALLS = 2;
+    private static final int FIRST_LOCAL = 3;
+
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private final ScriptClassLoader classLoader = new ScriptClassLoader();
+
+    /**
+     * Compile a whole program
+     *
+     * @throws IllegalStateException If the program exceeds a limit of the class file format,
+     *         like the 32 KB of code of a method or the depth of nested blocks
+     */
+    public CompiledBody compile(Program program) {
+        return new BodyCompiler("program").compileProgram(program);
+    }
+
+    /**
+     * Compile a function declaration
+     */
+    public FunctionTemplate compile(FunctionDeclaration function) {
+        CompiledBody body = new BodyCompiler(function.getName()).compileFunctionBody(function);
+        return new FunctionTemplate(
+                function.getName(),
+                function.getPosition(),
+                function.getParameters(),
+                function.getParameterFrame(),
+                function.getParameterSlots(),
+                function.getCaptures(),
+                function.getBodySteps(),
+                body
+        );
+    }
+
+    /**
+     * Generates the class for one program or function body
+     */
+    private class BodyCompiler {
+        private final String className;
+        private final ClassFileWriter writer;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private ClassFileWriter.Code code;
+        private int bodyStart;
+        private int contextLocal = CONTEXT_PARAMETER;
+        // Locals holding the scopes of the blocks enclosing the code being compiled, innermost first
+        private final Deque<Integer> blockLocals = new ArrayDeque<>();
+        private int nextLocal = FIRST_LOCAL;
+        private int maxLocal = FIRST_LOCAL;
+
+        BodyCompiler(String name) {
+            this.className = "interpreter/codegen/generated/Script$" + CLASS_COUNTER.incrementAndGet()
+                    + "$" + (name != null ? name.replaceAll("[^A-Za-z0-9_]", "_") : "anonymous");
+            this.writer = new ClassFileWriter(className, OBJECT, BODY);
+        }
+
+        CompiledBody compileProgram(Program program) {
+            begin();
+            code.aload(contextLocal);
+            loadConstant(program.getFrame(), FRAME);
+            code.iconst(program.getSteps());
+            loadConstant(program.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "enterProgram", "(" + L_CONTEXT + L_FRAME + "I" + L_POSITION + ")V");
+            compileStatements(program.getStatements());
+            return finish();
+        }
+
+        CompiledBody compileFunctionBody(FunctionDeclaration function) {
+            begin();
+            compileNode(function.getBody());
+            return finish();
+        }
+
+        private void begin() {
+            writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "constants", "[" + L_OBJECT);
+
+            ClassFileWriter.Code constructor = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([" + L_OBJECT + ")V", 2);
+            constructor.aload(THIS);
+            constructor.invokespecial(OBJECT, "<init>", "()V");
+            constructor.aload(THIS);
+            constructor.aload(1);
+            constructor.putfield(className, "constants", "[" + L_OBJECT);
+            constructor.vreturn();
+            constructor.end();
+
+            code = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", "(" + L_CONTEXT + ")" + L_OBJECT, 2);
+            code.iconst(0);
+            code.istore(OPEN_CALLS);
+            bodyStart = code.offset();
+        }
+
+        private CompiledBody finish() {
+            int end = code.offset();
+            code.areturn();
+
+            // Release the call depth of calls interrupted by an error, then rethrow
+            int handler = code.offset();
+            code.setStack(1);
+            code.aload(CONTEXT_PARAMETER);
+            code.iload(OPEN_CALLS);
+            code.invokestatic(RUNTIME, "releaseCalls", "(" + L_CONTEXT + "I)V");
+            code.athrow();
+            code.tryCatchAll(bodyStart, end, handler);
+
+            code.useLocals(maxLocal);
+            code.end();
+
+            byte[] bytes = writer.toByteArray();
+            try {
+                Class<?> generated = classLoader.define(className.replace('/', '.'), bytes);
+                return (CompiledBody) generated.getConstructor(Object[].class).newInstance((Object) constants.toArray());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot load compiled script " + className, e);
+            }
+        }
+
+        private void compileStatements(List<Node> statements) {
+            if (statements.isEmpty()) {
+                code.aconstNull();
+                return;
+            }
+
+            for (int i = 0; i < statements.size(); i++) {
+                if (i > 0) {
+                    code.pop();
+                }
+                compileNode(statements.get(i));
+            }
+        }
+
+        private void compileNode(Node node) {
+            if (node == null) {
+                code.aconstNull();
+            } else if (node instanceof NumberLiteral) {
+                loadConstant(((NumberLiteral) node).getValue(), null);
+            } else if (node instanceof BooleanLiteral) {
+                loadConstant(((BooleanLiteral) node).getValue(), null);
+            } else if (node instanceof NullLiteral) {
+                code.aconstNull();
+            } else if (node instanceof StringLiteral) {
+                step(node);
+                loadConstant(((StringLiteral) node).getValue(), null);
+            } else if (node instanceof Identifier) {
+                Identifier identifier = (Identifier) node;
+                code.aload(contextLocal);
+                code.iconst(identifier.getDepth());
+                code.iconst(identifier.getSlot());
+                loadConstant(identifier.getName(), STRING);
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "load", "(" + L_CONTEXT + "II" + L_STRING + L_POSITION + ")" + L_OBJECT);
+            } else if (node instanceof ExpressionStatement) {
+                compileNode(((ExpressionStatement) node).getExpression());
+            } else if (node instanceof VariableDeclaration) {
+                VariableDeclaration declaration = (VariableDeclaration) node;
+                compileNode(declaration.getInitializer());
+                define(declaration.getSlot(), declaration.getName());
+            } else if (node instanceof AssignmentStatement) {
+                AssignmentStatement assignment = (AssignmentStatement) node;
+                compileNode(assignment.getValue());
+                code.aload(contextLocal);
+                code.iconst(assignment.getDepth());
+                code.iconst(assignment.getSlot());
+                loadConstant(assignment.getName(), STRING);
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "store", "(" + L_OBJECT + L_CONTEXT + "II" + L_STRING + L_POSITION + ")" + L_OBJECT);
+            } else if (node instanceof FunctionDeclaration) {
+                FunctionDeclaration function = (FunctionDeclaration) node;
+                code.aload(contextLocal);
+                loadConstant(JvmCompiler.this.compile(function), TEMPLATE);
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "closure", "(" + L_CONTEXT + "L" + TEMPLATE + ";" + L_POSITION + ")" + L_OBJECT);
+                define(function.getSlot(), function.getName());
+            } else if (node instanceof ReturnStatement) {
+                Node value = ((ReturnStatement) node).getValue();
+                if (value instanceof CallExpression && ((CallExpression) value).isTailCall()) {
+                    compileTailCall((CallExpression) value);
+                } else {
+                    compileNode(value);
+                }
+                // Leave the enclosing blocks of this body
+                for (int blockContext : blockLocals) {
+                    code.aload(blockContext);
+                    code.invokestatic(RUNTIME, "exitBlock", "(" + L_CONTEXT + ")V");
+                }
+                // The value stays accounted for on the stack: code after a return is unreachable
+                code.areturn();
+            } else if (node instanceof BlockStatement) {
+                compileBlock((BlockStatement) node);
+            } else if (node instanceof IfStatement) {
+                compileIf((IfStatement) node);
+            } else if (node instanceof WhileStatement) {
+                compileWhile((WhileStatement) node);
+            } else if (node instanceof InfixExpression) {
+                compileInfix((InfixExpression) node);
+            } else if (node instanceof PrefixExpression) {
+                PrefixExpression prefix = (PrefixExpression) node;
+                step(node);
+                compileNode(prefix.getRight());
+                loadConstant(prefix.getPrefixOperator(), PREFIX_OPERATOR);
+                code.invokestatic(RUNTIME, "unary", "(" + L_OBJECT + L_PREFIX_OPERATOR + ")" + L_OBJECT);
+            } else if (node instanceof CallExpression) {
+                compileCall((CallExpression) node);
+            } else if (node instanceof IndexExpression) {
+                IndexExpression index = (IndexExpression) node;
+                step(node);
+                compileNode(index.getCollection());
+                compileNode(index.getIndex());
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "index", "(" + L_OBJECT + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+            } else if (node instanceof IndexAssignmentStatement) {
+                IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+                step(node);
+                compileNode(assignment.getCollection());
+                compileNode(assignment.getIndex());
+                compileNode(assignment.getValue());
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "setIndex", "(" + L_OBJECT + L_OBJECT + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+            } else if (node instanceof ArrayLiteral) {
+                List<Node> elements = ((ArrayLiteral) node).getElements();
+                step(node);
+                code.iconst(elements.size());
+                code.anewarray(OBJECT);
+                for (int i = 0; i < elements.size(); i++) {
+                    code.dup();
+                    code.iconst(i);
+                    compileNode(elements.get(i));
+                    code.aastore();
+                }
+                code.aload(contextLocal);
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "array", "([" + L_OBJECT + L_CONTEXT + L_POSITION + ")" + L_OBJECT);
+            } else if (node instanceof MapLiteral) {
+                Map<Node, Node> pairs = ((MapLiteral) node).getPairs();
+                step(node);
+                code.iconst(2 * pairs.size());
+                code.anewarray(OBJECT);
+                int i = 0;
+                for (Map.Entry<Node, Node> pair : pairs.entrySet()) {
+                    code.dup();
+                    code.iconst(i++);
+                    compileNode(pair.getKey());
+                    loadConstant(node.getPosition(), POSITION);
+                    code.invokestatic(RUNTIME, "checkKey", "(" + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+                    code.aastore();
+                    code.dup();
+                    code.iconst(i++);
+                    compileNode(pair.getValue());
+                    code.aastore();
+                }
+                code.aload(contextLocal);
+                loadConstant(node.getPosition(), POSITION);
+                code.invokestatic(RUNTIME, "map", "([" + L_OBJECT + L_CONTEXT + L_POSITION + ")" + L_OBJECT);
+            } else {
+                throw new IllegalArgumentException("Cannot compile node: " + node);
+            }
+        }
+
+        private void compileBlock(BlockStatement block) {
+            if (!block.isScoped()) {
+                step(block);
+                compileStatements(block.getStatements());
+                return;
+            }
+
+            int outerContext = contextLocal;
+            int blockContext = allocateLocal();
+
+            code.aload(outerContext);
+            loadConstant(block.getFrame(), FRAME);
+            loadConstant(block.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "enterBlock", "(" + L_CONTEXT + L_FRAME + L_POSITION + ")" + L_CONTEXT);
+            code.astore(blockContext);
+
+            contextLocal = blockContext;
+            blockLocals.push(blockContext);
+            compileStatements(block.getStatements());
+            blockLocals.pop();
+            contextLocal = outerContext;
+
+            code.aload(blockContext);
+            code.invokestatic(RUNTIME, "exitBlock", "(" + L_CONTEXT + ")V");
+            nextLocal--;
+        }
+
+        private void compileIf(IfStatement ifStatement) {
+            ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+            step(ifStatement);
+            compileNode(ifStatement.getCondition());
+            code.invokestatic(RUNTIME, "isTruthy", "(" + L_OBJECT + ")Z");
+            code.ifeq(elseBranch);
+
+            compileNode(ifStatement.getConsequence());
+            code.goTo(end);
+            // Only one of the branches leaves its value on the stack
+            code.setStack(code.getStack() - 1);
+
+            code.mark(elseBranch);
+            compileNode(ifStatement.getAlternative());
+            code.mark(end);
+        }
+
+        private void compileWhile(WhileStatement whileStatement) {
+            ClassFileWriter.Label condition = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+            // Completion value of the loop, null until the body has run once. It is kept in a
+            // local so the operand stack is empty at the back edge, where HotSpot enters OSR code.
+            int valueLocal = allocateLocal();
+            code.aconstNull();
+            code.astore(valueLocal);
+
+            code.mark(condition);
+            compileNode(whileStatement.getCondition());
+            code.invokestatic(RUNTIME, "isTruthy", "(" + L_OBJECT + ")Z");
+            code.ifeq(end);
+
+            code.aload(contextLocal);
+            code.iconst(whileStatement.getIterationSteps());
+            loadConstant(whileStatement.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "loopIteration", "(" + L_CONTEXT + "I" + L_POSITION + ")V");
+            compileNode(whileStatement.getBody());
+            code.astore(valueLocal);
+            code.goTo(condition);
+
+            code.mark(end);
+            code.aload(valueLocal);
+            nextLocal--;
+        }
+
+        /**
+         * Reserve the next local variable until the construct using it has been compiled
+         */
+        private int allocateLocal() {
+            if (nextLocal > 255) {
+                throw new IllegalStateException("Blocks nested too deeply to compile");
+            }
+            maxLocal = Math.max(maxLocal, nextLocal + 1);
+            return nextLocal++;
+        }
+
+        private void compileInfix(InfixExpression infix) {
+            step(infix);
+            compileNode(infix.getLeft());
+            compileNode(infix.getRight());
+
+            String method = operatorMethod(infix.getInfixOperator());
+            if (method != null) {
+                code.aload(contextLocal);
+                code.invokestatic(RUNTIME, method, "(" + L_OBJECT + L_OBJECT + L_CONTEXT + ")" + L_OBJECT);
+            } else {
+                loadConstant(infix.getInfixOperator(), INFIX_OPERATOR);
+                code.aload(contextLocal);
+                code.invokestatic(RUNTIME, "binary", "(" + L_OBJECT + L_OBJECT + L_INFIX_OPERATOR + L_CONTEXT + ")" + L_OBJECT);
+            }
+        }
+
+        private String operatorMethod(InfixOperator operator) {
+            switch (operator) {
+                case ADD: return "add";
+                case SUBTRACT: return "subtract";
+                case MULTIPLY: return "multiply";
+                case DIVIDE: return "divide";
+                case MODULO: return "modulo";
+                case LESS: return "less";
+                case GREATER: return "greater";
+                case LESS_EQUAL: return "lessEqual";
+                case GREATER_EQUAL: return "greaterEqual";
+                case EQUAL: return "equal";
+                case NOT_EQUAL: return "notEqual";
+                default: return null;
+            }
+        }
+
+        private void compileCall(CallExpression call) {
+            List<Node> arguments = call.getArguments();
+
+            code.aload(contextLocal);
+            loadConstant(call.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "enterCall", "(" + L_CONTEXT + L_POSITION + ")V");
+            code.iinc(OPEN_CALLS, 1);
+
+            compileNode(call.getCallee());
+            loadConstant(call.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "checkCallee", "(" + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+
+            code.iconst(arguments.size());
+            code.anewarray(OBJECT);
+            for (int i = 0; i < arguments.size(); i++) {
+                code.dup();
+                code.iconst(i);
+                compileNode(arguments.get(i));
+                code.aastore();
+            }
+
+            loadConstant(call.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "call", "(" + L_OBJECT + "[" + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+
+            code.iinc(OPEN_CALLS, -1);
+            code.aload(contextLocal);
+            code.invokestatic(RUNTIME, "exitCall", "(" + L_CONTEXT + ")V");
+        }
+
+        /**
+         * Compile a call in tail position, which leaves a TailCall for the calling function to make
+         */
+        private void compileTailCall(CallExpression call) {
+            List<Node> arguments = call.getArguments();
+
+            step(call);
+            compileNode(call.getCallee());
+            loadConstant(call.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "checkCallee", "(" + L_OBJECT + L_POSITION + ")" + L_OBJECT);
+
+            code.iconst(arguments.size());
+            code.anewarray(OBJECT);
+            for (int i = 0; i < arguments.size(); i++) {
+                code.dup();
+                code.iconst(i);
+                compileNode(arguments.get(i));
+                code.aastore();
+            }
+
+            code.aload(contextLocal);
+            loadConstant(call.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "tailCall", "(" + L_OBJECT + "[" + L_OBJECT + L_CONTEXT + L_POSITION + ")" + L_OBJECT);
+        }
+
+        private void define(int slot, String name) {
+            code.aload(contextLocal);
+            code.iconst(slot);
+            loadConstant(name, STRING);
+            code.invokestatic(RUNTIME, "define", "(" + L_OBJECT + L_CONTEXT + "I" + L_STRING + ")" + L_OBJECT);
+        }
+
+        private void step(Node node) {
+            code.aload(contextLocal);
+            loadConstant(node.getPosition(), POSITION);
+            code.invokestatic(RUNTIME, "step", "(" + L_CONTEXT + L_POSITION + ")V");
+        }
+
+        /**
+         * Push an entry of the constant array, cast to the given type (null for Object)
+         */
+        private void loadConstant(Object value, String type) {
+            if (value == null) {
+                code.aconstNull();
+                return;
+            }
+
+            Integer index = constantIndex.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndex.put(value, index);
+            }
+
+            code.aload(THIS);
+            code.getfield(className, "constants", "[" + L_OBJECT);
+            code.iconst(index);
+            code.aaload();
+            if (type != null) {
+                code.checkcast(type);
+            }
+        }
+    }
+}
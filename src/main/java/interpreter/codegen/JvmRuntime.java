@@ -0,0 +1,293 @@
+package interpreter.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import interpreter.ast.Node;
+import interpreter.runtime.AllocationMeter;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FrameDescriptor;
+import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.TailCall;
+import interpreter.util.Evaluator;
+import interpreter.util.InfixOperator;
+import interpreter.util.PrefixOperator;
+
+/**
+ * Operations called from the classes generated by the {@link JvmCompiler}.
+ *
+ * <p>Generated code keeps control flow and the operand stack in JVM bytecode and calls these
+ * small static methods for everything that touches scopes, values or resource accounting, so
+ * HotSpot can inline them into the compiled script. Each method charges the same steps as the
+ * corresponding AST node. The methods are public because the generated classes live in a
+ * class loader of their own.</p>
+ */
+public final class JvmRuntime {
+    private JvmRuntime() {
+    }
+
+    public static void step(EvaluationContext context, Node.Position position) throws RuntimeError {
+        context.trackEvaluationStep(position);
+    }
+
+    public static void enterProgram(EvaluationContext context, FrameDescriptor frame, int steps, Node.Position position) throws RuntimeError {
+        context.trackEvaluationStep(position);
+        context.chargeSteps(steps, position);
+        if (frame != null) {
+            context.allocateFrame(frame);
+        }
+    }
+
+    public static EvaluationContext enterBlock(EvaluationContext context, FrameDescriptor frame, Node.Position position) throws RuntimeError {
+        context.trackEvaluationStep(position);
+        return frame != null ? context.extend(frame) : context.extend();
+    }
+
+    public static void exitBlock(EvaluationContext context) {
+        context.exit();
+    }
+
+    public static void loopIteration(EvaluationContext context, int iterationSteps, Node.Position position) throws RuntimeError {
+        context.trackLoopIteration(iterationSteps, position);
+    }
+
+    public static Object load(EvaluationContext context, int depth, int slot, String name, Node.Position position) throws RuntimeError {
+        try {
+            if (slot >= 0) {
+                return context.getSlot(depth, slot, name, position);
+            }
+            return context.get(name, position);
+        } catch (ResourceExhaustionError e) {
+            throw e;
+        } catch (RuntimeError e) {
+            throw new RuntimeError(
+                    "Undefined variable '" + name + "'",
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+
+    public static Object store(Object value, EvaluationContext context, int depth, int slot, String name, Node.Position position) throws RuntimeError {
+        if (slot >= 0) {
+            return context.assignSlot(depth, slot, name, value, position);
+        }
+        return context.assign(name, value, position);
+    }
+
+    public static Object define(Object value, EvaluationContext context, int slot, String name) throws RuntimeError {
+        if (slot >= 0) {
+            return context.defineSlot(slot, name, value);
+        }
+        return context.define(name, value);
+    }
+
+    public static Object closure(EvaluationContext context, FunctionTemplate template, Node.Position position) throws RuntimeError {
+        context.trackEvaluationStep(position);
+        return template.bind(context);
+    }
+
+    // Operators, with a fast path for the common case of two numbers
+
+    public static Object add(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left + (Double) right;
+        }
+        return Evaluator.add(left, right, context.getResourceQuota());
+    }
+
+    public static Object subtract(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left - (Double) right;
+        }
+        return Evaluator.subtract(left, right);
+    }
+
+    public static Object multiply(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left * (Double) right;
+        }
+        return Evaluator.multiply(left, right);
+    }
+
+    public static Object divide(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left / (Double) right;
+        }
+        return Evaluator.divide(left, right);
+    }
+
+    public static Object modulo(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left % (Double) right;
+        }
+        return Evaluator.modulo(left, right);
+    }
+
+    public static Object less(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left < (Double) right;
+        }
+        return Evaluator.less(left, right);
+    }
+
+    public static Object greater(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left > (Double) right;
+        }
+        return Evaluator.greater(left, right);
+    }
+
+    public static Object lessEqual(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left <= (Double) right;
+        }
+        return Evaluator.lessEqual(left, right);
+    }
+
+    public static Object greaterEqual(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left >= (Double) right;
+        }
+        return Evaluator.greaterEqual(left, right);
+    }
+
+    public static Object equal(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return ((Double) left).doubleValue() == ((Double) right).doubleValue();
+        }
+        return Evaluator.equal(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right, EvaluationContext context) throws RuntimeError {
+        if (left instanceof Double && right instanceof Double) {
+            return ((Double) left).doubleValue() != ((Double) right).doubleValue();
+        }
+        return Evaluator.notEqual(left, right);
+    }
+
+    public static Object binary(Object left, Object right, InfixOperator operator, EvaluationContext context) throws RuntimeError {
+        return operator.apply(left, right, context.getResourceQuota());
+    }
+
+    public static Object unary(Object value, PrefixOperator operator) {
+        return operator.apply(value);
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Evaluator.isTruthy(value);
+    }
+
+    // Calls
+
+    public static void enterCall(EvaluationContext context, Node.Position position) throws RuntimeError {
+        context.trackEvaluationStep(position);
+        context.trackEvaluationDepth(position);
+    }
+
+    public static Object checkCallee(Object callee, Node.Position position) throws RuntimeError {
+        if (callee == null) {
+            throw new RuntimeError(
+                    "Cannot call null as a function",
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        return callee;
+    }
+
+    public static Object call(Object callee, Object[] args, Node.Position position) throws RuntimeError {
+        if (!(callee instanceof CompiledFunction)) {
+            return Evaluator.callFunction(callee, new ArrayList<>(Arrays.asList(args)), position);
+        }
+
+        CompiledFunction function = (CompiledFunction) callee;
+        try {
+            function.checkArity(args.length);
+            return function.invoke(args);
+        } catch (RuntimeException e) {
+            // Same conversion as for any other callable function
+            if (e.getCause() instanceof RuntimeError) {
+                throw (RuntimeError) e.getCause();
+            }
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+
+    /**
+     * Leave a call of a compiled function in tail position to the calling function, and call
+     * any other function as usual
+     */
+    public static Object tailCall(Object callee, Object[] args, EvaluationContext context, Node.Position position) throws RuntimeError {
+        if (!(callee instanceof CompiledFunction)) {
+            // The step of the call was tracked by the compiled code before the callee
+            context.trackEvaluationDepth(position);
+            try {
+                return call(callee, args, position);
+            } finally {
+                exitCall(context);
+            }
+        }
+
+        CompiledFunction function = (CompiledFunction) callee;
+        try {
+            function.checkArity(args.length);
+        } catch (RuntimeException e) {
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        return new TailCall(function, args);
+    }
+
+    public static void exitCall(EvaluationContext context) {
+        context.exitEvaluationDepth();
+    }
+
+    /**
+     * Release the depth of calls interrupted by an error
+     */
+    public static void releaseCalls(EvaluationContext context, int openCalls) {
+        for (int i = 0; i < openCalls; i++) {
+            context.exitEvaluationDepth();
+        }
+    }
+
+    // Collections
+
+    public static Object index(Object collection, Object index, Node.Position position) throws RuntimeError {
+        return Evaluator.getIndex(collection, index, position);
+    }
+
+    public static Object setIndex(Object collection, Object index, Object value, Node.Position position) throws RuntimeError {
+        return Evaluator.setIndex(collection, index, value, position);
+    }
+
+    public static Object array(Object[] elements, EvaluationContext context, Node.Position position) throws RuntimeError {
+        context.trackAllocation(AllocationMeter.arrayBytes(elements.length), position);
+        return new ArrayList<>(Arrays.asList(elements));
+    }
+
+    public static Object checkKey(Object key, Node.Position position) throws RuntimeError {
+        Evaluator.checkMapKey(key, position);
+        return key;
+    }
+
+    public static Object map(Object[] pairs, EvaluationContext context, Node.Position position) throws RuntimeError {
+        context.trackAllocation(AllocationMeter.mapBytes(pairs.length / 2), position);
+        Map<Object, Object> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put(pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,15 @@
+package interpreter.codegen;
+
+/**
+ * Class loader for the classes generated from one program.
+ * The classes become unreachable together with the compiled program.
+ */
+class ScriptClassLoader extends ClassLoader {
+    ScriptClassLoader() {
+        super(CompiledBody.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -1,30 +1,80 @@
 package interpreter.lexer;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Locale;
 
 /**
  * Keywords mapping for the language
+ *
+ * <p>Keywords are found with a perfect hash of their first and last character and their
+ * length: every keyword has a slot of its own in a small table, so a lookup computes the slot
+ * and compares the characters with the one keyword there, without allocating a string.</p>
  */
 public class Keywords {
-    private static final Map<String, TokenType> KEYWORDS = new HashMap<>();
+    private static final TokenType[] KEYWORD_TYPES = {
+        TokenType.DEF, TokenType.LET, TokenType.IF, TokenType.ELSE, TokenType.WHILE,
+        TokenType.RETURN, TokenType.TRUE, TokenType.FALSE, TokenType.NULL
+    };
+    
+    // Table of the perfect hash, slots without keyword are null
+    private static final int TABLE_SIZE = 16;
+    private static final String[] LITERALS = new String[TABLE_SIZE];
+    private static final TokenType[] TYPES = new TokenType[TABLE_SIZE];
     
     static {
-        KEYWORDS.put("def", TokenType.DEF);
-        KEYWORDS.put("let", TokenType.LET);
-        KEYWORDS.put("if", TokenType.IF);
-        KEYWORDS.put("else", TokenType.ELSE);
-        KEYWORDS.put("while", TokenType.WHILE);
-        KEYWORDS.put("return", TokenType.RETURN);
-        KEYWORDS.put("true", TokenType.TRUE);
-        KEYWORDS.put("false", TokenType.FALSE);
-        KEYWORDS.put("null", TokenType.NULL);
+        for (TokenType type : KEYWORD_TYPES) {
+            String literal = type.name().toLowerCase(Locale.ROOT);
+            int slot = slotOf(literal.charAt(0), literal.charAt(literal.length() - 1), literal.length());
+            if (LITERALS[slot] != null) {
+                throw new IllegalStateException("Keywords " + LITERALS[slot] + " and " + literal + " collide");
+            }
+            LITERALS[slot] = literal;
+            TYPES[slot] = type;
+        }
+    }
+    
+    private static int slotOf(char first, char last, int length) {
+        return (first + (last << 3) + length) & (TABLE_SIZE - 1);
     }
     
     /**
      * Lookup a keyword and return its token type, or IDENTIFIER if not a keyword
      */
     public static TokenType lookup(String identifier) {
-        return KEYWORDS.getOrDefault(identifier, TokenType.IDENTIFIER);
+        int slot = find(identifier.toCharArray(), 0, identifier.length());
+        return slot >= 0 ? TYPES[slot] : TokenType.IDENTIFIER;
+    }
+    
+    /**
+     * Find a keyword in a range of characters
+     *
+     * @return The slot of the keyword, for {@link #typeAt} and {@link #literalAt}, or -1 if the
+     *         characters are not a keyword
+     */
+    static int find(char[] chars, int start, int length) {
+        if (length == 0) {
+            return -1;
+        }
+        int slot = slotOf(chars[start], chars[start + length - 1], length);
+        String literal = LITERALS[slot];
+        if (literal == null || literal.length() != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (literal.charAt(i) != chars[start + i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+    
+    static TokenType typeAt(int slot) {
+        return TYPES[slot];
+    }
+    
+    /**
+     * @return The source text of the keyword in the given slot, shared by all its tokens
+     */
+    static String literalAt(int slot) {
+        return LITERALS[slot];
     }
-} 
\ No newline at end of file
+}
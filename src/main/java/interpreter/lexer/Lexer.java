@@ -1,22 +1,114 @@
 package interpreter.lexer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Lexer class to tokenize the input source code
  * Following the KISS principle: Simple, straightforward lexical analysis
+ *
+ * <p>The input is read in chunks into a buffer that only retains the token being read, so
+ * tokens are produced incrementally with bounded memory, also from a {@link Reader} over a
+ * large file. A memory-mapped file can be lexed through a {@code CharBuffer} decoded from it,
+ * or through {@link java.nio.channels.Channels#newReader} to decode it on the fly.</p>
+ *
+ * <p>Characters are classified with lookup tables rather than chains of comparisons. Fixed
+ * tokens and keywords share the literal of their type, and identifiers are interned in a
+ * {@link SymbolTable}, so only number and string literals allocate their text.</p>
  */
 public class Lexer {
-    private final String input;
-    private int position;       // Current position in input (points to current character)
-    private int readPosition;   // Next position in input (after current character)
+    // Number of characters read from the input at once
+    static final int CHUNK_SIZE = 8192;
+    
+    // Classes of the ASCII characters, other characters are illegal outside strings
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPACE = 3;
+    private static final byte[] CLASSES = new byte[128];
+    
+    // Token of each single-character operator and delimiter, and of the two-character
+    // operators by their first character, with the second character they need
+    private static final TokenType[] SINGLE = new TokenType[128];
+    private static final TokenType[] PAIR = new TokenType[128];
+    private static final char[] PAIR_SECOND = new char[128];
+    
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = LETTER;
+            CLASSES[Character.toUpperCase(c)] = LETTER;
+        }
+        CLASSES['_'] = LETTER;
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        CLASSES[' '] = SPACE;
+        CLASSES['\t'] = SPACE;
+        CLASSES['\n'] = SPACE;
+        CLASSES['\r'] = SPACE;
+        
+        for (TokenType type : TokenType.values()) {
+            String literal = type.getLiteral();
+            if (type.name().equals(literal)) {
+                continue; // Not a fixed token
+            }
+            char first = literal.charAt(0);
+            if (literal.length() == 1) {
+                SINGLE[first] = type;
+            } else {
+                PAIR[first] = type;
+                PAIR_SECOND[first] = literal.charAt(1);
+            }
+        }
+    }
+    
+    private final Reader reader;
+    private char[] buffer;      // Characters of the input read so far and still needed
+    private int limit;          // Number of valid characters in the buffer
+    private int offset;         // Position in the input of the first character in the buffer
+    private int mark = -1;      // Start of the token being read, retained when refilling (-1 if none)
+    private boolean endOfInput; // Whether the reader has no more characters
+    private int sourceHash;     // Hash of the characters read, computed like String.hashCode()
+    
+    private int position;       // Current position in buffer (points to current character)
+    private int readPosition;   // Next position in buffer (after current character)
     private char ch;            // Current character under examination
     private int line;           // Current line number
     private int column;         // Current column number
     
-    public Lexer(String input) {
-        this.input = input;
+    private final SymbolTable symbols; // Names of the identifiers read
+    
+    /**
+     * Create a lexer over the given input, e.g. a String or a CharBuffer
+     */
+    public Lexer(CharSequence input) {
+        this(new CharSequenceReader(input), Math.max(16, Math.min(input.length() + 1, CHUNK_SIZE)),
+                new SymbolTable());
+    }
+    
+    /**
+     * Create a lexer reading its input incrementally from the given reader. The reader is
+     * not closed; I/O errors are thrown as {@link UncheckedIOException}.
+     */
+    public Lexer(Reader reader) {
+        this(reader, new SymbolTable());
+    }
+    
+    /**
+     * Create a lexer reading its input from the given reader, and interning the names of its
+     * identifiers in the given table, e.g. to share it with the lexers of other sources
+     */
+    public Lexer(Reader reader, SymbolTable symbols) {
+        this(reader, CHUNK_SIZE, symbols);
+    }
+    
+    private Lexer(Reader reader, int bufferSize, SymbolTable symbols) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+        this.symbols = symbols;
         this.position = 0;
         this.readPosition = 0;
         this.ch = 0;
@@ -30,10 +122,10 @@ public class Lexer {
      * Advances to the next character in the input
      */
     private void readChar() {
-        if (readPosition >= input.length()) {
+        if (readPosition >= limit && !fill()) {
             ch = 0; // EOF
         } else {
-            ch = input.charAt(readPosition);
+            ch = buffer[readPosition];
         }
         
         position = readPosition;
@@ -51,13 +143,104 @@ public class Lexer {
      * Peeks at the next character without advancing
      */
     private char peekChar() {
-        if (readPosition >= input.length()) {
+        if (readPosition >= limit && !fill()) {
             return 0; // EOF
         } else {
-            return input.charAt(readPosition);
+            return buffer[readPosition];
         }
     }
     
+    /**
+     * Read the next chunk of the input into the buffer, discarding the characters before the
+     * current one, or before the token being read
+     *
+     * @return Whether characters were read
+     */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        
+        int keep = mark >= 0 ? mark : Math.min(position, limit);
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            limit -= keep;
+            offset += keep;
+            position -= keep;
+            readPosition -= keep;
+            if (mark >= 0) {
+                mark -= keep;
+            }
+        }
+        if (limit == buffer.length) {
+            // The token being read is longer than the buffer
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        
+        int count;
+        try {
+            count = reader.read(buffer, limit, buffer.length - limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (count <= 0) {
+            endOfInput = true;
+            return false;
+        }
+        
+        int hash = sourceHash;
+        for (int i = limit; i < limit + count; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        sourceHash = hash;
+        limit += count;
+        return true;
+    }
+    
+    /**
+     * Start a token at the current character, retaining it in the buffer until
+     * {@link #lexeme} is called
+     */
+    private void markToken() {
+        mark = position;
+    }
+    
+    /**
+     * End the token started by {@link #markToken}
+     *
+     * @return The characters from the start of the token to the current character
+     */
+    private String lexeme() {
+        String result = new String(buffer, mark, position - mark);
+        mark = -1;
+        return result;
+    }
+    
+    /**
+     * @return The number of characters read from the input so far
+     */
+    public int getSourceLength() {
+        return offset + limit;
+    }
+    
+    /**
+     * @return The hash of the characters read from the input so far, equal to the
+     *         {@link String#hashCode()} of the whole source once it has been read
+     */
+    public int getSourceHash() {
+        return sourceHash;
+    }
+    
+    /**
+     * @return The table of the names of the identifiers read so far, by their
+     *         {@link Token#getSymbolId() id}
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+    
     /**
      * Reads the next token from the input
      */
@@ -68,145 +251,43 @@ public class Lexer {
         // This handles cases where there are multiple newlines or comments in sequence
         boolean skippedSomething;
         do {
-            int positionBeforeSkipping = position;
+            int positionBeforeSkipping = offset + position;
             skipWhitespace();
             skipComments();
             // If position didn't change, we didn't skip anything
-            skippedSomething = (position > positionBeforeSkipping);
+            skippedSomething = (offset + position > positionBeforeSkipping);
         } while (skippedSomething);
         
-        switch (ch) {
-            case '=':
-                if (peekChar() == '=') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.EQ, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.ASSIGN, String.valueOf(ch), line, column);
-                }
-                break;
-            case '+':
-                token = new Token(TokenType.PLUS, String.valueOf(ch), line, column);
-                break;
-            case '-':
-                token = new Token(TokenType.MINUS, String.valueOf(ch), line, column);
-                break;
-            case '*':
-                token = new Token(TokenType.ASTERISK, String.valueOf(ch), line, column);
-                break;
-            case '#':
-                skipComments();
-                return nextToken();
-            case '/':
-                if (peekChar() == '/' || peekChar() == '*') {
-                    skipComments();
-                    return nextToken();
-                } else {
-                    token = new Token(TokenType.SLASH, String.valueOf(ch), line, column);
-                }
-                break;
-            case '%':
-                token = new Token(TokenType.PERCENT, String.valueOf(ch), line, column);
-                break;
-            case '!':
-                if (peekChar() == '=') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.NOT_EQ, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.NOT, String.valueOf(ch), line, column);
-                }
-                break;
-            case '<':
-                if (peekChar() == '=') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.LT_EQ, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.LT, String.valueOf(ch), line, column);
-                }
-                break;
-            case '>':
-                if (peekChar() == '=') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.GT_EQ, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.GT, String.valueOf(ch), line, column);
-                }
-                break;
-            case '&':
-                if (peekChar() == '&') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.AND, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.ILLEGAL, String.valueOf(ch), line, column);
-                }
-                break;
-            case '|':
-                if (peekChar() == '|') {
-                    char currentChar = ch;
-                    readChar();
-                    String literal = currentChar + "" + ch;
-                    token = new Token(TokenType.OR, literal, line, column - 1);
-                } else {
-                    token = new Token(TokenType.ILLEGAL, String.valueOf(ch), line, column);
-                }
-                break;
-            case ',':
-                token = new Token(TokenType.COMMA, String.valueOf(ch), line, column);
-                break;
-            case ';':
-                token = new Token(TokenType.SEMICOLON, String.valueOf(ch), line, column);
-                break;
-            case '(':
-                token = new Token(TokenType.LPAREN, String.valueOf(ch), line, column);
-                break;
-            case ')':
-                token = new Token(TokenType.RPAREN, String.valueOf(ch), line, column);
-                break;
-            case '{':
-                token = new Token(TokenType.LBRACE, String.valueOf(ch), line, column);
-                break;
-            case '}':
-                token = new Token(TokenType.RBRACE, String.valueOf(ch), line, column);
-                break;
-            case '[':
-                token = new Token(TokenType.LBRACKET, String.valueOf(ch), line, column);
-                break;
-            case ']':
-                token = new Token(TokenType.RBRACKET, String.valueOf(ch), line, column);
-                break;
-            case ':':
-                token = new Token(TokenType.COLON, String.valueOf(ch), line, column);
-                break;
-            case '"':
-            case '\'':
-                int startColumn = column;
-                String stringLiteral = readString(ch);
-                return new Token(TokenType.STRING, stringLiteral, line, startColumn);
-            case 0:
-                token = new Token(TokenType.EOF, "", line, column);
-                break;
-            default:
-                if (isLetter(ch)) {
-                    int startColumn2 = column;
-                    String identifier = readIdentifier();
-                    TokenType type = Keywords.lookup(identifier);
-                    return new Token(type, identifier, line, startColumn2);
-                } else if (isDigit(ch)) {
-                    int startColumn2 = column;
-                    String number = readNumber();
-                    return new Token(TokenType.NUMBER, number, line, startColumn2);
-                } else {
-                    token = new Token(TokenType.ILLEGAL, String.valueOf(ch), line, column);
-                }
+        if (ch == 0) {
+            return new Token(TokenType.EOF, "", line, column);
+        }
+        if (ch == '"' || ch == '\'') {
+            int startColumn = column;
+            String stringLiteral = readString(ch);
+            return new Token(TokenType.STRING, stringLiteral, line, startColumn);
+        }
+        
+        byte characterClass = ch < 128 ? CLASSES[ch] : OTHER;
+        if (characterClass == LETTER) {
+            return readIdentifier();
+        } else if (characterClass == DIGIT) {
+            int startColumn = column;
+            String number = readNumber();
+            return new Token(TokenType.NUMBER, number, line, startColumn);
+        }
+        
+        TokenType type = ch < 128 ? PAIR[ch] : null;
+        if (type != null && peekChar() == PAIR_SECOND[ch]) {
+            readChar();
+            token = new Token(type, type.getLiteral(), line, column - 1);
+        } else {
+            type = ch < 128 ? SINGLE[ch] : null;
+            if (type != null) {
+                token = new Token(type, type.getLiteral(), line, column);
+            } else {
+                // A lone & or |, or a character outside the language
+                token = new Token(TokenType.ILLEGAL, String.valueOf(ch), line, column);
+            }
         }
         
         readChar();
@@ -214,21 +295,33 @@ public class Lexer {
     }
     
     /**
-     * Reads an identifier from the input
+     * Reads an identifier or keyword from the input
      */
-    private String readIdentifier() {
-        int startPosition = position;
+    private Token readIdentifier() {
+        int startColumn = column;
+        markToken();
         while (isLetter(ch) || isDigit(ch)) {
             readChar();
         }
-        return input.substring(startPosition, position);
+        int length = position - mark;
+        
+        Token token;
+        int keyword = Keywords.find(buffer, mark, length);
+        if (keyword >= 0) {
+            token = new Token(Keywords.typeAt(keyword), Keywords.literalAt(keyword), line, startColumn);
+        } else {
+            int id = symbols.intern(buffer, mark, length);
+            token = new Token(TokenType.IDENTIFIER, symbols.get(id), line, startColumn, id);
+        }
+        mark = -1;
+        return token;
     }
     
     /**
      * Reads a number from the input
      */
     private String readNumber() {
-        int startPosition = position;
+        markToken();
         boolean hasDot = false;
         
         while (isDigit(ch) || (ch == '.' && !hasDot)) {
@@ -238,7 +331,7 @@ public class Lexer {
             readChar();
         }
         
-        return input.substring(startPosition, position);
+        return lexeme();
     }
     
     /**
@@ -246,7 +339,7 @@ public class Lexer {
      */
     private String readString(char quote) {
         readChar(); // Skip the opening quote
-        int startPosition = position;
+        markToken();
         
         while (ch != 0 && ch != quote) {
             // Handle escape sequences
@@ -257,10 +350,10 @@ public class Lexer {
         }
         
         if (ch == 0) {
-            return input.substring(startPosition, position); // Unterminated string
+            return lexeme(); // Unterminated string
         }
         
-        String result = input.substring(startPosition, position);
+        String result = lexeme();
         readChar(); // Skip the closing quote
         return result;
     }
@@ -269,7 +362,7 @@ public class Lexer {
      * Skips whitespace characters
      */
     private void skipWhitespace() {
-        while (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r') {
+        while (ch < 128 && CLASSES[ch] == SPACE) {
             readChar();
         }
     }
@@ -321,14 +414,14 @@ public class Lexer {
      * Checks if the character is a letter (a-z, A-Z or _)
      */
     private boolean isLetter(char ch) {
-        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+        return ch < 128 && CLASSES[ch] == LETTER;
     }
     
     /**
      * Checks if the character is a digit (0-9)
      */
     private boolean isDigit(char ch) {
-        return ch >= '0' && ch <= '9';
+        return ch < 128 && CLASSES[ch] == DIGIT;
     }
     
     /**
@@ -345,4 +438,37 @@ public class Lexer {
         
         return tokens;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Reader over the characters of a sequence, without copying it
+     */
+    private static final class CharSequenceReader extends Reader {
+        private final CharSequence input;
+        private int next;
+        
+        CharSequenceReader(CharSequence input) {
+            this.input = input;
+        }
+        
+        @Override
+        public int read(char[] target, int off, int len) {
+            int count = Math.min(len, input.length() - next);
+            if (count <= 0) {
+                return -1;
+            }
+            if (input instanceof String) {
+                ((String) input).getChars(next, next + count, target, off);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    target[off + i] = input.charAt(next + i);
+                }
+            }
+            next += count;
+            return count;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
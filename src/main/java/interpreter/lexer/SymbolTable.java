@@ -0,0 +1,164 @@
+package interpreter.lexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the distinct identifiers of a source, each interned as one string with an integer
+ * id, so that later stages can compare names by identity or by id.
+ *
+ * <p>Identifiers are looked up directly in the characters of the lexer buffer with an
+ * open-addressing hash table, so that an identifier seen before costs no allocation. Ids are
+ * assigned in order of first appearance, starting at 0.</p>
+ *
+ * <p>Names with colliding hashes are easy to generate, and would make the probing quadratic
+ * in the number of names. When a probe sequence grows too long, the table therefore moves its
+ * names to a {@link HashMap}, whose buckets of colliding keys are balanced trees, at the cost
+ * of allocating a string for each lookup.</p>
+ *
+ * <p>A table can be shared by the lexers of several sources to intern their names together.
+ * It is not thread-safe.</p>
+ */
+public final class SymbolTable {
+    private static final int INITIAL_CAPACITY = 64;
+    // Longest probe sequence before falling back to a map
+    private static final int MAX_PROBES = 32;
+
+    // Symbols by id, and the hash of each
+    private String[] symbols = new String[INITIAL_CAPACITY / 2];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private int size;
+    // Hash table of id + 1 per slot, 0 for empty slots; at most half full
+    private int[] table = new int[INITIAL_CAPACITY];
+    // Ids by symbol once probe sequences have grown too long, otherwise null
+    private Map<String, Integer> fallback;
+
+    /**
+     * Intern the identifier in a range of characters
+     *
+     * @return The id of the identifier
+     */
+    public int intern(char[] chars, int start, int length) {
+        if (fallback != null) {
+            String symbol = new String(chars, start, length);
+            Integer id = fallback.get(symbol);
+            return id != null ? id : add(symbol, 0, -1);
+        }
+
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        int entry;
+        int probes = 0;
+        while ((entry = table[slot]) != 0) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(symbols[id], chars, start, length)) {
+                return id;
+            }
+            if (++probes > MAX_PROBES) {
+                useFallback();
+                return intern(chars, start, length);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return add(new String(chars, start, length), hash, slot);
+    }
+
+    /**
+     * Intern an identifier
+     *
+     * @return The id of the identifier
+     */
+    public int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * @return The interned identifier with the given id
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No symbol with id " + id);
+        }
+        return symbols[id];
+    }
+
+    /**
+     * @return The number of distinct identifiers
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(String symbol, int hash, int slot) {
+        int id = size++;
+        if (id == symbols.length) {
+            symbols = Arrays.copyOf(symbols, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        symbols[id] = symbol;
+        hashes[id] = hash;
+        if (fallback != null) {
+            fallback.put(symbol, id);
+            return id;
+        }
+        table[slot] = id + 1;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void useFallback() {
+        fallback = new HashMap<>(size * 2);
+        for (int id = 0; id < size; id++) {
+            fallback.put(symbols[id], id);
+        }
+        table = null;
+    }
+
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        table = grown;
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mix all bits of a hash into the low bits used by the table, so that names with
+     * consecutive hashes, like "a1", "a2", ..., do not fill runs of consecutive slots
+     */
+    private static int spread(int hash) {
+        // Finalizer of MurmurHash3
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+}
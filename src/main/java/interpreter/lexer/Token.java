@@ -2,18 +2,27 @@ package interpreter.lexer;
 
 /**
  * Token class to represent a lexical token
+ *
+ * <p>Identifier tokens carry the id of their name in the {@link SymbolTable} of the lexer, and
+ * share its interned string as literal, so that equal names can be compared by identity.</p>
  */
 public class Token {
     private final TokenType type;
     private final String literal;
     private final int line;
     private final int column;
+    private final int symbolId;
     
     public Token(TokenType type, String literal, int line, int column) {
+        this(type, literal, line, column, -1);
+    }
+    
+    public Token(TokenType type, String literal, int line, int column, int symbolId) {
         this.type = type;
         this.literal = literal;
         this.line = line;
         this.column = column;
+        this.symbolId = symbolId;
     }
     
     public TokenType getType() {
@@ -32,6 +41,14 @@ public class Token {
         return column;
     }
     
+    /**
+     * @return The id of the name of an identifier in the symbol table of the lexer, or -1 for
+     *         other tokens
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+    
     @Override
     public String toString() {
         return String.format("Token(%s, '%s', %d:%d)", type, literal, line, column);
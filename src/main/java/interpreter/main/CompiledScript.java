@@ -0,0 +1,324 @@
+package interpreter.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import interpreter.ast.Program;
+import interpreter.codegen.CompiledBody;
+import interpreter.codegen.JvmCompiler;
+import interpreter.main.Interpreter.Engine;
+import interpreter.main.Interpreter.Error;
+import interpreter.main.Interpreter.EvaluationResult;
+import interpreter.metrics.InterpreterMetrics;
+import interpreter.metrics.Metrics;
+import interpreter.runtime.AllocationMeter;
+import interpreter.runtime.CallStack;
+import interpreter.runtime.Deadline;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.Profiler;
+import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.ResourceQuota;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.SamplingProfiler;
+import interpreter.vm.BytecodeCompiler;
+import interpreter.vm.Chunk;
+import interpreter.vm.VirtualMachine;
+
+/**
+ * Program parsed once by {@link Interpreter#compile}, which can be run many times and from
+ * many threads at the same time.
+ *
+ * <p>The script captures the configuration of the interpreter when it was compiled: resource
+ * quota, library, engine, metrics and sampler. Later changes to the interpreter do not affect
+ * it. Every run gets its own evaluation context and resource usage, and can bind input
+ * variables that the script reads like variables declared outside of it.</p>
+ *
+ * <p>The bytecode of the virtual machine and the JVM classes are compiled by the first run
+ * that needs them. A race between two first runs compiles the program twice, and one of the
+ * results is kept; both are equivalent and hold no runtime state.</p>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * CompiledScript script = interpreter.compile("price * quantity;");
+ * if (!script.isSuccess()) {
+ *     System.err.println(Interpreter.formatErrors(script.getErrors()));
+ * }
+ *
+ * // On any thread
+ * EvaluationResult result = script.run(Map.of("price", 2.5, "quantity", 4.0));
+ * </pre>
+ */
+public final class CompiledScript {
+    private final Code code;
+    private final List<Error> errors;
+    private final String scriptId;
+    private final ResourceQuota resourceQuota;
+    private final LibraryRegistry library;
+    // Functions registered anew for each run, overriding those of the library
+    private final List<Consumer<EvaluationContext>> overrides;
+    private final Engine engine;
+    private final InterpreterMetrics metrics;
+    // Sampler of the call stacks of the runs, null if they are not sampled
+    private final SamplingProfiler sampler;
+
+    /**
+     * Program and its compiled forms, shared by the scripts configured from the same parse
+     */
+    private static final class Code {
+        final Program ast;
+        volatile Chunk chunk;
+        volatile CompiledBody compiledBody;
+
+        Code(Program ast) {
+            this.ast = ast;
+        }
+
+        Chunk chunk() {
+            Chunk result = chunk;
+            if (result == null) {
+                result = new BytecodeCompiler().compile(ast);
+                chunk = result;
+            }
+            return result;
+        }
+
+        CompiledBody compiledBody() {
+            CompiledBody result = compiledBody;
+            if (result == null) {
+                try {
+                    result = new JvmCompiler().compile(ast);
+                } catch (IllegalStateException e) {
+                    // The program exceeds a limit of the class file format, like the size of a
+                    // method: run it on the virtual machine, which counts steps the same way
+                    Chunk program = chunk();
+                    result = context -> new VirtualMachine().execute(program, context);
+                }
+                compiledBody = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param ast The parsed program, null if parsing failed
+     * @param errors The parse errors
+     */
+    CompiledScript(Program ast, List<Error> errors, String scriptId, ResourceQuota resourceQuota,
+                   LibraryRegistry library, List<Consumer<EvaluationContext>> overrides, Engine engine,
+                   InterpreterMetrics metrics, SamplingProfiler sampler) {
+        this(new Code(ast), errors, scriptId, resourceQuota, library, overrides, engine, metrics, sampler);
+    }
+
+    private CompiledScript(Code code, List<Error> errors, String scriptId, ResourceQuota resourceQuota,
+                           LibraryRegistry library, List<Consumer<EvaluationContext>> overrides, Engine engine,
+                           InterpreterMetrics metrics, SamplingProfiler sampler) {
+        this.code = code;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.scriptId = scriptId;
+        this.resourceQuota = resourceQuota;
+        this.library = library;
+        this.overrides = overrides;
+        this.engine = engine;
+        this.metrics = metrics;
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return This script if it has the given configuration, otherwise a script sharing its
+     *         program and compiled code with the given configuration
+     */
+    CompiledScript configure(String scriptId, ResourceQuota resourceQuota, Engine engine,
+                             InterpreterMetrics metrics, SamplingProfiler sampler) {
+        if (this.scriptId == scriptId && this.resourceQuota == resourceQuota && this.engine == engine
+                && this.metrics == metrics && this.sampler == sampler) {
+            return this;
+        }
+        return new CompiledScript(code, errors, scriptId, resourceQuota, library, overrides, engine,
+                metrics, sampler);
+    }
+
+    Program getAst() {
+        return code.ast;
+    }
+
+    /**
+     * @return Whether the script was parsed without errors and can be run
+     */
+    public boolean isSuccess() {
+        return code.ast != null && errors.isEmpty();
+    }
+
+    /**
+     * @return The parse errors
+     */
+    public List<Error> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return The id of the script in flight recorder events
+     */
+    public String getScriptId() {
+        return scriptId;
+    }
+
+    public ResourceQuota getResourceQuota() {
+        return resourceQuota;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Run the script without input variables
+     */
+    public EvaluationResult run() {
+        return run(Collections.emptyMap());
+    }
+
+    /**
+     * Run the script in a new evaluation context
+     *
+     * @param bindings Input variables of the run, by name. The values must be values of the
+     *        script language: numbers, strings, booleans, lists, maps or functions.
+     */
+    public EvaluationResult run(Map<String, ?> bindings) {
+        return run(bindings, null);
+    }
+
+    /**
+     * Run the script in a new evaluation context
+     *
+     * @param bindings Input variables of the run, by name
+     * @param profiler The profiler recording the run, null if it is not profiled
+     */
+    EvaluationResult run(Map<String, ?> bindings, Profiler profiler) {
+        FlightEvents.EvaluateEvent event = new FlightEvents.EvaluateEvent();
+        event.begin();
+        // Let events emitted during the evaluation refer to the script
+        String previousScriptId = FlightEvents.enterScript(scriptId);
+        InterpreterMetrics previousMetrics = Metrics.enter(metrics);
+        long start = System.nanoTime();
+        EvaluationResult result = null;
+        try {
+            result = runInContext(bindings, profiler);
+            return result;
+        } finally {
+            FlightEvents.restoreScriptId(previousScriptId);
+            Metrics.restore(previousMetrics);
+            if (result != null) {
+                metrics.evaluated(System.nanoTime() - start, result.isSuccess(), result.getResourceUsage());
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.scriptId = scriptId;
+                event.engine = engine.name();
+                if (result != null) {
+                    event.success = result.isSuccess();
+                    if (result.getResourceUsage() != null) {
+                        event.steps = result.getResourceUsage().getEvaluationSteps();
+                        event.loopIterations = result.getResourceUsage().getLoopIterations();
+                        event.allocatedBytes = result.getResourceUsage().getAllocatedBytes();
+                    }
+                    if (!result.getErrors().isEmpty()) {
+                        event.line = result.getErrors().get(0).getLine();
+                        event.column = result.getErrors().get(0).getColumn();
+                    }
+                }
+                event.commit();
+            }
+        }
+    }
+
+    private EvaluationResult runInContext(Map<String, ?> bindings, Profiler profiler) {
+        List<Error> errors = new ArrayList<>();
+        EvaluationContext context = null;
+
+        try {
+            context = new EvaluationContext(resourceQuota, library);
+            context.setMetrics(metrics);
+
+            // The library is shared, only overrides are registered per evaluation
+            for (Consumer<EvaluationContext> override : overrides) {
+                override.accept(context);
+            }
+
+            // Check if we have a valid AST
+            if (!isSuccess()) {
+                if (this.errors.isEmpty()) {
+                    errors.add(new Error("No AST to evaluate. Parse code first.", 0, 0));
+                } else {
+                    errors.addAll(this.errors);
+                }
+
+                return new EvaluationResult(false, null, errors);
+            }
+
+            Object result;
+            // Let library functions check the time limits of this evaluation
+            Deadline previousDeadline = Deadline.enter(context.getDeadline());
+            AllocationMeter previousMeter = AllocationMeter.enter(context.getAllocationMeter());
+            if (profiler != null) {
+                context.setProfiler(profiler);
+                profiler.start();
+            }
+            CallStack callStack = sampler != null ? new CallStack() : null;
+            if (callStack != null) {
+                context.setCallStack(callStack);
+                callStack.push(Profiler.PROGRAM, 0);
+                sampler.register(callStack);
+            }
+            try {
+                // Inputs are bound outside of the slots of the program, like library functions
+                for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+                    context.define(binding.getKey(), binding.getValue());
+                }
+
+                if (engine == Engine.BYTECODE_VM) {
+                    result = new VirtualMachine().execute(code.chunk(), context);
+                } else if (engine == Engine.JVM_BYTECODE) {
+                    result = code.compiledBody().execute(context);
+                } else {
+                    result = code.ast.evaluate(context);
+                }
+            } finally {
+                Deadline.restore(previousDeadline);
+                AllocationMeter.restore(previousMeter);
+                if (profiler != null) {
+                    profiler.stop();
+                }
+                if (callStack != null) {
+                    sampler.unregister(callStack);
+                }
+            }
+
+            return new EvaluationResult(true, result, new ArrayList<>(), context.getResourceUsage());
+        } catch (ResourceExhaustionError e) {
+            // Handle resource exhaustion errors
+            errors.add(new Error(e.getMessage(), e.getLine(), e.getColumn()));
+            metrics.quotaExceeded(e.getLimitType());
+
+            return new EvaluationResult(false, null, errors, usageOf(context));
+        } catch (RuntimeError e) {
+            // Handle runtime errors
+            errors.add(new Error(e.getMessage(), e.getLine(), e.getColumn()));
+
+            return new EvaluationResult(false, null, errors, usageOf(context));
+        } catch (Exception e) {
+            // Handle unexpected errors
+            errors.add(new Error("Unexpected error: " + e.getMessage(), 0, 0));
+
+            return new EvaluationResult(false, null, errors, usageOf(context));
+        }
+    }
+
+    private static EvaluationContext.ResourceUsage usageOf(EvaluationContext context) {
+        return context != null ? context.getResourceUsage() : null;
+    }
+}
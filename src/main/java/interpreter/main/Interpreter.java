@@ -5,29 +5,68 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
+import interpreter.analysis.Optimizer;
+import interpreter.analysis.Resolver;
+import interpreter.analysis.StepCounter;
 import interpreter.ast.Program;
 import interpreter.lexer.Lexer;
+import interpreter.metrics.InterpreterMetrics;
 import interpreter.parser.Parser;
+import interpreter.runtime.AllocationMeter;
 import interpreter.runtime.CallableFunction;
+import interpreter.runtime.Deadline;
 import interpreter.runtime.EvaluationContext;
-import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.Profiler;
 import interpreter.runtime.ResourceQuota;
-import interpreter.runtime.RuntimeError;
+import interpreter.runtime.SamplingProfiler;
 
 /**
  * Main Interpreter class that orchestrates lexing, parsing, and evaluation of code.
  * This is the primary entry point for using the interpreter.
  */
 public class Interpreter {
-    private Program ast;
-    private Consumer<EvaluationContext>[] libraryFunctionInitializers;
+    // Parsed program with the configuration of the last evaluation, null if nothing was parsed
+    private CompiledScript script;
+    private final LibraryRegistry library;
+    // Functions registered anew for each evaluation, overriding those of the library
+    private final List<Consumer<EvaluationContext>> libraryFunctionInitializers = new ArrayList<>();
     private ResourceQuota resourceQuota;
+    private Engine engine = Engine.TREE_WALKER;
+    private boolean profiling;
+    private boolean optimizing;
+    // Profile of the last evaluation, null if it was not profiled
+    private Profiler.Report profile;
+    // Sampler of the call stacks of the following evaluations, null if they are not sampled
+    private SamplingProfiler sampler;
+    // Id of the parsed script in flight recorder events, derived from the source unless set
+    private String scriptId;
+    private boolean customScriptId;
+    private InterpreterMetrics metrics = InterpreterMetrics.NONE;
+    // Parsed programs shared with other interpreters, null if every parse starts from scratch
+    private ProgramCache programCache;
+    
+    /**
+     * Execution engines available for evaluating a parsed program
+     */
+    public enum Engine {
+        /** Recursive evaluation of the AST nodes */
+        TREE_WALKER,
+        /** Compilation to bytecode executed by the stack-based virtual machine */
+        BYTECODE_VM,
+        /** Compilation to JVM classes, which are further optimized by the JIT compiler of the JVM */
+        JVM_BYTECODE
+    }
     
 	/**
      * Error class to represent parser or runtime errors
@@ -68,11 +107,17 @@ public class Interpreter {
         private final boolean success;
         private final Program ast;
         private final List<Error> errors;
+        private final int removedNodes;
         
         public ParseResult(boolean success, Program ast, List<Error> errors) {
+            this(success, ast, errors, 0);
+        }
+        
+        public ParseResult(boolean success, Program ast, List<Error> errors, int removedNodes) {
             this.success = success;
             this.ast = ast;
             this.errors = errors;
+            this.removedNodes = removedNodes;
         }
         
         public boolean isSuccess() {
@@ -86,6 +131,13 @@ public class Interpreter {
         public List<Error> getErrors() {
             return errors;
         }
+        
+        /**
+         * @return The number of AST nodes removed by the optimizer, 0 if it is not enabled
+         */
+        public int getRemovedNodes() {
+            return removedNodes;
+        }
     }
     
     /**
@@ -95,11 +147,18 @@ public class Interpreter {
         private final boolean success;
         private final Object result;
         private final List<Error> errors;
+        private final EvaluationContext.ResourceUsage resourceUsage;
         
         public EvaluationResult(boolean success, Object result, List<Error> errors) {
+            this(success, result, errors, null);
+        }
+        
+        public EvaluationResult(boolean success, Object result, List<Error> errors,
+                                EvaluationContext.ResourceUsage resourceUsage) {
             this.success = success;
             this.result = result;
             this.errors = errors;
+            this.resourceUsage = resourceUsage;
         }
         
         public boolean isSuccess() {
@@ -113,28 +172,48 @@ public class Interpreter {
         public List<Error> getErrors() {
             return errors;
         }
+        
+        /**
+         * @return The resources used by the evaluation, including when it failed, or null if
+         *         it did not start
+         */
+        public EvaluationContext.ResourceUsage getResourceUsage() {
+            return resourceUsage;
+        }
+    }
+    
+    /**
+     * Holder of the standard library, built when the first interpreter using it is created
+     */
+    private static final class DefaultLibrary {
+        static final LibraryRegistry INSTANCE = LibraryRegistry.of(new DefaultLibraryFunctionsInitializer(), 
+                new MapLibraryFunctionsInitializer(), new ArrayLibraryFunctionsInitializer(), 
+                new StringLibraryFunctionsInitializer(), new RegexLibraryFunctionsInitializer(), 
+                new TypeLibraryFunctionsInitializer());
+    }
+    
+    /**
+     * @return The standard library functions without standard I/O, shared by all interpreters
+     *         created without library function initializers. Each of these interpreters
+     *         registers its own {@link StdIOLibraryFunctionsInitializer} for every evaluation,
+     *         on the standard streams of the time it was created.
+     */
+    public static LibraryRegistry defaultLibrary() {
+        return DefaultLibrary.INSTANCE;
     }
     
     /**
      * Creates a new Interpreter instance with fresh context.
      */
-    @SuppressWarnings("unchecked")
 	public Interpreter() {
-    	this(new ResourceQuota(), new DefaultLibraryFunctionsInitializer(), 
-             new StdIOLibraryFunctionsInitializer(), new MapLibraryFunctionsInitializer(),
-             new ArrayLibraryFunctionsInitializer(), new StringLibraryFunctionsInitializer(),
-             new RegexLibraryFunctionsInitializer(), new TypeLibraryFunctionsInitializer());
+    	this(new ResourceQuota());
     }
     
     /**
      * Creates a new Interpreter instance with custom resource quotas
      */
-    @SuppressWarnings("unchecked")
     public Interpreter(ResourceQuota resourceQuota) {
-        this(resourceQuota, new DefaultLibraryFunctionsInitializer(), 
-             new StdIOLibraryFunctionsInitializer(), new MapLibraryFunctionsInitializer(),
-             new ArrayLibraryFunctionsInitializer(), new StringLibraryFunctionsInitializer(),
-             new RegexLibraryFunctionsInitializer(), new TypeLibraryFunctionsInitializer());
+        this(resourceQuota, defaultLibrary(), new StdIOLibraryFunctionsInitializer());
     }
     
     @SuppressWarnings("unchecked")
@@ -142,33 +221,172 @@ public class Interpreter {
     	this(new ResourceQuota(), libraryFunctionInitializers);
     }
     
+    /**
+     * Creates a new Interpreter instance whose library functions are registered by the given
+     * initializers for each evaluation
+     */
     @SuppressWarnings("unchecked")
     public Interpreter(ResourceQuota resourceQuota, Consumer<EvaluationContext>... libraryFunctionInitializers) {
-    	this.ast = null;
-    	this.libraryFunctionInitializers = libraryFunctionInitializers;
-        this.resourceQuota = resourceQuota;
+    	this(resourceQuota, LibraryRegistry.empty(), libraryFunctionInitializers);
     }
     
     /**
-     * Register built-in functions that should be available by default
+     * Creates a new Interpreter instance using a prebuilt library, which may be shared with other
+     * interpreters
+     * 
+     * @param resourceQuota The resource limits of each evaluation
+     * @param library The library functions
+     * @param overrides Initializers run for each evaluation, e.g. to replace single library functions
      */
-	private void registerBuiltInFunctions(EvaluationContext context) { 
-		for (Consumer<EvaluationContext> libraryFunctionInitializer : libraryFunctionInitializers) { 
-			libraryFunctionInitializer.accept(context);
-		}
+    @SafeVarargs
+    public Interpreter(ResourceQuota resourceQuota, LibraryRegistry library, Consumer<EvaluationContext>... overrides) {
+    	this.library = library;
+    	for (Consumer<EvaluationContext> override : overrides) {
+    	    this.libraryFunctionInitializers.add(override);
+    	}
+        this.resourceQuota = resourceQuota;
     }
     
     /**
      * Parse the source code and generate an AST
      */
     public ParseResult parse(String sourceCode) {
+        if (!customScriptId) {
+            this.scriptId = defaultScriptId(sourceCode);
+        }
+        ParseResult result = parseProgram(sourceCode, scriptId);
+        
+        // Programs with errors are evaluated as far as they were parsed
+        this.script = new CompiledScript(result.getAst(), new ArrayList<>(), scriptId, resourceQuota,
+                library, libraryFunctionInitializers, engine, metrics, sampler);
+        return result;
+    }
+    
+    /**
+     * Parse the source code once into a script that can be run many times, also concurrently.
+     * The script keeps the current configuration of this interpreter, and the state of this
+     * interpreter is left unchanged.
+     * 
+     * @return The script, which cannot be run if it has parse errors
+     */
+    public CompiledScript compile(String sourceCode) {
+        String id = customScriptId ? scriptId : defaultScriptId(sourceCode);
+        ParseResult result = parseProgram(sourceCode, id);
+        
+        return new CompiledScript(result.getAst(), result.getErrors(), id, resourceQuota, library,
+                libraryFunctionInitializers, engine, metrics, sampler);
+    }
+    
+    /**
+     * Use a program that was parsed (and optimized, if enabled) earlier from the given source, e.g. read back
+     * by {@link interpreter.ast.ProgramSerializer}, instead of parsing the source again
+     * 
+     * @param sourceCode The source of the program, to identify the script
+     * @param program The program, which must not have been resolved yet
+     */
+    public ParseResult load(String sourceCode, Program program) {
+        if (!customScriptId) {
+            this.scriptId = defaultScriptId(sourceCode);
+        }
+        new Resolver().resolve(program);
+        new StepCounter().count(program);
+        
+        this.script = new CompiledScript(program, new ArrayList<>(), scriptId, resourceQuota,
+                library, libraryFunctionInitializers, engine, metrics, sampler);
+        return new ParseResult(true, program, new ArrayList<>());
+    }
+    
+    private static String defaultScriptId(String sourceCode) {
+        return defaultScriptId(sourceCode.hashCode());
+    }
+    
+    private static String defaultScriptId(int sourceHash) {
+        return String.format("%08x", sourceHash);
+    }
+    
+    /**
+     * Parse the source code, or take its program from the program cache
+     */
+    private ParseResult parseProgram(String sourceCode, String scriptId) {
+        FlightEvents.ParseEvent event = new FlightEvents.ParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        ParseResult result = null;
+        try {
+            String key = programCache != null ? ProgramCache.keyOf(sourceCode, resourceQuota, optimizing) : null;
+            result = key != null ? programCache.get(key) : null;
+            if (result == null) {
+                result = parseSource(new Lexer(sourceCode));
+                if (key != null && result.isSuccess()) {
+                    programCache.put(key, result);
+                }
+            }
+            return result;
+        } finally {
+            recordParse(event, start, result, scriptId, sourceCode.length());
+        }
+    }
+    
+    /**
+     * Parse source code read incrementally from the given reader, keeping only the parsed
+     * program in memory. The program cache is not used, since programs are looked up by
+     * their source. The reader is not closed.
+     * 
+     * @throws IOException If the reader fails
+     */
+    public ParseResult parse(Reader reader) throws IOException {
+        FlightEvents.ParseEvent event = new FlightEvents.ParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Lexer lexer = null;
+        ParseResult result = null;
         try {
-            // Create lexer and parser
-            Lexer lexer = new Lexer(sourceCode);
+            lexer = new Lexer(reader);
+            result = parseSource(lexer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // The id derived from the source is the same as if it had been parsed from a string
+            if (!customScriptId && lexer != null) {
+                this.scriptId = defaultScriptId(lexer.getSourceHash());
+            }
+            recordParse(event, start, result, scriptId, lexer != null ? lexer.getSourceLength() : 0);
+        }
+        
+        // Programs with errors are evaluated as far as they were parsed
+        this.script = new CompiledScript(result.getAst(), new ArrayList<>(), scriptId, resourceQuota,
+                library, libraryFunctionInitializers, engine, metrics, sampler);
+        return result;
+    }
+    
+    private void recordParse(FlightEvents.ParseEvent event, long start, ParseResult result, String scriptId,
+                             int sourceLength) {
+        metrics.parsed(System.nanoTime() - start, result != null && result.isSuccess());
+        event.scriptId = scriptId;
+        event.sourceLength = sourceLength;
+        event.errors = result != null ? result.getErrors().size() : 0;
+        event.commit();
+    }
+    
+    /**
+     * Lex, parse, optimize and analyze the source code read by the lexer
+     */
+    private ParseResult parseSource(Lexer lexer) {
+        try {
+            // Create parser
             Parser parser = new Parser(lexer);
             
             // Parse the program to generate AST
-            this.ast = parser.parseProgram();
+            Program program = parser.parseProgram();
+            
+            // Fold constants and remove unreachable code before variables are resolved
+            int removedNodes = optimizing ? new Optimizer(resourceQuota).optimize(program) : 0;
+            
+            // Bind variables to slots so that evaluation can skip name lookups
+            new Resolver().resolve(program);
+            
+            // Compute the steps charged in bulk by amortized step accounting
+            new StepCounter().count(program);
             
             // Collect any errors from the parser
             List<Error> errors = new ArrayList<>();
@@ -176,7 +394,10 @@ public class Interpreter {
                 errors.add(new Error(error.getMessage(), error.getLine(), error.getColumn()));
             }
             
-            return new ParseResult(errors.isEmpty(), this.ast, errors);
+            return new ParseResult(errors.isEmpty(), program, errors, removedNodes);
+        } catch (UncheckedIOException e) {
+            // Failure of the input rather than of the parser
+            throw e;
         } catch (Exception e) {
         	List<Error> errors = new ArrayList<>();
             errors.add(new Error("Unexpected error: " + e.getMessage(), 0, 0));
@@ -189,39 +410,21 @@ public class Interpreter {
      * Evaluate the AST and return the result
      */
     public EvaluationResult evaluate() {
-    	List<Error> errors = new ArrayList<>();
+        if (script == null) {
+            script = new CompiledScript(null, new ArrayList<>(), scriptId, resourceQuota, library,
+                    libraryFunctionInitializers, engine, metrics, sampler);
+        }
+        // Settings changed since the last evaluation apply to this one, the compiled code is kept
+        script = script.configure(scriptId, resourceQuota, engine, metrics, sampler);
         
+        Profiler profiler = profiling && script.getAst() != null ? new Profiler() : null;
+        this.profile = null;
         try {
-        	EvaluationContext context = new EvaluationContext(resourceQuota);
-            
-            // Re-register built-in functions
-            registerBuiltInFunctions(context); 
-            
-            // Check if we have a valid AST
-            if (this.ast == null) {
-                errors.add(new Error("No AST to evaluate. Parse code first.", 0, 0));
-                
-                return new EvaluationResult(false, null, errors);
+            return script.run(Collections.emptyMap(), profiler);
+        } finally {
+            if (profiler != null) {
+                this.profile = profiler.report();
             }
-            
-            Object result = this.ast.evaluate(context);
-            
-            return new EvaluationResult(true, result, new ArrayList<>());
-        } catch (ResourceExhaustionError e) {
-            // Handle resource exhaustion errors
-            errors.add(new Error(e.getMessage(), e.getLine(), e.getColumn()));
-            
-            return new EvaluationResult(false, null, errors);
-        } catch (RuntimeError e) {
-            // Handle runtime errors
-            errors.add(new Error(e.getMessage(), e.getLine(), e.getColumn()));
-            
-            return new EvaluationResult(false, null, errors);
-        } catch (Exception e) {
-            // Handle unexpected errors
-            errors.add(new Error("Unexpected error: " + e.getMessage(), 0, 0));
-            
-            return new EvaluationResult(false, null, errors);
         }
     }
     
@@ -229,11 +432,11 @@ public class Interpreter {
      * Return a JSON representation of the AST for visualization
      */
     public String getAstJson() {
-        if (this.ast == null) {
+        if (script == null || script.getAst() == null) {
             return null;
         }
         
-        return this.ast.toJson();
+        return script.getAst().toJson();
     }
     
     /**
@@ -376,6 +579,7 @@ public class Interpreter {
                 
                 @SuppressWarnings("unchecked")
                 List<Object> array = (List<Object>) arrayArg;
+                AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_ELEMENT_BYTES);
                 array.add(value);
                 
                 return value;
@@ -466,6 +670,7 @@ public class Interpreter {
                 @SuppressWarnings("unchecked")
                 Map<Object, Object> map = (Map<Object, Object>) arg;
                 
+                AllocationMeter.chargeFromLibrary(AllocationMeter.arrayBytes(map.size()));
                 return new ArrayList<>(map.keySet());
             });
             
@@ -483,6 +688,7 @@ public class Interpreter {
                 @SuppressWarnings("unchecked")
                 Map<Object, Object> map = (Map<Object, Object>) arg;
                 
+                AllocationMeter.chargeFromLibrary(AllocationMeter.arrayBytes(map.size()));
                 return new ArrayList<>(map.values());
             });
         }
@@ -518,6 +724,7 @@ public class Interpreter {
                     throw new RuntimeException("String index out of bounds: " + index);
                 }
                 
+                AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(1));
                 return String.valueOf(str.charAt(index));
             });
             
@@ -556,6 +763,7 @@ public class Interpreter {
                 
                 int code = ((Number) codeArg).intValue();
                 
+                AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(1));
                 return String.valueOf((char) code);
             });
             
@@ -599,6 +807,7 @@ public class Interpreter {
                 
                 int end = Math.min(start + length, str.length());
                 
+                AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(end - start));
                 return str.substring(start, end);
             });
             
@@ -662,7 +871,9 @@ public class Interpreter {
                 
                 String str = (String) strArg;
                 
-                return str.trim();
+                String trimmed = str.trim();
+                AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(trimmed.length()));
+                return trimmed;
             });
             
             // join(array, delimiter) - Join array elements with delimiter
@@ -687,11 +898,17 @@ public class Interpreter {
                 String delimiter = (String) delimiterArg;
                 
                 StringBuilder result = new StringBuilder();
+                AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(0));
                 
                 for (int i = 0; i < array.size(); i++) {
-                    result.append(array.get(i));
+                    Deadline.checkCurrent();
+                    // Charge each part before appending it, so the limit stops a large result
+                    String part = String.valueOf(array.get(i));
+                    AllocationMeter.chargeFromLibrary(part.length());
+                    result.append(part);
                     
                     if (i < array.size() - 1) {
+                        AllocationMeter.chargeFromLibrary(delimiter.length());
                         result.append(delimiter);
                     }
                 }
@@ -724,15 +941,18 @@ public class Interpreter {
                     throw new RuntimeException("Second argument to match() must be a string");
                 }
                 
+                FlightEvents.RegexEvent regexEvent = FlightEvents.beginRegex("match", (String) patternArg, (String) strArg);
                 try {
                     String str = (String) strArg;
                     String pattern = (String) patternArg;
                     // Unescape backslashes in the pattern
                     pattern = pattern.replace("\\\\", "\\");
                     
-                    return str.matches(pattern);
+                    return java.util.regex.Pattern.matches(pattern, Deadline.guard(str));
                 } catch (java.util.regex.PatternSyntaxException e) {
                     throw new RuntimeException("Invalid regex pattern: " + e.getMessage());
+                } finally {
+                    FlightEvents.endRegex(regexEvent);
                 }
             });
             
@@ -753,6 +973,7 @@ public class Interpreter {
                     throw new RuntimeException("Second argument to findAll() must be a string");
                 }
                 
+                FlightEvents.RegexEvent regexEvent = FlightEvents.beginRegex("findAll", (String) patternArg, (String) strArg);
                 try {
                     String str = (String) strArg;
                     String patternStr = (String) patternArg;
@@ -760,16 +981,22 @@ public class Interpreter {
                     patternStr = patternStr.replace("\\\\", "\\");
                     
                     java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(patternStr);
-                    java.util.regex.Matcher matcher = pattern.matcher(str);
+                    java.util.regex.Matcher matcher = pattern.matcher(Deadline.guard(str));
                     
+                    AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_BYTES);
                     List<String> matches = new ArrayList<>();
                     while (matcher.find()) {
-                        matches.add(matcher.group());
+                        String match = matcher.group();
+                        AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_ELEMENT_BYTES
+                                + AllocationMeter.stringBytes(match.length()));
+                        matches.add(match);
                     }
                     
                     return matches;
                 } catch (java.util.regex.PatternSyntaxException e) {
                     throw new RuntimeException("Invalid regex pattern: " + e.getMessage());
+                } finally {
+                    FlightEvents.endRegex(regexEvent);
                 }
             });
             
@@ -795,6 +1022,7 @@ public class Interpreter {
                     throw new RuntimeException("Third argument to replace() must be a string");
                 }
                 
+                FlightEvents.RegexEvent regexEvent = FlightEvents.beginRegex("replace", (String) patternArg, (String) strArg);
                 try {
                     String str = (String) strArg;
                     String patternStr = (String) patternArg;
@@ -802,9 +1030,26 @@ public class Interpreter {
                     // Unescape backslashes in the pattern
                     patternStr = patternStr.replace("\\\\", "\\");
                     
-                    return str.replaceAll(patternStr, replacement);
+                    java.util.regex.Matcher matcher = java.util.regex.Pattern.compile(patternStr).matcher(Deadline.guard(str));
+                    
+                    // Replace like Matcher.replaceAll(), charging the result as it grows, so the
+                    // limit stops a large result before it is built
+                    AllocationMeter.chargeFromLibrary(AllocationMeter.stringBytes(0));
+                    StringBuilder replaced = new StringBuilder();
+                    int tail = 0;
+                    while (matcher.find()) {
+                        int length = replaced.length();
+                        matcher.appendReplacement(replaced, replacement);
+                        AllocationMeter.chargeFromLibrary(replaced.length() - length);
+                        tail = matcher.end();
+                    }
+                    AllocationMeter.chargeFromLibrary(str.length() - tail);
+                    matcher.appendTail(replaced);
+                    return replaced.toString();
                 } catch (java.util.regex.PatternSyntaxException e) {
                     throw new RuntimeException("Invalid regex pattern: " + e.getMessage());
+                } finally {
+                    FlightEvents.endRegex(regexEvent);
                 }
             });
             
@@ -825,23 +1070,38 @@ public class Interpreter {
                     throw new RuntimeException("Second argument to split() must be a string");
                 }
                 
+                FlightEvents.RegexEvent regexEvent = FlightEvents.beginRegex("split", (String) patternArg, (String) strArg);
                 try {
                     String str = (String) strArg;
                     String patternStr = (String) patternArg;
                     // Unescape backslashes in the pattern
                     patternStr = patternStr.replace("\\\\", "\\"); // FIXME
                     
-                    // Use -1 as the limit to preserve trailing empty strings
-                    String[] parts = str.split(patternStr, -1);
-                    
+                    // Split like Pattern.split() with a negative limit, which preserves trailing
+                    // empty strings, charging each part before it is created
+                    CharSequence input = Deadline.guard(str);
+                    java.util.regex.Matcher matcher = java.util.regex.Pattern.compile(patternStr).matcher(input);
+                    AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_BYTES);
                     List<String> result = new ArrayList<>();
-                    for (String part : parts) {
-                        result.add(part);
+                    int index = 0;
+                    while (matcher.find()) {
+                        if (index == 0 && matcher.start() == 0 && matcher.end() == 0) {
+                            continue; // A zero-width match at the beginning gives no empty leading part
+                        }
+                        AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_ELEMENT_BYTES
+                                + AllocationMeter.stringBytes(matcher.start() - index));
+                        result.add(str.substring(index, matcher.start()));
+                        index = matcher.end();
                     }
+                    AllocationMeter.chargeFromLibrary(AllocationMeter.ARRAY_ELEMENT_BYTES
+                            + AllocationMeter.stringBytes(str.length() - index));
+                    result.add(str.substring(index));
                     
                     return result;
                 } catch (java.util.regex.PatternSyntaxException e) {
                     throw new RuntimeException("Invalid regex pattern: " + e.getMessage());
+                } finally {
+                    FlightEvents.endRegex(regexEvent);
                 }
             });
         }
@@ -958,4 +1218,114 @@ public class Interpreter {
     public void setResourceQuota(ResourceQuota resourceQuota) {
         this.resourceQuota = resourceQuota;
     }
+    
+    /**
+     * Get the engine used to evaluate the parsed program
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Select the engine used to evaluate the parsed program
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+    
+    /**
+     * Record calls, time and steps per function and per line in the following evaluations,
+     * see {@link Profiler}. Profiling is off by default, and costs nothing while it is off.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+    
+    public boolean isProfiling() {
+        return profiling;
+    }
+    
+    /**
+     * Fold constants and remove unreachable code of the programs parsed next, see
+     * {@link Optimizer}. Optimization is off by default: the steps of the removed nodes are not
+     * charged, so an optimized program can stay within a step limit that it would exceed as
+     * written.
+     */
+    public void setOptimizing(boolean optimizing) {
+        this.optimizing = optimizing;
+    }
+    
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+    
+    /**
+     * Sample the script call stacks of the following evaluations with the given sampler, which
+     * can be shared with other interpreters. Unlike {@link #setProfiling profiling}, sampling
+     * only maintains the call stack on calls, and is cheap enough to stay enabled in production.
+     * 
+     * @param sampler The sampler, null to stop sampling
+     */
+    public void setSampler(SamplingProfiler sampler) {
+        this.sampler = sampler;
+    }
+    
+    public SamplingProfiler getSampler() {
+        return sampler;
+    }
+    
+    /**
+     * @return The profile of the last evaluation, also when it failed, or null if it was not
+     *         profiled
+     */
+    public Profiler.Report getProfile() {
+        return profile;
+    }
+    
+    /**
+     * Report parse and evaluation activity to the given metrics, which can be shared with other
+     * interpreters
+     * 
+     * @param metrics The metrics, {@link InterpreterMetrics#NONE} (the default) or null to
+     *        report nothing
+     */
+    public void setMetrics(InterpreterMetrics metrics) {
+        this.metrics = metrics != null ? metrics : InterpreterMetrics.NONE;
+    }
+    
+    public InterpreterMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Look up parsed programs in the given cache before parsing, and add successfully parsed
+     * programs to it. The cache can be shared with other interpreters.
+     * 
+     * @param programCache The cache, null to always parse from scratch
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        this.programCache = programCache;
+    }
+    
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+    
+    /**
+     * Set the id of the scripts parsed next, reported in flight recorder events (see
+     * {@link FlightEvents}). By default, the id is derived from the source code.
+     * 
+     * @param scriptId The id, null to derive it from the source code again
+     */
+    public void setScriptId(String scriptId) {
+        this.scriptId = scriptId;
+        this.customScriptId = scriptId != null;
+    }
+    
+    /**
+     * @return The id of the parsed script, or null if no script has been parsed and no id set
+     */
+    public String getScriptId() {
+        return scriptId;
+    }
 }
@@ -1,6 +1,7 @@
 package interpreter.main;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,6 +16,12 @@ public class InterpreterCLI {
 
     private static final int SUCCESS_EXIT_CODE = 0;
     private static final int ERROR_EXIT_CODE = 1;
+    
+    /**
+     * System property naming the directory of parsed scripts (see {@link ScriptFileCache}),
+     * empty to parse every run from scratch. Defaults to ~/.cache/interpreterj.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "interpreter.cacheDir";
 
     public static void main(String[] args) {
         // Validate arguments
@@ -23,25 +30,31 @@ public class InterpreterCLI {
             System.exit(ERROR_EXIT_CODE);
         }
 
-        String scriptPath = args[0];
-        String sourceCode;
+        Path scriptPath = Paths.get(args[0]);
         
+        // Create interpreter instance
+        Interpreter interpreter = new Interpreter();
+        interpreter.setResourceQuota(new ResourceQuota(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        // Steps are not limited, so the steps saved by the optimizer do not change the outcome
+        interpreter.setOptimizing(true);
+        
+        // Parse the script, or load it as parsed by an earlier run
+        Interpreter.ParseResult parseResult;
         try {
-            // Read the script file
-            Path path = Paths.get(scriptPath);
-            sourceCode = Files.readString(path);
+            String cacheDirectory = System.getProperty(CACHE_DIRECTORY_PROPERTY, defaultCacheDirectory());
+            if (cacheDirectory.isEmpty()) {
+                // Parse while reading, large scripts are not held in memory
+                try (Reader reader = Files.newBufferedReader(scriptPath)) {
+                    parseResult = interpreter.parse(reader);
+                }
+            } else {
+                parseResult = new ScriptFileCache(Paths.get(cacheDirectory)).parse(interpreter, scriptPath);
+            }
         } catch (IOException e) {
             System.err.println("Error reading script file: " + e.getMessage());
             System.exit(ERROR_EXIT_CODE);
             return; // This line is never reached but prevents compiler warnings
         }
-
-        // Create interpreter instance
-        Interpreter interpreter = new Interpreter();
-        interpreter.setResourceQuota(new ResourceQuota(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
-        
-        // Parse the script
-        Interpreter.ParseResult parseResult = interpreter.parse(sourceCode);
         
         if (!parseResult.isSuccess()) {
             // Output parse errors to stderr
@@ -65,4 +78,8 @@ public class InterpreterCLI {
         // If we get here, execution was successful
         System.exit(SUCCESS_EXIT_CODE);
     }
+    
+    private static String defaultCacheDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "interpreterj").toString();
+    }
 } 
\ No newline at end of file
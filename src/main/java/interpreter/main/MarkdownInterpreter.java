@@ -16,6 +16,8 @@ import interpreter.main.Interpreter.ParseResult;
 import interpreter.main.Interpreter.RegexLibraryFunctionsInitializer;
 import interpreter.main.Interpreter.StringLibraryFunctionsInitializer;
 import interpreter.main.Interpreter.TypeLibraryFunctionsInitializer;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.ResourceQuota;
 
 /**
  * <pre>
@@ -25,13 +27,18 @@ import interpreter.main.Interpreter.TypeLibraryFunctionsInitializer;
 public class MarkdownInterpreter {
 	final BufferedReader in;
 	final PrintWriter out;
+	// Standard library without I/O, shared by the interpreters of all scripts
+	final LibraryRegistry library;
 
 	public MarkdownInterpreter(InputStream in, OutputStream out) {
 		this.in = new BufferedReader(new InputStreamReader(in));
 		this.out = new PrintWriter(new OutputStreamWriter(out));
+		this.library = LibraryRegistry.of(new DefaultLibraryFunctionsInitializer(), 
+				new MapLibraryFunctionsInitializer(), new ArrayLibraryFunctionsInitializer(), 
+				new StringLibraryFunctionsInitializer(), new RegexLibraryFunctionsInitializer(), 
+				new TypeLibraryFunctionsInitializer());
 	}
 	
-	@SuppressWarnings("unchecked")
 	public void run() {
 		boolean firstEmptyLine = false;
 		for (String s = gets(); s != null; s = gets()) {
@@ -64,15 +71,7 @@ public class MarkdownInterpreter {
 					puts("```");
 					
 					final StringBuilder scriptOut = new StringBuilder();
-					Interpreter i = new Interpreter(ec -> {
-						// FIXME better way to replace parts of std lib
-						new DefaultLibraryFunctionsInitializer().accept(ec); 
-			            new MapLibraryFunctionsInitializer().accept(ec);
-			            new ArrayLibraryFunctionsInitializer().accept(ec);
-			            new StringLibraryFunctionsInitializer().accept(ec);
-			            new RegexLibraryFunctionsInitializer().accept(ec);
-			            new TypeLibraryFunctionsInitializer().accept(ec);
-						
+					Interpreter i = new Interpreter(new ResourceQuota(), library, ec -> {
 				    	ec.registerFunction("puts", args -> {
 				    		if (scriptOut.length() > 0) {
 				    			scriptOut.append("\n");
@@ -0,0 +1,190 @@
+package interpreter.main;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import interpreter.main.Interpreter.ParseResult;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Thread-safe cache of parsed programs, shared by interpreters that run the same scripts many
+ * times (see {@link Interpreter#setProgramCache}).
+ *
+ * <p>Programs are addressed by a SHA-256 digest of their source, combined with the options
+ * that change the parsed AST: the string length limit, which decides what the optimizer folds.
+ * When the estimated size of the cached ASTs exceeds the capacity, the least recently used
+ * programs are evicted. The size of an AST is estimated from its number of nodes, so that
+ * comments and whitespace in the source do not count.</p>
+ *
+ * <p>Cached ASTs are evaluated by many interpreters, possibly at the same time. The values of
+ * a run live in its evaluation contexts, but nodes keep some state across runs: the type
+ * specializations of expressions and the inline caches of call sites. They guard every fast
+ * path with a check, so they may race harmlessly, and they keep no reference to the scopes
+ * of a run, so a cached AST does not retain the values of the runs that evaluated it.</p>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * ProgramCache cache = new ProgramCache(64 * 1024 * 1024);
+ *
+ * Interpreter interpreter = new Interpreter();
+ * interpreter.setProgramCache(cache);
+ * interpreter.parse(source); // lexed and parsed only the first time
+ * </pre>
+ */
+public class ProgramCache {
+    /** Estimated bytes of an AST node, with its position and its share of child lists */
+    static final long BYTES_PER_NODE = 72;
+    /** Estimated bytes of a cache entry and an empty program */
+    static final long ENTRY_BYTES = 256;
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity Maximum estimated bytes of the cached ASTs
+     */
+    public ProgramCache(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The key of a program parsed from the given source with the given resource limits,
+     *         optimized or not
+     */
+    public static String keyOf(String source, ResourceQuota quota, boolean optimized) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder(hash.length * 2 + 12);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        // Only the optimizer depends on the limits, to fold strings within the maximum length
+        return optimized ? key.append(':').append(quota.getMaxStringLength()).toString() : key.toString();
+    }
+
+    /**
+     * @return The estimated size of an AST with the given number of nodes
+     */
+    public static long estimateWeight(int nodeCount) {
+        return ENTRY_BYTES + nodeCount * BYTES_PER_NODE;
+    }
+
+    /**
+     * @return The cached parse result for the given key, or null if it is not cached
+     */
+    public ParseResult get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.result;
+    }
+
+    /**
+     * Cache a parse result, evicting the least recently used ones if the capacity is exceeded.
+     * A result larger than the whole capacity is not cached.
+     *
+     * @param key The key of the program, see {@link #keyOf}
+     * @param result The successful result of parsing the program
+     */
+    public void put(String key, ParseResult result) {
+        long entryWeight = estimateWeight(result.getAst().getNodeCount());
+        if (entryWeight > capacity) {
+            return;
+        }
+
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(result, entryWeight));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entryWeight;
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (weight > capacity && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                weight -= evicted.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove all programs, keeping the statistics
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * @return The number of cached programs
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The estimated bytes of the cached ASTs
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Entry {
+        final ParseResult result;
+        final long weight;
+
+        Entry(ParseResult result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package interpreter.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import interpreter.ast.Program;
+import interpreter.ast.ProgramSerializer;
+import interpreter.main.Interpreter.ParseResult;
+
+/**
+ * Directory of parsed scripts, so that repeated runs of a script file skip lexing and parsing,
+ * like the bytecode cache of Python.
+ *
+ * <p>Each script file has one cache file, named after a digest of its absolute path. The cache
+ * file starts with a header holding the modification time of the script, a SHA-256 digest of
+ * its content, the string length limit the optimizer folded with (-1 if the program was not
+ * optimized) and a CRC-32 checksum of the rest of the file, followed by the program in the
+ * form of the {@link ProgramSerializer}. A cache file is used only if its header matches the
+ * script, the interpreter and the program; otherwise the script is parsed and the cache file
+ * is replaced. Cache files are memory-mapped to be read.</p>
+ *
+ * <p>The cache is an optimization: cache files that cannot be read or written are ignored,
+ * and the script is parsed as if there were no cache. Cache files are written to a temporary
+ * file first and moved in place, so concurrent runs of the same script never read a partial
+ * file.</p>
+ */
+public class ScriptFileCache {
+    /** Magic number at the start of a cache file ("IJSC") */
+    static final int MAGIC = 0x494A5343;
+    static final String SUFFIX = ".ijc";
+    // Magic, modification time, content digest, string length limit and checksum of the program
+    private static final int HEADER_BYTES = 4 + 8 + 32 + 4 + 4;
+
+    private final Path directory;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param directory The directory of the cache files, created when the first one is written
+     */
+    public ScriptFileCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Parse a script file with the given interpreter, or load its program from the cache
+     *
+     * @throws IOException If the script file cannot be read
+     */
+    public ParseResult parse(Interpreter interpreter, Path script) throws IOException {
+        byte[] content = Files.readAllBytes(script);
+        String sourceCode = new String(content, StandardCharsets.UTF_8);
+        long modified = Files.getLastModifiedTime(script).toMillis();
+        byte[] digest = sha256(content);
+        int maxStringLength = interpreter.isOptimizing() ? interpreter.getResourceQuota().getMaxStringLength() : -1;
+        Path cacheFile = cacheFileOf(script);
+
+        Program program = load(cacheFile, modified, digest, maxStringLength);
+        if (program != null) {
+            hitCount++;
+            return interpreter.load(sourceCode, program);
+        }
+
+        missCount++;
+        ParseResult result = interpreter.parse(sourceCode);
+        if (result.isSuccess()) {
+            store(cacheFile, modified, digest, maxStringLength, result.getAst());
+        }
+        return result;
+    }
+
+    /**
+     * @return The cache file of the given script file
+     */
+    public Path cacheFileOf(Path script) {
+        byte[] digest = sha256(script.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            name.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return directory.resolve(name.append(SUFFIX).toString());
+    }
+
+    /**
+     * @return The program of the cache file, or null if it is missing, stale or unreadable
+     */
+    private Program load(Path cacheFile, long modified, byte[] digest, int maxStringLength) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC || buffer.getLong() != modified) {
+                return null;
+            }
+            byte[] cachedDigest = new byte[digest.length];
+            buffer.get(cachedDigest);
+            if (!Arrays.equals(cachedDigest, digest) || buffer.getInt() != maxStringLength) {
+                return null;
+            }
+            int checksum = buffer.getInt();
+            if (checksum != checksum(buffer.slice())) {
+                return null;
+            }
+            return ProgramSerializer.deserialize(buffer);
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // Corrupt beyond the checksum, e.g. written by another version
+            return null;
+        }
+    }
+
+    private void store(Path cacheFile, long modified, byte[] digest, int maxStringLength, Program program) {
+        byte[] body = ProgramSerializer.serialize(program);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putLong(modified).put(digest).putInt(maxStringLength)
+                .putInt(checksum(ByteBuffer.wrap(body))).flip();
+
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "script", ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.write(new ByteBuffer[] { header, ByteBuffer.wrap(body) });
+            }
+            try {
+                Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Not cached, the script is parsed again next time
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // Left for the user to clean up
+                }
+            }
+        }
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The number of scripts loaded from the cache
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of scripts parsed because they were not cached
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+}
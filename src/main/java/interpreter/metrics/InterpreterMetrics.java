@@ -0,0 +1,52 @@
+package interpreter.metrics;
+
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
+
+/**
+ * Service provider interface for metrics of interpreter activity, reported by
+ * {@link interpreter.main.Interpreter} (see {@link interpreter.main.Interpreter#setMetrics}).
+ *
+ * <p>All methods do nothing by default, so that implementations only override what they
+ * record. Implementations can be shared by interpreters running on different threads, and
+ * must therefore be thread-safe. {@link JmxInterpreterMetrics} is a built-in implementation
+ * exposed through JMX.</p>
+ */
+public interface InterpreterMetrics {
+    /** Metrics that record nothing, used by default */
+    InterpreterMetrics NONE = new InterpreterMetrics() {
+    };
+
+    /**
+     * A script has been parsed
+     *
+     * @param nanos Time taken by parsing, optimization and analysis
+     * @param success Whether the script was parsed without errors
+     */
+    default void parsed(long nanos, boolean success) {
+    }
+
+    /**
+     * A script has been evaluated
+     *
+     * @param nanos Time taken by the evaluation
+     * @param success Whether the evaluation completed without errors
+     * @param usage Resources used by the evaluation, null if it did not start
+     */
+    default void evaluated(long nanos, boolean success, EvaluationContext.ResourceUsage usage) {
+    }
+
+    /**
+     * An evaluation has been stopped by a resource limit
+     */
+    default void quotaExceeded(ResourceLimitType limitType) {
+    }
+
+    /**
+     * A library function has been called
+     *
+     * @param name The name under which the function is registered in the library
+     */
+    default void libraryFunctionCalled(String name) {
+    }
+}
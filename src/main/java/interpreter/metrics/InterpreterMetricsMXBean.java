@@ -0,0 +1,40 @@
+package interpreter.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link JmxInterpreterMetrics}. Latencies are in microseconds.
+ */
+public interface InterpreterMetricsMXBean {
+    long getParseCount();
+
+    long getParseErrorCount();
+
+    Histogram.Snapshot getParseLatencyMicros();
+
+    long getEvaluationCount();
+
+    long getEvaluationErrorCount();
+
+    Histogram.Snapshot getEvaluationLatencyMicros();
+
+    /**
+     * @return The evaluation steps used per evaluation
+     */
+    Histogram.Snapshot getEvaluationSteps();
+
+    /**
+     * @return The number of evaluations stopped per {@link interpreter.runtime.ResourceExhaustionError.ResourceLimitType}
+     */
+    Map<String, Long> getQuotaViolations();
+
+    /**
+     * @return The number of calls per library function
+     */
+    Map<String, Long> getLibraryFunctionCalls();
+
+    /**
+     * Set all counters and histograms back to zero
+     */
+    void reset();
+}
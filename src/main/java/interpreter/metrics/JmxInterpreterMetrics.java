@@ -0,0 +1,170 @@
+package interpreter.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
+
+/**
+ * Built-in {@link InterpreterMetrics} that keeps lock-free counters and percentile histograms,
+ * and exposes them as a JMX MBean for dashboards.
+ *
+ * <p>One instance is meant to be shared by all interpreters of a service:</p>
+ * <pre>
+ * JmxInterpreterMetrics metrics = new JmxInterpreterMetrics();
+ * metrics.register("scripts");   // interpreter:type=Metrics,name=scripts
+ *
+ * Interpreter interpreter = new Interpreter();
+ * interpreter.setMetrics(metrics);
+ * </pre>
+ */
+public class JmxInterpreterMetrics implements InterpreterMetrics, InterpreterMetricsMXBean {
+    private final LongAdder parseCount = new LongAdder();
+    private final LongAdder parseErrorCount = new LongAdder();
+    private final LongAdder evaluationCount = new LongAdder();
+    private final LongAdder evaluationErrorCount = new LongAdder();
+    private volatile Histogram parseLatency = new Histogram();
+    private volatile Histogram evaluationLatency = new Histogram();
+    private volatile Histogram evaluationSteps = new Histogram();
+    private final Map<ResourceLimitType, LongAdder> quotaViolations = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> libraryFunctionCalls = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    /**
+     * Register this instance with the platform MBean server
+     *
+     * @param name The value of the name key of the object name, distinguishing instances
+     * @return The object name under which it has been registered
+     * @throws JMException if the name is invalid or already registered
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName registered = new ObjectName("interpreter:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = registered;
+        return registered;
+    }
+
+    /**
+     * Remove this instance from the platform MBean server, if it has been registered
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public void parsed(long nanos, boolean success) {
+        parseCount.increment();
+        if (!success) {
+            parseErrorCount.increment();
+        }
+        parseLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void evaluated(long nanos, boolean success, EvaluationContext.ResourceUsage usage) {
+        evaluationCount.increment();
+        if (!success) {
+            evaluationErrorCount.increment();
+        }
+        evaluationLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (usage != null) {
+            evaluationSteps.record(usage.getEvaluationSteps());
+        }
+    }
+
+    @Override
+    public void quotaExceeded(ResourceLimitType limitType) {
+        quotaViolations.computeIfAbsent(limitType, key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void libraryFunctionCalled(String name) {
+        LongAdder calls = libraryFunctionCalls.get(name);
+        if (calls == null) {
+            calls = libraryFunctionCalls.computeIfAbsent(name, key -> new LongAdder());
+        }
+        calls.increment();
+    }
+
+    @Override
+    public long getParseCount() {
+        return parseCount.sum();
+    }
+
+    @Override
+    public long getParseErrorCount() {
+        return parseErrorCount.sum();
+    }
+
+    @Override
+    public Histogram.Snapshot getParseLatencyMicros() {
+        return parseLatency.snapshot();
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return evaluationCount.sum();
+    }
+
+    @Override
+    public long getEvaluationErrorCount() {
+        return evaluationErrorCount.sum();
+    }
+
+    @Override
+    public Histogram.Snapshot getEvaluationLatencyMicros() {
+        return evaluationLatency.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getEvaluationSteps() {
+        return evaluationSteps.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getQuotaViolations() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<ResourceLimitType, LongAdder> entry : quotaViolations.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLibraryFunctionCalls() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : libraryFunctionCalls.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        parseCount.reset();
+        parseErrorCount.reset();
+        evaluationCount.reset();
+        evaluationErrorCount.reset();
+        parseLatency = new Histogram();
+        evaluationLatency = new Histogram();
+        evaluationSteps = new Histogram();
+        quotaViolations.clear();
+        libraryFunctionCalls.clear();
+    }
+}
@@ -0,0 +1,46 @@
+package interpreter.metrics;
+
+/**
+ * The {@link InterpreterMetrics} of the evaluation running on the current thread.
+ *
+ * <p>Like the {@link interpreter.runtime.Deadline}, the metrics are installed for the thread
+ * while an evaluation runs, so that library functions, which have no access to the
+ * interpreter, can report their calls.</p>
+ */
+public final class Metrics {
+    private static final ThreadLocal<InterpreterMetrics> CURRENT = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Install the metrics of an evaluation that starts on this thread
+     *
+     * @return The previous metrics, to be restored with {@link #restore}
+     */
+    public static InterpreterMetrics enter(InterpreterMetrics metrics) {
+        InterpreterMetrics previous = CURRENT.get();
+        CURRENT.set(metrics);
+        return previous;
+    }
+
+    /**
+     * Restore the metrics that were current before {@link #enter}
+     */
+    public static void restore(InterpreterMetrics previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return The metrics of the evaluation running on this thread, {@link InterpreterMetrics#NONE}
+     *         if there is none
+     */
+    public static InterpreterMetrics current() {
+        InterpreterMetrics metrics = CURRENT.get();
+        return metrics != null ? metrics : InterpreterMetrics.NONE;
+    }
+}
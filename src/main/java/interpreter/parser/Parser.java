@@ -33,6 +33,8 @@ import interpreter.ast.WhileStatement;
 import interpreter.lexer.Lexer;
 import interpreter.lexer.Token;
 import interpreter.lexer.TokenType;
+import interpreter.util.InfixOperator;
+import interpreter.util.PrefixOperator;
 
 /**
  * Parser class for converting tokens into an AST
@@ -701,7 +703,15 @@ public class Parser {
      */
     private Node parsePrefixExpression() {
         Token token = currentToken;
-        String operator = currentToken.getLiteral();
+        PrefixOperator operator = PrefixOperator.fromSymbol(currentToken.getLiteral());
+        if (operator == null) {
+            errors.add(new Error(
+                    "Unknown prefix operator: " + currentToken.getLiteral(),
+                    currentToken.getLine(),
+                    currentToken.getColumn()
+            ));
+            return null;
+        }
         
         nextToken();
         
@@ -718,7 +728,15 @@ public class Parser {
      */
     private Node parseInfixExpression(Node left) {
         Token token = currentToken;
-        String operator = currentToken.getLiteral();
+        InfixOperator operator = InfixOperator.fromSymbol(currentToken.getLiteral());
+        if (operator == null) {
+            errors.add(new Error(
+                    "Unknown infix operator: " + currentToken.getLiteral(),
+                    currentToken.getLine(),
+                    currentToken.getColumn()
+            ));
+            return null;
+        }
         
         Precedence precedence = currentPrecedence();
         nextToken();
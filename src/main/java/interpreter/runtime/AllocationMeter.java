@@ -0,0 +1,143 @@
+package interpreter.runtime;
+
+import interpreter.ast.Node;
+import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
+
+/**
+ * Approximate accounting of the heap memory allocated by one evaluation for arrays, maps and
+ * strings, checked against {@link ResourceQuota#getMaxAllocatedBytes()}.
+ *
+ * <p>The sizes are estimates of the shallow size of the Java objects backing script values on
+ * a 64-bit JVM with compressed references: every array element or map entry is charged when
+ * it is added, and every string when it is created. Memory is never given back when values
+ * become unreachable, so the figure is the total allocated by the evaluation, not the amount
+ * retained at its end.</p>
+ *
+ * <p>Like the {@link Deadline}, the meter of an evaluation is installed as the
+ * {@link #current()} meter of the thread while the evaluation runs, so that operators and
+ * library functions without access to the evaluation context can charge it.</p>
+ */
+public final class AllocationMeter {
+    /** Header, fields and array header of an empty list */
+    public static final long ARRAY_BYTES = 40;
+    /** One reference in the backing array of a list, including spare capacity */
+    public static final long ARRAY_ELEMENT_BYTES = 8;
+    /** Header, fields and table header of an empty map */
+    public static final long MAP_BYTES = 64;
+    /** One map entry object and its reference in the table */
+    public static final long MAP_ENTRY_BYTES = 40;
+    /** Header, fields and array header of an empty string */
+    public static final long STRING_BYTES = 40;
+
+    private static final ThreadLocal<AllocationMeter> CURRENT = new ThreadLocal<>();
+
+    private final EvaluationContext.ResourceUsage usage;
+    // Maximum allocated bytes, 0 if unlimited
+    private final long limit;
+
+    AllocationMeter(EvaluationContext.ResourceUsage usage, long limit) {
+        this.usage = usage;
+        this.limit = limit;
+    }
+
+    /**
+     * @return The estimated size of an array with the given number of elements
+     */
+    public static long arrayBytes(int size) {
+        return ARRAY_BYTES + size * ARRAY_ELEMENT_BYTES;
+    }
+
+    /**
+     * @return The estimated size of a map with the given number of entries
+     */
+    public static long mapBytes(int size) {
+        return MAP_BYTES + size * MAP_ENTRY_BYTES;
+    }
+
+    /**
+     * @return The estimated size of a string with the given number of characters
+     */
+    public static long stringBytes(int length) {
+        // Strings of Latin-1 characters are stored with one byte per character
+        return STRING_BYTES + length;
+    }
+
+    /**
+     * Charge an allocation, and check the total against the limit
+     *
+     * @param bytes Estimated size of the allocation
+     * @param position Source position for error reporting, may be null
+     * @throws ResourceExhaustionError if the allocated bytes limit is exceeded
+     */
+    public void charge(long bytes, Node.Position position) throws ResourceExhaustionError {
+        usage.addAllocatedBytes(bytes);
+        if (limit > 0 && usage.getAllocatedBytes() > limit) {
+            throw new ResourceExhaustionError(
+                ResourceLimitType.ALLOCATED_BYTES,
+                position != null ? position.getLine() : 0,
+                position != null ? position.getColumn() : 0
+            );
+        }
+    }
+
+    /**
+     * Install a meter as the current one of this thread
+     *
+     * @param meter The meter of the evaluation that starts
+     * @return The previous meter, to be restored with {@link #restore}
+     */
+    public static AllocationMeter enter(AllocationMeter meter) {
+        AllocationMeter previous = CURRENT.get();
+        CURRENT.set(meter);
+        return previous;
+    }
+
+    /**
+     * Restore the meter that was current before {@link #enter}
+     */
+    public static void restore(AllocationMeter previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return The meter of the evaluation running on this thread, or null if there is none
+     */
+    public static AllocationMeter current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Charge an allocation to the current meter, if there is one. Allocations made outside of
+     * an evaluation, like constant folding, are not charged.
+     *
+     * @param bytes Estimated size of the allocation
+     * @param position Source position for error reporting, may be null
+     * @throws ResourceExhaustionError if the allocated bytes limit is exceeded
+     */
+    public static void chargeCurrent(long bytes, Node.Position position) throws ResourceExhaustionError {
+        AllocationMeter meter = CURRENT.get();
+        if (meter != null) {
+            meter.charge(bytes, position);
+        }
+    }
+
+    /**
+     * Charge an allocation to the current meter from a library function, which reports errors
+     * as unchecked exceptions. The error is passed as the cause, so it is unwrapped by the
+     * calling node.
+     *
+     * @param bytes Estimated size of the allocation
+     * @throws RuntimeException if the allocated bytes limit is exceeded
+     */
+    public static void chargeFromLibrary(long bytes) {
+        try {
+            chargeCurrent(bytes, null);
+        } catch (ResourceExhaustionError e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package interpreter.runtime;
+
+/**
+ * Script-level call stack of one evaluation, maintained while a {@link SamplingProfiler}
+ * samples it from another thread.
+ *
+ * <p>Function invocations push and pop a frame with the name of the function, and calls
+ * record their line in the calling frame (see {@link EvaluationContext#trackEvaluationDepth}).
+ * The line of a frame is thus the line of the last call it made, or the line of its
+ * declaration if it has not made any.</p>
+ *
+ * <p>Only the evaluating thread modifies the stack. The sampling thread reads it without
+ * locking, and may see a frame that is being pushed or popped at the same time; since the
+ * stack is only used for statistics, an occasional inconsistent sample is accepted to keep
+ * the evaluating thread free of synchronization.</p>
+ */
+public final class CallStack {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private volatile int[] lines = new int[INITIAL_CAPACITY];
+    private volatile int depth;
+
+    /**
+     * Push the frame of a function that is entered
+     *
+     * @param name The name of the function, null if it is anonymous
+     * @param line The line of the function declaration
+     */
+    public void push(String name, int line) {
+        int d = depth;
+        if (d == names.length) {
+            grow();
+        }
+        names[d] = name != null ? name : "<anonymous>";
+        lines[d] = line;
+        depth = d + 1;
+    }
+
+    /**
+     * Pop the frame of the function entered last
+     */
+    public void pop() {
+        depth--;
+    }
+
+    /**
+     * Record the line of a call made by the function entered last
+     */
+    public void setLine(int line) {
+        int d = depth;
+        if (d > 0) {
+            lines[d - 1] = line;
+        }
+    }
+
+    private void grow() {
+        String[] grownNames = new String[names.length * 2];
+        int[] grownLines = new int[lines.length * 2];
+        System.arraycopy(names, 0, grownNames, 0, names.length);
+        System.arraycopy(lines, 0, grownLines, 0, lines.length);
+        lines = grownLines;
+        names = grownNames;
+    }
+
+    /**
+     * Capture the frames of the stack, outermost first, in the collapsed stack format of
+     * flame graph tools: frames labeled {@code name:line} and separated by semicolons
+     *
+     * @return The frames, or null if the stack is empty
+     */
+    public String sample() {
+        int d = depth;
+        String[] sampledNames = names;
+        int[] sampledLines = lines;
+        d = Math.min(d, Math.min(sampledNames.length, sampledLines.length));
+        if (d <= 0) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < d; i++) {
+            String name = sampledNames[i];
+            if (name == null) {
+                // Frame being pushed while the stack grows
+                return null;
+            }
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append(name).append(':').append(sampledLines[i]);
+        }
+        return sb.toString();
+    }
+}
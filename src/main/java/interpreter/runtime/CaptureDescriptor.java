@@ -0,0 +1,46 @@
+package interpreter.runtime;
+
+/**
+ * Static layout of the variables a function captures from the scopes enclosing its declaration.
+ *
+ * <p>When the declaration is executed, each captured variable is read from its (depth, slot)
+ * address relative to the declaring scope. The function keeps only these values, and binds
+ * them to their slots of the parameter scope of every invocation. Variables that may change
+ * after they are captured are read as the cell that holds them, so the function and the
+ * declaring scope keep sharing the variable.</p>
+ */
+public class CaptureDescriptor {
+    private final int[] depths;
+    private final int[] slots;
+    private final int[] targetSlots;
+
+    /**
+     * @param depths Number of scopes between the declaring scope and the scope of each variable
+     * @param slots Slot of each variable in its scope
+     * @param targetSlots Slot of each variable in the parameter scope of the function
+     */
+    public CaptureDescriptor(int[] depths, int[] slots, int[] targetSlots) {
+        this.depths = depths;
+        this.slots = slots;
+        this.targetSlots = targetSlots;
+    }
+
+    /**
+     * @return The number of captured variables
+     */
+    public int size() {
+        return depths.length;
+    }
+
+    public int getDepth(int index) {
+        return depths[index];
+    }
+
+    public int getSlot(int index) {
+        return slots[index];
+    }
+
+    public int getTargetSlot(int index) {
+        return targetSlots[index];
+    }
+}
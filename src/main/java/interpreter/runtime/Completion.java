@@ -0,0 +1,14 @@
+package interpreter.runtime;
+
+/**
+ * Signals passed up by a statement to the enclosing statements in place of its value.
+ * 
+ * <p>A return statement records its value with {@link EvaluationContext#completeReturn} and
+ * passes {@link #RETURN} up through the enclosing blocks and loops, which stop evaluating when
+ * they see it. The function or program returned from then takes the value with
+ * {@link EvaluationContext#takeReturnValue}, so returning allocates nothing.</p>
+ */
+public enum Completion {
+    /** A return statement has been evaluated */
+    RETURN
+}
@@ -0,0 +1,198 @@
+package interpreter.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import interpreter.ast.Node;
+import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
+
+/**
+ * Wall-clock and CPU time limits of one evaluation, started when its root scope is created.
+ *
+ * <p>The limits are checked cooperatively: the evaluation contexts tick the deadline at loop
+ * iterations and evaluation steps, and the clocks are only read every
+ * {@link #CHECK_INTERVAL} ticks. CPU time is measured for the evaluating thread with
+ * {@link ThreadMXBean#getCurrentThreadCpuTime()}, and ignored if the JVM does not support it.</p>
+ *
+ * <p>Library functions have no access to the evaluation context. While an evaluation runs,
+ * its deadline is installed as the {@link #current()} deadline of the thread, so that long
+ * running functions can check it with {@link #checkCurrent()}, or run regular expressions on
+ * a {@link #guard guarded} input.</p>
+ */
+public final class Deadline {
+    /** Number of ticks between two readings of the clocks */
+    public static final int CHECK_INTERVAL = 1024;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    // End of the allowed time in System.nanoTime() and thread CPU time, Long.MAX_VALUE if unlimited
+    private final long wallClockEnd;
+    private final long cpuTimeEnd;
+    private int countdown = CHECK_INTERVAL;
+
+    private Deadline(long wallClockEnd, long cpuTimeEnd) {
+        this.wallClockEnd = wallClockEnd;
+        this.cpuTimeEnd = cpuTimeEnd;
+    }
+
+    /**
+     * Start the clocks of the time limits of the given quota
+     *
+     * @return The deadline, or null if the quota limits neither wall-clock nor CPU time
+     */
+    public static Deadline start(ResourceQuota quota) {
+        long wallClockEnd = Long.MAX_VALUE;
+        long cpuTimeEnd = Long.MAX_VALUE;
+
+        if (quota.getMaxWallClockMillis() > 0) {
+            wallClockEnd = System.nanoTime() + quota.getMaxWallClockMillis() * 1_000_000L;
+        }
+        if (quota.getMaxCpuTimeMillis() > 0 && THREADS.isCurrentThreadCpuTimeSupported()) {
+            long cpuTime = THREADS.getCurrentThreadCpuTime();
+            if (cpuTime >= 0) {
+                cpuTimeEnd = cpuTime + quota.getMaxCpuTimeMillis() * 1_000_000L;
+            }
+        }
+
+        if (wallClockEnd == Long.MAX_VALUE && cpuTimeEnd == Long.MAX_VALUE) {
+            return null;
+        }
+        return new Deadline(wallClockEnd, cpuTimeEnd);
+    }
+
+    /**
+     * Count a cooperative check point, and check the limits every {@link #CHECK_INTERVAL} calls
+     *
+     * @param position Source position for error reporting
+     * @throws ResourceExhaustionError if a time limit has been exceeded
+     */
+    public void tick(Node.Position position) throws ResourceExhaustionError {
+        if (--countdown > 0) {
+            return;
+        }
+        countdown = CHECK_INTERVAL;
+        check(position);
+    }
+
+    /**
+     * Check the limits now
+     *
+     * @param position Source position for error reporting, may be null
+     * @throws ResourceExhaustionError if a time limit has been exceeded
+     */
+    public void check(Node.Position position) throws ResourceExhaustionError {
+        ResourceLimitType exceeded = exceeded();
+        if (exceeded != null) {
+            throw new ResourceExhaustionError(
+                exceeded,
+                position != null ? position.getLine() : 0,
+                position != null ? position.getColumn() : 0
+            );
+        }
+    }
+
+    /**
+     * @return The time limit that has been exceeded, or null if there is none
+     */
+    private ResourceLimitType exceeded() {
+        if (wallClockEnd != Long.MAX_VALUE && System.nanoTime() - wallClockEnd > 0) {
+            return ResourceLimitType.WALL_CLOCK_TIME;
+        }
+        if (cpuTimeEnd != Long.MAX_VALUE && THREADS.getCurrentThreadCpuTime() > cpuTimeEnd) {
+            return ResourceLimitType.CPU_TIME;
+        }
+        return null;
+    }
+
+    /**
+     * Install a deadline as the current one of this thread
+     *
+     * @param deadline The deadline of the evaluation that starts, may be null
+     * @return The previous deadline, to be restored with {@link #restore}
+     */
+    public static Deadline enter(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        return previous;
+    }
+
+    /**
+     * Restore the deadline that was current before {@link #enter}
+     */
+    public static void restore(Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return The deadline of the evaluation running on this thread, or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Check the current deadline from a library function, which reports errors as unchecked
+     * exceptions. The error is passed as the cause, so it is unwrapped by the calling node.
+     *
+     * @throws RuntimeException if a time limit has been exceeded
+     */
+    public static void checkCurrent() {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return;
+        }
+        try {
+            deadline.tick(null);
+        } catch (ResourceExhaustionError e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wrap the input of a regular expression, so that matching checks the current deadline
+     * while it reads the input. Matching with backtracking can take exponential time on a
+     * short input, and does not return to the script until it is done.
+     *
+     * @return The input, or a view of it that checks the deadline, if one is current
+     */
+    public static CharSequence guard(String input) {
+        return CURRENT.get() != null ? new GuardedSequence(input) : input;
+    }
+
+    /**
+     * Input of a regular expression that checks the current deadline as it is read
+     */
+    private static final class GuardedSequence implements CharSequence {
+        private final String input;
+
+        GuardedSequence(String input) {
+            this.input = input;
+        }
+
+        @Override
+        public char charAt(int index) {
+            checkCurrent();
+            return input.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return input.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return input.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return input;
+        }
+    }
+}
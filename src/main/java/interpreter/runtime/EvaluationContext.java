@@ -1,22 +1,64 @@
 package interpreter.runtime;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import interpreter.ast.Node;
+import interpreter.metrics.InterpreterMetrics;
 import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
 
 /**
  * Environment to store variables and functions in the current scope
  */
 public class EvaluationContext {
+    // Marker for slots whose variable has not been defined yet
+    private static final Object UNDEFINED = new Object();
+    
+    private static final Object[] NO_CAPTURES = new Object[0];
+    
     private final EvaluationContext parent;
-    private final Map<String, Object> values;
-    private final Map<String, CallableFunction> functions;
+    private final EvaluationContext root;
+    // Names bound outside of slots, allocated when the first one is bound
+    private Map<String, Object> values;
+    private Map<String, CallableFunction> functions;
+    // Library functions shared with other contexts, only consulted by the root scope
+    private LibraryRegistry library = LibraryRegistry.empty();
+    
+    // Array-backed storage for variables resolved ahead of time (null for purely dynamic scopes)
+    private FrameDescriptor frame;
+    private Object[] slots;
     
     // Resource tracking fields - shared across all context instances
     private final ResourceUsage resourceUsage;
     private final ResourceQuota resourceQuota;
+    // Whether steps are charged in bulk by chargeSteps instead of one by one
+    private final boolean amortizedSteps;
+    // Time limits of the evaluation, shared across all context instances (null if unlimited)
+    private final Deadline deadline;
+    // Allocated memory of the evaluation, shared across all context instances
+    private final AllocationMeter allocationMeter;
+    // Profiler of the evaluation, shared across all context instances (null if not profiling)
+    private Profiler profiler;
+    // Call stack sampled by a SamplingProfiler, shared across all context instances (null if not sampled)
+    private CallStack callStack;
+    // Metrics of the evaluation, only maintained by the root scope
+    private InterpreterMetrics metrics = InterpreterMetrics.NONE;
+    
+    // Source of the ids of root scopes
+    private static final AtomicLong ROOT_IDS = new AtomicLong();
+    
+    // Binding stamps, only maintained by the root scope (see getBindingVersion and getRootId)
+    private final long rootId;
+    private int bindingVersion;
+    private Set<String> dynamicNames;
+    
+    // Value of the return statement being completed, only maintained by the root scope
+    private Object returnValue;
     
     public EvaluationContext() throws RuntimeError {
         this(null, new ResourceQuota(), new ResourceUsage());
@@ -32,12 +74,37 @@ public class EvaluationContext {
         this(null, customQuota, new ResourceUsage());
     }
     
+    /**
+     * Create a root scope whose library functions are looked up in a shared table
+     * 
+     * @param customQuota The resource limits of the evaluation
+     * @param library The library functions, which functions registered on this scope override
+     */
+    public EvaluationContext(ResourceQuota customQuota, LibraryRegistry library) throws RuntimeError {
+        this(null, customQuota, new ResourceUsage());
+        this.library = library;
+    }
+    
     private EvaluationContext(EvaluationContext parent, ResourceQuota resourceQuota, ResourceUsage resourceUsage) throws RuntimeError {
+        this(parent, null, resourceQuota, resourceUsage);
+    }
+    
+    private EvaluationContext(EvaluationContext parent, FrameDescriptor frame, ResourceQuota resourceQuota, ResourceUsage resourceUsage) throws RuntimeError {
         this.parent = parent;
-        this.values = new HashMap<>();
-        this.functions = new HashMap<>();
+        this.root = parent != null ? parent.root : this;
+        this.rootId = parent != null ? parent.rootId : ROOT_IDS.incrementAndGet();
         this.resourceQuota = resourceQuota;
         this.resourceUsage = resourceUsage;
+        this.amortizedSteps = resourceQuota.getStepAccounting() == ResourceQuota.StepAccounting.AMORTIZED;
+        this.deadline = parent != null ? parent.deadline : Deadline.start(resourceQuota);
+        this.allocationMeter = parent != null ? parent.allocationMeter
+                : new AllocationMeter(resourceUsage, resourceQuota.getMaxAllocatedBytes());
+        this.profiler = parent != null ? parent.profiler : null;
+        this.callStack = parent != null ? parent.callStack : null;
+        
+        if (frame != null) {
+            initFrame(frame);
+        }
         
         // Track context depth for recursion protection
         if (parent != null) {
@@ -68,6 +135,56 @@ public class EvaluationContext {
         return new EvaluationContext(this, this.resourceQuota, this.resourceUsage);
     }
     
+    /**
+     * Create a new nested scope whose resolved variables are stored in slots
+     * 
+     * @param frame The slot layout of the new scope, or null for a purely dynamic scope
+     */
+    public EvaluationContext extend(FrameDescriptor frame) throws RuntimeError {
+        // Check depth limit before creating a new context
+        if (resourceUsage.getEvaluationDepth() + 1 > resourceQuota.getMaxEvaluationDepth()) {
+            throw new ResourceExhaustionError(
+                ResourceLimitType.EVALUATION_DEPTH,
+                0, 0
+            );
+        }
+        
+        return new EvaluationContext(this, frame, this.resourceQuota, this.resourceUsage);
+    }
+    
+    /**
+     * Leave a scope created by {@link #extend}, releasing the evaluation depth it took
+     */
+    public void exit() {
+        resourceUsage.decrementEvaluationDepth();
+    }
+    
+    /**
+     * Allocate (or reset) the slots of this scope for the given layout.
+     * Used to give the root scope of a program array-backed storage for its top-level variables.
+     */
+    public void allocateFrame(FrameDescriptor frame) {
+        initFrame(frame);
+        
+        // Slots of a scope that is shared with code resolved earlier may shadow names of that code
+        for (int i = 0; i < frame.size(); i++) {
+            bindDynamically(frame.getName(i));
+        }
+    }
+    
+    private void initFrame(FrameDescriptor frame) {
+        this.frame = frame;
+        this.slots = new Object[frame.size()];
+        Arrays.fill(this.slots, UNDEFINED);
+        if (frame.hasCells()) {
+            for (int i = 0; i < slots.length; i++) {
+                if (frame.isCell(i)) {
+                    slots[i] = new Cell();
+                }
+            }
+        }
+    }
+    
     /**
      * Define a variable in the current scope
      */
@@ -84,7 +201,44 @@ public class EvaluationContext {
             );
         }
         
-        values.put(name, value);
+        int slot = frame != null ? frame.indexOf(name) : -1;
+        if (slot >= 0) {
+            store(slot, value);
+        } else {
+            if (values == null) {
+                values = new HashMap<>();
+            }
+            values.put(name, value);
+            bindDynamically(name);
+        }
+        return value;
+    }
+    
+    /**
+     * Define a variable in a slot of the current scope
+     * 
+     * @param slot The slot assigned to the variable by the resolver
+     * @param name The variable name, used if this scope has no slots
+     * @param value The value of the variable
+     */
+    public Object defineSlot(int slot, String name, Object value) throws RuntimeError {
+        if (slots == null) {
+            return define(name, value);
+        }
+        
+        // Track variable count for memory protection
+        resourceUsage.incrementVariableCount();
+        checkVariableCount(null);
+        
+        // Check for oversized string values that could exhaust memory
+        if (value instanceof String && ((String) value).length() > resourceQuota.getMaxStringLength()) {
+            throw new ResourceExhaustionError(
+                ResourceLimitType.VARIABLE_COUNT,
+                0, 0
+            );
+        }
+        
+        store(slot, value);
         return value;
     }
     
@@ -93,18 +247,33 @@ public class EvaluationContext {
      */
     public Object get(String name, Node.Position position) throws RuntimeError {
         // Increment evaluation steps
-        resourceUsage.incrementEvaluationSteps();
-        checkEvaluationSteps(position);
+        trackEvaluationStep(position);
+        
+        // Check slots of the current scope
+        if (frame != null) {
+            int slot = frame.indexOf(name);
+            Object value = slot >= 0 ? load(slot) : UNDEFINED;
+            if (value != UNDEFINED) {
+                return value;
+            }
+        }
         
         // Check current scope
-        if (values.containsKey(name)) {
+        if (values != null && values.containsKey(name)) {
             return values.get(name);
         }
         
         // Check library functions
-        if (functions.containsKey(name)) {
+        if (functions != null && functions.containsKey(name)) {
             return functions.get(name);
         }
+        if (parent == null) {
+            // Calls are only reported when there are metrics to report them to
+            CallableFunction function = library.lookup(name, metrics != InterpreterMetrics.NONE);
+            if (function != null) {
+                return function;
+            }
+        }
         
         // Look in parent scope
         if (parent != null) {
@@ -119,16 +288,51 @@ public class EvaluationContext {
         );
     }
     
+    /**
+     * Get a variable by its resolved address
+     * 
+     * @param depth Number of scopes between this scope and the declaring scope
+     * @param slot Slot of the variable in the declaring scope
+     * @param name Variable name, used if the slot has not been defined yet
+     * @param position Source position for error reporting
+     */
+    public Object getSlot(int depth, int slot, String name, Node.Position position) throws RuntimeError {
+        EvaluationContext target = ancestor(depth);
+        
+        if (target == null || target.slots == null) {
+            return get(name, position);
+        }
+        
+        Object value = target.load(slot);
+        if (value == UNDEFINED) {
+            // Not declared (yet) in the declaring scope - fall back to the enclosing scopes
+            return target.get(name, position);
+        }
+        
+        // Increment evaluation steps
+        trackEvaluationStep(position);
+        
+        return value;
+    }
+    
     /**
      * Assign a value to a variable in the current or parent scopes
      */
     public Object assign(String name, Object value, Node.Position position) throws RuntimeError {
         // Increment evaluation steps
-        resourceUsage.incrementEvaluationSteps();
-        checkEvaluationSteps(position);
+        trackEvaluationStep(position);
+        
+        // Check slots of the current scope
+        if (frame != null) {
+            int slot = frame.indexOf(name);
+            if (slot >= 0 && load(slot) != UNDEFINED) {
+                store(slot, value);
+                return value;
+            }
+        }
         
         // Check current scope
-        if (values.containsKey(name)) {
+        if (values != null && values.containsKey(name)) {
             values.put(name, value);
             return value;
         }
@@ -146,14 +350,189 @@ public class EvaluationContext {
         );
     }
     
+    /**
+     * Assign a value to a variable by its resolved address
+     * 
+     * @param depth Number of scopes between this scope and the declaring scope
+     * @param slot Slot of the variable in the declaring scope
+     * @param name Variable name, used if the slot has not been defined yet
+     * @param value The value to assign
+     * @param position Source position for error reporting
+     */
+    public Object assignSlot(int depth, int slot, String name, Object value, Node.Position position) throws RuntimeError {
+        EvaluationContext target = ancestor(depth);
+        
+        if (target == null || target.slots == null || target.load(slot) == UNDEFINED) {
+            return (target != null ? target : this).assign(name, value, position);
+        }
+        
+        // Increment evaluation steps
+        trackEvaluationStep(position);
+        
+        target.store(slot, value);
+        return value;
+    }
+    
+    /**
+     * @return The value of the variable in the given slot of this scope, read through its cell
+     */
+    private Object load(int slot) {
+        Object value = slots[slot];
+        if (value instanceof Cell) {
+            return ((Cell) value).value;
+        }
+        return value;
+    }
+    
+    /**
+     * Set the variable in the given slot of this scope, through its cell if it has one
+     */
+    private void store(int slot, Object value) {
+        Object current = slots[slot];
+        if (current instanceof Cell) {
+            ((Cell) current).value = value;
+        } else {
+            slots[slot] = value;
+        }
+    }
+    
+    /**
+     * Read the variables captured by a function declared in this scope. Variables stored in
+     * cells are read as their cell, so the function shares them with their declaring scope.
+     * 
+     * @param captures The captured variables, addressed relative to this scope
+     * @return The captured values, to be bound with {@link #bindCaptures}
+     */
+    public Object[] capture(CaptureDescriptor captures) {
+        if (captures.size() == 0) {
+            return NO_CAPTURES;
+        }
+        
+        Object[] values = new Object[captures.size()];
+        for (int i = 0; i < values.length; i++) {
+            EvaluationContext target = ancestor(captures.getDepth(i));
+            values[i] = target != null && target.slots != null ? target.slots[captures.getSlot(i)] : UNDEFINED;
+        }
+        return values;
+    }
+    
+    /**
+     * Bind captured values to their slots of this scope, the parameter scope of a function
+     * 
+     * @param captures The layout of the captured variables
+     * @param values The values returned by {@link #capture} when the function was created
+     */
+    public void bindCaptures(CaptureDescriptor captures, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            slots[captures.getTargetSlot(i)] = values[i];
+        }
+    }
+    
+    /**
+     * @return The scope the given number of levels above this one, or null if there is none
+     */
+    private EvaluationContext ancestor(int depth) {
+        EvaluationContext context = this;
+        for (int i = 0; i < depth && context != null; i++) {
+            context = context.parent;
+        }
+        return context;
+    }
+    
+    /**
+     * Record the value of a return statement
+     * 
+     * @return The signal to pass up to the function or program being returned from
+     */
+    public Completion completeReturn(Object value) {
+        root.returnValue = value;
+        return Completion.RETURN;
+    }
+    
+    /**
+     * Take the value recorded by the return statement that completed with {@link Completion#RETURN}
+     */
+    public Object takeReturnValue() {
+        Object value = root.returnValue;
+        root.returnValue = null;
+        return value;
+    }
+    
+    /**
+     * @return The enclosing scope, or null for the root scope
+     */
+    public EvaluationContext getParent() {
+        return parent;
+    }
+    
     /**
      * Register a library function
      */
     public CallableFunction registerFunction(String name, CallableFunction function) {
+        if (functions == null) {
+            functions = new HashMap<>();
+        }
         functions.put(name, function);
+        if (this == root) {
+            root.bindingVersion++;
+        } else {
+            bindDynamically(name);
+        }
         return function;
     }
     
+    /**
+     * Record a binding that is not visible to the resolver and may shadow a library function
+     */
+    private void bindDynamically(String name) {
+        if (root.dynamicNames == null) {
+            root.dynamicNames = new HashSet<>();
+        }
+        root.dynamicNames.add(name);
+        root.bindingVersion++;
+    }
+    
+    /**
+     * @return The outermost scope, which holds the library functions
+     */
+    public EvaluationContext getRoot() {
+        return root;
+    }
+    
+    /**
+     * Version stamp of the bindings that a lookup by name can observe. It changes whenever a
+     * library function is registered or a name is bound outside the slots assigned by the
+     * resolver, so a lookup result cached together with the root scope and this stamp stays
+     * valid as long as both are unchanged.
+     */
+    public int getBindingVersion() {
+        return root.bindingVersion;
+    }
+    
+    /**
+     * @return The id of the outermost scope, unique among the root scopes created by this JVM,
+     *         so that a cache can be guarded by the root scope without keeping it reachable
+     */
+    public long getRootId() {
+        return rootId;
+    }
+    
+    /**
+     * @return Whether the name can only have been found in the library functions of the root
+     *         scope, i.e. it was never bound dynamically in any scope
+     */
+    public boolean isLibraryName(String name) {
+        return (root.dynamicNames == null || !root.dynamicNames.contains(name))
+                && (root.functions != null && root.functions.containsKey(name) || root.library.contains(name));
+    }
+    
+    /**
+     * @return The library functions registered on this scope itself, without the shared ones
+     */
+    Map<String, CallableFunction> getRegisteredFunctions() {
+        return functions != null ? functions : Collections.emptyMap();
+    }
+    
     /**
      * @return The resource quota configured for this context
      */
@@ -182,33 +561,208 @@ public class EvaluationContext {
      * @throws RuntimeError if loop iterations limit is exceeded
      */
     public void trackLoopIteration(Node.Position position) throws RuntimeError {
+        trackLoopIteration(1, position);
+    }
+    
+    /**
+     * Increment and check loop iterations counter, and charge the steps of the iteration
+     * 
+     * @param iterationSteps Steps of the iteration, charged with amortized step accounting
+     * @param position Source position for error reporting
+     * @throws RuntimeError if loop iterations or evaluation steps limit is exceeded
+     */
+    public void trackLoopIteration(int iterationSteps, Node.Position position) throws RuntimeError {
         resourceUsage.incrementLoopIterations();
         checkLoopIterations(position);
+        if (deadline != null) {
+            deadline.tick(position);
+        }
         
         // Also track general evaluation steps
-        resourceUsage.incrementEvaluationSteps();
-        checkEvaluationSteps(position);
+        if (amortizedSteps) {
+            chargeSteps(iterationSteps, position);
+        } else {
+            trackEvaluationStep(position);
+        }
     }
     
     /**
-     * Track evaluation step and check against limit
+     * Track evaluation step and check against limit. Does nothing with amortized step
+     * accounting, where steps are charged by {@link #chargeSteps} instead.
      * 
      * @param position Source position for error reporting
      * @throws RuntimeError if evaluation steps limit is exceeded
      */
     public void trackEvaluationStep(Node.Position position) throws RuntimeError {
+        if (profiler != null) {
+            profiler.step(position);
+        }
+        if (amortizedSteps) {
+            return;
+        }
         resourceUsage.incrementEvaluationSteps();
         checkEvaluationSteps(position);
+        if (deadline != null) {
+            deadline.tick(position);
+        }
+    }
+    
+    /**
+     * Track several evaluation steps made at the same position at once, and check against
+     * limit. Like {@link #trackEvaluationStep}, does nothing with amortized step accounting.
+     * 
+     * @param steps Number of steps
+     * @param position Source position for error reporting
+     * @throws RuntimeError if evaluation steps limit is exceeded
+     */
+    public void trackEvaluationSteps(int steps, Node.Position position) throws RuntimeError {
+        if (profiler != null) {
+            profiler.step(position, steps);
+        }
+        if (amortizedSteps) {
+            return;
+        }
+        resourceUsage.addEvaluationSteps(steps);
+        checkEvaluationSteps(position);
+        if (deadline != null) {
+            deadline.tick(position);
+        }
+    }
+    
+    /**
+     * Charge the steps of a region of code that is being entered, and check against limit.
+     * Does nothing with per node step accounting, where each step is tracked on its own.
+     * 
+     * @param steps Steps of the region, computed by {@link interpreter.analysis.StepCounter}
+     * @param position Source position for error reporting
+     * @throws RuntimeError if evaluation steps limit is exceeded
+     */
+    public void chargeSteps(int steps, Node.Position position) throws RuntimeError {
+        if (!amortizedSteps) {
+            return;
+        }
+        resourceUsage.addEvaluationSteps(steps);
+        checkEvaluationSteps(position);
+        if (deadline != null) {
+            deadline.tick(position);
+        }
+    }
+    
+    /**
+     * @return The time limits of the evaluation, or null if it has none
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+    
+    /**
+     * Attach a profiler to this root scope. Scopes created afterwards share it, so it must be
+     * attached before the evaluation starts.
+     * 
+     * @param profiler The profiler recording the evaluation, null to stop profiling
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+    
+    /**
+     * @return The profiler recording the evaluation, or null if it is not profiled
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * Attach the metrics of the evaluation to this root scope, before the evaluation starts.
+     * The calls of library functions are reported to the {@link interpreter.metrics.Metrics#current()
+     * current metrics} only if these are not {@link InterpreterMetrics#NONE}.
+     * 
+     * @param metrics The metrics of the evaluation
+     */
+    public void setMetrics(InterpreterMetrics metrics) {
+        root.metrics = metrics;
+    }
+    
+    /**
+     * Attach a call stack to this root scope, to be sampled by a {@link SamplingProfiler}.
+     * Like the profiler, it must be attached before the evaluation starts.
+     * 
+     * @param callStack The call stack maintained by the evaluation, null to stop maintaining it
+     */
+    public void setCallStack(CallStack callStack) {
+        this.callStack = callStack;
+    }
+    
+    /**
+     * @return The call stack maintained by the evaluation, or null if it is not sampled
+     */
+    public CallStack getCallStack() {
+        return callStack;
+    }
+    
+    /**
+     * Record the entry into a script function for the profilers and the flight recorder.
+     * Called by the invocations of all engines on the parameter scope of the function.
+     * 
+     * @param name The name of the function, null if it is anonymous
+     * @param position The position of the function declaration
+     * @return The call event to pass to {@link #exitFunction}, null if it is not recorded
+     */
+    public FlightEvents.FunctionCallEvent enterFunction(String name, Node.Position position) {
+        if (profiler != null) {
+            profiler.enterFunction(name, position);
+        }
+        if (callStack != null) {
+            callStack.push(name, position.getLine());
+        }
+        return FlightEvents.beginFunctionCall(name, position, resourceUsage);
+    }
+    
+    /**
+     * Record the exit from the function entered last, see {@link #enterFunction}
+     */
+    public void exitFunction(FlightEvents.FunctionCallEvent event) {
+        if (profiler != null) {
+            profiler.exitFunction();
+        }
+        if (callStack != null) {
+            callStack.pop();
+        }
+        if (event != null) {
+            FlightEvents.endFunctionCall(event, resourceUsage);
+        }
+    }
+    
+    /**
+     * Charge memory allocated for a value, and check against limit
+     * 
+     * @param bytes Estimated size of the allocation, see {@link AllocationMeter}
+     * @param position Source position for error reporting
+     * @throws RuntimeError if allocated bytes limit is exceeded
+     */
+    public void trackAllocation(long bytes, Node.Position position) throws RuntimeError {
+        allocationMeter.charge(bytes, position);
+    }
+    
+    /**
+     * @return The allocation accounting of the evaluation
+     */
+    public AllocationMeter getAllocationMeter() {
+        return allocationMeter;
     }
     
     /**
      * Track evaluation depth and check against limit
-     * Used when entering a function call to prevent too deep recursion
+     * Used when entering a function call to prevent too deep recursion, and to record the line
+     * of the call in the sampled call stack
      * 
      * @param position Source position for error reporting
      * @throws RuntimeError if evaluation depth limit is exceeded
      */
     public void trackEvaluationDepth(Node.Position position) throws RuntimeError {
+        if (callStack != null) {
+            callStack.setLine(position.getLine());
+        }
         resourceUsage.incrementEvaluationDepth();
         checkEvaluationDepth(position);
     }
@@ -263,6 +817,14 @@ public class EvaluationContext {
         }
     }
     
+    /**
+     * Holder of a variable that is shared between its declaring scope and the functions that
+     * capture it
+     */
+    private static final class Cell {
+        private Object value = UNDEFINED;
+    }
+    
     /**
      * Helper class to track resource usage statistics
      */
@@ -271,6 +833,7 @@ public class EvaluationContext {
         private int loopIterations = 0;
         private int variableCount = 0;
         private int evaluationSteps = 0;
+        private long allocatedBytes = 0;
         
         public void incrementEvaluationDepth() {
             evaluationDepth++;
@@ -288,6 +851,14 @@ public class EvaluationContext {
             evaluationSteps++;
         }
         
+        public void addEvaluationSteps(int steps) {
+            evaluationSteps += steps;
+        }
+        
+        public void addAllocatedBytes(long bytes) {
+            allocatedBytes += bytes;
+        }
+        
         public int getEvaluationDepth() {
             return evaluationDepth;
         }
@@ -304,6 +875,13 @@ public class EvaluationContext {
             return evaluationSteps;
         }
         
+        /**
+         * @return The estimated bytes allocated for arrays, maps and strings so far
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+        
         public void decrementEvaluationDepth() {
             evaluationDepth--;
         }
@@ -0,0 +1,250 @@
+package interpreter.runtime;
+
+import interpreter.ast.Node;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the interpreter, so that scripts can be correlated with GC and
+ * JIT activity in the recording of the hosting service.
+ *
+ * <p>Every event carries the id of the script it belongs to (see
+ * {@link interpreter.main.Interpreter#getScriptId()}). Events emitted during an evaluation take
+ * the id from the {@link #currentScriptId() current script} of the thread, which is installed
+ * by the interpreter while it evaluates, like the {@link Deadline}.</p>
+ *
+ * <p>Function call events are disabled by default, since scripts make many short calls; enable
+ * {@value #FUNCTION_CALL} in the recording settings to record them. When an event type is
+ * disabled, emitting it costs a check of a flag.</p>
+ */
+public final class FlightEvents {
+    public static final String PARSE = "interpreter.Parse";
+    public static final String EVALUATE = "interpreter.Evaluate";
+    public static final String FUNCTION_CALL = "interpreter.FunctionCall";
+    public static final String REGEX = "interpreter.Regex";
+    public static final String QUOTA_EXCEEDED = "interpreter.QuotaExceeded";
+
+    private static final ThreadLocal<String> CURRENT_SCRIPT_ID = new ThreadLocal<>();
+
+    private static final EventType FUNCTION_CALL_TYPE = EventType.getEventType(FunctionCallEvent.class);
+    private static final EventType REGEX_TYPE = EventType.getEventType(RegexEvent.class);
+    private static final EventType QUOTA_EXCEEDED_TYPE = EventType.getEventType(QuotaExceededEvent.class);
+
+    private FlightEvents() {
+    }
+
+    @Name(PARSE)
+    @Label("Script Parse")
+    @Category("Interpreter")
+    @StackTrace(false)
+    public static final class ParseEvent extends Event {
+        @Label("Script Id")
+        public String scriptId;
+
+        @Label("Source Length")
+        @DataAmount(DataAmount.BYTES)
+        public int sourceLength;
+
+        @Label("Errors")
+        public int errors;
+    }
+
+    @Name(EVALUATE)
+    @Label("Script Evaluation")
+    @Category("Interpreter")
+    @StackTrace(false)
+    public static final class EvaluateEvent extends Event {
+        @Label("Script Id")
+        public String scriptId;
+
+        @Label("Engine")
+        public String engine;
+
+        @Label("Success")
+        public boolean success;
+
+        @Label("Evaluation Steps")
+        public long steps;
+
+        @Label("Loop Iterations")
+        public long loopIterations;
+
+        @Label("Allocated")
+        @DataAmount(DataAmount.BYTES)
+        @Description("Estimated memory allocated for arrays, maps and strings")
+        public long allocatedBytes;
+
+        @Label("Error Line")
+        public int line;
+
+        @Label("Error Column")
+        public int column;
+    }
+
+    @Name(FUNCTION_CALL)
+    @Label("Script Function Call")
+    @Category("Interpreter")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class FunctionCallEvent extends Event {
+        @Label("Script Id")
+        public String scriptId;
+
+        @Label("Function")
+        public String function;
+
+        @Label("Line")
+        @Description("Line of the function declaration")
+        public int line;
+
+        @Label("Column")
+        public int column;
+
+        @Label("Evaluation Steps")
+        @Description("Steps evaluated during the call, including nested calls")
+        public long steps;
+    }
+
+    @Name(REGEX)
+    @Label("Regular Expression")
+    @Category("Interpreter")
+    @StackTrace(false)
+    public static final class RegexEvent extends Event {
+        @Label("Script Id")
+        public String scriptId;
+
+        @Label("Function")
+        public String function;
+
+        @Label("Pattern")
+        public String pattern;
+
+        @Label("Input Length")
+        public int inputLength;
+    }
+
+    @Name(QUOTA_EXCEEDED)
+    @Label("Resource Quota Exceeded")
+    @Category("Interpreter")
+    public static final class QuotaExceededEvent extends Event {
+        @Label("Script Id")
+        public String scriptId;
+
+        @Label("Limit")
+        public String limit;
+
+        @Label("Line")
+        public int line;
+
+        @Label("Column")
+        public int column;
+    }
+
+    /**
+     * Install the id of the script evaluated by this thread
+     *
+     * @return The previous id, to be restored with {@link #restoreScriptId}
+     */
+    public static String enterScript(String scriptId) {
+        String previous = CURRENT_SCRIPT_ID.get();
+        CURRENT_SCRIPT_ID.set(scriptId);
+        return previous;
+    }
+
+    /**
+     * Restore the script id that was current before {@link #enterScript}
+     */
+    public static void restoreScriptId(String previous) {
+        if (previous == null) {
+            CURRENT_SCRIPT_ID.remove();
+        } else {
+            CURRENT_SCRIPT_ID.set(previous);
+        }
+    }
+
+    /**
+     * @return The id of the script evaluated by this thread, or null if there is none
+     */
+    public static String currentScriptId() {
+        return CURRENT_SCRIPT_ID.get();
+    }
+
+    /**
+     * Begin the event of a function call, if function call events are recorded
+     *
+     * @param usage The resource usage of the evaluation, to count the steps of the call
+     * @return The event to pass to {@link #endFunctionCall}, or null if they are not recorded
+     */
+    public static FunctionCallEvent beginFunctionCall(String name, Node.Position position,
+                                                      EvaluationContext.ResourceUsage usage) {
+        if (!FUNCTION_CALL_TYPE.isEnabled()) {
+            return null;
+        }
+        FunctionCallEvent event = new FunctionCallEvent();
+        event.scriptId = currentScriptId();
+        event.function = name;
+        event.line = position.getLine();
+        event.column = position.getColumn();
+        event.steps = usage.getEvaluationSteps();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End and commit the event of a function call
+     */
+    public static void endFunctionCall(FunctionCallEvent event, EvaluationContext.ResourceUsage usage) {
+        event.end();
+        event.steps = usage.getEvaluationSteps() - event.steps;
+        event.commit();
+    }
+
+    /**
+     * Begin the event of a regular expression run by a library function
+     *
+     * @return The event to pass to {@link #endRegex}, or null if they are not recorded
+     */
+    public static RegexEvent beginRegex(String function, String pattern, String input) {
+        if (!REGEX_TYPE.isEnabled()) {
+            return null;
+        }
+        RegexEvent event = new RegexEvent();
+        event.scriptId = currentScriptId();
+        event.function = function;
+        event.pattern = pattern;
+        event.inputLength = input.length();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the event of a regular expression, if it is recorded
+     */
+    public static void endRegex(RegexEvent event) {
+        if (event != null) {
+            event.commit();
+        }
+    }
+
+    /**
+     * Record that a resource limit has been exceeded
+     */
+    static void quotaExceeded(ResourceExhaustionError.ResourceLimitType limitType, int line, int column) {
+        if (!QUOTA_EXCEEDED_TYPE.isEnabled()) {
+            return;
+        }
+        QuotaExceededEvent event = new QuotaExceededEvent();
+        event.scriptId = currentScriptId();
+        event.limit = limitType.name();
+        event.line = line;
+        event.column = column;
+        event.commit();
+    }
+}
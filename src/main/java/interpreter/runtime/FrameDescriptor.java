@@ -0,0 +1,81 @@
+package interpreter.runtime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static layout of an array-backed scope.
+ *
+ * <p>A frame descriptor lists the names of all variables that are declared directly in a
+ * scope, in slot order. It is produced once by the resolver and shared by every
+ * {@link EvaluationContext} created for that scope.</p>
+ *
+ * <p>Slots of variables that are captured by a function and may change after they are
+ * captured are marked as cells: each scope created for the frame stores such a variable in a
+ * cell of its own, which it shares with the functions that capture it.</p>
+ */
+public class FrameDescriptor {
+    private final String[] names;
+    private final Map<String, Integer> indices;
+    private final boolean[] cells;
+
+    public FrameDescriptor(List<String> names) {
+        this(names, null);
+    }
+
+    /**
+     * @param names The names of the variables, in slot order
+     * @param cells Whether each slot is stored in a cell, or null if none is
+     */
+    public FrameDescriptor(List<String> names, boolean[] cells) {
+        this.names = names.toArray(new String[0]);
+        this.cells = cells;
+        this.indices = new HashMap<>();
+        for (int i = 0; i < this.names.length; i++) {
+            this.indices.put(this.names[i], i);
+        }
+    }
+
+    /**
+     * @return The number of slots in this frame
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return The name of the variable stored in the given slot
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return The slot of the given variable, or -1 if it is not declared in this frame
+     */
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return Whether the variable in the given slot is stored in a cell
+     */
+    public boolean isCell(int slot) {
+        return cells != null && cells[slot];
+    }
+
+    /**
+     * @return Whether any slot of this frame is stored in a cell
+     */
+    public boolean hasCells() {
+        return cells != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame" + Arrays.toString(names);
+    }
+}
@@ -0,0 +1,35 @@
+package interpreter.runtime;
+
+import java.util.List;
+
+import interpreter.metrics.Metrics;
+
+/**
+ * A function of a {@link LibraryRegistry}, which reports its calls to the
+ * {@link Metrics#current() current metrics} before calling the registered implementation.
+ * Only evaluations with metrics call it (see {@link EvaluationContext#setMetrics}).
+ */
+public final class LibraryFunction implements CallableFunction {
+    private final String name;
+    private final CallableFunction implementation;
+
+    LibraryFunction(String name, CallableFunction implementation) {
+        this.name = name;
+        this.implementation = implementation;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object apply(List<Object> args) {
+        Metrics.current().libraryFunctionCalled(name);
+        return implementation.apply(args);
+    }
+
+    @Override
+    public String toString() {
+        return "LibraryFunction(" + name + ")";
+    }
+}
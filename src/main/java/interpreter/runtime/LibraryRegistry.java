@@ -0,0 +1,104 @@
+package interpreter.runtime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Immutable table of library functions, shared by every {@link EvaluationContext} created with it.
+ *
+ * <p>The table is built once by running a set of library function initializers against a
+ * scratch context. Contexts look names up in the table after the functions registered on
+ * themselves, so a host can still override single functions per run (e.g. a custom
+ * {@code puts}) without rebuilding the table. Since the table never changes after it has been
+ * built, it can be used by contexts running on different threads at the same time.</p>
+ * 
+ * <p>The functions are also wrapped in {@link LibraryFunction}s, which report their calls to
+ * the metrics of the evaluation. Evaluations without metrics look up the functions
+ * themselves, so their calls do not pay for the reporting.</p>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * LibraryRegistry library = LibraryRegistry.of(new DefaultLibraryFunctionsInitializer(), ...);
+ *
+ * // Evaluate many scripts without registering the library functions again
+ * Interpreter interpreter = new Interpreter(quota, library);
+ * </pre>
+ */
+public final class LibraryRegistry {
+    private static final LibraryRegistry EMPTY = new LibraryRegistry(Collections.emptyMap(), Collections.emptyMap());
+
+    // Functions wrapped to report their calls, and the functions as registered
+    private final Map<String, CallableFunction> functions;
+    private final Map<String, CallableFunction> implementations;
+
+    private LibraryRegistry(Map<String, CallableFunction> functions, Map<String, CallableFunction> implementations) {
+        this.functions = functions;
+        this.implementations = implementations;
+    }
+
+    /**
+     * Build a table holding the functions registered by the given initializers. Later
+     * initializers replace functions of the same name registered by earlier ones.
+     */
+    @SafeVarargs
+    public static LibraryRegistry of(Consumer<EvaluationContext>... initializers) {
+        EvaluationContext scratch;
+        try {
+            scratch = new EvaluationContext();
+        } catch (RuntimeError e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (Consumer<EvaluationContext> initializer : initializers) {
+            initializer.accept(scratch);
+        }
+
+        Map<String, CallableFunction> registered = scratch.getRegisteredFunctions();
+        if (registered.isEmpty()) {
+            return EMPTY;
+        }
+        // Wrap the functions once, so that their calls can be counted by the metrics
+        Map<String, CallableFunction> functions = new HashMap<>();
+        for (Map.Entry<String, CallableFunction> entry : registered.entrySet()) {
+            functions.put(entry.getKey(), new LibraryFunction(entry.getKey(), entry.getValue()));
+        }
+        return new LibraryRegistry(Collections.unmodifiableMap(functions),
+                Collections.unmodifiableMap(new HashMap<>(registered)));
+    }
+
+    /**
+     * @return A table without any functions
+     */
+    public static LibraryRegistry empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return The function registered under the given name, or null if there is none
+     */
+    public CallableFunction lookup(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * @param counted Whether the calls of the function are reported to the current metrics
+     * @return The function registered under the given name, or null if there is none
+     */
+    public CallableFunction lookup(String name, boolean counted) {
+        return counted ? functions.get(name) : implementations.get(name);
+    }
+
+    public boolean contains(String name) {
+        return functions.containsKey(name);
+    }
+
+    /**
+     * @return The names of all functions in the table
+     */
+    public Set<String> getNames() {
+        return functions.keySet();
+    }
+}
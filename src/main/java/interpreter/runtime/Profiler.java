@@ -0,0 +1,312 @@
+package interpreter.runtime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ast.Node;
+
+/**
+ * Opt-in execution profiler recording where an evaluation spends its time and steps, per
+ * script function and per source line.
+ *
+ * <p>The profiler is attached to the root scope of an evaluation (see
+ * {@link EvaluationContext#setProfiler}). Every evaluation step reported to
+ * {@link EvaluationContext#trackEvaluationStep} is recorded for its line and for the running
+ * function, and the time elapsed since the previous step is attributed to the line of that
+ * step. Function invocations of all engines report their entry and exit, which gives call
+ * counts and inclusive and exclusive times. The top-level code of the program is recorded as
+ * the function {@link #PROGRAM}.</p>
+ *
+ * <p>When no profiler is attached, the hooks cost a single null check. Steps are recorded
+ * even with amortized step accounting, but engines report fewer steps than the tree walker,
+ * so step counts are only comparable within one engine.</p>
+ */
+public final class Profiler {
+    /** Name of the pseudo function standing for the top-level code of the program */
+    public static final String PROGRAM = "<program>";
+
+    private final Map<String, FunctionProfile> functions = new HashMap<>();
+    private final Map<Integer, LineProfile> lines = new HashMap<>();
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    // Line of the last recorded step, and when it was recorded
+    private LineProfile currentLine;
+    private long lastStepTime;
+
+    /**
+     * Start profiling the top-level code of the program
+     */
+    public void start() {
+        lastStepTime = System.nanoTime();
+        enterFunction(PROGRAM, null);
+    }
+
+    /**
+     * Stop profiling, closing the functions that are still running
+     */
+    public void stop() {
+        attributeTime(System.nanoTime());
+        currentLine = null;
+        while (!frames.isEmpty()) {
+            exitFunction();
+        }
+    }
+
+    /**
+     * Record the entry into a script function
+     *
+     * @param name The name of the function, null if it is anonymous
+     * @param position The position of the function declaration, null for the program
+     */
+    public void enterFunction(String name, Node.Position position) {
+        String displayName = name != null ? name : "<anonymous>";
+        String key = position != null ? displayName + "@" + position : displayName;
+        FunctionProfile profile = functions.get(key);
+        if (profile == null) {
+            profile = new FunctionProfile(displayName, position != null ? position.getLine() : 0);
+            functions.put(key, profile);
+        }
+
+        profile.calls++;
+        profile.active++;
+        frames.push(new Frame(profile, System.nanoTime()));
+    }
+
+    /**
+     * Record the exit from the function entered last
+     */
+    public void exitFunction() {
+        Frame frame = frames.pop();
+        long elapsed = System.nanoTime() - frame.start;
+
+        FunctionProfile profile = frame.profile;
+        profile.exclusiveNanos += elapsed - frame.childNanos;
+        // Recursive invocations are already included in the outermost one
+        if (--profile.active == 0) {
+            profile.inclusiveNanos += elapsed;
+        }
+
+        Frame caller = frames.peek();
+        if (caller != null) {
+            caller.childNanos += elapsed;
+        }
+    }
+
+    /**
+     * Record an evaluation step at the given position
+     */
+    public void step(Node.Position position) {
+        step(position, 1);
+    }
+
+    /**
+     * Record several evaluation steps at the given position
+     */
+    public void step(Node.Position position, int steps) {
+        long now = System.nanoTime();
+        attributeTime(now);
+
+        int line = position != null ? position.getLine() : 0;
+        if (currentLine == null || currentLine.line != line) {
+            currentLine = lines.get(line);
+            if (currentLine == null) {
+                currentLine = new LineProfile(line);
+                lines.put(line, currentLine);
+            }
+        }
+        currentLine.steps += steps;
+
+        Frame frame = frames.peek();
+        if (frame != null) {
+            frame.profile.steps += steps;
+        }
+    }
+
+    /**
+     * Attribute the time since the last step to the line of that step
+     */
+    private void attributeTime(long now) {
+        if (currentLine != null) {
+            currentLine.nanos += now - lastStepTime;
+        }
+        lastStepTime = now;
+    }
+
+    /**
+     * @return The recorded profile, functions sorted by decreasing exclusive time and lines by
+     *         line number
+     */
+    public Report report() {
+        List<FunctionProfile> functionProfiles = new ArrayList<>(functions.values());
+        functionProfiles.sort(Comparator.comparingLong(FunctionProfile::getExclusiveNanos).reversed());
+
+        List<LineProfile> lineProfiles = new ArrayList<>(lines.values());
+        lineProfiles.sort(Comparator.comparingInt(LineProfile::getLine));
+
+        return new Report(functionProfiles, lineProfiles);
+    }
+
+    /**
+     * Invocation of a function that is still running
+     */
+    private static final class Frame {
+        final FunctionProfile profile;
+        final long start;
+        // Time spent in functions called by this invocation
+        long childNanos;
+
+        Frame(FunctionProfile profile, long start) {
+            this.profile = profile;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Calls, times and steps of one script function
+     */
+    public static final class FunctionProfile {
+        private final String name;
+        private final int line;
+        private int calls;
+        private long inclusiveNanos;
+        private long exclusiveNanos;
+        private long steps;
+        // Number of invocations currently running, to count recursive time once
+        private int active;
+
+        FunctionProfile(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The line of the function declaration, 0 for the program
+         */
+        public int getLine() {
+            return line;
+        }
+
+        public int getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return The time spent in the function, including the functions it called
+         */
+        public long getInclusiveNanos() {
+            return inclusiveNanos;
+        }
+
+        /**
+         * @return The time spent in the function itself
+         */
+        public long getExclusiveNanos() {
+            return exclusiveNanos;
+        }
+
+        /**
+         * @return The steps evaluated in the function itself
+         */
+        public long getSteps() {
+            return steps;
+        }
+    }
+
+    /**
+     * Steps and time of one source line
+     */
+    public static final class LineProfile {
+        private final int line;
+        private long steps;
+        private long nanos;
+
+        LineProfile(int line) {
+            this.line = line;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+        /**
+         * @return The time spent evaluating the line, until the next step on any line
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Profile of one evaluation
+     */
+    public static final class Report {
+        private final List<FunctionProfile> functions;
+        private final List<LineProfile> lines;
+
+        Report(List<FunctionProfile> functions, List<LineProfile> lines) {
+            this.functions = Collections.unmodifiableList(functions);
+            this.lines = Collections.unmodifiableList(lines);
+        }
+
+        /**
+         * @return The profiles of the functions, sorted by decreasing exclusive time
+         */
+        public List<FunctionProfile> getFunctions() {
+            return functions;
+        }
+
+        /**
+         * @return The profile of the function with the given name, or null if it was not called
+         */
+        public FunctionProfile getFunction(String name) {
+            for (FunctionProfile function : functions) {
+                if (function.getName().equals(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The profiles of the lines, sorted by line number
+         */
+        public List<LineProfile> getLines() {
+            return lines;
+        }
+
+        /**
+         * @return The profile as a table, for display
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-24s %6s %8s %12s %12s %10s%n",
+                    "function", "line", "calls", "incl (us)", "excl (us)", "steps"));
+            for (FunctionProfile function : functions) {
+                sb.append(String.format("%-24s %6d %8d %12d %12d %10d%n", function.getName(),
+                        function.getLine(), function.getCalls(), function.getInclusiveNanos() / 1000,
+                        function.getExclusiveNanos() / 1000, function.getSteps()));
+            }
+            sb.append(String.format("%n%6s %10s %12s%n", "line", "steps", "time (us)"));
+            for (LineProfile line : lines) {
+                sb.append(String.format("%6d %10d %12d%n", line.getLine(), line.getSteps(),
+                        line.getNanos() / 1000));
+            }
+            return sb.toString();
+        }
+    }
+}
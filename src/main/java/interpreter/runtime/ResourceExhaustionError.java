@@ -37,7 +37,16 @@ public class ResourceExhaustionError extends RuntimeError {
         VARIABLE_COUNT("Maximum variable count exceeded"),
         
         /** Indicates that the maximum number of evaluation steps has been exceeded (prevents CPU exhaustion) */
-        EVALUATION_STEPS("Maximum execution steps exceeded");
+        EVALUATION_STEPS("Maximum execution steps exceeded"),
+        
+        /** Indicates that the evaluation has run longer than allowed (enforces a latency bound) */
+        WALL_CLOCK_TIME("Maximum wall-clock time exceeded"),
+        
+        /** Indicates that the evaluating thread has used more CPU time than allowed (prevents CPU exhaustion) */
+        CPU_TIME("Maximum CPU time exceeded"),
+        
+        /** Indicates that the evaluation has allocated more memory for values than allowed (prevents memory exhaustion) */
+        ALLOCATED_BYTES("Maximum allocated memory exceeded");
         
         private final String description;
         
@@ -63,6 +72,7 @@ public class ResourceExhaustionError extends RuntimeError {
     public ResourceExhaustionError(ResourceLimitType limitType, int line, int column) {
         super(limitType.getDescription(), line, column);
         this.limitType = limitType;
+        FlightEvents.quotaExceeded(limitType, line, column);
     }
     
     /**
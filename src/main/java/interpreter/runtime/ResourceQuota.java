@@ -11,8 +11,16 @@ package interpreter.runtime;
  *   <li>Max variable count - prevents memory exhaustion</li>
  *   <li>Max evaluation steps - provides a CPU usage proxy</li>
  *   <li>Max string length - prevents memory exhaustion from huge strings</li>
+ *   <li>Max wall-clock and CPU time - bound the latency and CPU use of an evaluation, including
+ *       time spent in library functions (unlimited by default)</li>
+ *   <li>Max allocated bytes - an approximate bound of the memory allocated for arrays, maps and
+ *       strings (unlimited by default, see {@link AllocationMeter})</li>
  * </ul>
  * 
+ * <p>Evaluation steps are charged per node by default. With
+ * {@link StepAccounting#AMORTIZED} accounting, the steps of straight-line code are charged in
+ * bulk when it is entered, and the step limit is only checked at loop iterations and calls.</p>
+ * 
  * <p>Example usage:</p>
  * <pre>
  * // Create a custom quota with restrictive limits
@@ -36,6 +44,26 @@ public class ResourceQuota {
     private final int maxVariableCount;       // Limits number of variables
     private final int maxEvaluationSteps;     // Limits total evaluation steps
     private final int maxStringLength;        // Limits string length to prevent memory exhaustion
+    private final StepAccounting stepAccounting;
+    private final long maxWallClockMillis;    // Limits elapsed time, 0 if unlimited
+    private final long maxCpuTimeMillis;      // Limits CPU time of the evaluating thread, 0 if unlimited
+    private final long maxAllocatedBytes;     // Limits memory allocated for values, 0 if unlimited
+    
+    /**
+     * How evaluation steps are charged against {@link #getMaxEvaluationSteps()}
+     */
+    public enum StepAccounting {
+        /** Every evaluated node charges a step, and the limit is checked on each one */
+        PER_NODE,
+        /**
+         * The steps of the code between loop back edges and function entries are computed
+         * from the AST and charged in bulk when it is entered, so the limit is only checked
+         * at loop iterations, function calls and program start. Since a whole region is
+         * charged up front, a script stops at most one region earlier than with per node
+         * accounting, and never runs more steps than the limit.
+         */
+        AMORTIZED
+    }
     
     /**
      * Creates a ResourceQuota with default limits.
@@ -67,11 +95,63 @@ public class ResourceQuota {
     public ResourceQuota(int maxEvaluationDepth, int maxLoopIterations, 
                          int maxVariableCount, int maxEvaluationSteps,
                          int maxStringLength) {
+        this(maxEvaluationDepth, maxLoopIterations, maxVariableCount, maxEvaluationSteps,
+             maxStringLength, StepAccounting.PER_NODE, 0, 0, 0);
+    }
+    
+    private ResourceQuota(int maxEvaluationDepth, int maxLoopIterations, 
+                          int maxVariableCount, int maxEvaluationSteps,
+                          int maxStringLength, StepAccounting stepAccounting,
+                          long maxWallClockMillis, long maxCpuTimeMillis,
+                          long maxAllocatedBytes) {
         this.maxEvaluationDepth = maxEvaluationDepth;
         this.maxLoopIterations = maxLoopIterations;
         this.maxVariableCount = maxVariableCount;
         this.maxEvaluationSteps = maxEvaluationSteps;
         this.maxStringLength = maxStringLength;
+        this.stepAccounting = stepAccounting;
+        this.maxWallClockMillis = maxWallClockMillis;
+        this.maxCpuTimeMillis = maxCpuTimeMillis;
+        this.maxAllocatedBytes = maxAllocatedBytes;
+    }
+    
+    /**
+     * @return A copy of this quota that charges evaluation steps the given way
+     */
+    public ResourceQuota withStepAccounting(StepAccounting stepAccounting) {
+        return new ResourceQuota(maxEvaluationDepth, maxLoopIterations, maxVariableCount,
+                maxEvaluationSteps, maxStringLength, stepAccounting, maxWallClockMillis, maxCpuTimeMillis,
+                maxAllocatedBytes);
+    }
+    
+    /**
+     * @param maxWallClockMillis Maximum elapsed time of an evaluation in milliseconds, 0 for no limit
+     * @return A copy of this quota with the given wall-clock time limit
+     */
+    public ResourceQuota withMaxWallClockMillis(long maxWallClockMillis) {
+        return new ResourceQuota(maxEvaluationDepth, maxLoopIterations, maxVariableCount,
+                maxEvaluationSteps, maxStringLength, stepAccounting, maxWallClockMillis, maxCpuTimeMillis,
+                maxAllocatedBytes);
+    }
+    
+    /**
+     * @param maxCpuTimeMillis Maximum CPU time of the evaluating thread in milliseconds, 0 for no limit
+     * @return A copy of this quota with the given CPU time limit
+     */
+    public ResourceQuota withMaxCpuTimeMillis(long maxCpuTimeMillis) {
+        return new ResourceQuota(maxEvaluationDepth, maxLoopIterations, maxVariableCount,
+                maxEvaluationSteps, maxStringLength, stepAccounting, maxWallClockMillis, maxCpuTimeMillis,
+                maxAllocatedBytes);
+    }
+    
+    /**
+     * @param maxAllocatedBytes Maximum estimated bytes allocated for arrays, maps and strings, 0 for no limit
+     * @return A copy of this quota with the given allocation limit
+     */
+    public ResourceQuota withMaxAllocatedBytes(long maxAllocatedBytes) {
+        return new ResourceQuota(maxEvaluationDepth, maxLoopIterations, maxVariableCount,
+                maxEvaluationSteps, maxStringLength, stepAccounting, maxWallClockMillis, maxCpuTimeMillis,
+                maxAllocatedBytes);
     }
     
     /**
@@ -122,4 +202,32 @@ public class ResourceQuota {
     public int getMaxStringLength() {
         return maxStringLength;
     }
+    
+    /**
+     * @return how evaluation steps are charged
+     */
+    public StepAccounting getStepAccounting() {
+        return stepAccounting;
+    }
+    
+    /**
+     * @return the maximum elapsed time of an evaluation in milliseconds, 0 if unlimited
+     */
+    public long getMaxWallClockMillis() {
+        return maxWallClockMillis;
+    }
+    
+    /**
+     * @return the maximum CPU time of an evaluation in milliseconds, 0 if unlimited
+     */
+    public long getMaxCpuTimeMillis() {
+        return maxCpuTimeMillis;
+    }
+    
+    /**
+     * @return the maximum estimated bytes allocated for arrays, maps and strings, 0 if unlimited
+     */
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
 } 
\ No newline at end of file
@@ -2,6 +2,9 @@ package interpreter.runtime;
 
 /**
  * Runtime error with position information
+ * 
+ * <p>Errors report a position in the script, not in the interpreter, so no Java stack trace
+ * is captured when they are created. This keeps errors cheap to throw from deep recursion.</p>
  */
 public class RuntimeError extends Exception {
     private static final long serialVersionUID = 1L;
@@ -10,13 +13,13 @@ public class RuntimeError extends Exception {
     private final int column;
     
     public RuntimeError(String message, int line, int column) {
-        super(message);
+        super(message, null, false, false);
         this.line = line;
         this.column = column;
     }
     
     public RuntimeError(String message, Throwable cause, int line, int column) {
-        super(message, cause);
+        super(message, cause, false, false);
         this.line = line;
         this.column = column;
     }
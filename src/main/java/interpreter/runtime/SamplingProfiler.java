@@ -0,0 +1,147 @@
+package interpreter.runtime;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low-overhead profiler that periodically samples the script call stacks of the evaluations
+ * registered with it, and aggregates them for flame graph tools.
+ *
+ * <p>Unlike the instrumenting {@link Profiler}, the evaluating thread only maintains a
+ * {@link CallStack} on function entry, exit and calls; the stacks are captured on a
+ * background daemon thread every sampling interval. One sampler can be shared by the
+ * evaluations of many interpreters, also running on different threads, to profile a
+ * production workload as a whole.</p>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * try (SamplingProfiler sampler = new SamplingProfiler(10)) {
+ *     interpreter.setSampler(sampler);
+ *     interpreter.evaluate();
+ *     Files.writeString(Path.of("script.collapsed"), sampler.toCollapsed());
+ * }
+ * // flamegraph.pl script.collapsed &gt; script.svg
+ * </pre>
+ */
+public final class SamplingProfiler implements AutoCloseable {
+    /** Default time between two samples in milliseconds */
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+
+    private final Set<CallStack> stacks = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicLong> samples = new ConcurrentHashMap<>();
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final ScheduledExecutorService executor;
+
+    public SamplingProfiler() {
+        this(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Start sampling
+     *
+     * @param intervalMillis Time between two samples in milliseconds
+     */
+    public SamplingProfiler(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive: " + intervalMillis);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "script-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start sampling the call stack of an evaluation
+     */
+    public void register(CallStack stack) {
+        stacks.add(stack);
+    }
+
+    /**
+     * Stop sampling the call stack of an evaluation
+     */
+    public void unregister(CallStack stack) {
+        stacks.remove(stack);
+    }
+
+    /**
+     * Capture the call stacks of all registered evaluations once. Called by the sampling
+     * thread, and by hosts that want a sample at a point of their choosing.
+     */
+    public void sample() {
+        for (CallStack stack : stacks) {
+            String frames = stack.sample();
+            if (frames != null) {
+                samples.computeIfAbsent(frames, key -> new AtomicLong()).incrementAndGet();
+                sampleCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The number of samples taken so far
+     */
+    public long getSampleCount() {
+        return sampleCount.get();
+    }
+
+    /**
+     * @return The number of samples per stack, stacks in the format of {@link CallStack#sample()}
+     */
+    public Map<String, Long> getSamples() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : samples.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Write the samples in the collapsed stack format read by flame graph tools, one stack per
+     * line followed by its number of samples
+     */
+    public void writeCollapsed(Appendable out) throws IOException {
+        for (Map.Entry<String, Long> entry : getSamples().entrySet()) {
+            out.append(entry.getKey()).append(' ').append(String.valueOf(entry.getValue())).append('\n');
+        }
+    }
+
+    /**
+     * @return The samples in the collapsed stack format, see {@link #writeCollapsed}
+     */
+    public String toCollapsed() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeCollapsed(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Discard the samples taken so far
+     */
+    public void reset() {
+        samples.clear();
+        sampleCount.set(0);
+    }
+
+    /**
+     * Stop sampling. The samples taken so far remain available.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package interpreter.runtime;
+
+/**
+ * A call in tail position of a script function, returned in place of its result.
+ * The function that made the call performs it in a loop once its own body has completed,
+ * so tail-recursive scripts run in constant Java stack and scope depth.
+ */
+public class TailCall {
+    private final CallableFunction function;
+    private final Object[] arguments;
+    
+    public TailCall(CallableFunction function, Object[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+    
+    public CallableFunction getFunction() {
+        return function;
+    }
+    
+    public Object[] getArguments() {
+        return arguments;
+    }
+    
+    @Override
+    public String toString() {
+        return "TailCall(" + function + ")";
+    }
+}
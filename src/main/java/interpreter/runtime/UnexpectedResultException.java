@@ -0,0 +1,22 @@
+package interpreter.runtime;
+
+/**
+ * Thrown by a typed evaluation method when the node produced a value of another type.
+ * Carries the already computed value, so the caller can continue on the generic path
+ * without evaluating the node again.
+ */
+public class UnexpectedResultException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    private final transient Object result;
+    
+    public UnexpectedResultException(Object result) {
+        // Used for control flow only: no message and no stack trace
+        super(null, null, false, false);
+        this.result = result;
+    }
+    
+    public Object getResult() {
+        return result;
+    }
+}
@@ -1,10 +1,15 @@
 package interpreter.util;
 
+import interpreter.ast.Node;
+import interpreter.runtime.AllocationMeter;
+import interpreter.runtime.CallableFunction;
 import interpreter.runtime.ResourceExhaustionError;
 import interpreter.runtime.ResourceExhaustionError.ResourceLimitType;
 import interpreter.runtime.ResourceQuota;
+import interpreter.runtime.RuntimeError;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class with common evaluation methods
@@ -32,51 +37,52 @@ public class Evaluator {
         return true;  // All other objects are truthy
     }
     
+    // Prefix operators, see PrefixOperator
+    
     /**
-     * Apply prefix operator to a value
+     * Negate a number (-value)
      * 
-     * @param operator The prefix operator (-, !)
      * @param value The operand value
-     * @return The result of the operation
+     * @return The negated number, or null if the value is not a number
      */
-    public static Object applyPrefixOperator(String operator, Object value) {
-        switch (operator) {
-            case "-":
-                if (value instanceof Number) {
-                    if (value instanceof Integer) {
-                        return -((Integer) value);
-                    } else if (value instanceof Double) {
-                        return -((Double) value);
-                    }
-                }
-                return null;
-            case "!":
-                return !isTruthy(value);
-            default:
-                return null;
+    public static Object negate(Object value) {
+        if (value instanceof Integer) {
+            return -((Integer) value);
+        } else if (value instanceof Double) {
+            return -((Double) value);
         }
+        return null;
     }
     
     /**
-     * Apply infix operator to two values
+     * Logical negation (!value)
+     */
+    public static Object not(Object value) {
+        return !isTruthy(value);
+    }
+    
+    // Infix operators, see InfixOperator. Operators return null for operand types they do not support.
+    
+    /**
+     * Add numbers, or concatenate arrays or strings (left + right)
      * 
      * @param left The left operand
-     * @param operator The infix operator (+, -, *, /, etc.)
      * @param right The right operand
      * @param resourceQuota The resource quota containing the max string length limit
      * @return The result of the operation
      * @throws ResourceExhaustionError if string concatenation would result in a string 
-     *         that exceeds the maximum allowed length
+     *         that exceeds the maximum allowed length, or the result exceeds the allocation limit
      */
-    public static Object applyInfixOperator(Object left, String operator, Object right, ResourceQuota resourceQuota) throws ResourceExhaustionError {
+    public static Object add(Object left, Object right, ResourceQuota resourceQuota) throws ResourceExhaustionError {
         // Handle special case for array concatenation
-        if (operator.equals("+") && left instanceof List && right instanceof List) {
+        if (left instanceof List && right instanceof List) {
             @SuppressWarnings("unchecked")
             List<Object> leftList = (List<Object>) left;
             @SuppressWarnings("unchecked")
             List<Object> rightList = (List<Object>) right;
             
             // Create a new list to avoid modifying either original
+            AllocationMeter.chargeCurrent(AllocationMeter.arrayBytes(leftList.size() + rightList.size()), null);
             List<Object> resultList = new ArrayList<>(leftList);
             resultList.addAll(rightList);
             
@@ -84,47 +90,118 @@ public class Evaluator {
         }
         
         // Handle special case for string concatenation
-        if (operator.equals("+") && (left instanceof String || right instanceof String)) {
-            String leftStr = String.valueOf(left);
-            String rightStr = String.valueOf(right);
-            
-            // Check for potential string size violation
-            checkStringLength(leftStr, rightStr, resourceQuota);
-            
-            return leftStr + rightStr;
+        if (left instanceof String || right instanceof String) {
+            return concatenate(String.valueOf(left), String.valueOf(right), resourceQuota);
         }
         
-        // Handle number operations
         if (left instanceof Number && right instanceof Number) {
-            double leftVal = ((Number) left).doubleValue();
-            double rightVal = ((Number) right).doubleValue();
-            
-            switch (operator) {
-                case "+": return leftVal + rightVal;
-                case "-": return leftVal - rightVal;
-                case "*": return leftVal * rightVal;
-                case "/": return leftVal / rightVal;
-                case "%": return leftVal % rightVal;
-                case "<": return leftVal < rightVal;
-                case ">": return leftVal > rightVal;
-                case "<=": return leftVal <= rightVal;
-                case ">=": return leftVal >= rightVal;
-                case "==": return leftVal == rightVal;
-                case "!=": return leftVal != rightVal;
-            }
+            return ((Number) left).doubleValue() + ((Number) right).doubleValue();
         }
-        
-        // Handle boolean operations
-        switch (operator) {
-            case "&&": return isTruthy(left) && isTruthy(right);
-            case "||": return isTruthy(left) || isTruthy(right);
-            case "==": return left == null ? right == null : left.equals(right);
-            case "!=": return left == null ? right != null : !left.equals(right);
+        return null;
+    }
+    
+    public static Object subtract(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() - ((Number) right).doubleValue();
         }
-        
         return null;
     }
     
+    public static Object multiply(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() * ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object divide(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() / ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object modulo(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() % ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object less(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() < ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object greater(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() > ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object lessEqual(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() <= ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    public static Object greaterEqual(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() >= ((Number) right).doubleValue();
+        }
+        return null;
+    }
+    
+    /**
+     * Equality: numbers by value, anything else with equals (left == right)
+     */
+    public static Object equal(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() == ((Number) right).doubleValue();
+        }
+        return left == null ? right == null : left.equals(right);
+    }
+    
+    public static Object notEqual(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() != ((Number) right).doubleValue();
+        }
+        return left == null ? right != null : !left.equals(right);
+    }
+    
+    /**
+     * Logical and, both operands are already evaluated (left &amp;&amp; right)
+     */
+    public static Object and(Object left, Object right) {
+        return isTruthy(left) && isTruthy(right);
+    }
+    
+    public static Object or(Object left, Object right) {
+        return isTruthy(left) || isTruthy(right);
+    }
+    
+    /**
+     * Concatenate two strings
+     * 
+     * @param left First string in the concatenation
+     * @param right Second string in the concatenation
+     * @param resourceQuota The resource quota containing the max string length limit
+     * @return The concatenated string
+     * @throws ResourceExhaustionError if the resulting string would be too long, or exceed
+     *         the allocation limit of the current evaluation
+     */
+    public static String concatenate(String left, String right, ResourceQuota resourceQuota) throws ResourceExhaustionError {
+        // Check for potential string size violation
+        checkStringLength(left, right, resourceQuota);
+        AllocationMeter.chargeCurrent(AllocationMeter.stringBytes(left.length() + right.length()), null);
+        
+        return left + right;
+    }
+    
     /**
      * Check if concatenating two strings would exceed the maximum string length
      * 
@@ -144,4 +221,190 @@ public class Evaluator {
             );
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Apply the index operator to an array or map (collection[index])
+     * 
+     * @param collection The array or map
+     * @param index The array index or map key
+     * @param position Source position for error reporting
+     * @return The element at the given index, or null for a missing map key
+     * @throws RuntimeError if the collection or index is invalid
+     */
+    @SuppressWarnings("unchecked")
+    public static Object getIndex(Object collection, Object index, Node.Position position) throws RuntimeError {
+        // Handle array indexing
+        if (collection instanceof List) {
+            List<Object> array = (List<Object>) collection;
+            
+            if (!(index instanceof Number)) {
+                throw new RuntimeError(
+                    "Array index must be a number, got: " + (index == null ? "null" : index.getClass().getName()),
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            int idx = ((Number) index).intValue();
+            
+            if (idx < 0 || idx >= array.size()) {
+                throw new RuntimeError(
+                    "Array index out of bounds: " + idx + ", array size: " + array.size(),
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            // Get the element at the specified index
+            return array.get(idx);
+        }
+        
+        // Handle map indexing
+        if (collection instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) collection;
+            
+            if (!(index instanceof String || index instanceof Number)) {
+                throw new RuntimeError(
+                    "Map key must be a string or number, got: " + (index == null ? "null" : index.getClass().getName()),
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            if (!map.containsKey(index)) {
+                return null; // Return null for non-existent keys
+            }
+            
+            return map.get(index);
+        }
+        
+        throw new RuntimeError(
+            "Cannot use index operator on non-collection value, got: " + 
+            (collection == null ? "null" : collection.getClass().getName()),
+            position.getLine(),
+            position.getColumn()
+        );
+    }
+    
+    /**
+     * Assign an element of an array or map (collection[index] = value)
+     * 
+     * @param collection The array or map
+     * @param index The array index or map key
+     * @param value The value to assign
+     * @param position Source position for error reporting
+     * @return The assigned value
+     * @throws RuntimeError if the collection or index is invalid, or a new map entry exceeds
+     *         the allocation limit of the current evaluation
+     */
+    @SuppressWarnings("unchecked")
+    public static Object setIndex(Object collection, Object index, Object value, Node.Position position) throws RuntimeError {
+        // Handle array assignment
+        if (collection instanceof List) {
+            List<Object> array = (List<Object>) collection;
+            
+            if (!(index instanceof Number)) {
+                throw new RuntimeError(
+                    "Array index must be a number",
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            int idx = ((Number) index).intValue();
+            
+            if (idx < 0 || idx >= array.size()) {
+                throw new RuntimeError(
+                    "Array index out of bounds: " + idx,
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            array.set(idx, value);
+            return value;
+        }
+        
+        // Handle map assignment
+        if (collection instanceof Map) {
+            if (!(index instanceof String || index instanceof Number)) {
+                throw new RuntimeError(
+                    "Map key must be a string or number",
+                    position.getLine(),
+                    position.getColumn()
+                );
+            }
+            
+            Map<Object, Object> map = (Map<Object, Object>) collection;
+            if (!map.containsKey(index)) {
+                AllocationMeter.chargeCurrent(AllocationMeter.MAP_ENTRY_BYTES, position);
+            }
+            map.put(index, value);
+            return value;
+        }
+        
+        throw new RuntimeError(
+            "Cannot use index operator on non-collection value",
+            position.getLine(),
+            position.getColumn()
+        );
+    }
+    
+    /**
+     * Check that a value can be used as a key in a map literal
+     * 
+     * @param key The evaluated key
+     * @param position Source position for error reporting
+     * @throws RuntimeError if the key is neither a string nor a number
+     */
+    public static void checkMapKey(Object key, Node.Position position) throws RuntimeError {
+        if (!(key instanceof String || key instanceof Number)) {
+            throw new RuntimeError(
+                "Map keys must be strings or numbers, got: " + (key == null ? "null" : key.getClass().getName()),
+                position.getLine(),
+                position.getColumn()
+            );
+        }
+    }
+    
+    /**
+     * Call a function value with already evaluated arguments
+     * 
+     * @param function The value of the callee expression
+     * @param args The argument values
+     * @param position Source position for error reporting
+     * @return The result of the call
+     * @throws RuntimeError if the value is not a function or the call fails
+     */
+    public static Object callFunction(Object function, List<Object> args, Node.Position position) throws RuntimeError {
+        if (function == null) {
+            throw new RuntimeError(
+                    "Cannot call null as a function",
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        
+        if (!(function instanceof CallableFunction)) {
+            throw new RuntimeError(
+                    "Not a function: " + function,
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        
+        try {
+            return ((CallableFunction) function).apply(args);
+        } catch (RuntimeException e) {
+            // Unwrap RuntimeException if it was originally a RuntimeError
+            if (e.getCause() instanceof RuntimeError) {
+                throw (RuntimeError) e.getCause();
+            }
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+}
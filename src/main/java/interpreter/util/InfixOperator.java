@@ -0,0 +1,147 @@
+package interpreter.util;
+
+import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Infix operators of the language, resolved from their symbol once by the parser.
+ * Each operator dispatches directly to its implementation in {@link Evaluator}.
+ */
+public enum InfixOperator {
+    ADD("+") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) throws ResourceExhaustionError {
+            return Evaluator.add(left, right, resourceQuota);
+        }
+    },
+    SUBTRACT("-") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.subtract(left, right);
+        }
+    },
+    MULTIPLY("*") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.multiply(left, right);
+        }
+    },
+    DIVIDE("/") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.divide(left, right);
+        }
+    },
+    MODULO("%") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.modulo(left, right);
+        }
+    },
+    LESS("<") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.less(left, right);
+        }
+    },
+    GREATER(">") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.greater(left, right);
+        }
+    },
+    LESS_EQUAL("<=") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.lessEqual(left, right);
+        }
+    },
+    GREATER_EQUAL(">=") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.greaterEqual(left, right);
+        }
+    },
+    EQUAL("==") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.equal(left, right);
+        }
+    },
+    NOT_EQUAL("!=") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.notEqual(left, right);
+        }
+    },
+    AND("&&") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.and(left, right);
+        }
+    },
+    OR("||") {
+        @Override
+        public Object apply(Object left, Object right, ResourceQuota resourceQuota) {
+            return Evaluator.or(left, right);
+        }
+    };
+    
+    private final String symbol;
+    
+    InfixOperator(String symbol) {
+        this.symbol = symbol;
+    }
+    
+    /**
+     * Apply the operator to two evaluated operands
+     * 
+     * @param left The left operand
+     * @param right The right operand
+     * @param resourceQuota The resource quota containing the max string length limit
+     * @return The result of the operation, null if the operator does not support the operand types
+     * @throws ResourceExhaustionError if a concatenated string would exceed the maximum length
+     */
+    public abstract Object apply(Object left, Object right, ResourceQuota resourceQuota) throws ResourceExhaustionError;
+    
+    /**
+     * @return The source symbol of the operator
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+    
+    /**
+     * @return Whether the operator computes a number from two numbers (+, -, *, /, %)
+     */
+    public boolean isArithmetic() {
+        return ordinal() <= MODULO.ordinal();
+    }
+    
+    /**
+     * @return Whether the operator compares two numbers (&lt;, &gt;, &lt;=, &gt;=, ==, !=)
+     */
+    public boolean isComparison() {
+        return ordinal() >= LESS.ordinal() && ordinal() <= NOT_EQUAL.ordinal();
+    }
+    
+    /**
+     * Resolve an operator symbol
+     * 
+     * @param symbol The source symbol, e.g. "+"
+     * @return The operator, or null if there is no infix operator with this symbol
+     */
+    public static InfixOperator fromSymbol(String symbol) {
+        for (InfixOperator operator : values()) {
+            if (operator.symbol.equals(symbol)) {
+                return operator;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    public String toString() {
+        return symbol;
+    }
+}
@@ -0,0 +1,61 @@
+package interpreter.util;
+
+/**
+ * Prefix operators of the language, resolved from their symbol once by the parser.
+ * Each operator dispatches directly to its implementation in {@link Evaluator}.
+ */
+public enum PrefixOperator {
+    NEGATE("-") {
+        @Override
+        public Object apply(Object value) {
+            return Evaluator.negate(value);
+        }
+    },
+    NOT("!") {
+        @Override
+        public Object apply(Object value) {
+            return Evaluator.not(value);
+        }
+    };
+    
+    private final String symbol;
+    
+    PrefixOperator(String symbol) {
+        this.symbol = symbol;
+    }
+    
+    /**
+     * Apply the operator to an evaluated operand
+     * 
+     * @param value The operand value
+     * @return The result of the operation, null if the operator does not support the operand type
+     */
+    public abstract Object apply(Object value);
+    
+    /**
+     * @return The source symbol of the operator
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+    
+    /**
+     * Resolve an operator symbol
+     * 
+     * @param symbol The source symbol, e.g. "!"
+     * @return The operator, or null if there is no prefix operator with this symbol
+     */
+    public static PrefixOperator fromSymbol(String symbol) {
+        for (PrefixOperator operator : values()) {
+            if (operator.symbol.equals(symbol)) {
+                return operator;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    public String toString() {
+        return symbol;
+    }
+}
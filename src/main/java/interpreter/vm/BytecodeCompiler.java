@@ -0,0 +1,341 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ast.ArrayLiteral;
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.BooleanLiteral;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.Identifier;
+import interpreter.ast.IfStatement;
+import interpreter.ast.IndexAssignmentStatement;
+import interpreter.ast.IndexExpression;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.MapLiteral;
+import interpreter.ast.Node;
+import interpreter.ast.NullLiteral;
+import interpreter.ast.NumberLiteral;
+import interpreter.ast.PrefixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.StringLiteral;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+
+/**
+ * Compiles a resolved AST into bytecode for the {@link VirtualMachine}.
+ *
+ * <p>Every node compiles to code that leaves exactly one value on the operand stack: its
+ * value for expressions and its completion value (the value the tree-walking evaluator would
+ * return) for statements. Variable accesses use the (depth, slot) addresses assigned by the
+ * {@link interpreter.analysis.Resolver}, so the program must be resolved before it is compiled.</p>
+ */
+public class BytecodeCompiler {
+    private final String name;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> literalIndex = new HashMap<>();
+    private int[] code = new int[64];
+    private Node.Position[] positions = new Node.Position[64];
+    private int length;
+    private int stackDepth;
+    private int maxStack;
+
+    public BytecodeCompiler() {
+        this("program");
+    }
+
+    private BytecodeCompiler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Compile a whole program
+     */
+    public Chunk compile(Program program) {
+        emit(Opcode.ENTER_PROGRAM, program, constant(program.getFrame()), program.getSteps());
+        compileStatements(program.getStatements());
+        emit(Opcode.RETURN, program);
+        return toChunk();
+    }
+
+    /**
+     * Compile a function declaration into a prototype from which closures are created at runtime
+     */
+    private FunctionPrototype compileFunction(FunctionDeclaration function) {
+        BytecodeCompiler compiler = new BytecodeCompiler(function.getName());
+        compiler.compileNode(function.getBody(), function);
+        compiler.emit(Opcode.RETURN, function);
+
+        return new FunctionPrototype(
+                function.getName(),
+                function.getPosition(),
+                function.getParameters(),
+                function.getParameterFrame(),
+                function.getParameterSlots(),
+                function.getCaptures(),
+                function.getBodySteps(),
+                compiler.toChunk()
+        );
+    }
+
+    private void compileStatements(List<Node> statements) {
+        if (statements.isEmpty()) {
+            push(Opcode.CONST, null, constant(null));
+            return;
+        }
+
+        for (int i = 0; i < statements.size(); i++) {
+            if (i > 0) {
+                emit(Opcode.POP, statements.get(i));
+                adjustStack(-1);
+            }
+            compileNode(statements.get(i), statements.get(i));
+        }
+    }
+
+    /**
+     * Compile a node that may be absent, using the owner position for the null value
+     */
+    private void compileNode(Node node, Node owner) {
+        if (node == null) {
+            push(Opcode.CONST, owner, constant(null));
+        } else {
+            compile(node);
+        }
+    }
+
+    private void compile(Node node) {
+        if (node instanceof NumberLiteral) {
+            push(Opcode.CONST, node, constant(((NumberLiteral) node).getValue()));
+        } else if (node instanceof BooleanLiteral) {
+            push(Opcode.CONST, node, constant(((BooleanLiteral) node).getValue()));
+        } else if (node instanceof NullLiteral) {
+            push(Opcode.CONST, node, constant(null));
+        } else if (node instanceof StringLiteral) {
+            push(Opcode.STRING, node, constant(((StringLiteral) node).getValue()));
+        } else if (node instanceof Identifier) {
+            Identifier identifier = (Identifier) node;
+            if (identifier.isResolved()) {
+                push(Opcode.LOAD_SLOT, node, identifier.getDepth(), identifier.getSlot(), constant(identifier.getName()));
+            } else {
+                push(Opcode.LOAD_NAME, node, constant(identifier.getName()));
+            }
+        } else if (node instanceof ExpressionStatement) {
+            compileNode(((ExpressionStatement) node).getExpression(), node);
+        } else if (node instanceof VariableDeclaration) {
+            VariableDeclaration declaration = (VariableDeclaration) node;
+            compileNode(declaration.getInitializer(), node);
+            if (declaration.getSlot() >= 0) {
+                emit(Opcode.DEFINE_SLOT, node, declaration.getSlot(), constant(declaration.getName()));
+            } else {
+                emit(Opcode.DEFINE_NAME, node, constant(declaration.getName()));
+            }
+        } else if (node instanceof AssignmentStatement) {
+            AssignmentStatement assignment = (AssignmentStatement) node;
+            compileNode(assignment.getValue(), node);
+            if (assignment.isResolved()) {
+                emit(Opcode.STORE_SLOT, node, assignment.getDepth(), assignment.getSlot(), constant(assignment.getName()));
+            } else {
+                emit(Opcode.STORE_NAME, node, constant(assignment.getName()));
+            }
+        } else if (node instanceof FunctionDeclaration) {
+            FunctionDeclaration function = (FunctionDeclaration) node;
+            push(Opcode.CLOSURE, node, constant(compileFunction(function)));
+            if (function.getSlot() >= 0) {
+                emit(Opcode.DEFINE_SLOT, node, function.getSlot(), constant(function.getName()));
+            } else {
+                emit(Opcode.DEFINE_NAME, node, constant(function.getName()));
+            }
+        } else if (node instanceof ReturnStatement) {
+            Node value = ((ReturnStatement) node).getValue();
+            if (value instanceof CallExpression && ((CallExpression) value).isTailCall()) {
+                compileCall((CallExpression) value, true);
+            } else {
+                compileNode(value, node);
+            }
+            // The value stays accounted for on the stack: code after a return is unreachable
+            emit(Opcode.RETURN, node);
+        } else if (node instanceof BlockStatement) {
+            BlockStatement block = (BlockStatement) node;
+            if (block.isScoped()) {
+                emit(Opcode.ENTER_BLOCK, node, constant(block.getFrame()));
+                compileStatements(block.getStatements());
+                emit(Opcode.EXIT_BLOCK, node);
+            } else {
+                emit(Opcode.STEP, node);
+                compileStatements(block.getStatements());
+            }
+        } else if (node instanceof IfStatement) {
+            compileIf((IfStatement) node);
+        } else if (node instanceof WhileStatement) {
+            compileWhile((WhileStatement) node);
+        } else if (node instanceof InfixExpression) {
+            InfixExpression infix = (InfixExpression) node;
+            emit(Opcode.STEP, node);
+            compileNode(infix.getLeft(), node);
+            compileNode(infix.getRight(), node);
+            emit(Opcode.forInfixOperator(infix.getInfixOperator()), node, constant(infix.getInfixOperator()));
+            adjustStack(-1);
+        } else if (node instanceof PrefixExpression) {
+            PrefixExpression prefix = (PrefixExpression) node;
+            emit(Opcode.STEP, node);
+            compileNode(prefix.getRight(), node);
+            emit(Opcode.UNARY, node, constant(prefix.getPrefixOperator()));
+        } else if (node instanceof CallExpression) {
+            compileCall((CallExpression) node, false);
+        } else if (node instanceof IndexExpression) {
+            IndexExpression index = (IndexExpression) node;
+            emit(Opcode.STEP, node);
+            compileNode(index.getCollection(), node);
+            compileNode(index.getIndex(), node);
+            emit(Opcode.INDEX, node);
+            adjustStack(-1);
+        } else if (node instanceof IndexAssignmentStatement) {
+            IndexAssignmentStatement assignment = (IndexAssignmentStatement) node;
+            emit(Opcode.STEP, node);
+            compileNode(assignment.getCollection(), node);
+            compileNode(assignment.getIndex(), node);
+            compileNode(assignment.getValue(), node);
+            emit(Opcode.INDEX_SET, node);
+            adjustStack(-2);
+        } else if (node instanceof ArrayLiteral) {
+            List<Node> elements = ((ArrayLiteral) node).getElements();
+            emit(Opcode.STEP, node);
+            for (Node element : elements) {
+                compileNode(element, node);
+            }
+            emit(Opcode.ARRAY, node, elements.size());
+            adjustStack(1 - elements.size());
+        } else if (node instanceof MapLiteral) {
+            Map<Node, Node> pairs = ((MapLiteral) node).getPairs();
+            emit(Opcode.STEP, node);
+            for (Map.Entry<Node, Node> pair : pairs.entrySet()) {
+                compileNode(pair.getKey(), node);
+                emit(Opcode.CHECK_KEY, node);
+                compileNode(pair.getValue(), node);
+            }
+            emit(Opcode.MAP, node, pairs.size());
+            adjustStack(1 - 2 * pairs.size());
+        } else {
+            throw new IllegalArgumentException("Cannot compile node: " + node);
+        }
+    }
+
+    /**
+     * Compile a call, or a tail call that leaves a TailCall for the calling function to make
+     */
+    private void compileCall(CallExpression call, boolean tailCall) {
+        emit(tailCall ? Opcode.STEP : Opcode.ENTER_CALL, call);
+        compileNode(call.getCallee(), call);
+        emit(Opcode.CHECK_CALLEE, call);
+        for (Node argument : call.getArguments()) {
+            compileNode(argument, call);
+        }
+        emit(tailCall ? Opcode.TAIL_CALL : Opcode.CALL, call, call.getArguments().size());
+        adjustStack(-call.getArguments().size());
+    }
+
+    private void compileIf(IfStatement ifStatement) {
+        emit(Opcode.STEP, ifStatement);
+        compileNode(ifStatement.getCondition(), ifStatement);
+        int toElse = emitJump(Opcode.JUMP_IF_FALSE, ifStatement);
+        adjustStack(-1);
+
+        compileNode(ifStatement.getConsequence(), ifStatement);
+        int toEnd = emitJump(Opcode.JUMP, ifStatement);
+        // Only one of the branches leaves its value on the stack
+        adjustStack(-1);
+
+        patchJump(toElse);
+        compileNode(ifStatement.getAlternative(), ifStatement);
+        patchJump(toEnd);
+    }
+
+    private void compileWhile(WhileStatement whileStatement) {
+        // Completion value of the loop: null until the body has run once
+        push(Opcode.CONST, whileStatement, constant(null));
+
+        int loopStart = length;
+        compileNode(whileStatement.getCondition(), whileStatement);
+        int toEnd = emitJump(Opcode.JUMP_IF_FALSE, whileStatement);
+        adjustStack(-1);
+
+        emit(Opcode.LOOP_ITERATION, whileStatement, whileStatement.getIterationSteps());
+        emit(Opcode.POP, whileStatement);
+        adjustStack(-1);
+        compileNode(whileStatement.getBody(), whileStatement);
+        emit(Opcode.JUMP, whileStatement, loopStart);
+
+        patchJump(toEnd);
+    }
+
+    private int emitJump(int opcode, Node node) {
+        emit(opcode, node, -1);
+        return length - 1;
+    }
+
+    private void patchJump(int operand) {
+        code[operand] = length;
+    }
+
+    /**
+     * Emit an instruction that pushes one value
+     */
+    private void push(int opcode, Node node, int... operands) {
+        emit(opcode, node, operands);
+        adjustStack(1);
+    }
+
+    private void emit(int opcode, Node node, int... operands) {
+        ensureCapacity(1 + operands.length);
+        positions[length] = node != null ? node.getPosition() : null;
+        code[length++] = opcode;
+        for (int operand : operands) {
+            code[length++] = operand;
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > code.length) {
+            int capacity = Math.max(code.length * 2, length + count);
+            code = Arrays.copyOf(code, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+
+    private void adjustStack(int delta) {
+        stackDepth += delta;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private int constant(Object value) {
+        // Literals are shared, compiled objects (frames, prototypes) get an entry each
+        boolean literal = value == null || value instanceof String || value instanceof Double || value instanceof Boolean;
+        if (literal) {
+            Integer index = literalIndex.get(value);
+            if (index != null) {
+                return index;
+            }
+            literalIndex.put(value, constants.size());
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private Chunk toChunk() {
+        return new Chunk(
+                name,
+                Arrays.copyOf(code, length),
+                constants.toArray(),
+                Arrays.copyOf(positions, length),
+                maxStack
+        );
+    }
+}
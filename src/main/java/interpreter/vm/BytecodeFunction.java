@@ -0,0 +1,69 @@
+package interpreter.vm;
+
+import java.util.List;
+
+import interpreter.runtime.CallableFunction;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.RuntimeError;
+
+/**
+ * A script function executed by the {@link VirtualMachine}: a compiled prototype closed over
+ * the variables it captured from the scope in which its declaration was executed.
+ */
+public class BytecodeFunction implements CallableFunction {
+    private final FunctionPrototype prototype;
+    private final EvaluationContext closure;
+    private final Object[] captured;
+    private final VirtualMachine vm;
+
+    /**
+     * @param prototype The compiled function
+     * @param closure The scope enclosing each invocation
+     * @param captured The captured values, or null if the closure is the declaring scope
+     * @param vm The machine running the body
+     */
+    public BytecodeFunction(FunctionPrototype prototype, EvaluationContext closure, Object[] captured, VirtualMachine vm) {
+        this.prototype = prototype;
+        this.closure = closure;
+        this.captured = captured;
+        this.vm = vm;
+    }
+
+    public FunctionPrototype getPrototype() {
+        return prototype;
+    }
+
+    public EvaluationContext getClosure() {
+        return closure;
+    }
+
+    public Object[] getCaptured() {
+        return captured;
+    }
+
+    /**
+     * Fail the same way as a tree-walker function called with the wrong number of arguments
+     */
+    void checkArity(int argumentCount) {
+        if (argumentCount != prototype.getParameters().size()) {
+            throw new RuntimeException("Function " + prototype.getName() + prototype.getParameters()
+                    + " called with " + argumentCount + " arguments");
+        }
+    }
+
+    @Override
+    public Object apply(List<Object> args) {
+        checkArity(args.size());
+        try {
+            return vm.invoke(this, args.toArray(), 0, args.size());
+        } catch (RuntimeError e) {
+            // Preserve the original RuntimeError as the cause to allow for proper unwrapping
+            throw new RuntimeException("Error in function '" + prototype.getName() + "': " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BytecodeFunction(" + prototype.getName() + ")";
+    }
+}
@@ -0,0 +1,72 @@
+package interpreter.vm;
+
+import interpreter.ast.Node;
+
+/**
+ * A compiled unit of bytecode: the program body or the body of one function.
+ */
+public class Chunk {
+    private final String name;
+    private final int[] code;
+    private final Object[] constants;
+    private final Node.Position[] positions;
+    private final int maxStack;
+
+    /**
+     * @param name The name of the compiled function (or "program")
+     * @param code Opcodes and their operands
+     * @param constants The constant pool referenced by the operands
+     * @param positions The source position of each opcode, indexed like code
+     * @param maxStack The maximum operand stack depth reached by the code
+     */
+    public Chunk(String name, int[] code, Object[] constants, Node.Position[] positions, int maxStack) {
+        this.name = name;
+        this.code = code;
+        this.constants = constants;
+        this.positions = positions;
+        this.maxStack = maxStack;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public Node.Position[] getPositions() {
+        return positions;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * Get a human-readable listing of the instructions, one per line
+     */
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            sb.append(String.format("%04d %s", pc, Opcode.getName(opcode)));
+            for (int i = 1; i <= Opcode.getOperandCount(opcode); i++) {
+                sb.append(' ').append(code[pc + i]);
+            }
+            sb.append('\n');
+            pc += 1 + Opcode.getOperandCount(opcode);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk(" + name + ", " + code.length + " ints)";
+    }
+}
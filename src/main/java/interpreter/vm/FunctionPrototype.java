@@ -0,0 +1,77 @@
+package interpreter.vm;
+
+import java.util.List;
+
+import interpreter.ast.Node;
+import interpreter.runtime.CaptureDescriptor;
+import interpreter.runtime.FrameDescriptor;
+
+/**
+ * Compile-time description of a script function: its signature, parameter scope, captured
+ * variables and body chunk.
+ * A {@link BytecodeFunction} is created from a prototype each time the declaration is executed.
+ */
+public class FunctionPrototype {
+    private final String name;
+    private final Node.Position position;
+    private final List<String> parameters;
+    private final FrameDescriptor parameterFrame;
+    private final int[] parameterSlots;
+    private final CaptureDescriptor captures;
+    private final int bodySteps;
+    private final Chunk body;
+
+    public FunctionPrototype(String name, Node.Position position, List<String> parameters,
+                             FrameDescriptor parameterFrame, int[] parameterSlots, CaptureDescriptor captures,
+                             int bodySteps, Chunk body) {
+        this.name = name;
+        this.position = position;
+        this.parameters = parameters;
+        this.parameterFrame = parameterFrame;
+        this.parameterSlots = parameterSlots;
+        this.captures = captures;
+        this.bodySteps = bodySteps;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The position of the declaration
+     */
+    public Node.Position getPosition() {
+        return position;
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public FrameDescriptor getParameterFrame() {
+        return parameterFrame;
+    }
+
+    public int[] getParameterSlots() {
+        return parameterSlots;
+    }
+
+    /**
+     * @return The captured variables, or null if functions retain the whole declaring scope
+     */
+    public CaptureDescriptor getCaptures() {
+        return captures;
+    }
+
+    /**
+     * @return The steps charged on each call with amortized step accounting
+     */
+    public int getBodySteps() {
+        return bodySteps;
+    }
+
+    public Chunk getBody() {
+        return body;
+    }
+}
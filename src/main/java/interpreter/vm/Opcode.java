@@ -0,0 +1,152 @@
+package interpreter.vm;
+
+import interpreter.util.InfixOperator;
+
+/**
+ * Instruction set of the bytecode virtual machine.
+ *
+ * <p>Every instruction is an opcode followed by a fixed number of int operands. Operands
+ * named {@code k} index the constant pool of the {@link Chunk}. Evaluation steps, loop
+ * iterations and call depth are charged at the same points as in the tree-walking
+ * evaluator, so a program consumes the same resource quota under both execution engines.</p>
+ */
+public final class Opcode {
+    /** CONST k: push constant k */
+    public static final int CONST = 0;
+    /** STRING k: push string constant k, charging a step like a string literal */
+    public static final int STRING = 1;
+    /** POP: discard the top of the stack */
+    public static final int POP = 2;
+    /** STEP: charge one evaluation step */
+    public static final int STEP = 3;
+    /** LOAD_NAME k: push the variable named by constant k */
+    public static final int LOAD_NAME = 4;
+    /** LOAD_SLOT depth slot k: push the variable at the resolved address (name in constant k) */
+    public static final int LOAD_SLOT = 5;
+    /** STORE_NAME k: assign the top of the stack to the variable named by constant k */
+    public static final int STORE_NAME = 6;
+    /** STORE_SLOT depth slot k: assign the top of the stack to the variable at the resolved address */
+    public static final int STORE_SLOT = 7;
+    /** DEFINE_NAME k: define the variable named by constant k with the top of the stack */
+    public static final int DEFINE_NAME = 8;
+    /** DEFINE_SLOT slot k: define the variable in a slot of the current scope with the top of the stack */
+    public static final int DEFINE_SLOT = 9;
+    /** BINARY k: replace the two topmost values with the result of infix operator k */
+    public static final int BINARY = 10;
+    /** UNARY k: replace the top of the stack with the result of prefix operator k */
+    public static final int UNARY = 11;
+    /** JUMP target: continue at the given instruction */
+    public static final int JUMP = 12;
+    /** JUMP_IF_FALSE target: pop a condition and jump if it is not truthy */
+    public static final int JUMP_IF_FALSE = 13;
+    /** LOOP_ITERATION n: charge one loop iteration, and n steps with amortized step accounting */
+    public static final int LOOP_ITERATION = 14;
+    /** ENTER_BLOCK k: charge a step and enter a new scope with frame layout k (may be null) */
+    public static final int ENTER_BLOCK = 15;
+    /** EXIT_BLOCK: return to the enclosing scope */
+    public static final int EXIT_BLOCK = 16;
+    /** ENTER_PROGRAM k n: charge a step (n steps with amortized step accounting) and allocate the top-level frame with layout k (may be null) */
+    public static final int ENTER_PROGRAM = 17;
+    /** CLOSURE k: charge a step and push a function created from prototype k, capturing its variables from the current scope */
+    public static final int CLOSURE = 18;
+    /** ENTER_CALL: charge a step and one level of call depth */
+    public static final int ENTER_CALL = 19;
+    /** CHECK_CALLEE: fail if the callee on top of the stack is null */
+    public static final int CHECK_CALLEE = 20;
+    /** CALL argc: call the function below the topmost argc arguments and release the call depth */
+    public static final int CALL = 21;
+    /** RETURN: return the top of the stack from the current chunk */
+    public static final int RETURN = 22;
+    /** INDEX: replace collection and index with collection[index] */
+    public static final int INDEX = 23;
+    /** INDEX_SET: replace collection, index and value with the assigned value */
+    public static final int INDEX_SET = 24;
+    /** ARRAY n: replace the topmost n values with an array */
+    public static final int ARRAY = 25;
+    /** CHECK_KEY: validate the map key on top of the stack */
+    public static final int CHECK_KEY = 26;
+    /** MAP n: replace the topmost n key/value pairs with a map */
+    public static final int MAP = 27;
+
+    // Infix operators with a fast path for two numbers, operand k is the operator for other values
+    /** ADD k: + */
+    public static final int ADD = 28;
+    /** SUBTRACT k: - */
+    public static final int SUBTRACT = 29;
+    /** MULTIPLY k: * */
+    public static final int MULTIPLY = 30;
+    /** DIVIDE k: / */
+    public static final int DIVIDE = 31;
+    /** MODULO k: % */
+    public static final int MODULO = 32;
+    /** LESS k: &lt; */
+    public static final int LESS = 33;
+    /** GREATER k: &gt; */
+    public static final int GREATER = 34;
+    /** LESS_EQUAL k: &lt;= */
+    public static final int LESS_EQUAL = 35;
+    /** GREATER_EQUAL k: &gt;= */
+    public static final int GREATER_EQUAL = 36;
+    /** EQUAL k: == */
+    public static final int EQUAL = 37;
+    /** NOT_EQUAL k: != */
+    public static final int NOT_EQUAL = 38;
+
+    /** TAIL_CALL argc: like CALL, but replace a compiled function and its arguments with a TailCall to be made by the caller */
+    public static final int TAIL_CALL = 39;
+
+    private static final String[] NAMES = {
+        "CONST", "STRING", "POP", "STEP", "LOAD_NAME", "LOAD_SLOT", "STORE_NAME", "STORE_SLOT",
+        "DEFINE_NAME", "DEFINE_SLOT", "BINARY", "UNARY", "JUMP", "JUMP_IF_FALSE",
+        "LOOP_ITERATION", "ENTER_BLOCK", "EXIT_BLOCK", "ENTER_PROGRAM", "CLOSURE", "ENTER_CALL",
+        "CHECK_CALLEE", "CALL", "RETURN", "INDEX", "INDEX_SET", "ARRAY", "CHECK_KEY", "MAP",
+        "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "MODULO", "LESS", "GREATER", "LESS_EQUAL",
+        "GREATER_EQUAL", "EQUAL", "NOT_EQUAL", "TAIL_CALL"
+    };
+
+    private static final int[] OPERAND_COUNTS = {
+        1, 1, 0, 0, 1, 3, 1, 3,
+        1, 2, 1, 1, 1, 1,
+        1, 1, 0, 2, 1, 0,
+        0, 1, 0, 0, 0, 1, 0, 1,
+        1, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1
+    };
+
+    private Opcode() {
+    }
+
+    /**
+     * @return The opcode for the given infix operator, BINARY if it has no dedicated opcode
+     */
+    public static int forInfixOperator(InfixOperator operator) {
+        switch (operator) {
+            case ADD: return ADD;
+            case SUBTRACT: return SUBTRACT;
+            case MULTIPLY: return MULTIPLY;
+            case DIVIDE: return DIVIDE;
+            case MODULO: return MODULO;
+            case LESS: return LESS;
+            case GREATER: return GREATER;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case EQUAL: return EQUAL;
+            case NOT_EQUAL: return NOT_EQUAL;
+            default: return BINARY;
+        }
+    }
+
+    /**
+     * @return The mnemonic of the given opcode
+     */
+    public static String getName(int opcode) {
+        return NAMES[opcode];
+    }
+
+    /**
+     * @return The number of int operands following the given opcode
+     */
+    public static int getOperandCount(int opcode) {
+        return OPERAND_COUNTS[opcode];
+    }
+}
@@ -0,0 +1,441 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ast.Node;
+import interpreter.runtime.AllocationMeter;
+import interpreter.runtime.CaptureDescriptor;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.FrameDescriptor;
+import interpreter.runtime.ResourceExhaustionError;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.TailCall;
+import interpreter.util.Evaluator;
+import interpreter.util.InfixOperator;
+import interpreter.util.PrefixOperator;
+
+/**
+ * Stack-based virtual machine executing chunks produced by the {@link BytecodeCompiler}.
+ *
+ * <p>Scopes, variables and resource accounting are shared with the tree-walking evaluator
+ * through {@link EvaluationContext}, so library functions, host-defined values and the
+ * {@link interpreter.runtime.ResourceQuota} behave identically under both engines. Calls
+ * between compiled functions bypass the {@link interpreter.runtime.CallableFunction}
+ * interface and read their arguments directly from the caller's operand stack.</p>
+ *
+ * <p>A call in tail position of a function body leaves a {@link TailCall} that {@link #invoke}
+ * makes in a loop once the body has returned, so tail-recursive scripts run in constant Java
+ * stack and scope depth.</p>
+ */
+public class VirtualMachine {
+    /**
+     * Execute a compiled program
+     *
+     * @param program The chunk returned by {@link BytecodeCompiler#compile}
+     * @param context The root scope, with library functions registered
+     * @return The value of the program
+     * @throws RuntimeError If an error occurs during execution
+     */
+    public Object execute(Chunk program, EvaluationContext context) throws RuntimeError {
+        return run(program, context);
+    }
+
+    /**
+     * Invoke a compiled function with arguments taken from the given array
+     */
+    Object invoke(BytecodeFunction function, Object[] args, int offset, int count) throws RuntimeError {
+        while (true) {
+            FunctionPrototype prototype = function.getPrototype();
+            FrameDescriptor parameterFrame = prototype.getParameterFrame();
+            int[] parameterSlots = prototype.getParameterSlots();
+            List<String> parameters = prototype.getParameters();
+
+            EvaluationContext closure = function.getClosure();
+            EvaluationContext functionContext = parameterFrame != null
+                    ? closure.extend(parameterFrame) : closure.extend();
+
+            Object result;
+            FlightEvents.FunctionCallEvent callEvent = functionContext.enterFunction(prototype.getName(), prototype.getPosition());
+            try {
+                functionContext.chargeSteps(prototype.getBodySteps(), prototype.getPosition());
+
+                if (function.getCaptured() != null) {
+                    functionContext.bindCaptures(prototype.getCaptures(), function.getCaptured());
+                }
+
+                for (int i = 0; i < count; i++) {
+                    if (parameterSlots != null) {
+                        functionContext.defineSlot(parameterSlots[i], parameters.get(i), args[offset + i]);
+                    } else {
+                        functionContext.define(parameters.get(i), args[offset + i]);
+                    }
+                }
+
+                result = run(prototype.getBody(), functionContext);
+            } finally {
+                functionContext.exit();
+                functionContext.exitFunction(callEvent);
+            }
+
+            if (!(result instanceof TailCall)) {
+                return result;
+            }
+
+            // Make the call left by the body in place of a nested call
+            TailCall tailCall = (TailCall) result;
+            function = (BytecodeFunction) tailCall.getFunction();
+            args = tailCall.getArguments();
+            offset = 0;
+            count = args.length;
+        }
+    }
+
+    private Object run(Chunk chunk, EvaluationContext context) throws RuntimeError {
+        final EvaluationContext entry = context;
+        final int[] code = chunk.getCode();
+        final Object[] constants = chunk.getConstants();
+        final Node.Position[] positions = chunk.getPositions();
+        final Object[] stack = new Object[chunk.getMaxStack()];
+        int sp = 0;
+        int pc = 0;
+
+        // Calls entered by this chunk whose depth has not been released yet
+        int openCalls = 0;
+
+        try {
+            while (true) {
+                final int at = pc++;
+                switch (code[at]) {
+                    case Opcode.CONST:
+                        stack[sp++] = constants[code[pc++]];
+                        break;
+
+                    case Opcode.STRING:
+                        context.trackEvaluationStep(positions[at]);
+                        stack[sp++] = constants[code[pc++]];
+                        break;
+
+                    case Opcode.POP:
+                        sp--;
+                        break;
+
+                    case Opcode.STEP:
+                        context.trackEvaluationStep(positions[at]);
+                        break;
+
+                    case Opcode.LOAD_NAME: {
+                        String name = (String) constants[code[pc++]];
+                        stack[sp++] = load(context, -1, -1, name, positions[at]);
+                        break;
+                    }
+
+                    case Opcode.LOAD_SLOT: {
+                        int depth = code[pc++];
+                        int slot = code[pc++];
+                        String name = (String) constants[code[pc++]];
+                        stack[sp++] = load(context, depth, slot, name, positions[at]);
+                        break;
+                    }
+
+                    case Opcode.STORE_NAME: {
+                        String name = (String) constants[code[pc++]];
+                        stack[sp - 1] = context.assign(name, stack[sp - 1], positions[at]);
+                        break;
+                    }
+
+                    case Opcode.STORE_SLOT: {
+                        int depth = code[pc++];
+                        int slot = code[pc++];
+                        String name = (String) constants[code[pc++]];
+                        stack[sp - 1] = context.assignSlot(depth, slot, name, stack[sp - 1], positions[at]);
+                        break;
+                    }
+
+                    case Opcode.DEFINE_NAME: {
+                        String name = (String) constants[code[pc++]];
+                        stack[sp - 1] = context.define(name, stack[sp - 1]);
+                        break;
+                    }
+
+                    case Opcode.DEFINE_SLOT: {
+                        int slot = code[pc++];
+                        String name = (String) constants[code[pc++]];
+                        stack[sp - 1] = context.defineSlot(slot, name, stack[sp - 1]);
+                        break;
+                    }
+
+                    case Opcode.BINARY: {
+                        InfixOperator operator = (InfixOperator) constants[code[pc++]];
+                        Object right = stack[--sp];
+                        stack[sp - 1] = operator.apply(stack[sp - 1], right, context.getResourceQuota());
+                        break;
+                    }
+
+                    case Opcode.ADD:
+                    case Opcode.SUBTRACT:
+                    case Opcode.MULTIPLY:
+                    case Opcode.DIVIDE:
+                    case Opcode.MODULO:
+                    case Opcode.LESS:
+                    case Opcode.GREATER:
+                    case Opcode.LESS_EQUAL:
+                    case Opcode.GREATER_EQUAL:
+                    case Opcode.EQUAL:
+                    case Opcode.NOT_EQUAL: {
+                        InfixOperator operator = (InfixOperator) constants[code[pc++]];
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp - 1] = arithmetic(code[at], (Double) left, (Double) right);
+                        } else {
+                            stack[sp - 1] = operator.apply(left, right, context.getResourceQuota());
+                        }
+                        break;
+                    }
+
+                    case Opcode.UNARY: {
+                        PrefixOperator operator = (PrefixOperator) constants[code[pc++]];
+                        stack[sp - 1] = operator.apply(stack[sp - 1]);
+                        break;
+                    }
+
+                    case Opcode.JUMP:
+                        pc = code[pc];
+                        break;
+
+                    case Opcode.JUMP_IF_FALSE: {
+                        Object condition = stack[--sp];
+                        pc = Evaluator.isTruthy(condition) ? pc + 1 : code[pc];
+                        break;
+                    }
+
+                    case Opcode.LOOP_ITERATION:
+                        context.trackLoopIteration(code[pc++], positions[at]);
+                        break;
+
+                    case Opcode.ENTER_BLOCK: {
+                        FrameDescriptor frame = (FrameDescriptor) constants[code[pc++]];
+                        context.trackEvaluationStep(positions[at]);
+                        context = frame != null ? context.extend(frame) : context.extend();
+                        break;
+                    }
+
+                    case Opcode.EXIT_BLOCK:
+                        context.exit();
+                        context = context.getParent();
+                        break;
+
+                    case Opcode.ENTER_PROGRAM: {
+                        FrameDescriptor frame = (FrameDescriptor) constants[code[pc++]];
+                        context.trackEvaluationStep(positions[at]);
+                        context.chargeSteps(code[pc++], positions[at]);
+                        if (frame != null) {
+                            context.allocateFrame(frame);
+                        }
+                        break;
+                    }
+
+                    case Opcode.CLOSURE: {
+                        FunctionPrototype prototype = (FunctionPrototype) constants[code[pc++]];
+                        context.trackEvaluationStep(positions[at]);
+                        CaptureDescriptor captures = prototype.getCaptures();
+                        stack[sp++] = captures != null
+                                ? new BytecodeFunction(prototype, context.getRoot(), context.capture(captures), this)
+                                : new BytecodeFunction(prototype, context, null, this);
+                        break;
+                    }
+
+                    case Opcode.ENTER_CALL:
+                        context.trackEvaluationStep(positions[at]);
+                        context.trackEvaluationDepth(positions[at]);
+                        openCalls++;
+                        break;
+
+                    case Opcode.CHECK_CALLEE:
+                        if (stack[sp - 1] == null) {
+                            throw new RuntimeError(
+                                    "Cannot call null as a function",
+                                    positions[at].getLine(),
+                                    positions[at].getColumn()
+                            );
+                        }
+                        break;
+
+                    case Opcode.CALL: {
+                        int argc = code[pc++];
+                        int base = sp - argc;
+                        Object result = call(stack[base - 1], stack, base, argc, positions[at]);
+                        sp = base;
+                        stack[sp - 1] = result;
+
+                        openCalls--;
+                        context.exitEvaluationDepth();
+                        break;
+                    }
+
+                    case Opcode.TAIL_CALL: {
+                        int argc = code[pc++];
+                        int base = sp - argc;
+                        Object function = stack[base - 1];
+                        if (function instanceof BytecodeFunction) {
+                            stack[base - 1] = tailCall((BytecodeFunction) function, stack, base, argc, positions[at]);
+                        } else {
+                            // Any other callee is called as usual
+                            context.trackEvaluationDepth(positions[at]);
+                            try {
+                                stack[base - 1] = call(function, stack, base, argc, positions[at]);
+                            } finally {
+                                context.exitEvaluationDepth();
+                            }
+                        }
+                        sp = base;
+                        break;
+                    }
+
+                    case Opcode.RETURN:
+                        return stack[sp - 1];
+
+                    case Opcode.INDEX: {
+                        Object index = stack[--sp];
+                        stack[sp - 1] = Evaluator.getIndex(stack[sp - 1], index, positions[at]);
+                        break;
+                    }
+
+                    case Opcode.INDEX_SET: {
+                        Object value = stack[--sp];
+                        Object index = stack[--sp];
+                        stack[sp - 1] = Evaluator.setIndex(stack[sp - 1], index, value, positions[at]);
+                        break;
+                    }
+
+                    case Opcode.ARRAY: {
+                        int count = code[pc++];
+                        context.trackAllocation(AllocationMeter.arrayBytes(count), positions[at]);
+                        List<Object> array = new ArrayList<>(count);
+                        for (int i = sp - count; i < sp; i++) {
+                            array.add(stack[i]);
+                        }
+                        sp -= count;
+                        stack[sp++] = array;
+                        break;
+                    }
+
+                    case Opcode.CHECK_KEY:
+                        Evaluator.checkMapKey(stack[sp - 1], positions[at]);
+                        break;
+
+                    case Opcode.MAP: {
+                        int count = code[pc++];
+                        context.trackAllocation(AllocationMeter.mapBytes(count), positions[at]);
+                        Map<Object, Object> map = new HashMap<>();
+                        for (int i = sp - 2 * count; i < sp; i += 2) {
+                            map.put(stack[i], stack[i + 1]);
+                        }
+                        sp -= 2 * count;
+                        stack[sp++] = map;
+                        break;
+                    }
+
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[at] + " in " + chunk);
+                }
+            }
+        } finally {
+            // Release the depth of calls that were interrupted by an error
+            for (int i = 0; i < openCalls; i++) {
+                context.exitEvaluationDepth();
+            }
+            // Leave the blocks that were exited by a return or an error
+            while (context != entry) {
+                context.exit();
+                context = context.getParent();
+            }
+        }
+    }
+
+    /**
+     * Apply an infix operator opcode to two numbers, like {@link InfixOperator#apply}
+     */
+    private static Object arithmetic(int opcode, double left, double right) {
+        switch (opcode) {
+            case Opcode.ADD: return left + right;
+            case Opcode.SUBTRACT: return left - right;
+            case Opcode.MULTIPLY: return left * right;
+            case Opcode.DIVIDE: return left / right;
+            case Opcode.MODULO: return left % right;
+            case Opcode.LESS: return left < right;
+            case Opcode.GREATER: return left > right;
+            case Opcode.LESS_EQUAL: return left <= right;
+            case Opcode.GREATER_EQUAL: return left >= right;
+            case Opcode.EQUAL: return left == right;
+            default: return left != right;
+        }
+    }
+
+    private Object load(EvaluationContext context, int depth, int slot, String name, Node.Position position) throws RuntimeError {
+        try {
+            if (slot >= 0) {
+                return context.getSlot(depth, slot, name, position);
+            }
+            return context.get(name, position);
+        } catch (ResourceExhaustionError e) {
+            throw e;
+        } catch (RuntimeError e) {
+            throw new RuntimeError(
+                    "Undefined variable '" + name + "'",
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+
+    /**
+     * Check a call of a compiled function in tail position and leave it to the calling function
+     */
+    private static TailCall tailCall(BytecodeFunction function, Object[] stack, int base, int argc, Node.Position position) throws RuntimeError {
+        try {
+            function.checkArity(argc);
+        } catch (RuntimeException e) {
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+        return new TailCall(function, Arrays.copyOfRange(stack, base, base + argc));
+    }
+
+    /**
+     * Call a function value with the arguments found on the operand stack
+     */
+    private Object call(Object function, Object[] stack, int base, int argc, Node.Position position) throws RuntimeError {
+        if (!(function instanceof BytecodeFunction)) {
+            List<Object> args = new ArrayList<>(argc);
+            for (int i = base; i < base + argc; i++) {
+                args.add(stack[i]);
+            }
+            return Evaluator.callFunction(function, args, position);
+        }
+
+        BytecodeFunction bytecodeFunction = (BytecodeFunction) function;
+        try {
+            bytecodeFunction.checkArity(argc);
+            return invoke(bytecodeFunction, stack, base, argc);
+        } catch (RuntimeException e) {
+            // Same conversion as for any other callable function
+            if (e.getCause() instanceof RuntimeError) {
+                throw (RuntimeError) e.getCause();
+            }
+            throw new RuntimeError(
+                    "Error in function call: " + e.getMessage(),
+                    position.getLine(),
+                    position.getColumn()
+            );
+        }
+    }
+}
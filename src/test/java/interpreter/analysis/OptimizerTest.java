@@ -0,0 +1,180 @@
+package interpreter.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.ast.BlockStatement;
+import interpreter.ast.BooleanLiteral;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.Node;
+import interpreter.ast.NullLiteral;
+import interpreter.ast.NumberLiteral;
+import interpreter.ast.Program;
+import interpreter.ast.StringLiteral;
+import interpreter.lexer.Lexer;
+import interpreter.main.Interpreter;
+import interpreter.parser.Parser;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Tests for constant folding and dead code removal
+ */
+public class OptimizerTest {
+    @Test
+    @DisplayName("Test literal operands are folded into a literal")
+    public void testConstantFolding() {
+        Program program = optimize("1 + 2 * 3; 'a' + 'b' + 1; !(1 < 2) || true; -(4 - 6); 7 % 4 == 3;");
+
+        assertEquals(7.0, ((NumberLiteral) expression(program, 0)).getValue());
+        assertEquals("ab1.0", ((StringLiteral) expression(program, 1)).getValue());
+        assertEquals(true, ((BooleanLiteral) expression(program, 2)).getValue());
+        assertEquals(2.0, ((NumberLiteral) expression(program, 3)).getValue());
+        assertEquals(true, ((BooleanLiteral) expression(program, 4)).getValue());
+    }
+
+    @Test
+    @DisplayName("Test expressions with variables are only partially folded")
+    public void testPartialFolding() {
+        Program program = optimize("let x = 1; x + 2 * 3; 1 + 2 + x;");
+
+        InfixExpression sum = (InfixExpression) expression(program, 1);
+        assertEquals(6.0, ((NumberLiteral) sum.getRight()).getValue());
+
+        // Addition is left associative: (1 + 2) + x
+        sum = (InfixExpression) expression(program, 2);
+        assertEquals(3.0, ((NumberLiteral) sum.getLeft()).getValue());
+    }
+
+    @Test
+    @DisplayName("Test results without a literal form are left to runtime")
+    public void testNoFolding() {
+        Program program = optimize("1 / 0; 0 / 0; 'ab' + 'cd';", new ResourceQuota(500, 10000, 1000, 100000, 3));
+
+        assertTrue(expression(program, 0) instanceof InfixExpression);
+        assertTrue(expression(program, 1) instanceof InfixExpression);
+        assertTrue(expression(program, 2) instanceof InfixExpression);
+
+        Interpreter interpreter = new Interpreter(new ResourceQuota(500, 10000, 1000, 100000, 3));
+        interpreter.setOptimizing(true);
+        assertTrue(interpreter.parse("'ab' + 'cd';").isSuccess());
+        assertFalse(interpreter.evaluate().isSuccess(), "Concatenation should exceed the string length quota");
+    }
+
+    @Test
+    @DisplayName("Test branches that are never taken are removed")
+    public void testDeadBranches() {
+        Program program = optimize(
+            "let x = 0;\n" +
+            "if (1 < 2) { x = 1; } else { x = 2; }\n" +
+            "if (false) { x = 3; }\n" +
+            "while (1 > 2) { x = 4; }\n" +
+            "x;");
+
+        assertEquals(3, program.getStatements().size());
+        BlockStatement taken = (BlockStatement) program.getStatements().get(1);
+        assertEquals(1, taken.getStatements().size());
+    }
+
+    @Test
+    @DisplayName("Test a removed last statement keeps the completion value")
+    public void testCompletionValue() {
+        Program program = optimize("let x = 1; if (false) { x = 2; }");
+
+        assertEquals(2, program.getStatements().size());
+        assertTrue(expression(program, 1) instanceof NullLiteral);
+        assertProgram("let x = 1; if (false) { x = 2; }", "null");
+        assertProgram("let x = 1; if (true) { x + 1; }", "2.0");
+    }
+
+    @Test
+    @DisplayName("Test statements after a return are removed")
+    public void testCodeAfterReturn() {
+        Program program = optimize(
+            "def f(x) {\n" +
+            "  return x;\n" +
+            "  x = x + 1;\n" +
+            "  return x;\n" +
+            "}\n" +
+            "f(1);");
+
+        BlockStatement body = (BlockStatement) ((FunctionDeclaration) program.getStatements().get(0)).getBody();
+        assertEquals(1, body.getStatements().size());
+        assertProgram("def f(x) { return x; x = x + 1; return x; } f(1);", "1.0");
+    }
+
+    @Test
+    @DisplayName("Test the number of removed nodes is reported")
+    public void testRemovedNodes() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setOptimizing(true);
+        Interpreter.ParseResult result = interpreter.parse("1 + 2 + 3;");
+        assertTrue(result.isSuccess());
+        // Two infix expressions and two of the three number literals
+        assertEquals(4, result.getRemovedNodes());
+
+        result = interpreter.parse("let x = 1; x + 1;");
+        assertEquals(0, result.getRemovedNodes());
+
+        // Programs are not optimized by default
+        assertEquals(0, new Interpreter().parse("1 + 2 + 3;").getRemovedNodes());
+    }
+
+    @Test
+    @DisplayName("Test optimized programs produce the same results on every engine")
+    public void testEngines() {
+        String source =
+            "def f(n) {\n" +
+            "  if (2 > 1) { return n * (2 + 3); }\n" +
+            "  return -1;\n" +
+            "}\n" +
+            "let s = '';\n" +
+            "let i = 0;\n" +
+            "while (i < 3 && !false) {\n" +
+            "  s = s + f(i) + ('-' + '>');\n" +
+            "  i = i + 1;\n" +
+            "}\n" +
+            "s;";
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setOptimizing(true);
+            interpreter.setEngine(engine);
+            assertTrue(interpreter.parse(source).isSuccess());
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            assertTrue(result.isSuccess(), engine + ": " + Interpreter.formatErrors(result.getErrors()));
+            assertEquals("0.0->5.0->10.0->", result.getResult(), engine.toString());
+        }
+    }
+
+    private Program optimize(String source) {
+        return optimize(source, new ResourceQuota());
+    }
+
+    private Program optimize(String source, ResourceQuota quota) {
+        Parser parser = new Parser(new Lexer(source));
+        Program program = parser.parseProgram();
+        assertTrue(parser.getErrors().isEmpty(), "Parsing should succeed");
+
+        new Optimizer(quota).optimize(program);
+        return program;
+    }
+
+    private static Node expression(Program program, int statement) {
+        return ((ExpressionStatement) program.getStatements().get(statement)).getExpression();
+    }
+
+    private void assertProgram(String source, String expected) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setOptimizing(true);
+        assertTrue(interpreter.parse(source).isSuccess(), "Parsing should succeed");
+
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertTrue(result.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(result.getErrors()));
+        assertEquals(expected, String.valueOf(result.getResult()));
+    }
+}
@@ -0,0 +1,249 @@
+package interpreter.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.ast.AssignmentStatement;
+import interpreter.ast.BlockStatement;
+import interpreter.ast.CallExpression;
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.Identifier;
+import interpreter.ast.InfixExpression;
+import interpreter.ast.Program;
+import interpreter.ast.ReturnStatement;
+import interpreter.ast.VariableDeclaration;
+import interpreter.ast.WhileStatement;
+import interpreter.lexer.Lexer;
+import interpreter.main.Interpreter;
+import interpreter.parser.Parser;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Tests for the resolver pass and slot-based variable access
+ */
+public class ResolverTest {
+    @Test
+    @DisplayName("Test top-level declarations get slots of the program frame")
+    public void testTopLevelSlots() {
+        Program program = resolve("let a = 1; let b = 2; def f(x) { return x; }");
+
+        assertEquals(3, program.getFrame().size());
+        assertEquals(0, ((VariableDeclaration) program.getStatements().get(0)).getSlot());
+        assertEquals(1, ((VariableDeclaration) program.getStatements().get(1)).getSlot());
+        assertEquals(2, ((FunctionDeclaration) program.getStatements().get(2)).getSlot());
+    }
+
+    @Test
+    @DisplayName("Test references are resolved to (depth, slot) addresses")
+    public void testReferenceAddresses() {
+        Program program = resolve("let i = 0; while (i < 10) { let j = i; i = j + 1; }");
+
+        WhileStatement loop = (WhileStatement) program.getStatements().get(1);
+        Identifier condition = (Identifier) ((InfixExpression) loop.getCondition()).getLeft();
+        assertEquals(0, condition.getDepth());
+        assertEquals(0, condition.getSlot());
+
+        BlockStatement body = (BlockStatement) loop.getBody();
+        VariableDeclaration j = (VariableDeclaration) body.getStatements().get(0);
+        Identifier i = (Identifier) j.getInitializer();
+        assertEquals(0, j.getSlot());
+        assertEquals(1, i.getDepth());
+        assertEquals(0, i.getSlot());
+
+        AssignmentStatement assignment = (AssignmentStatement) body.getStatements().get(1);
+        assertEquals(1, assignment.getDepth());
+        assertEquals(0, assignment.getSlot());
+    }
+
+    @Test
+    @DisplayName("Test parameters live in a scope between the closure and the body")
+    public void testParameterAddresses() {
+        // The body declares a variable, so it has a scope of its own
+        Program program = resolve("let k = 1; def add(a, b) { let c = 0; return a + b + k; }");
+
+        FunctionDeclaration function = (FunctionDeclaration) program.getStatements().get(1);
+        assertEquals(2, function.getParameterFrame().size());
+
+        BlockStatement body = (BlockStatement) function.getBody();
+        InfixExpression sum = (InfixExpression) ((ReturnStatement) body.getStatements().get(1)).getValue();
+        InfixExpression inner = (InfixExpression) sum.getLeft();
+
+        assertEquals(1, ((Identifier) inner.getLeft()).getDepth());
+        assertEquals(0, ((Identifier) inner.getLeft()).getSlot());
+        assertEquals(1, ((Identifier) inner.getRight()).getSlot());
+        assertEquals(2, ((Identifier) sum.getRight()).getDepth());
+    }
+
+    @Test
+    @DisplayName("Test blocks that declare nothing get no scope")
+    public void testUnscopedBlocks() {
+        Program program = resolve("let k = 1; def add(a, b) { return a + b + k; } while (k < 3) { k = k + 1; }");
+
+        FunctionDeclaration function = (FunctionDeclaration) program.getStatements().get(1);
+        BlockStatement body = (BlockStatement) function.getBody();
+        assertFalse(body.isScoped());
+
+        // The body is evaluated in the parameter scope
+        InfixExpression sum = (InfixExpression) ((ReturnStatement) body.getStatements().get(0)).getValue();
+        InfixExpression inner = (InfixExpression) sum.getLeft();
+        assertEquals(0, ((Identifier) inner.getLeft()).getDepth());
+        assertEquals(1, ((Identifier) inner.getRight()).getSlot());
+        assertEquals(1, ((Identifier) sum.getRight()).getDepth());
+
+        WhileStatement loop = (WhileStatement) program.getStatements().get(2);
+        BlockStatement loopBody = (BlockStatement) loop.getBody();
+        assertFalse(loopBody.isScoped());
+        assertEquals(0, ((AssignmentStatement) loopBody.getStatements().get(0)).getDepth());
+
+        assertTrue(((BlockStatement) resolve("{ let x = 1; }").getStatements().get(0)).isScoped());
+        assertProgram("let k = 1; def add(a, b) { return a + b + k; } while (k < 3) { k = k + 1; } add(k, 1);", "7.0");
+    }
+
+    @Test
+    @DisplayName("Test library functions stay dynamically resolved")
+    public void testLibraryFunctionsUnresolved() {
+        Program program = resolve("puts(1);");
+
+        ExpressionStatement statement = (ExpressionStatement) program.getStatements().get(0);
+        Identifier callee = (Identifier) ((CallExpression) statement.getExpression()).getCallee();
+        assertFalse(callee.isResolved());
+    }
+
+    @Test
+    @DisplayName("Test calls of library functions record the scopes up to the root")
+    public void testScopeDistance() {
+        Program program = resolve("puts(1); def f() { let i = 0; while (i < 1) { let j = 0; puts(j); i = i + 1; } }");
+
+        CallExpression topLevel = (CallExpression) ((ExpressionStatement) program.getStatements().get(0)).getExpression();
+        assertEquals(1, topLevel.getScopeDistance());
+
+        // Loop body, function body, parameter scope and root
+        BlockStatement body = (BlockStatement) ((FunctionDeclaration) program.getStatements().get(1)).getBody();
+        BlockStatement loop = (BlockStatement) ((WhileStatement) body.getStatements().get(1)).getBody();
+        CallExpression nested = (CallExpression) ((ExpressionStatement) loop.getStatements().get(1)).getExpression();
+        assertEquals(4, nested.getScopeDistance());
+    }
+
+    @Test
+    @DisplayName("Test reference before a shadowing declaration sees the outer variable")
+    public void testReferenceBeforeShadowingDeclaration() {
+        assertProgram(
+            "let x = 1;\n" +
+            "let r = 0;\n" +
+            "{\n" +
+            "  r = x;\n" +
+            "  let x = 2;\n" +
+            "  r = r + x;\n" +
+            "}\n" +
+            "r;",
+            "3.0");
+    }
+
+    @Test
+    @DisplayName("Test functions see variables declared after them")
+    public void testForwardReferenceFromFunction() {
+        assertProgram(
+            "def f() { return later * 2; }\n" +
+            "let later = 21;\n" +
+            "f();",
+            "42.0");
+    }
+
+    @Test
+    @DisplayName("Test closures keep their own slots per invocation")
+    public void testClosureSlots() {
+        assertProgram(
+            "def counter() {\n" +
+            "  let n = 0;\n" +
+            "  def inc() { n = n + 1; return n; }\n" +
+            "  return inc;\n" +
+            "}\n" +
+            "let a = counter();\n" +
+            "let b = counter();\n" +
+            "a(); a(); b();\n" +
+            "a() + b() * 10;",
+            "23.0");
+    }
+
+    @Test
+    @DisplayName("Test functions capture only the variables they use")
+    public void testCaptures() {
+        Program program = resolve(
+            "def outer(a) {\n" +
+            "  let unused = [1, 2, 3];\n" +
+            "  let b = 2;\n" +
+            "  def inner() { return a + b + later; }\n" +
+            "  let later = 3;\n" +
+            "  return inner;\n" +
+            "}");
+
+        FunctionDeclaration outer = (FunctionDeclaration) program.getStatements().get(0);
+        BlockStatement body = (BlockStatement) outer.getBody();
+        FunctionDeclaration inner = (FunctionDeclaration) body.getStatements().get(2);
+
+        // a from the parameter scope, b and later from the body scope
+        assertEquals(3, inner.getCaptures().size());
+        assertEquals(3, inner.getParameterFrame().size());
+        assertEquals(0, outer.getCaptures().size());
+
+        // Only the variable defined after the capture needs a cell
+        assertFalse(outer.getParameterFrame().isCell(0));
+        assertFalse(body.getFrame().isCell(body.getFrame().indexOf("unused")));
+        assertFalse(body.getFrame().isCell(body.getFrame().indexOf("b")));
+        assertTrue(body.getFrame().isCell(body.getFrame().indexOf("later")));
+    }
+
+    @Test
+    @DisplayName("Test captured variables that are assigned are shared through cells")
+    public void testCapturedCells() {
+        Program program = resolve("def f(n) { def g() { n = n + 1; return n; } return g; }");
+
+        FunctionDeclaration f = (FunctionDeclaration) program.getStatements().get(0);
+        assertTrue(f.getParameterFrame().isCell(0));
+
+        assertProgram(
+            "def f(n) {\n" +
+            "  def inc() { n = n + 1; return n; }\n" +
+            "  def get() { return n; }\n" +
+            "  return [inc, get];\n" +
+            "}\n" +
+            "let fs = f(10);\n" +
+            "let n = 0;\n" +
+            "fs[0](); fs[0]();\n" +
+            "fs[1]() + n;",
+            "12.0");
+    }
+
+    @Test
+    @DisplayName("Test host-defined names remain visible")
+    public void testHostDefinedNames() {
+        Interpreter interpreter = new Interpreter(new ResourceQuota(), LibraryRegistry.empty(),
+                ctx -> ctx.registerFunction("answer", args -> 42.0));
+        assertTrue(interpreter.parse("let answer2 = answer(); answer2;").isSuccess());
+        assertEquals(42.0, interpreter.evaluate().getResult());
+    }
+
+    private Program resolve(String source) {
+        Parser parser = new Parser(new Lexer(source));
+        Program program = parser.parseProgram();
+        assertTrue(parser.getErrors().isEmpty(), "Parsing should succeed");
+
+        new Resolver().resolve(program);
+        return program;
+    }
+
+    private void assertProgram(String source, String expected) {
+        Interpreter interpreter = new Interpreter();
+        assertTrue(interpreter.parse(source).isSuccess(), "Parsing should succeed");
+
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertTrue(result.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(result.getErrors()));
+        assertEquals(expected, String.valueOf(result.getResult()));
+    }
+}
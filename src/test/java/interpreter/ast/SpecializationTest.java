@@ -0,0 +1,219 @@
+package interpreter.ast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.lexer.Lexer;
+import interpreter.main.Interpreter;
+import interpreter.parser.Parser;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.LibraryFunction;
+
+/**
+ * Tests for the self-specializing infix, index and call expressions
+ */
+public class SpecializationTest {
+    @Test
+    @DisplayName("Test infix expressions specialize on numbers and deoptimize on strings")
+    public void testInfixSpecialization() {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse(
+            "def add(a, b) { return a + b; }\n" +
+            "let n = add(1, 2) + add(3, 4);\n" +
+            "n;").getAst();
+        InfixExpression infix = (InfixExpression) returnValue(program, 0);
+
+        assertEquals(InfixExpression.Specialization.UNINITIALIZED, infix.getSpecialization());
+        assertEquals("10.0", evaluate(interpreter));
+        assertEquals(InfixExpression.Specialization.NUMBERS, infix.getSpecialization());
+
+        // A string operand fails the type check: the result is still correct
+        Program mixed = interpreter.parse(
+            "def add(a, b) { return a + b; }\n" +
+            "let s = add(1, 2) + add('a', 1);\n" +
+            "s;").getAst();
+        InfixExpression mixedInfix = (InfixExpression) returnValue(mixed, 0);
+        assertEquals("3.0a1.0", evaluate(interpreter));
+        assertEquals(InfixExpression.Specialization.GENERIC, mixedInfix.getSpecialization());
+    }
+
+    @Test
+    @DisplayName("Test string concatenation specialization keeps the string length quota")
+    public void testStringSpecialization() {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse(
+            "def concat(a, b) { return a + b; }\n" +
+            "let s = concat('a', 'b');\n" +
+            "let i = 0;\n" +
+            "while (i < 3) { s = concat(s, s); i = i + 1; }\n" +
+            "s;").getAst();
+        InfixExpression infix = (InfixExpression) returnValue(program, 0);
+
+        assertEquals("abababababababab", evaluate(interpreter));
+        assertEquals(InfixExpression.Specialization.STRINGS, infix.getSpecialization());
+
+        interpreter.parse(
+            "def concat(a, b) { return a + b; }\n" +
+            "let s = 'ab';\n" +
+            "while (true) { s = concat(s, s); }");
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertFalse(result.isSuccess(), "Concatenation should exceed the string length quota");
+    }
+
+    @Test
+    @DisplayName("Test index expressions specialize on arrays and maps")
+    public void testIndexSpecialization() {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse(
+            "def get(c, i) { return c[i]; }\n" +
+            "let x = get([1, 2, 3], 2) + get([4], 0);\n" +
+            "x;").getAst();
+        IndexExpression index = (IndexExpression) returnValue(program, 0);
+        assertEquals("7.0", evaluate(interpreter));
+        assertEquals(IndexExpression.Specialization.ARRAY, index.getSpecialization());
+
+        program = interpreter.parse(
+            "def get(c, i) { return c[i]; }\n" +
+            "let x = get({'a': 1}, 'a') + get({'b': 2}, 'b');\n" +
+            "let missing = get({'a': 1}, 'z');\n" +
+            "x + ' ' + missing;").getAst();
+        index = (IndexExpression) returnValue(program, 0);
+        assertEquals("3.0 null", evaluate(interpreter));
+        assertEquals(IndexExpression.Specialization.MAP, index.getSpecialization());
+
+        // Switching from an array to a map deoptimizes
+        program = interpreter.parse(
+            "def get(c, i) { return c[i]; }\n" +
+            "let x = get([5], 0) + get({1: 6}, 1);\n" +
+            "x;").getAst();
+        index = (IndexExpression) returnValue(program, 0);
+        assertEquals("11.0", evaluate(interpreter));
+        assertEquals(IndexExpression.Specialization.GENERIC, index.getSpecialization());
+    }
+
+    @Test
+    @DisplayName("Test specialized index expressions report the same errors")
+    public void testIndexErrors() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.parse(
+            "def get(c, i) { return c[i]; }\n" +
+            "get([1], 0);\n" +
+            "get([1], 5);");
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertFalse(result.isSuccess());
+        assertTrue(result.getErrors().get(0).getMessage().contains("Array index out of bounds: 5"),
+                result.getErrors().get(0).getMessage());
+    }
+
+    @Test
+    @DisplayName("Test call expressions specialize on functions and deoptimize on other values")
+    public void testCallSpecialization() {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse(
+            "def apply(f, x) { return f(x); }\n" +
+            "def twice(x) { return x * 2; }\n" +
+            "let y = apply(twice, 2) + apply(len, 'abc');\n" +
+            "y;").getAst();
+        CallExpression call = (CallExpression) returnValue(program, 0);
+        assertEquals("7.0", evaluate(interpreter));
+        assertEquals(CallExpression.Specialization.FUNCTION, call.getSpecialization());
+
+        interpreter.parse(
+            "def apply(f, x) { return f(x); }\n" +
+            "def twice(x) { return x * 2; }\n" +
+            "apply(twice, 2);\n" +
+            "apply(null, 2);");
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertFalse(result.isSuccess());
+        assertTrue(result.getErrors().get(0).getMessage().contains("Cannot call null as a function"),
+                result.getErrors().get(0).getMessage());
+    }
+
+    @Test
+    @DisplayName("Test call expressions cache the library function they call")
+    public void testInlineCache() {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse(
+            "def size(s) { return len(s); }\n" +
+            "let n = 0;\n" +
+            "let i = 0;\n" +
+            "while (i < 5) { n = n + size('abc'); i = i + 1; }\n" +
+            "n;").getAst();
+        CallExpression call = (CallExpression) returnValue(program, 0);
+        assertNull(call.getCachedFunction());
+        assertEquals("15.0", evaluate(interpreter));
+        assertNotNull(call.getCachedFunction());
+        // Without metrics, calls skip the wrapper that reports them
+        assertFalse(call.getCachedFunction() instanceof LibraryFunction);
+
+        // Calls of user-defined functions are resolved to slots and are not cached
+        program = interpreter.parse("def one() { return 1; } def f() { return one(); } f();").getAst();
+        call = (CallExpression) returnValue(program, 1);
+        assertEquals("1.0", evaluate(interpreter));
+        assertNull(call.getCachedFunction());
+    }
+
+    @Test
+    @DisplayName("Test the inline cache is invalidated by new bindings and scopes")
+    public void testInlineCacheGuard() throws Exception {
+        Parser parser = new Parser(new Lexer(
+            "def f() { return answer(); }\n" +
+            "let a = f();\n" +
+            "def answer() { return 2; }\n" +
+            "a + f();"));
+        Program program = parser.parseProgram();
+        assertTrue(parser.getErrors().isEmpty(), "Parsing should succeed");
+
+        // Without the resolver every name is looked up dynamically: the variable shadows the function
+        EvaluationContext context = new EvaluationContext();
+        context.registerFunction("answer", args -> 1.0);
+        assertEquals(3.0, program.evaluate(context));
+
+        // A cached function is not used in another evaluation
+        Program twice = new Parser(new Lexer("def f() { return answer(); } f() + f();")).parseProgram();
+        for (double answer = 1; answer <= 2; answer++) {
+            double value = answer;
+            context = new EvaluationContext();
+            context.registerFunction("answer", args -> value);
+            assertEquals(2 * answer, twice.evaluate(context));
+        }
+    }
+
+    @Test
+    @DisplayName("Test the inline cache charges the steps of the lookup it skips")
+    public void testInlineCacheSteps() {
+        String source = "def mk() { let i = 0; while (i < 3) { len('a'); i = i + 1; } return 0; } mk();";
+        int[] steps = new int[Interpreter.Engine.values().length];
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setEngine(engine);
+            interpreter.parse(source);
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            assertTrue(result.isSuccess(), Interpreter.formatErrors(result.getErrors()));
+            steps[engine.ordinal()] = result.getResourceUsage().getEvaluationSteps();
+        }
+        assertEquals(steps[Interpreter.Engine.BYTECODE_VM.ordinal()], steps[Interpreter.Engine.TREE_WALKER.ordinal()]);
+        assertEquals(steps[Interpreter.Engine.JVM_BYTECODE.ordinal()], steps[Interpreter.Engine.TREE_WALKER.ordinal()]);
+    }
+
+    /**
+     * The expression returned by the function declared by the given top-level statement
+     */
+    private Node returnValue(Program program, int statement) {
+        FunctionDeclaration function = (FunctionDeclaration) program.getStatements().get(statement);
+        BlockStatement body = (BlockStatement) function.getBody();
+        return ((ReturnStatement) body.getStatements().get(0)).getValue();
+    }
+
+    private String evaluate(Interpreter interpreter) {
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertTrue(result.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(result.getErrors()));
+        return String.valueOf(result.getResult());
+    }
+}
@@ -0,0 +1,83 @@
+package interpreter.ast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.main.Interpreter;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceQuota;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.UnexpectedResultException;
+
+/**
+ * Tests for the unboxed evaluateDouble and evaluateBoolean paths
+ */
+public class TypedEvaluationTest {
+    @Test
+    @DisplayName("Test typed evaluation of specialized expressions")
+    public void testTypedResults() throws Exception {
+        EvaluationContext context = newContext();
+        Program program = parse("let i = 3; let n = 10; i * 2 + 1; i < n && !(i - n > 0); -i;");
+        program.evaluate(context);
+
+        assertEquals(7.0, expression(program, 2).evaluateDouble(context));
+        assertTrue(expression(program, 3).evaluateBoolean(context));
+        assertEquals(-3.0, expression(program, 4).evaluateDouble(context));
+    }
+
+    @Test
+    @DisplayName("Test typed evaluation falls back to the generic result")
+    public void testUnexpectedResult() throws Exception {
+        EvaluationContext context = newContext();
+        Program program = parse("let s = 'a'; s + 1; 1 < 2;");
+        program.evaluate(context);
+
+        UnexpectedResultException e = assertThrows(UnexpectedResultException.class,
+                () -> expression(program, 1).evaluateDouble(context));
+        assertEquals("a1.0", e.getResult());
+
+        // A comparison is not a number, but a truthy condition
+        assertThrows(UnexpectedResultException.class, () -> expression(program, 2).evaluateDouble(context));
+        assertTrue(expression(program, 2).evaluateBoolean(context));
+    }
+
+    @Test
+    @DisplayName("Test typed operands deoptimize when a variable changes type")
+    public void testDeoptimization() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.parse(
+            "let x = 1;\n" +
+            "let r = '';\n" +
+            "let i = 0;\n" +
+            "while (i < 4) {\n" +
+            "  if (i == 2) { x = 'x'; }\n" +
+            "  r = r + (x + 1) + ',';\n" +
+            "  i = i + 1;\n" +
+            "}\n" +
+            "r;");
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertTrue(result.isSuccess(), Interpreter.formatErrors(result.getErrors()));
+        assertEquals("2.0,2.0,x1.0,x1.0,", result.getResult());
+
+        interpreter.parse("let a = null; if (a < 1) { 'yes'; } else { 'no'; }");
+        result = interpreter.evaluate();
+        assertTrue(result.isSuccess(), Interpreter.formatErrors(result.getErrors()));
+        assertEquals("no", result.getResult());
+    }
+
+    private static EvaluationContext newContext() throws RuntimeError {
+        return new EvaluationContext(new ResourceQuota(500, 10000, 1000, Integer.MAX_VALUE));
+    }
+
+    private static Program parse(String source) {
+        return new Interpreter().parse(source).getAst();
+    }
+
+    private static Node expression(Program program, int statement) {
+        return ((ExpressionStatement) program.getStatements().get(statement)).getExpression();
+    }
+}
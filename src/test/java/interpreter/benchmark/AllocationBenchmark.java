@@ -0,0 +1,76 @@
+package interpreter.benchmark;
+
+import interpreter.ast.ExpressionStatement;
+import interpreter.ast.Node;
+import interpreter.ast.Program;
+import interpreter.main.Interpreter;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Measures the bytes allocated per iteration by the boxed and the typed evaluation paths, and
+ * by a whole counting loop.
+ *
+ * <p>Typed conditions and arithmetic allocate nothing; the benchmark exits with status 1 if
+ * they allocate after warm-up. The counting loop still allocates one {@code Double} per
+ * iteration (24 bytes with compressed oops): variables hold objects, so the number stored in
+ * the counter is boxed.</p>
+ *
+ * <p>Run after {@code mvn test-compile} with:</p>
+ * <pre>
+ * java -cp target/classes:target/test-classes interpreter.benchmark.AllocationBenchmark
+ * </pre>
+ */
+public class AllocationBenchmark {
+    private static final int ITERATIONS = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        ResourceQuota quota = new ResourceQuota(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        EvaluationContext context = new EvaluationContext(quota);
+        Program program = new Interpreter().parse(
+                "let i = 3; let n = 1000; i * 2 + 1 < n && !(i - n > 0); (i + 1) * (n - 1) / 2;").getAst();
+        program.evaluate(context);
+        Node condition = ((ExpressionStatement) program.getStatements().get(2)).getExpression();
+        Node arithmetic = ((ExpressionStatement) program.getStatements().get(3)).getExpression();
+
+        report("boxed evaluate()", Benchmarks.measure(ROUNDS, () -> {
+            for (int k = 0; k < ITERATIONS; k++) {
+                condition.evaluate(context);
+                arithmetic.evaluate(context);
+            }
+            return ITERATIONS;
+        }));
+
+        Benchmarks.Result typed = Benchmarks.measure(ROUNDS, () -> {
+            double sum = 0;
+            for (int k = 0; k < ITERATIONS; k++) {
+                if (condition.evaluateBoolean(context)) {
+                    sum += arithmetic.evaluateDouble(context);
+                }
+            }
+            if (sum != ITERATIONS * 1998.0) {
+                throw new IllegalStateException("Unexpected sum " + sum);
+            }
+            return ITERATIONS;
+        });
+        report("evaluateBoolean()/evaluateDouble()", typed);
+
+        Interpreter interpreter = new Interpreter(quota);
+        interpreter.parse("let i = 0; while (i < " + ITERATIONS + ") { i = i + 1; }");
+        report("counting loop", Benchmarks.measure(ROUNDS, () -> {
+            interpreter.evaluate();
+            return ITERATIONS;
+        }));
+
+        // Boxing a single value per iteration would take 16 bytes or more
+        if (typed.bytesPerUnit() >= 1) {
+            System.out.println("typed paths allocate");
+            System.exit(1);
+        }
+    }
+
+    private static void report(String name, Benchmarks.Result result) {
+        System.out.printf("%-36s %8.2f bytes/iteration%n", name, result.bytesPerUnit());
+    }
+}
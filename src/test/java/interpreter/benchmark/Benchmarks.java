@@ -0,0 +1,96 @@
+package interpreter.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Harness shared by the benchmarks. A task is run for a number of rounds, the first of which
+ * warm up the JIT compiler, and its time and the bytes allocated by the current thread (as
+ * reported by the HotSpot {@link com.sun.management.ThreadMXBean}) are measured.
+ */
+final class Benchmarks {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Work measured by a benchmark
+     */
+    @FunctionalInterface
+    interface Task {
+        /**
+         * @return The number of units of work done, e.g. iterations, calls or tokens
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Time and allocation of a task, per unit of work
+     */
+    static final class Result {
+        private final long units;
+        private final long nanos;
+        private final long bytes;
+
+        private Result(long units, long nanos, long bytes) {
+            this.units = units;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The units of work done by one round
+         */
+        long getUnits() {
+            return units;
+        }
+
+        /**
+         * @return The time of the fastest round, in seconds
+         */
+        double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        double nanosPerUnit() {
+            return (double) nanos / units;
+        }
+
+        double unitsPerSecond() {
+            return units / getSeconds();
+        }
+
+        double bytesPerUnit() {
+            return (double) bytes / units;
+        }
+    }
+
+    /**
+     * Run a task the given number of times
+     *
+     * @return The time of the fastest round and the bytes allocated by the last round, once
+     *         the JIT compiler has warmed up
+     */
+    static Result measure(int rounds, Task task) throws Exception {
+        long units = 0;
+        long bestNanos = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int round = 0; round < rounds; round++) {
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            units = task.run();
+            long nanos = System.nanoTime() - start;
+            bytes = allocatedBytes() - startBytes;
+            bestNanos = Math.min(bestNanos, nanos);
+        }
+        return new Result(units, bestNanos, bytes);
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far
+     */
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
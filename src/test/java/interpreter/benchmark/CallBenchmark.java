@@ -0,0 +1,57 @@
+package interpreter.benchmark;
+
+import interpreter.main.Interpreter;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Measures the time and the bytes allocated per script function call on every engine,
+ * for returning calls and for calls that propagate an error.
+ *
+ * <p>Run after {@code mvn test-compile} with:</p>
+ * <pre>
+ * java -cp target/classes:target/test-classes interpreter.benchmark.CallBenchmark
+ * </pre>
+ */
+public class CallBenchmark {
+    private static final int ROUNDS = 30;
+
+    public static void main(String[] args) throws Exception {
+        // Recursive calls with a return at each level: fib(22) makes 57313 calls
+        run("fib(22)", 57313, true,
+            "def fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n" +
+            "fib(22);");
+
+        // A small function called from a loop
+        run("loop of 100000 calls", 100000, true,
+            "def add(a, b) { return a + b; }\n" +
+            "let sum = 0;\n" +
+            "let i = 0;\n" +
+            "while (i < 100000) { sum = add(sum, i); i = i + 1; }\n" +
+            "sum;");
+
+        // An error raised 100 calls deep and propagated through all of them
+        run("error at depth 100", 100, false,
+            "def f(n) { if (n == 0) { return undefined; } let r = f(n - 1); return r; }\n" +
+            "f(100);");
+    }
+
+    private static void run(String name, int calls, boolean succeeds, String source) throws Exception {
+        ResourceQuota quota = new ResourceQuota(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(source);
+
+            Benchmarks.Result result = Benchmarks.measure(ROUNDS, () -> {
+                Interpreter.EvaluationResult evaluation = interpreter.evaluate();
+                if (evaluation.isSuccess() != succeeds) {
+                    throw new IllegalStateException(Interpreter.formatErrors(evaluation.getErrors()));
+                }
+                return calls;
+            });
+
+            System.out.printf("%-22s %-14s %8.1f ns/call %8.1f bytes/call%n",
+                    name, engine, result.nanosPerUnit(), result.bytesPerUnit());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package interpreter.benchmark;
+
+import interpreter.lexer.Lexer;
+import interpreter.lexer.Token;
+import interpreter.lexer.TokenType;
+
+/**
+ * Measures the throughput of the lexer and the bytes it allocates per token over a large
+ * generated source.
+ *
+ * <p>Run after {@code mvn test-compile} with:</p>
+ * <pre>
+ * java -cp target/classes:target/test-classes interpreter.benchmark.LexerBenchmark
+ * </pre>
+ */
+public class LexerBenchmark {
+    private static final int FUNCTIONS = 40_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String source = generateSource();
+        System.out.printf("source: %.1f MB%n", source.length() / 1e6);
+
+        Benchmarks.Result result = Benchmarks.measure(ROUNDS, () -> {
+            Lexer lexer = new Lexer(source);
+            long tokens = 0;
+            Token token;
+            do {
+                token = lexer.nextToken();
+                tokens++;
+            } while (token.getType() != TokenType.EOF);
+            return tokens;
+        });
+
+        System.out.printf("%10.0f tokens/s %8.1f MB/s %8.2f bytes/token%n",
+                result.unitsPerSecond(), source.length() / 1e6 / result.getSeconds(), result.bytesPerUnit());
+    }
+
+    private static String generateSource() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < FUNCTIONS; i++) {
+            int name = i % 500;
+            source.append("// Helper number ").append(i).append('\n')
+                    .append("def helper").append(name).append("(left, right) {\n")
+                    .append("    let total = left * 2 + right % 7;\n")
+                    .append("    if (total >= 100 && left != null || !right) {\n")
+                    .append("        return \"large\";\n")
+                    .append("    } else {\n")
+                    .append("        while (total < ").append(i).append(".5) { total = total + 1; }\n")
+                    .append("    }\n")
+                    .append("    return [total, {\"key\": right}];\n")
+                    .append("}\n");
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package interpreter.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.ast.FunctionDeclaration;
+import interpreter.ast.Program;
+import interpreter.main.Interpreter;
+import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.ResourceQuota;
+import interpreter.runtime.RuntimeError;
+
+/**
+ * Tests for the compiler to JVM classes, checked against the tree-walking evaluator
+ */
+public class JvmCompilerTest {
+    @Test
+    @DisplayName("Test expressions, scoping and completion values")
+    public void testBasics() {
+        assertSameResult("let a = 5; let b = 10; a + b * 2;", "25.0");
+        assertSameResult("let s = 'n=' + 1; s;", "n=1.0");
+        assertSameResult("let x = 1; { let x = 2; x = x + 1; } x;", "1.0");
+        assertSameResult("!(1 < 2) || -3 < 0;", "true");
+        assertSameResult("if (false) { 1; }", "null");
+        assertSameResult("let i = 0; while (i < 3) { i = i + 1; }", "3.0");
+        assertSameResult("", "null");
+        assertSameResult("let a = 1; return a + 1; a = 10;", "2.0");
+    }
+
+    @Test
+    @DisplayName("Test recursion, closures and early returns")
+    public void testFunctions() {
+        assertSameResult(
+            "def fib(n) {\n" +
+            "  if (n < 2) { return n; }\n" +
+            "  return fib(n - 1) + fib(n - 2);\n" +
+            "}\n" +
+            "fib(8);",
+            "21.0");
+
+        assertSameResult(
+            "def makeCounter() {\n" +
+            "  let count = 0;\n" +
+            "  def increment() { count = count + 1; return count; }\n" +
+            "  return increment;\n" +
+            "}\n" +
+            "let c1 = makeCounter();\n" +
+            "let c2 = makeCounter();\n" +
+            "c1(); c1(); c2();\n" +
+            "c1() * 10 + c2();",
+            "32.0");
+
+        assertSameResult(
+            "def find(arr, x) {\n" +
+            "  let i = 0;\n" +
+            "  while (i < len(arr)) {\n" +
+            "    if (arr[i] == x) { return i; }\n" +
+            "    i = i + 1;\n" +
+            "  }\n" +
+            "  return -1;\n" +
+            "}\n" +
+            "find([5, 7, 9], 9) * 10 + find([1], 2);",
+            "19.0");
+    }
+
+    @Test
+    @DisplayName("Test collections and library functions")
+    public void testCollections() {
+        assertSameResult(
+            "let m = {'a': [1, 2], 'b': 2};\n" +
+            "push(m['a'], 3);\n" +
+            "let a = m['a'];\n" +
+            "a[0] = 10;\n" +
+            "m['a'][0] + len(m['a']) + m['b'];",
+            "15.0");
+        assertSameResult("join(split('a,b,c', ','), '-');", "a-b-c");
+    }
+
+    @Test
+    @DisplayName("Test runtime errors match the tree walker")
+    public void testRuntimeErrors() {
+        assertSameError(new ResourceQuota(), "undefinedVar + 1;", "Undefined variable 'undefinedVar'");
+        assertSameError(new ResourceQuota(), "let f = null; f();", "Cannot call null as a function");
+        assertSameError(new ResourceQuota(), "def f(a, b) { return a; } f(1);", "Error in function call: Function f[a, b] called with 1 arguments");
+        assertSameError(new ResourceQuota(), "let m = {null: 1};", "Map keys must be strings or numbers");
+        assertSameError(new ResourceQuota(), "def f() { return nope; } def g() { return f(); } g();", "Undefined variable 'nope'");
+    }
+
+    @Test
+    @DisplayName("Test resource quotas are enforced in compiled code")
+    public void testResourceQuotas() {
+        assertSameError(new ResourceQuota(500, 10, 1000, 100000),
+            "let i = 0; while (true) { i = i + 1; }",
+            "Maximum loop iterations exceeded");
+        assertSameError(new ResourceQuota(5, 10000, 1000, 100000),
+            "def f(n) { if (n <= 1) { return 1; } return n * f(n - 1); } f(20);",
+            "Maximum call stack depth exceeded");
+        assertSameError(new ResourceQuota(500, 10000, 1000, 50),
+            "let i = 0; while (i < 100) { i = i + 1; }",
+            "Maximum execution steps exceeded");
+    }
+
+    @Test
+    @DisplayName("Test a single function declaration can be compiled and called")
+    public void testCompileFunction() throws RuntimeError {
+        Interpreter interpreter = new Interpreter();
+        Program program = interpreter.parse("def add(a, b) { return a + b; }").getAst();
+
+        FunctionTemplate template = new JvmCompiler().compile((FunctionDeclaration) program.getStatements().get(0));
+        CompiledFunction add = template.bind(new EvaluationContext());
+        assertEquals(5.0, add.apply(Arrays.asList(2.0, 3.0)));
+    }
+
+    @Test
+    @DisplayName("Test tail calls of library functions are charged like in the tree walker")
+    public void testLibraryTailCallSteps() {
+        String source = "def f1() { return len('xx'); } f1();";
+        Interpreter.EvaluationResult treeResult = evaluate(source, new ResourceQuota(), Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult jvmResult = evaluate(source, new ResourceQuota(), Interpreter.Engine.JVM_BYTECODE);
+        assertEquals(2.0, jvmResult.getResult());
+        assertEquals(treeResult.getResourceUsage().getEvaluationSteps(), jvmResult.getResourceUsage().getEvaluationSteps());
+    }
+
+    @Test
+    @DisplayName("Test programs too large for a JVM method still run")
+    public void testProgramTooLarge() {
+        StringBuilder source = new StringBuilder("let x = 0;\n");
+        for (int i = 1; i <= 3000; i++) {
+            source.append("let v").append(i).append(" = ").append(i).append(" + x;\n");
+        }
+        source.append("v3000;");
+        ResourceQuota quota = new ResourceQuota(100, 100000, 10000, 1000000);
+
+        Interpreter.EvaluationResult treeResult = evaluate(source.toString(), quota, Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult jvmResult = evaluate(source.toString(), quota, Interpreter.Engine.JVM_BYTECODE);
+        assertTrue(jvmResult.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(jvmResult.getErrors()));
+        assertEquals(3000.0, jvmResult.getResult());
+        assertEquals(treeResult.getResourceUsage().getEvaluationSteps(), jvmResult.getResourceUsage().getEvaluationSteps());
+    }
+
+    private Interpreter.EvaluationResult evaluate(String source, ResourceQuota quota, Interpreter.Engine engine) {
+        Interpreter interpreter = new Interpreter(quota);
+        interpreter.setEngine(engine);
+        assertTrue(interpreter.parse(source).isSuccess(), "Parsing should succeed");
+        return interpreter.evaluate();
+    }
+
+    private void assertSameResult(String source, String expected) {
+        Interpreter.EvaluationResult treeResult = evaluate(source, new ResourceQuota(), Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult jvmResult = evaluate(source, new ResourceQuota(), Interpreter.Engine.JVM_BYTECODE);
+
+        assertTrue(jvmResult.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(jvmResult.getErrors()));
+        assertEquals(String.valueOf(treeResult.getResult()), String.valueOf(jvmResult.getResult()));
+        assertEquals(expected, String.valueOf(jvmResult.getResult()));
+    }
+
+    private void assertSameError(ResourceQuota quota, String source, String expected) {
+        Interpreter.EvaluationResult treeResult = evaluate(source, quota, Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult jvmResult = evaluate(source, quota, Interpreter.Engine.JVM_BYTECODE);
+
+        assertFalse(jvmResult.isSuccess(), "Evaluation should fail");
+        assertEquals(Interpreter.formatErrors(treeResult.getErrors()), Interpreter.formatErrors(jvmResult.getErrors()));
+        assertTrue(jvmResult.getErrors().get(0).getMessage().contains(expected),
+                "Unexpected error: " + jvmResult.getErrors().get(0).getMessage());
+    }
+}
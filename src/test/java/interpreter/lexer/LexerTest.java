@@ -4,6 +4,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -224,6 +228,121 @@ public class LexerTest {
         assertToken(lexer.nextToken(), TokenType.EOF, "");
     }
     
+    @Test
+    @DisplayName("Test lexing from a reader in chunks")
+    public void testReaderInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("let x").append(i).append(" = ").append(i).append(".5; // line\n");
+            sb.append("if (x").append(i).append(" >= 'it\\'s') { /* block */ x").append(i).append(" = x != y; }\n");
+        }
+        // Tokens longer than the buffer are retained while they are read
+        sb.append("\"").append("s".repeat(3 * Lexer.CHUNK_SIZE)).append("\"; ");
+        sb.append("v".repeat(Lexer.CHUNK_SIZE + 7)).append(" # end");
+        String input = sb.toString();
+        
+        List<Token> expected = new Lexer(input).tokenize();
+        // A reader returning few characters at a time splits tokens across reads
+        Reader reader = new StringReader(input) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 3));
+            }
+        };
+        Lexer lexer = new Lexer(reader);
+        List<Token> actual = lexer.tokenize();
+        
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString(), "Token " + i);
+            assertEquals(expected.get(i).getLine(), actual.get(i).getLine(), "Token " + i);
+            assertEquals(expected.get(i).getColumn(), actual.get(i).getColumn(), "Token " + i);
+        }
+        assertEquals(input.length(), lexer.getSourceLength());
+        assertEquals(input.hashCode(), lexer.getSourceHash());
+        
+        List<Token> fromCharBuffer = new Lexer(CharBuffer.wrap(input.toCharArray())).tokenize();
+        assertEquals(expected.size(), fromCharBuffer.size());
+        assertEquals(expected.get(expected.size() - 2).getLiteral(), fromCharBuffer.get(expected.size() - 2).getLiteral());
+    }
+    
+    @Test
+    @DisplayName("Test identifiers are interned and fixed tokens share their literal")
+    public void testInterning() {
+        String input = "let count = count + other; lets iff nul True i count && other != null";
+        Lexer lexer = new Lexer(input);
+        List<Token> tokens = lexer.tokenize();
+        
+        Token first = tokens.get(1);
+        Token second = tokens.get(3);
+        assertToken(first, TokenType.IDENTIFIER, "count");
+        assertSame(first.getLiteral(), second.getLiteral());
+        assertEquals(first.getSymbolId(), second.getSymbolId());
+        assertNotEquals(first.getSymbolId(), tokens.get(5).getSymbolId());
+        assertSame(first.getLiteral(), lexer.getSymbols().get(first.getSymbolId()));
+        assertSame(first.getLiteral(), tokens.get(12).getLiteral());
+        
+        // Near misses of keywords are identifiers
+        assertToken(tokens.get(7), TokenType.IDENTIFIER, "lets");
+        assertToken(tokens.get(8), TokenType.IDENTIFIER, "iff");
+        assertToken(tokens.get(9), TokenType.IDENTIFIER, "nul");
+        assertToken(tokens.get(10), TokenType.IDENTIFIER, "True");
+        assertToken(tokens.get(11), TokenType.IDENTIFIER, "i");
+        assertEquals(7, lexer.getSymbols().size());
+        
+        for (Token token : tokens) {
+            assertEquals(token.getType() == TokenType.IDENTIFIER, token.getSymbolId() >= 0, token.toString());
+        }
+        assertSame(TokenType.AND.getLiteral(), tokens.get(13).getLiteral());
+        assertSame(TokenType.NOT_EQ.getLiteral(), tokens.get(15).getLiteral());
+        assertSame(TokenType.PLUS.getLiteral(), tokens.get(4).getLiteral());
+        assertSame(tokens.get(0).getLiteral(), new Lexer("let").nextToken().getLiteral());
+    }
+    
+    @Test
+    @DisplayName("Test the symbol table keeps its ids while growing")
+    public void testSymbolTable() {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, symbols.intern("name" + i));
+        }
+        char[] chars = "xxname517yy".toCharArray();
+        assertEquals(517, symbols.intern(chars, 2, 7));
+        assertEquals("name999", symbols.get(999));
+        assertEquals(1000, symbols.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> symbols.get(1000));
+        
+        // Lexers sharing a table give equal names the same id
+        Lexer lexer = new Lexer(new StringReader("name3 fresh"), symbols);
+        assertEquals(3, lexer.nextToken().getSymbolId());
+        assertEquals(1000, lexer.nextToken().getSymbolId());
+    }
+    
+    @Test
+    @DisplayName("Test names with colliding hashes are interned in linear time")
+    public void testCollidingSymbols() {
+        // "Aa" and "BB" have the same hash, so all 2^16 names of 16 of them do as well
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1 << 16; i++) {
+            for (int bit = 15; bit >= 0; bit--) {
+                input.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            input.append(' ');
+        }
+        
+        long start = System.nanoTime();
+        Lexer lexer = new Lexer(input + "AaAaAaAaAaAaAaAaAaAaAaAaAaAaAaAa BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB");
+        List<Token> tokens = lexer.tokenize();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        
+        assertEquals((1 << 16) + 3, tokens.size());
+        assertEquals(1 << 16, lexer.getSymbols().size());
+        assertEquals(0, tokens.get(1 << 16).getSymbolId());
+        assertEquals((1 << 16) - 1, tokens.get((1 << 16) + 1).getSymbolId());
+        assertSame(tokens.get(0).getLiteral(), tokens.get(1 << 16).getLiteral());
+        assertTrue(elapsedMillis < 3000, "Should not probe quadratically: " + elapsedMillis + "ms");
+    }
+    
     private void assertToken(Token token, TokenType expectedType, String expectedLiteral) {
         assertEquals(expectedType, token.getType(), 
             "Token type mismatch: expected " + expectedType + ", got " + token.getType());
@@ -5,16 +5,39 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import interpreter.main.Interpreter.Error;
 import interpreter.runtime.CallableFunction;
 import interpreter.runtime.EvaluationContext;
+import interpreter.runtime.FlightEvents;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.Profiler;
+import interpreter.runtime.ResourceQuota;
+import interpreter.runtime.RuntimeError;
+import interpreter.runtime.SamplingProfiler;
 
 /**
  * Test suite for the Interpreter
@@ -140,6 +163,254 @@ public class InterpreterTest {
 	        });
     }
 	
+	@Test
+    @DisplayName("Test shared library with per-run overrides")
+    public void testSharedLibraryWithOverrides() {
+		LibraryRegistry library = LibraryRegistry.of(new Interpreter.StringLibraryFunctionsInitializer());
+		
+		Interpreter plain = new Interpreter(new ResourceQuota(), library);
+		plain.parse("trim(' a ');");
+		assertEquals("a", plain.evaluate().getResult());
+		
+		// The override shadows the shared function for this interpreter only
+		Interpreter custom = new Interpreter(new ResourceQuota(), library, 
+				ctx -> ctx.registerFunction("trim", args -> "custom"));
+		custom.parse("trim(' a ');");
+		assertEquals("custom", custom.evaluate().getResult());
+		assertEquals("a", plain.evaluate().getResult());
+		
+		assertTrue(library.contains("trim"));
+		assertFalse(library.contains("puts"));
+    }
+	
+	@Test
+    @DisplayName("Test library function initializers run for each evaluation")
+    @SuppressWarnings("unchecked")
+    public void testInitializersRunPerEvaluation() {
+		AtomicInteger runs = new AtomicInteger();
+		Interpreter interpreter = new Interpreter(ctx -> runs.incrementAndGet());
+		interpreter.parse("1;");
+		interpreter.evaluate();
+		interpreter.evaluate();
+		assertEquals(2, runs.get());
+    }
+	
+	@Test
+    @DisplayName("Test new interpreters write to the current standard output")
+    public void testStandardOutputPerInterpreter() {
+		PrintStream previous = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured, true));
+		try {
+			Interpreter interpreter = new Interpreter();
+			interpreter.parse("puts('captured');");
+			assertTrue(interpreter.evaluate().isSuccess());
+		} finally {
+			System.setOut(previous);
+		}
+		assertEquals("captured\n", captured.toString());
+		assertFalse(Interpreter.defaultLibrary().contains("puts"));
+    }
+	
+	@Test
+    @DisplayName("Test profiling calls, steps and lines")
+    public void testProfiler() {
+		String program = "def fib(n) {\n" +
+	            "  if (n < 2) { return n; }\n" +
+	            "  return fib(n - 1) + fib(n - 2);\n" +
+	            "}\n" +
+	            "fib(10);";
+		
+		for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+			Interpreter interpreter = new Interpreter();
+			interpreter.setEngine(engine);
+			interpreter.parse(program);
+			
+			assertTrue(interpreter.evaluate().isSuccess());
+			assertEquals(null, interpreter.getProfile(), "Profiling is off by default");
+			
+			interpreter.setProfiling(true);
+			assertEquals("55.0", interpreter.evaluate().getResult().toString());
+			
+			Profiler.Report profile = interpreter.getProfile();
+			Profiler.FunctionProfile fib = profile.getFunction("fib");
+			Profiler.FunctionProfile main = profile.getFunction(Profiler.PROGRAM);
+			assertEquals(177, fib.getCalls(), engine.toString());
+			assertEquals(1, fib.getLine());
+			assertEquals(1, main.getCalls());
+			assertTrue(fib.getSteps() > 0, engine.toString());
+			assertTrue(fib.getExclusiveNanos() <= fib.getInclusiveNanos());
+			assertTrue(fib.getInclusiveNanos() <= main.getInclusiveNanos());
+			assertTrue(profile.getLines().stream().anyMatch(line -> line.getLine() == 3 && line.getSteps() > 0),
+					profile.toString());
+		}
+    }
+	
+	@Test
+    @DisplayName("Test sampling script call stacks")
+    public void testSamplingProfiler() {
+		String program = "def leaf() { return sample(); }\n" +
+	            "def inner() {\n" +
+	            "  return leaf() + 1;\n" +
+	            "}\n" +
+	            "inner();\n" +
+	            "leaf();";
+		
+		for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+			// Sample only where the script asks for it
+			try (SamplingProfiler sampler = new SamplingProfiler(TimeUnit.HOURS.toMillis(1))) {
+				Interpreter interpreter = new Interpreter(new ResourceQuota(), Interpreter.defaultLibrary(),
+						ctx -> ctx.registerFunction("sample", args -> {
+							sampler.sample();
+							return 1.0;
+						}));
+				interpreter.setEngine(engine);
+				interpreter.setSampler(sampler);
+				interpreter.parse(program);
+				
+				assertTrue(interpreter.evaluate().isSuccess(), engine.toString());
+				assertEquals("<program>:5;inner:3;leaf:1 1\n<program>:6;leaf:1 1\n", sampler.toCollapsed(),
+						engine.toString());
+				assertEquals(2, sampler.getSampleCount());
+			}
+		}
+    }
+	
+	@Test
+    @DisplayName("Test parsing from a reader")
+    public void testParseReader() throws Exception {
+		String program = "def sum(n) { let s = 0; while (n > 0) { s = s + n; n = n - 1; } return s; }\n" +
+	            "sum(100);";
+		
+		Interpreter fromString = new Interpreter();
+		fromString.parse(program);
+		Interpreter fromReader = new Interpreter();
+		assertTrue(fromReader.parse(new StringReader(program)).isSuccess());
+		
+		assertEquals("5050.0", fromReader.evaluate().getResult().toString());
+		assertEquals(fromString.getScriptId(), fromReader.getScriptId());
+		assertEquals(fromString.getAstJson(), fromReader.getAstJson());
+		
+		Reader failing = new Reader() {
+			@Override
+			public int read(char[] buffer, int offset, int length) throws IOException {
+				throw new IOException("disk on fire");
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		try {
+			fromReader.parse(failing);
+			fail("Expected the error of the reader");
+		} catch (IOException e) {
+			assertEquals("disk on fire", e.getMessage());
+		}
+    }
+	
+	@Test
+    @DisplayName("Test running a compiled script concurrently")
+    public void testCompiledScript() throws Exception {
+		String program = "def scale(x) { return x * factor; }\n" +
+	            "let result = scale(input);\n" +
+	            "result;";
+		
+		for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+			Interpreter interpreter = new Interpreter();
+			interpreter.setEngine(engine);
+			CompiledScript script = interpreter.compile(program);
+			assertTrue(script.isSuccess(), formatErrors(script.getErrors()));
+			assertEquals(null, interpreter.getAstJson(), "Compiling leaves the interpreter unchanged");
+			
+			// Later changes of the interpreter do not affect the script
+			interpreter.setEngine(Interpreter.Engine.TREE_WALKER);
+			assertEquals(engine, script.getEngine());
+			
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<Interpreter.EvaluationResult>> results = new ArrayList<>();
+				for (int i = 0; i < 100; i++) {
+					Map<String, Object> bindings = Map.of("input", (double) i, "factor", 2.0);
+					results.add(executor.submit(() -> script.run(bindings)));
+				}
+				for (int i = 0; i < 100; i++) {
+					Interpreter.EvaluationResult result = results.get(i).get();
+					assertTrue(result.isSuccess(), engine + ": " + formatErrors(result.getErrors()));
+					assertEquals(2.0 * i, result.getResult(), engine.toString());
+					// Each run counts only its own variables
+					assertEquals(results.get(0).get().getResourceUsage().getVariableCount(),
+							result.getResourceUsage().getVariableCount());
+				}
+			} finally {
+				executor.shutdown();
+			}
+			
+			Interpreter.EvaluationResult unbound = script.run();
+			assertFalse(unbound.isSuccess());
+			assertTrue(formatErrors(unbound.getErrors()).contains("Undefined variable"),
+					formatErrors(unbound.getErrors()));
+		}
+		
+		CompiledScript invalid = new Interpreter().compile("let x = ;");
+		assertFalse(invalid.isSuccess());
+		assertFalse(invalid.getErrors().isEmpty());
+		assertEquals(invalid.getErrors(), invalid.run().getErrors());
+    }
+	
+	@Test
+    @DisplayName("Test flight recorder events")
+    public void testFlightRecorderEvents() throws Exception {
+		List<RecordedEvent> events;
+		try (Recording recording = new Recording()) {
+			recording.enable(FlightEvents.PARSE);
+			recording.enable(FlightEvents.EVALUATE);
+			recording.enable(FlightEvents.FUNCTION_CALL);
+			recording.enable(FlightEvents.REGEX);
+			recording.enable(FlightEvents.QUOTA_EXCEEDED);
+			recording.start();
+			
+			Interpreter interpreter = new Interpreter(new ResourceQuota(50, 10, 100, 1000));
+			interpreter.setScriptId("test-script");
+			interpreter.parse("def f(x) { return x + 1; }\nf(1);\nmatch('abc', 'a.c');");
+			assertTrue(interpreter.evaluate().isSuccess());
+			interpreter.parse("while (true) { }");
+			assertFalse(interpreter.evaluate().isSuccess());
+			
+			recording.stop();
+			Path file = Files.createTempFile("interpreter", ".jfr");
+			try {
+				recording.dump(file);
+				events = RecordingFile.readAllEvents(file);
+			} finally {
+				Files.delete(file);
+			}
+		}
+		
+		assertEquals(2, count(events, FlightEvents.PARSE));
+		assertEquals(2, count(events, FlightEvents.EVALUATE));
+		assertEquals(1, count(events, FlightEvents.REGEX));
+		assertEquals(1, count(events, FlightEvents.QUOTA_EXCEEDED));
+		
+		RecordedEvent call = events.stream()
+				.filter(e -> e.getEventType().getName().equals(FlightEvents.FUNCTION_CALL))
+				.findFirst().orElseThrow();
+		assertEquals("test-script", call.getString("scriptId"));
+		assertEquals("f", call.getString("function"));
+		assertEquals(1, call.getInt("line"));
+		assertTrue(call.getLong("steps") > 0);
+		
+		RecordedEvent exceeded = events.stream()
+				.filter(e -> e.getEventType().getName().equals(FlightEvents.QUOTA_EXCEEDED))
+				.findFirst().orElseThrow();
+		assertEquals("LOOP_ITERATIONS", exceeded.getString("limit"));
+		assertEquals("test-script", exceeded.getString("scriptId"));
+    }
+	
+	private static long count(List<RecordedEvent> events, String name) {
+		return events.stream().filter(e -> e.getEventType().getName().equals(name)).count();
+	}
+	
 	@Test
     @DisplayName("Test closures")
     public void testClosures() {
@@ -623,6 +894,36 @@ public class InterpreterTest {
         );
     }
     
+    @Test
+    @DisplayName("Test returns and errors propagate through nested calls")
+    public void testReturnAndErrorPropagation() {
+        // Returns from loops and nested blocks complete only the innermost function
+        assertProgram(
+            "def find(a, x) {\n" +
+            "  let i = 0;\n" +
+            "  while (i < len(a)) {\n" +
+            "    if (a[i] == x) { { return i; } }\n" +
+            "    i = i + 1;\n" +
+            "  }\n" +
+            "  return -1;\n" +
+            "}\n" +
+            "def outer() { let r = find([1, 2, 3], 3); return r * 10; }\n" +
+            "outer() + find([1], 5);",
+            "19.0"
+        );
+        
+        // Errors are reported where they occur, however deep the call
+        assertRuntimeError(
+            "def f(n) { if (n == 0) { return missing; } let r = f(n - 1); return r; }\n" +
+            "f(50);",
+            "Error at 1:33: Undefined variable 'missing'"
+        );
+        
+        // Script errors carry a script position, no Java stack trace
+        RuntimeError error = new RuntimeError("error", 1, 2);
+        assertEquals(0, error.getStackTrace().length);
+    }
+    
     private void assertExpression(String expression, String expected) {
         Interpreter interpreter = new Interpreter();
         Interpreter.ParseResult parseResult = interpreter.parse(expression);
@@ -0,0 +1,130 @@
+package interpreter.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Tests for the cache of parsed programs
+ */
+public class ProgramCacheTest {
+    @Test
+    @DisplayName("Test parsed programs are shared between interpreters")
+    public void testSharedPrograms() {
+        ProgramCache cache = new ProgramCache(1024 * 1024);
+        
+        Interpreter first = new Interpreter();
+        first.setProgramCache(cache);
+        Interpreter.ParseResult parsed = first.parse("let x = 20; x + 22;");
+        
+        Interpreter second = new Interpreter();
+        second.setProgramCache(cache);
+        assertSame(parsed, second.parse("let x = 20; x + 22;"));
+        assertEquals("42.0", second.evaluate().getResult().toString());
+        assertEquals("42.0", first.evaluate().getResult().toString());
+        
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        
+        // Programs with errors are not cached
+        assertTrue(!second.parse("let = ;").isSuccess());
+        assertEquals(1, cache.size());
+    }
+    
+    @Test
+    @DisplayName("Test keys depend on the source and the parser options")
+    public void testKeys() {
+        ResourceQuota quota = new ResourceQuota();
+        assertEquals(ProgramCache.keyOf("1 + 2;", quota, true), ProgramCache.keyOf("1 + 2;", new ResourceQuota(), true));
+        assertNotEquals(ProgramCache.keyOf("1 + 2;", quota, true), ProgramCache.keyOf("1 + 3;", quota, true));
+        assertNotEquals(ProgramCache.keyOf("1 + 2;", quota, true), 
+                ProgramCache.keyOf("1 + 2;", new ResourceQuota(500, 10000, 1000, 100000, 10), true));
+        assertNotEquals(ProgramCache.keyOf("1 + 2;", quota, true), ProgramCache.keyOf("1 + 2;", quota, false));
+        // Unoptimized programs do not depend on the limits
+        assertEquals(ProgramCache.keyOf("1 + 2;", quota, false), 
+                ProgramCache.keyOf("1 + 2;", new ResourceQuota(500, 10000, 1000, 100000, 10), false));
+        
+        ProgramCache cache = new ProgramCache(1024 * 1024);
+        Interpreter limited = new Interpreter(new ResourceQuota(500, 10000, 1000, 100000, 10));
+        limited.setOptimizing(true);
+        limited.setProgramCache(cache);
+        Interpreter.ParseResult parsed = limited.parse("'abc' + 'def';");
+        
+        Interpreter unlimited = new Interpreter();
+        unlimited.setOptimizing(true);
+        unlimited.setProgramCache(cache);
+        assertNotSame(parsed, unlimited.parse("'abc' + 'def';"));
+    }
+    
+    @Test
+    @DisplayName("Test least recently used programs are evicted by size")
+    public void testEviction() {
+        List<String> sources = List.of("1 + 1000;", "1 + 2000;", "1 + 3000;", "1 + 4000;");
+        long entryWeight = ProgramCache.estimateWeight(new Interpreter().parse(sources.get(0)).getAst().getNodeCount());
+        ProgramCache cache = new ProgramCache(3 * entryWeight);
+        Interpreter interpreter = new Interpreter();
+        interpreter.setProgramCache(cache);
+        
+        for (String source : sources.subList(0, 3)) {
+            interpreter.parse(source + " ");
+        }
+        // Use the first program, so that the second one is the least recently used
+        interpreter.parse(sources.get(0) + " ");
+        interpreter.parse(sources.get(3) + " ");
+        
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.size());
+        assertEquals(3 * entryWeight, cache.getWeight());
+        assertNull(cache.get(ProgramCache.keyOf(sources.get(1) + " ", new ResourceQuota(), false)));
+        
+        // A program larger than the cache is not cached
+        interpreter.parse("let x = 1; x" + " + x".repeat(200) + ";");
+        assertEquals(3, cache.size());
+        
+        // Comments do not count, only nodes
+        assertEquals(interpreter.parse("x;").getAst().getNodeCount(),
+                interpreter.parse("// " + "comment ".repeat(100) + "\nx;").getAst().getNodeCount());
+    }
+    
+    @Test
+    @DisplayName("Test cached programs evaluated concurrently")
+    public void testConcurrentUse() throws Exception {
+        ProgramCache cache = new ProgramCache(1024 * 1024);
+        String source = "def fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);";
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> {
+                    Interpreter interpreter = new Interpreter(new ResourceQuota(500, 10000, 100000, 1000000));
+                    interpreter.setProgramCache(cache);
+                    interpreter.parse(source);
+                    Interpreter.EvaluationResult result = interpreter.evaluate();
+                    return result.isSuccess() ? result.getResult() : Interpreter.formatErrors(result.getErrors());
+                }));
+            }
+            for (Future<Object> result : results) {
+                assertEquals("610.0", String.valueOf(result.get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(16, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import interpreter.runtime.AllocationMeter;
 import interpreter.runtime.ResourceQuota;
 
 /**
@@ -181,9 +182,30 @@ public class ResourceLimitTest {
         
         Interpreter.EvaluationResult result = interpreter.evaluate();
         
-        assertFalse(result.isSuccess(), "Evaluation should fail");
-        assertTrue(result.getErrors().get(0).getMessage().contains("Maximum call stack depth exceeded"), 
-                   "Should report evaluation depth limit");
+        // The recursive call is a tail call, which takes no depth
+        assertTrue(result.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(result.getErrors()));
+        assertEquals(0.0, result.getResult());
+    }
+    
+    @Test
+    @DisplayName("Test max evaluation depth through recursion outside of tail position")
+    public void testMaxEvaluationDepthNonTailCall() {
+        ResourceQuota quota = new ResourceQuota(10, 10000, 1000, 100000, 1000000);
+        
+        // The result is used after the call returns, so each call nests
+        String code = "def recursive(n) { if (n <= 0) { return 0; } else { return recursive(n - 1) + 1; } } recursive(20);";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertFalse(result.isSuccess(), engine + " should fail");
+            assertTrue(result.getErrors().get(0).getMessage().contains("Maximum call stack depth exceeded"), 
+                       engine + ": " + result.getErrors().get(0).getMessage());
+        }
     }
     
     @Test
@@ -301,8 +323,241 @@ public class ResourceLimitTest {
         
         Interpreter.EvaluationResult result = interpreter.evaluate();
         
+        // The mutually recursive calls are tail calls, which take no depth
+        assertTrue(result.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(result.getErrors()));
+        assertEquals(true, result.getResult());
+    }
+    
+    @Test
+    @DisplayName("Test mutual recursion depth limit outside of tail position")
+    public void testMutualRecursionDepthLimitNonTailCall() {
+        ResourceQuota quota = new ResourceQuota(15, 10000, 1000, 100000, 1000000);
+        
+        // The results are negated after the calls return, so each call nests
+        String code = 
+            "def even(n) { if (n == 0) { return true; } else { return !odd(n - 1); } }\n" +
+            "def odd(n) { if (n == 0) { return true; } else { return !even(n - 1); } }\n" +
+            "even(30);";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertFalse(result.isSuccess(), engine + " should fail");
+            assertTrue(result.getErrors().get(0).getMessage().contains("Maximum call stack depth"), 
+                       engine + ": " + result.getErrors().get(0).getMessage());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test tail calls run in constant depth on every engine")
+    public void testTailCalls() {
+        ResourceQuota quota = new ResourceQuota(15, 100000, 1000000, 10000000, 1000000);
+        String code = 
+            "def count(n, acc) { if (n == 0) { return acc; } return count(n - 1, acc + 1); }\n" +
+            "def even(n) { if (n == 0) { return true; } else { return odd(n - 1); } }\n" +
+            "def odd(n) { if (n == 0) { return false; } else { return even(n - 1); } }\n" +
+            "def size(s) { return len(s); }\n" +
+            "count(100000, 0) + ' ' + even(30001) + ' ' + size('abc');";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertTrue(result.isSuccess(), engine + ": " + Interpreter.formatErrors(result.getErrors()));
+            assertEquals("100000.0 false 3.0", result.getResult(), engine.toString());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test tail calls report errors like other calls")
+    public void testTailCallErrors() {
+        String code = 
+            "def f(a, b) { return a; }\n" +
+            "def g() { return f(1); }\n" +
+            "g();";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertFalse(result.isSuccess(), engine + " should fail");
+            assertTrue(result.getErrors().get(0).getMessage().contains("called with 1 arguments"), 
+                       engine + ": " + result.getErrors().get(0).getMessage());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test scopes release their depth when they are left")
+    public void testScopeDepthReleased() {
+        // Each iteration enters the block of the loop and the scopes of the called function
+        ResourceQuota quota = new ResourceQuota(10, 10000, 10000, 1000000, 1000000);
+        String code = 
+            "def inc(x) { if (x > 0) { return x + 1; } return 1; }\n" +
+            "let i = 0;\n" +
+            "while (i < 1000) { i = inc(i); }\n" +
+            "i;";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertTrue(result.isSuccess(), engine + ": " + Interpreter.formatErrors(result.getErrors()));
+            assertEquals(1000.0, result.getResult(), engine.toString());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test amortized step accounting enforces the step limit at loops and calls")
+    public void testAmortizedStepAccounting() {
+        ResourceQuota quota = new ResourceQuota(500, 100000, 1000, 2000)
+                .withStepAccounting(ResourceQuota.StepAccounting.AMORTIZED);
+        String loop = 
+            "let i = 0;\n" +
+            "while (true) { i = i + 1; }";
+        String recursion = 
+            "def f(n) { return f(n + 1) + 1; }\n" +
+            "f(0);";
+        String bounded = 
+            "def inc(x) { return x + 1; }\n" +
+            "let i = 0;\n" +
+            "while (i < 10) { i = inc(i); }\n" +
+            "i;";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            for (String code : new String[] { loop, recursion }) {
+                Interpreter interpreter = new Interpreter(quota);
+                interpreter.setEngine(engine);
+                interpreter.parse(code);
+                
+                Interpreter.EvaluationResult result = interpreter.evaluate();
+                assertFalse(result.isSuccess(), engine + " should fail");
+                assertTrue(result.getErrors().get(0).getMessage().contains("Maximum execution steps exceeded"), 
+                           engine + ": " + result.getErrors().get(0).getMessage());
+            }
+            
+            Interpreter interpreter = new Interpreter(quota);
+            interpreter.setEngine(engine);
+            interpreter.parse(bounded);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            assertTrue(result.isSuccess(), engine + ": " + Interpreter.formatErrors(result.getErrors()));
+            assertEquals(10.0, result.getResult(), engine.toString());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test that wall-clock and CPU time are limited")
+    public void testTimeLimits() {
+        ResourceQuota unlimited = new ResourceQuota(500, Integer.MAX_VALUE, 1000, Integer.MAX_VALUE);
+        String infiniteLoop = 
+            "let i = 0;\n" +
+            "while (true) { i = i + 1; }";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(unlimited.withMaxWallClockMillis(100));
+            interpreter.setEngine(engine);
+            interpreter.parse(infiniteLoop);
+            
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            assertFalse(result.isSuccess(), engine + " should fail");
+            assertTrue(result.getErrors().get(0).getMessage().contains("Maximum wall-clock time exceeded"), 
+                       engine + ": " + result.getErrors().get(0).getMessage());
+        }
+        
+        Interpreter interpreter = new Interpreter(unlimited.withMaxCpuTimeMillis(100));
+        interpreter.parse(infiniteLoop);
+        
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        assertFalse(result.isSuccess(), "Evaluation should fail");
+        assertTrue(result.getErrors().get(0).getMessage().contains("Maximum CPU time exceeded"), 
+                   result.getErrors().get(0).getMessage());
+    }
+    
+    @Test
+    @DisplayName("Test that the time limit interrupts library functions")
+    public void testTimeLimitInLibraryFunction() {
+        // Catastrophic backtracking, which takes far longer than the limit to fail
+        Interpreter interpreter = new Interpreter(new ResourceQuota().withMaxWallClockMillis(100));
+        interpreter.parse("findAll('aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!', '(.*a){12}b');");
+        
+        long start = System.nanoTime();
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        
         assertFalse(result.isSuccess(), "Evaluation should fail");
-        assertTrue(result.getErrors().get(0).getMessage().contains("Maximum call stack depth"), 
-                   "Should report evaluation depth limit");
+        assertTrue(result.getErrors().get(0).getMessage().contains("Maximum wall-clock time exceeded"), 
+                   result.getErrors().get(0).getMessage());
+        assertTrue(elapsedMillis < 5000, "Should stop soon after the limit: " + elapsedMillis + "ms");
+    }
+    
+    @Test
+    @DisplayName("Test that allocations of arrays, maps and strings are charged and limited")
+    public void testAllocationLimit() {
+        String code = "let m = {}; let i = 0; while (i < 5000) { m[i] = [i]; push(m[i], 'x' + i); i = i + 1; }";
+        
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(new ResourceQuota().withMaxAllocatedBytes(100_000));
+            interpreter.setEngine(engine);
+            interpreter.parse(code);
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertFalse(result.isSuccess(), engine + " evaluation should fail");
+            assertTrue(result.getErrors().get(0).getMessage().contains("Maximum allocated memory exceeded"), 
+                       result.getErrors().get(0).getMessage());
+            assertTrue(result.getResourceUsage().getAllocatedBytes() > 100_000);
+        }
+        
+        // Without a limit, the allocations are only reported
+        Interpreter interpreter = new Interpreter();
+        interpreter.parse("let a = [1, 2, 3]; push(a, 4); let s = 'ab' + 'cd' + a[0];");
+        Interpreter.EvaluationResult result = interpreter.evaluate();
+        
+        assertTrue(result.isSuccess());
+        assertTrue(result.getResourceUsage().getAllocatedBytes() >= AllocationMeter.arrayBytes(3)
+                + AllocationMeter.ARRAY_ELEMENT_BYTES + AllocationMeter.stringBytes(5));
+    }
+    
+    @Test
+    @DisplayName("Test that library functions are stopped by the allocation limit before building their result")
+    public void testAllocationLimitInLibraryFunctions() {
+        // A 16K string, whose joined copies or replacements would take gigabytes, and a 128K
+        // string, whose parts would take several megabytes
+        String prefix = "let s = 'x'; let i = 0; while (i < 14) { s = s + s; i = i + 1; } ";
+        String[] scripts = {
+            prefix + "replace(s, '', s);",
+            prefix + "let a = []; let j = 0; while (j < 9000) { push(a, s); j = j + 1; } join(a, ',');",
+            prefix.replace("14", "17") + "split(s, '');"
+        };
+        
+        for (String script : scripts) {
+            Interpreter interpreter = new Interpreter(new ResourceQuota().withMaxAllocatedBytes(1_000_000));
+            interpreter.parse(script);
+            Interpreter.EvaluationResult result = interpreter.evaluate();
+            
+            assertFalse(result.isSuccess(), script);
+            assertTrue(result.getErrors().get(0).getMessage().contains("Maximum allocated memory exceeded"), 
+                       result.getErrors().get(0).getMessage());
+            // Charged up to the step that crossed the limit, not for the whole result
+            assertTrue(result.getResourceUsage().getAllocatedBytes() < 1_100_000, 
+                       String.valueOf(result.getResourceUsage().getAllocatedBytes()));
+        }
+        
+        // The results are unchanged
+        Interpreter interpreter = new Interpreter();
+        interpreter.parse("join(split(replace('a-b--c', '-+', '$0|'), '\\|'), '/') + join(split('ab', ''), ',');");
+        assertEquals("a-/b--/ca,b,", interpreter.evaluate().getResult());
     }
-} 
\ No newline at end of file
+}
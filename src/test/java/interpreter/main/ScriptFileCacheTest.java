@@ -0,0 +1,130 @@
+package interpreter.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import interpreter.ast.Program;
+import interpreter.ast.ProgramSerializer;
+
+/**
+ * Tests for the binary form of programs and the cache of parsed script files
+ */
+public class ScriptFileCacheTest {
+    private static final String SCRIPT = "def fib(n) {\n" +
+            "  if (n < 2) { return n; } else { return fib(n - 1) + fib(n - 2); }\n" +
+            "}\n" +
+            "let m = {\"a\": [1, 2.5, \"x\"], 2: !false, \"n\": null};\n" +
+            "let i = 0;\n" +
+            "while (i < 3) { let a = m[\"a\"]; a[0] = a[0] + i; i = i + 1; }\n" +
+            "def twice(x) { return -x * 2; }\n" +
+            "fib(10) + m[\"a\"][0] + twice(1) + len(\"h\\u00e9\");";
+
+    @Test
+    @DisplayName("Test serialized programs keep their structure and positions")
+    public void testRoundTrip() {
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter parsed = new Interpreter();
+            parsed.setEngine(engine);
+            Interpreter.ParseResult result = parsed.parse(SCRIPT);
+            assertTrue(result.isSuccess(), Interpreter.formatErrors(result.getErrors()));
+
+            byte[] bytes = ProgramSerializer.serialize(result.getAst());
+            Program program = ProgramSerializer.deserialize(ByteBuffer.wrap(bytes));
+            assertEquals(result.getAst().toJson(), program.toJson());
+
+            Interpreter loaded = new Interpreter();
+            loaded.setEngine(engine);
+            assertTrue(loaded.load(SCRIPT, program).isSuccess());
+            assertEquals(parsed.evaluate().getResult(), loaded.evaluate().getResult(), engine.toString());
+            assertEquals(parsed.getScriptId(), loaded.getScriptId());
+        }
+    }
+
+    @Test
+    @DisplayName("Test corrupt serialized programs are rejected")
+    public void testCorruptProgram() {
+        Interpreter interpreter = new Interpreter();
+        byte[] bytes = ProgramSerializer.serialize(interpreter.parse(SCRIPT).getAst());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ProgramSerializer.deserialize(ByteBuffer.wrap(bytes, 0, bytes.length / 2)));
+        
+        // A huge count is rejected before anything is allocated for it
+        byte[] hugeCount = bytes.clone();
+        int countOffset = 5; // After the magic number and the version
+        for (int i = 0; i < 4; i++) {
+            hugeCount[countOffset + i] = (byte) 0xFF;
+        }
+        hugeCount[countOffset + 4] = 0x07;
+        assertThrows(IllegalArgumentException.class, () -> ProgramSerializer.deserialize(ByteBuffer.wrap(hugeCount)));
+        
+        bytes[0] = 0;
+        assertThrows(IllegalArgumentException.class, () -> ProgramSerializer.deserialize(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    @DisplayName("Test script files are parsed once until they change")
+    public void testCache(@TempDir Path directory) throws IOException {
+        Path script = directory.resolve("script.ij");
+        Files.writeString(script, "let x = 40; x + 2;");
+        ScriptFileCache cache = new ScriptFileCache(directory.resolve("cache"));
+
+        Interpreter first = new Interpreter();
+        assertTrue(cache.parse(first, script).isSuccess());
+        assertEquals(42.0, first.evaluate().getResult());
+        assertTrue(Files.isRegularFile(cache.cacheFileOf(script)));
+
+        Interpreter second = new Interpreter();
+        assertTrue(cache.parse(second, script).isSuccess());
+        assertEquals(42.0, second.evaluate().getResult());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A changed script is parsed again, also when it keeps its modification time
+        FileTime modified = Files.getLastModifiedTime(script);
+        Files.writeString(script, "let x = 40; x + 3;");
+        Files.setLastModifiedTime(script, modified);
+        Interpreter changed = new Interpreter();
+        assertTrue(cache.parse(changed, script).isSuccess());
+        assertEquals(43.0, changed.evaluate().getResult());
+        assertEquals(2, cache.getMissCount());
+
+        // Corrupt cache files are ignored and replaced
+        Files.write(cache.cacheFileOf(script), new byte[] { 1, 2, 3 });
+        Interpreter corrupt = new Interpreter();
+        assertTrue(cache.parse(corrupt, script).isSuccess());
+        assertEquals(43.0, corrupt.evaluate().getResult());
+        assertEquals(3, cache.getMissCount());
+        assertTrue(cache.parse(new Interpreter(), script).isSuccess());
+        assertEquals(2, cache.getHitCount());
+        
+        // So are cache files with a valid header and a corrupt program
+        byte[] cached = Files.readAllBytes(cache.cacheFileOf(script));
+        for (int i = cached.length - 16; i < cached.length; i++) {
+            cached[i] = (byte) 0xFF;
+        }
+        Files.write(cache.cacheFileOf(script), cached);
+        Interpreter corruptProgram = new Interpreter();
+        assertTrue(cache.parse(corruptProgram, script).isSuccess());
+        assertEquals(43.0, corruptProgram.evaluate().getResult());
+        assertEquals(4, cache.getMissCount());
+
+        // Scripts with errors are not cached
+        Path invalid = directory.resolve("invalid.ij");
+        Files.writeString(invalid, "let = ;");
+        assertFalse(cache.parse(new Interpreter(), invalid).isSuccess());
+        assertFalse(Files.exists(cache.cacheFileOf(invalid)));
+    }
+}
@@ -0,0 +1,93 @@
+package interpreter.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.main.Interpreter;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Tests for the metrics reported by the interpreter and their JMX exposure
+ */
+public class JmxInterpreterMetricsTest {
+    @Test
+    @DisplayName("Test histogram percentiles")
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertEquals(1000, snapshot.getMax());
+        // Percentiles are upper bounds of buckets, within 1/16 of the exact value
+        assertTrue(snapshot.getP50() >= 500 && snapshot.getP50() <= 500 * 17 / 16, "p50 " + snapshot.getP50());
+        assertTrue(snapshot.getP99() >= 990 && snapshot.getP99() <= 1000, "p99 " + snapshot.getP99());
+        
+        for (long value : new long[] { 0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.upperBoundOf(bucket) >= value);
+            assertTrue(bucket == 0 || Histogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+    
+    @Test
+    @DisplayName("Test metrics reported by the interpreter")
+    public void testInterpreterMetrics() {
+        JmxInterpreterMetrics metrics = new JmxInterpreterMetrics();
+        
+        Interpreter interpreter = new Interpreter(new ResourceQuota(50, 10, 100, 1000));
+        interpreter.setMetrics(metrics);
+        interpreter.parse("len('abc') + len([1, 2]);");
+        interpreter.evaluate();
+        interpreter.evaluate();
+        interpreter.parse("while (true) { }");
+        interpreter.evaluate();
+        
+        assertEquals(2, metrics.getParseCount());
+        assertEquals(0, metrics.getParseErrorCount());
+        assertEquals(3, metrics.getEvaluationCount());
+        assertEquals(1, metrics.getEvaluationErrorCount());
+        assertEquals(3, metrics.getEvaluationLatencyMicros().getCount());
+        assertTrue(metrics.getEvaluationSteps().getMax() > 10);
+        assertEquals(Map.of("LOOP_ITERATIONS", 1L), metrics.getQuotaViolations());
+        assertEquals(Map.of("len", 4L), metrics.getLibraryFunctionCalls());
+        
+        metrics.reset();
+        assertEquals(0, metrics.getEvaluationCount());
+        assertEquals(0, metrics.getEvaluationLatencyMicros().getCount());
+    }
+    
+    @Test
+    @DisplayName("Test metrics exposed as an MBean")
+    public void testMBean() throws Exception {
+        JmxInterpreterMetrics metrics = new JmxInterpreterMetrics();
+        ObjectName name = metrics.register("test");
+        try {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setMetrics(metrics);
+            interpreter.parse("1 + 2;");
+            interpreter.evaluate();
+            
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "EvaluationCount"));
+            CompositeData latency = (CompositeData) server.getAttribute(name, "EvaluationLatencyMicros");
+            assertEquals(1L, latency.get("count"));
+            assertTrue(latency.containsKey("p99"));
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
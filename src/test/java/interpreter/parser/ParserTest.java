@@ -21,11 +21,14 @@ import interpreter.ast.IfStatement;
 import interpreter.ast.InfixExpression;
 import interpreter.ast.Node;
 import interpreter.ast.NumberLiteral;
+import interpreter.ast.PrefixExpression;
 import interpreter.ast.Program;
 import interpreter.ast.ReturnStatement;
 import interpreter.ast.VariableDeclaration;
 import interpreter.ast.WhileStatement;
 import interpreter.lexer.Lexer;
+import interpreter.util.InfixOperator;
+import interpreter.util.PrefixOperator;
 
 /**
  * JUnit-based test suite for the Parser
@@ -316,6 +319,23 @@ public class ParserTest {
         assertEquals("c", rightRight.getName(), "Right-Right identifier should be 'c'");
     }
     
+    @Test
+    @DisplayName("Test operators are resolved at parse time")
+    public void testOperatorResolution() {
+        String[] symbols = {"+", "-", "*", "/", "%", "<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (String symbol : symbols) {
+            Program program = parseProgram("a " + symbol + " b;");
+            InfixExpression infixExpr = (InfixExpression) ((ExpressionStatement) program.getStatements().get(0)).getExpression();
+            assertEquals(InfixOperator.fromSymbol(symbol), infixExpr.getInfixOperator(), "Operator should be resolved for " + symbol);
+            assertEquals(symbol, infixExpr.getInfixOperator().getSymbol());
+        }
+        
+        Program program = parseProgram("!-a;");
+        PrefixExpression not = (PrefixExpression) ((ExpressionStatement) program.getStatements().get(0)).getExpression();
+        assertEquals(PrefixOperator.NOT, not.getPrefixOperator(), "Outer operator should be '!'");
+        assertEquals(PrefixOperator.NEGATE, ((PrefixExpression) not.getRight()).getPrefixOperator(), "Inner operator should be '-'");
+    }
+    
     private Program parseProgram(String input) {
         Lexer lexer = new Lexer(input);
         Parser parser = new Parser(lexer);
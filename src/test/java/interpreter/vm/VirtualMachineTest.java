@@ -0,0 +1,236 @@
+package interpreter.vm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import interpreter.ast.Program;
+import interpreter.main.Interpreter;
+import interpreter.runtime.CallableFunction;
+import interpreter.runtime.LibraryRegistry;
+import interpreter.runtime.ResourceQuota;
+
+/**
+ * Tests for the bytecode compiler and virtual machine, checked against the tree-walking evaluator
+ */
+public class VirtualMachineTest {
+    @Test
+    @DisplayName("Test arithmetic, variables and scoping")
+    public void testBasics() {
+        assertSameResult("let a = 5; let b = 10; a + b * 2;", "25.0");
+        assertSameResult("let s = 'Hello' + ', ' + 'World'; s;", "Hello, World");
+        assertSameResult("let x = 1; { let x = 2; x = x + 1; } x;", "1.0");
+        assertSameResult("let x = 1; { x = 5; } x;", "5.0");
+        assertSameResult("!true;", "false");
+        assertSameResult("-(3 - 5);", "2.0");
+        assertSameResult("", "null");
+        assertSameResult("{}", "null");
+    }
+
+    @Test
+    @DisplayName("Test completion values of statements")
+    public void testCompletionValues() {
+        assertSameResult("let x = 3;", "3.0");
+        assertSameResult("if (false) { 1; }", "null");
+        assertSameResult("if (1 < 2) { 'yes'; } else { 'no'; }", "yes");
+        assertSameResult("let i = 0; while (i < 3) { i = i + 1; }", "3.0");
+        assertSameResult("let i = 5; while (i < 3) { i = i + 1; }", "null");
+        assertSameResult("def f() { } typeof(f);", "function");
+    }
+
+    @Test
+    @DisplayName("Test loops and recursive functions")
+    public void testLoopsAndRecursion() {
+        assertSameResult(
+            "let sum = 0;\n" +
+            "let i = 0;\n" +
+            "while (i < 100) {\n" +
+            "  if (i % 2 == 0) { sum = sum + i; }\n" +
+            "  i = i + 1;\n" +
+            "}\n" +
+            "sum;",
+            "2450.0");
+
+        assertSameResult(
+            "def fib(n) {\n" +
+            "  if (n < 2) { return n; }\n" +
+            "  return fib(n - 1) + fib(n - 2);\n" +
+            "}\n" +
+            "fib(8);",
+            "21.0");
+    }
+
+    @Test
+    @DisplayName("Test early returns from nested blocks and loops")
+    public void testEarlyReturn() {
+        assertSameResult(
+            "def find(arr, x) {\n" +
+            "  let i = 0;\n" +
+            "  while (i < len(arr)) {\n" +
+            "    if (arr[i] == x) { return i; }\n" +
+            "    i = i + 1;\n" +
+            "  }\n" +
+            "  return -1;\n" +
+            "}\n" +
+            "find([5, 7, 9], 9) * 10 + find([1], 2);",
+            "19.0");
+        assertSameResult("let a = 1; return a + 1; a = 10;", "2.0");
+        assertSameResult("def f() { return; } f();", "null");
+    }
+
+    @Test
+    @DisplayName("Test closures and higher-order functions")
+    public void testClosures() {
+        assertSameResult(
+            "def makeCounter() {\n" +
+            "  let count = 0;\n" +
+            "  def increment() { count = count + 1; return count; }\n" +
+            "  return increment;\n" +
+            "}\n" +
+            "let c1 = makeCounter();\n" +
+            "let c2 = makeCounter();\n" +
+            "c1(); c1(); c2();\n" +
+            "c1() * 10 + c2();",
+            "32.0");
+
+        assertSameResult(
+            "def apply(f, x) { return f(x); }\n" +
+            "def square(x) { return x * x; }\n" +
+            "apply(square, 7);",
+            "49.0");
+    }
+
+    @Test
+    @DisplayName("Test arrays, maps and library functions")
+    public void testCollections() {
+        assertSameResult(
+            "let arr = [1, 2, 3];\n" +
+            "push(arr, 4);\n" +
+            "arr[0] = 10;\n" +
+            "arr[0] + arr[3] + len(arr);",
+            "18.0");
+
+        assertSameResult(
+            "let m = {'a': 1, 'b': 2};\n" +
+            "m['c'] = m['a'] + m['b'];\n" +
+            "m['c'];",
+            "3.0");
+
+        assertSameResult("join(split('a,b,c', ','), '-');", "a-b-c");
+        assertSameResult("typeof(puts);", "function");
+    }
+
+    @Test
+    @DisplayName("Test runtime errors match the tree walker")
+    public void testRuntimeErrors() {
+        assertSameError("undefinedVar + 1;", "Undefined variable 'undefinedVar'");
+        assertSameError("let x = 1; x(2);", "Not a function: 1.0");
+        assertSameError("let f = null; f();", "Cannot call null as a function");
+        assertSameError("def f(a, b) { return a; } f(1);", "Error in function call: Function f[a, b] called with 1 arguments");
+        assertSameError("let arr = [1]; arr[5];", "Array index out of bounds: 5");
+        assertSameError("let m = {null: 1};", "Map keys must be strings or numbers, got: null");
+        assertSameError("def f() { return nope; } def g() { return f(); } g();", "Undefined variable 'nope'");
+        assertSameError("y = 3;", "Cannot assign to undefined variable 'y'");
+    }
+
+    @Test
+    @DisplayName("Test resource quotas are enforced like in the tree walker")
+    public void testResourceQuotas() {
+        assertSameError(new ResourceQuota(500, 10, 1000, 100000),
+            "let i = 0; while (true) { i = i + 1; }",
+            "Maximum loop iterations exceeded");
+        assertSameError(new ResourceQuota(5, 10000, 1000, 100000),
+            "def f(n) { if (n <= 1) { return 1; } return n * f(n - 1); } f(20);",
+            "Maximum call stack depth exceeded");
+        assertSameError(new ResourceQuota(500, 10000, 3, 100000),
+            "let a = 1; let b = 2; let c = 3; let d = 4;",
+            "Maximum variable count exceeded");
+        assertSameError(new ResourceQuota(500, 10000, 1000, 50),
+            "let i = 0; while (i < 100) { i = i + 1; }",
+            "Maximum execution steps exceeded");
+    }
+
+    @Test
+    @DisplayName("Test programs use the same number of steps in both engines")
+    public void testSameStepCount() {
+        String program =
+            "def fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n" +
+            "let r = [fib(5), {'k': 'v'}['k'], -1];\n" +
+            "r[0];";
+
+        // Find the smallest step limit under which the tree walker succeeds
+        int limit = 1;
+        while (!evaluate(program, new ResourceQuota(500, 10000, 1000, limit), Interpreter.Engine.TREE_WALKER).isSuccess()) {
+            limit++;
+        }
+
+        assertTrue(evaluate(program, new ResourceQuota(500, 10000, 1000, limit), Interpreter.Engine.BYTECODE_VM).isSuccess());
+        assertFalse(evaluate(program, new ResourceQuota(500, 10000, 1000, limit - 1), Interpreter.Engine.BYTECODE_VM).isSuccess());
+    }
+
+    @Test
+    @DisplayName("Test host-registered functions can call back into compiled functions")
+    public void testHostCallback() {
+        Interpreter interpreter = new Interpreter(new ResourceQuota(), LibraryRegistry.empty(),
+                ctx -> ctx.registerFunction("twice",
+                        args -> ((CallableFunction) args.get(0)).apply(Arrays.asList(args.get(1)))));
+        interpreter.setEngine(Interpreter.Engine.BYTECODE_VM);
+        assertTrue(interpreter.parse("def inc(x) { return x + 1; } twice(inc, 41);").isSuccess());
+        assertEquals(42.0, interpreter.evaluate().getResult());
+    }
+
+    @Test
+    @DisplayName("Test the compiler emits a listing for every instruction")
+    public void testDisassemble() {
+        Interpreter interpreter = new Interpreter();
+        Interpreter.ParseResult parseResult = interpreter.parse("let a = 1; a + 2;");
+        Program program = parseResult.getAst();
+
+        Chunk chunk = new BytecodeCompiler().compile(program);
+        String listing = chunk.disassemble();
+        assertTrue(listing.contains("ENTER_PROGRAM"), listing);
+        assertTrue(listing.contains("DEFINE_SLOT"), listing);
+        assertTrue(listing.contains("LOAD_SLOT 0 0"), listing);
+        assertTrue(listing.contains("ADD"), listing);
+        assertTrue(listing.endsWith("RETURN\n"), listing);
+    }
+
+    private Interpreter.EvaluationResult evaluate(String source, Interpreter.Engine engine) {
+        return evaluate(source, new ResourceQuota(), engine);
+    }
+
+    private Interpreter.EvaluationResult evaluate(String source, ResourceQuota quota, Interpreter.Engine engine) {
+        Interpreter interpreter = new Interpreter(quota);
+        interpreter.setEngine(engine);
+        assertTrue(interpreter.parse(source).isSuccess(), "Parsing should succeed");
+        return interpreter.evaluate();
+    }
+
+    private void assertSameResult(String source, String expected) {
+        Interpreter.EvaluationResult treeResult = evaluate(source, Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult vmResult = evaluate(source, Interpreter.Engine.BYTECODE_VM);
+
+        assertTrue(vmResult.isSuccess(), "Evaluation should succeed: " + Interpreter.formatErrors(vmResult.getErrors()));
+        assertEquals(String.valueOf(treeResult.getResult()), String.valueOf(vmResult.getResult()));
+        assertEquals(expected, String.valueOf(vmResult.getResult()));
+    }
+
+    private void assertSameError(String source, String expected) {
+        assertSameError(new ResourceQuota(), source, expected);
+    }
+
+    private void assertSameError(ResourceQuota quota, String source, String expected) {
+        Interpreter.EvaluationResult treeResult = evaluate(source, quota, Interpreter.Engine.TREE_WALKER);
+        Interpreter.EvaluationResult vmResult = evaluate(source, quota, Interpreter.Engine.BYTECODE_VM);
+
+        assertFalse(vmResult.isSuccess(), "Evaluation should fail");
+        assertEquals(Interpreter.formatErrors(treeResult.getErrors()), Interpreter.formatErrors(vmResult.getErrors()));
+        assertTrue(vmResult.getErrors().get(0).getMessage().contains(expected),
+                "Unexpected error: " + vmResult.getErrors().get(0).getMessage());
+    }
+}